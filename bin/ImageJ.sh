@@ -90,6 +90,7 @@ ij_options=
 main_class=net.imagej.Main
 dashdash=f
 dry_run=
+cds=auto
 needs_tools_jar=
 CLASSPATH=
 
@@ -115,6 +116,11 @@ General options:
 	show the command line but do not run anything
 --debugger=<port>[,suspend=(y|n)]
 	start up in debug mode, ready to be attached to
+--generate-cds
+	train a class data sharing archive (Java 13+) by launching ImageJ
+	headlessly; later launches use it while the jars are unchanged
+--no-cds
+	do not use the class data sharing archive
 
 Options to run programs other than ImageJ:
 --jython
@@ -137,6 +143,12 @@ EOF
 	?,--dry-run)
 		dry_run=t
 		;;
+	?,--generate-cds)
+		cds=generate
+		;;
+	?,--no-cds)
+		cds=
+		;;
 	?,--cp=*)
 		add_classpath "${1#--cp=}"
 		;;
@@ -264,6 +276,74 @@ discover_jar () {
 	head -n 1
 }
 
+# The class data sharing archive only covers classes loaded from the class
+# path, so launches using it bypass the ClassLauncher and put the jars on the
+# class path directly. Like the ClassLauncher, this includes the jars in
+# subdirectories of jars/ and plugins/. The archive is only used while the
+# Java version and the jars match those it was trained with.
+CDS_ARCHIVE="$IMAGEJ_ROOT/cache/imagej.jsa"
+
+cds_classpath () {
+	for dir in "$IMAGEJ_ROOT"/jars "$IMAGEJ_ROOT"/plugins
+	do
+		test -d "$dir" &&
+		find -L "$dir" -type f -name '*.jar' | sort
+	done
+}
+
+cds_fingerprint () {
+	{
+		java -version 2>&1
+		cds_classpath |
+		while read path
+		do
+			ls -lnL "$path"
+		done
+	} | cksum
+}
+
+case "$main_class,$cds" in
+net.imagej.Main,generate)
+	test -n "$dry_run" || {
+		mkdir -p "$IMAGEJ_ROOT/cache" &&
+		rm -f "$CDS_ARCHIVE" "$CDS_ARCHIVE.id"
+	} || exit
+	first_java_options="$first_java_options -Djava.awt.headless=true"
+	first_java_options="$first_java_options -XX:ArchiveClassesAtExit=`sq_quote "$CDS_ARCHIVE"`"
+	case "$ij_options" in
+	*[!\ ]*)
+		;;
+	*)
+		ij_options=--headless
+		;;
+	esac
+	;;
+net.imagej.Main,auto)
+	if test -f "$CDS_ARCHIVE" &&
+		test "`cat "$CDS_ARCHIVE.id" 2> /dev/null`" = "`cds_fingerprint`"
+	then
+		first_java_options="$first_java_options -Xshare:auto"
+		first_java_options="$first_java_options -XX:SharedArchiveFile=`sq_quote "$CDS_ARCHIVE"`"
+	else
+		cds=
+	fi
+	;;
+*)
+	cds=
+	;;
+esac
+
+test -z "$cds" || {
+	save_ifs="$IFS"
+	IFS='
+'
+	for path in `cds_classpath`
+	do
+		add_classpath "$path"
+	done
+	IFS="$save_ifs"
+}
+
 test -z "$needs_tools_jar" || {
 	add_classpath "`discover_tools_jar`"
 	case "$main_class" in
@@ -275,13 +355,15 @@ test -z "$needs_tools_jar" || {
 	esac
 }
 
-case "$main_class" in
-net.imagej.Main|ij.ImageJ)
+case "$cds,$main_class" in
+?*,*)
+	;;
+,net.imagej.Main|,ij.ImageJ)
 	ij_options="$main_class $ij_options"
 	main_class="net.imagej.launcher.ClassLauncher -ijjarpath jars/ -ijjarpath plugins/"
 	add_classpath "`discover_jar imagej-launcher`" "`discover_jar ij`" "`discover_jar javassist`"
 	;;
-org.apache.tools.ant.Main)
+,org.apache.tools.ant.Main)
 	for path in "$IMAGEJ_ROOT"/jars/ant*.jar
 	do
 		add_classpath "$path"
@@ -336,3 +418,14 @@ eval java $EXT_OPTION \
 	$first_java_options \
 	$java_options \
 	$main_class $ij_options
+status=$?
+
+case "$cds,$dry_run,$status" in
+generate,,0)
+	test -f "$CDS_ARCHIVE" &&
+	cds_fingerprint > "$CDS_ARCHIVE.id"
+	;;
+*)
+	exit $status
+	;;
+esac
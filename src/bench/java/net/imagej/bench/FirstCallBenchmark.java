@@ -0,0 +1,133 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.display.ColorTable;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of the first call to core services of a freshly
+ * created gateway, which includes any lazy initialization (e.g. op matching,
+ * format discovery) done by those services.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(3)
+@State(Scope.Thread)
+public class FirstCallBenchmark {
+
+	/** A synthetic image generated by SCIFIO's fake format. */
+	private static final String FAKE_IMAGE =
+		"synthetic&pixelType=uint16&lengths=512,512,16&axes=X,Y,Z.fake";
+
+	private File tiff;
+	private URL lut;
+	private Img<FloatType> image;
+
+	private ImageJ ij;
+
+	@Setup(Level.Trial)
+	public void createFiles() throws IOException {
+		final ImageJ setup = new ImageJ();
+		try {
+			final Dataset dataset = setup.dataset().create(new long[] { 512, 512 },
+				"bench", new AxisType[] { Axes.X, Axes.Y }, 16, false, false);
+			tiff = File.createTempFile("imagej-bench", ".tif");
+			tiff.deleteOnExit();
+			setup.scifio().datasetIO().save(dataset, tiff.getAbsolutePath());
+			final Map<String, URL> luts = setup.lut().findLUTs();
+			lut = luts.isEmpty() ? null : luts.values().iterator().next();
+		}
+		finally {
+			setup.getContext().dispose();
+		}
+		image = ArrayImgs.floats(512, 512);
+	}
+
+	@Setup(Level.Invocation)
+	public void createGateway() {
+		ij = new ImageJ();
+	}
+
+	@TearDown(Level.Invocation)
+	public void dispose() {
+		ij.getContext().dispose();
+	}
+
+	@Benchmark
+	public Object opRun() {
+		return ij.op().run("filter.gauss", image, 2.0);
+	}
+
+	@Benchmark
+	public Dataset openTIFF() throws IOException {
+		return ij.scifio().datasetIO().open(tiff.getAbsolutePath());
+	}
+
+	@Benchmark
+	public Dataset openFake() throws IOException {
+		return ij.scifio().datasetIO().open(FAKE_IMAGE);
+	}
+
+	@Benchmark
+	public ColorTable loadLUT() throws IOException {
+		return lut == null ? null : ij.lut().loadLUT(lut);
+	}
+
+}
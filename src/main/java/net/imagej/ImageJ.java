@@ -34,17 +34,39 @@
 import io.scif.SCIFIO;
 import io.scif.SCIFIOService;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import net.imagej.animation.AnimationService;
 import net.imagej.app.ImageJApp;
+import net.imagej.cache.BlockCacheService;
+import net.imagej.chunked.ChunkedIOService;
 import net.imagej.display.ImageDisplayService;
 import net.imagej.display.OverlayService;
 import net.imagej.display.ScreenCaptureService;
 import net.imagej.display.WindowService;
 import net.imagej.lut.LUTService;
+import net.imagej.mapped.MappedDatasetService;
+import net.imagej.memory.MemoryService;
+import net.imagej.metrics.MetricsService;
 import net.imagej.notebook.NotebookService;
+import net.imagej.opcache.OpHandleService;
+import net.imagej.opcache.OpMemoService;
 import net.imagej.ops.OpService;
+import net.imagej.parallel.ParallelOpService;
+import net.imagej.prefetch.PrefetchService;
+import net.imagej.pyramid.PyramidService;
+import net.imagej.rawio.RawIOService;
 import net.imagej.render.RenderingService;
 import net.imagej.sampler.SamplerService;
+import net.imagej.startup.PluginIndexCache;
+import net.imagej.startup.ServiceInitializer;
+import net.imagej.startup.ServiceProfile;
+import net.imagej.stats.SummaryService;
+import net.imagej.stream.StreamService;
+import net.imagej.thumbnail.ThumbnailService;
 import net.imagej.updater.UpdateService;
 import net.imagej.updater.UploaderService;
 
@@ -52,7 +74,10 @@
 import org.scijava.Context;
 import org.scijava.Gateway;
 import org.scijava.plugin.Plugin;
+import org.scijava.plugin.PluginIndex;
 import org.scijava.service.SciJavaService;
+import org.scijava.service.Service;
+import org.scijava.service.ServiceHelper;
 
 /**
  * Main entry point into ImageJ. This class enables working with ImageJ services
@@ -67,15 +92,70 @@ public class ImageJ extends AbstractGateway {
 	/** SCIFIO gateway instance, for access to SCIFIO services. */
 	private SCIFIO scifio;
 
+	/** Whether services are instantiated on demand, rather than up front. */
+	private final boolean lazy;
+
+	/** Whether the SCIFIO services have been loaded, when in lazy mode. */
+	private volatile boolean scifioLoaded;
+
+	/** The set of services this gateway was created with. */
+	private final ServiceProfile profile;
+
 	// -- Constructors --
 
 	/**
 	 * Creates a new ImageJ application context with all ImageJ, SCIFIO and
 	 * SciJava services.
+	 * <p>
+	 * If the {@value ServiceProfile#PROFILE_PROPERTY} system property names
+	 * another {@link ServiceProfile}, only the services of that profile are
+	 * created instead.
+	 * </p>
 	 */
 	public ImageJ() {
-		this(new Context(SciJavaService.class, SCIFIOService.class,
-			ImageJService.class));
+		this(ServiceProfile.fromSystemProperties());
+	}
+
+	/**
+	 * Creates a new ImageJ application context with the services of the given
+	 * profile.
+	 * <p>
+	 * Accessors of this gateway for services which are not part of the profile
+	 * (e.g. {@link #window()} for {@link ServiceProfile#HEADLESS_COMPUTE}) throw
+	 * an {@link IllegalStateException}.
+	 * </p>
+	 */
+	public ImageJ(final ServiceProfile profile) {
+		this(createContext(false, profile), false, profile);
+	}
+
+	/**
+	 * Creates a new ImageJ application context.
+	 * <p>
+	 * If {@code lazy} is false, all ImageJ, SCIFIO and SciJava services are
+	 * created immediately, the same as {@link #ImageJ()}. Otherwise, only the
+	 * SciJava services are created up front, and each ImageJ or SCIFIO service
+	 * is instantiated the first time it is requested from this gateway, e.g.
+	 * via {@link #op()} or {@link #scifio()}.
+	 * </p>
+	 * <p>
+	 * Note that lazily created services are only visible to code which obtains
+	 * them through this gateway (or which runs after they have been created);
+	 * lazy mode is intended for headless library use, not for launching the
+	 * full user interface.
+	 * </p>
+	 * <p>
+	 * If the {@value PluginIndexCache#CACHE_PROPERTY} system property is set,
+	 * plugins are discovered via a {@link PluginIndexCache} rather than by
+	 * reading the annotation index of every JAR on the class path. If the
+	 * {@value ServiceInitializer#PARALLEL_PROPERTY} system property is set (and
+	 * {@code lazy} is false), independent services are initialized concurrently
+	 * by a {@link ServiceInitializer}.
+	 * </p>
+	 */
+	public ImageJ(final boolean lazy) {
+		this(createContext(lazy, ServiceProfile.FULL), lazy, //
+			ServiceProfile.FULL);
 	}
 
 	/**
@@ -85,13 +165,78 @@ public ImageJ() {
 	 * @see Context
 	 */
 	public ImageJ(final Context context) {
+		this(context, false);
+	}
+
+	/**
+	 * Creates a new ImageJ application context which wraps the given existing
+	 * SciJava context, optionally instantiating missing services on demand.
+	 * 
+	 * @see #ImageJ(boolean)
+	 */
+	public ImageJ(final Context context, final boolean lazy) {
+		this(context, lazy, ServiceProfile.FULL);
+	}
+
+	/**
+	 * Creates a new ImageJ application context which wraps the given existing
+	 * SciJava context, whose services were created for the given profile.
+	 * 
+	 * @see #ImageJ(ServiceProfile)
+	 */
+	public ImageJ(final Context context, final ServiceProfile profile) {
+		this(context, false, profile);
+	}
+
+	private ImageJ(final Context context, final boolean lazy,
+		final ServiceProfile profile)
+	{
 		super(ImageJApp.NAME, context);
+		this.lazy = lazy;
+		this.profile = profile;
 		scifio = new SCIFIO(context);
 	}
 
+	// -- ImageJ methods --
+
+	/** Gets whether this gateway instantiates services on demand. */
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	/** Gets the set of services this gateway was created with. */
+	public ServiceProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Creates a new gateway with its own application context, containing the
+	 * same services as this one.
+	 * <p>
+	 * The new context gets a copy of this context's plugin index, so plugins
+	 * are not discovered again, and this context's index is left untouched; its
+	 * services are new instances, and so do not share any state (open datasets,
+	 * displays, etc.) with this gateway's services.
+	 * </p>
+	 */
+	public ImageJ fork() {
+		final Context context = getContext();
+		final List<Class<? extends Service>> serviceClasses = new ArrayList<>();
+		for (final Service service : context.getServiceIndex().getAll()) {
+			serviceClasses.add(service.getClass());
+		}
+		// NB: The Context constructor discovers plugins into the index it is
+		// given; an index without a plugin finder discovers nothing.
+		final PluginIndex pluginIndex = new PluginIndex(null);
+		pluginIndex.addAll(context.getPluginIndex().getAll());
+		return new ImageJ(new Context(serviceClasses, pluginIndex), lazy,
+			profile);
+	}
+
 	// -- ImageJ methods - gateways --
 
 	public SCIFIO scifio() {
+		if (lazy && !scifioLoaded) loadSCIFIOServices();
 		return scifio;
 	}
 
@@ -106,6 +251,25 @@ public AnimationService animation() {
 		return get(AnimationService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link BlockCacheService}.
+	 *
+	 * @return The {@link BlockCacheService} of this application context.
+	 */
+	public BlockCacheService blockCache() {
+		return get(BlockCacheService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link ChunkedIOService}, which saves
+	 * datasets as blocks compressed and written in parallel.
+	 *
+	 * @return The {@link ChunkedIOService} of this application context.
+	 */
+	public ChunkedIOService chunkedIO() {
+		return get(ChunkedIOService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link DatasetService}.
 	 *
@@ -133,6 +297,36 @@ public LUTService lut() {
 		return get(LUTService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link MappedDatasetService}, which
+	 * creates and opens datasets backed by memory-mapped files.
+	 *
+	 * @return The {@link MappedDatasetService} of this application context.
+	 */
+	public MappedDatasetService mappedDataset() {
+		return get(MappedDatasetService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link MemoryService}, which keeps the
+	 * memory held by datasets and caches within a budget.
+	 *
+	 * @return The {@link MemoryService} of this application context.
+	 */
+	public MemoryService memory() {
+		return get(MemoryService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link MetricsService}, which collects
+	 * runtime counters, timers and gauges and publishes them over JMX.
+	 *
+	 * @return The {@link MetricsService} of this application context.
+	 */
+	public MetricsService metrics() {
+		return get(MetricsService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link NotebookService}.
 	 *
@@ -151,6 +345,26 @@ public OpService op() {
 		return get(OpService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link OpHandleService}, which caches
+	 * op matches for repeated runs.
+	 *
+	 * @return The {@link OpHandleService} of this application context.
+	 */
+	public OpHandleService opHandle() {
+		return get(OpHandleService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link OpMemoService}, which memoizes
+	 * the results of deterministic ops.
+	 *
+	 * @return The {@link OpMemoService} of this application context.
+	 */
+	public OpMemoService opMemo() {
+		return get(OpMemoService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link OverlayService}.
 	 *
@@ -160,6 +374,46 @@ public OverlayService overlay() {
 		return get(OverlayService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link ParallelOpService}, which runs
+	 * pixelwise and neighborhood operations over chunks in parallel.
+	 *
+	 * @return The {@link ParallelOpService} of this application context.
+	 */
+	public ParallelOpService parallel() {
+		return get(ParallelOpService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link PrefetchService}, which loads
+	 * planes ahead of animation playback.
+	 *
+	 * @return The {@link PrefetchService} of this application context.
+	 */
+	public PrefetchService prefetch() {
+		return get(PrefetchService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link PyramidService}, which provides
+	 * multi-resolution pyramids for rendering zoomed-out views.
+	 *
+	 * @return The {@link PyramidService} of this application context.
+	 */
+	public PyramidService pyramid() {
+		return get(PyramidService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link RawIOService}, which reads the
+	 * planes of uncompressed files straight into dataset storage.
+	 *
+	 * @return The {@link RawIOService} of this application context.
+	 */
+	public RawIOService rawIO() {
+		return get(RawIOService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link RenderingService}.
 	 *
@@ -187,6 +441,36 @@ public ScreenCaptureService screenCapture() {
 		return get(ScreenCaptureService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link StreamService}, which streams
+	 * images larger than memory plane by plane through ops.
+	 *
+	 * @return The {@link StreamService} of this application context.
+	 */
+	public StreamService stream() {
+		return get(StreamService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link SummaryService}, which computes
+	 * streaming statistics and histograms of datasets, cached per plane.
+	 *
+	 * @return The {@link SummaryService} of this application context.
+	 */
+	public SummaryService summary() {
+		return get(SummaryService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link ThumbnailService}, which renders
+	 * dataset planes through color tables without per-pixel allocation.
+	 *
+	 * @return The {@link ThumbnailService} of this application context.
+	 */
+	public ThumbnailService thumbnail() {
+		return get(ThumbnailService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link UpdateService}.
 	 *
@@ -216,8 +500,65 @@ public WindowService window() {
 
 	// -- Gateway methods --
 
+	@Override
+	public <S extends Service> S get(final Class<S> serviceClass) {
+		if (lazy) loadService(serviceClass);
+		else if (profile != ServiceProfile.FULL && //
+			getContext().getService(serviceClass) == null)
+		{
+			throw new IllegalStateException(serviceClass.getSimpleName() +
+				" is not available in the '" + profile.getId() +
+				"' service profile");
+		}
+		return super.get(serviceClass);
+	}
+
 	@Override
 	public String getShortName() {
 		return "ij";
 	}
+
+	// -- Helper methods --
+
+	private static Context createContext(final boolean lazy,
+		final ServiceProfile profile)
+	{
+		if (lazy) {
+			return new Context(Arrays.<Class<? extends Service>> asList(
+				SciJavaService.class), PluginIndexCache.createPluginIndex());
+		}
+		final int parallelism = //
+			ServiceInitializer.parallelismFromSystemProperties();
+		if (parallelism > 1) {
+			return ServiceInitializer.createContext(null, parallelism, profile
+				.getServiceClasses());
+		}
+		return new Context(profile.getServiceClasses(), PluginIndexCache
+			.createPluginIndex());
+	}
+
+	/** Instantiates the given service, if it does not already exist. */
+	private <S extends Service> void loadService(final Class<S> serviceClass) {
+		final Context context = getContext();
+		if (context.getService(serviceClass) != null) return;
+		synchronized (context) {
+			if (context.getService(serviceClass) != null) return;
+			new ServiceHelper(context).loadService(serviceClass);
+		}
+	}
+
+	/**
+	 * Instantiates all SCIFIO services, since the {@link SCIFIO} gateway looks
+	 * up its services directly from the context.
+	 */
+	private void loadSCIFIOServices() {
+		final Context context = getContext();
+		synchronized (context) {
+			if (scifioLoaded) return;
+			new ServiceHelper(context, Collections
+				.<Class<? extends Service>> singletonList(SCIFIOService.class))
+					.loadServices();
+			scifioLoaded = true;
+		}
+	}
 }
@@ -31,6 +31,17 @@
 
 package net.imagej;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.imagej.startup.ServiceInitializer;
+import net.imagej.startup.ServiceProfile;
+import net.imagej.startup.StartupProfiler;
+
+import org.scijava.Context;
+
 /**
  * Launches ImageJ.
  * 
@@ -50,9 +61,86 @@ public static ImageJ launch(final String... args) {
 		return ij;
 	}
 
+	/**
+	 * Command line flag which enables the startup profiler. It may be given as
+	 * {@code --profile-startup=<prefix>} to choose where the report is written;
+	 * the default prefix is {@value #DEFAULT_PROFILE_PREFIX}.
+	 *
+	 * @see StartupProfiler
+	 */
+	public static final String PROFILE_STARTUP = "--profile-startup";
+
+	private static final String DEFAULT_PROFILE_PREFIX = "imagej-startup";
+
 	public static void main(final String... args) {
-		final ImageJ ij = new ImageJ();
-		ij.launch(args);
+		final List<String> argList = new ArrayList<>(Arrays.asList(args));
+		final String profilePrefix = option(argList, PROFILE_STARTUP,
+			DEFAULT_PROFILE_PREFIX);
+		final ImageJ ij = profilePrefix == null ? new ImageJ() : //
+			profiledImageJ(profilePrefix);
+		ij.launch(argList.toArray(new String[argList.size()]));
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Removes the given flag from the argument list, if present before any
+	 * {@code --} separator.
+	 *
+	 * @return The flag's value (after an equals sign), the default value if the
+	 *         flag was given without one, or null if the flag is absent.
+	 */
+	private static String option(final List<String> args, final String flag,
+		final String defaultValue)
+	{
+		for (int i = 0; i < args.size(); i++) {
+			final String arg = args.get(i);
+			if (arg.equals("--")) break;
+			if (arg.equals(flag)) {
+				args.remove(i);
+				return defaultValue;
+			}
+			if (arg.startsWith(flag + "=")) {
+				args.remove(i);
+				return arg.substring(flag.length() + 1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates the ImageJ gateway while recording plugin discovery, each
+	 * service's construction and initialization, and the construction of the
+	 * gateway itself, then writes the startup report.
+	 */
+	private static ImageJ profiledImageJ(final String prefix) {
+		final StartupProfiler profiler = new StartupProfiler();
+		final ServiceProfile serviceProfile = //
+			ServiceProfile.fromSystemProperties();
+		final Context context = ServiceInitializer.createContext(profiler,
+			ServiceInitializer.parallelismFromSystemProperties(), serviceProfile
+				.getServiceClasses());
+
+		// NB: Includes construction of the SCIFIO gateway.
+		final StartupProfiler.Span span = profiler.start("gateway", ImageJ.class
+			.getName());
+		final ImageJ ij;
+		try {
+			ij = new ImageJ(context, serviceProfile);
+		}
+		finally {
+			profiler.stop(span);
+		}
+
+		try {
+			profiler.write(prefix);
+			ij.log().info("Startup profile written to " + prefix + ".json and " +
+				prefix + ".collapsed");
+		}
+		catch (final IOException exc) {
+			ij.log().error("Could not write startup profile", exc);
+		}
+		return ij;
 	}
 
 }
@@ -0,0 +1,203 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.command.CommandService;
+import org.scijava.console.AbstractConsoleArgument;
+import org.scijava.console.ConsoleArgument;
+import org.scijava.log.LogService;
+import org.scijava.module.ModuleInfo;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.script.ScriptInfo;
+import org.scijava.ui.UIService;
+
+/**
+ * Handles the {@code --batch} argument, which runs a script or command once
+ * per input file within this context:
+ *
+ * <pre>
+ * --batch &lt;script or command&gt; &lt;files&gt; [options] [name=value...]
+ * </pre>
+ * <p>
+ * The files are given as a glob (e.g. {@code 'data/*.tif'}) or as a manifest
+ * file prefixed with {@code @}; see {@link BatchRunner#listFiles(String)}.
+ * Other inputs of the script or command can be set with
+ * {@code <name>=<value>} arguments. The options are:
+ * </p>
+ * <ul>
+ * <li>{@code --input=<name>}: the input to which each file is assigned, if
+ * the script or command has more than one file input.</li>
+ * <li>{@code --threads=<n>}: how many files to process concurrently.</li>
+ * <li>{@code --in-flight=<n>}: how many files may be queued or processed at
+ * once.</li>
+ * <li>{@code --retries=<n>}: how many more times to try a file which
+ * fails.</li>
+ * <li>{@code --results=<file>}: where to write a tab-separated record per
+ * file; by default, the records are logged.</li>
+ * </ul>
+ *
+ * @see BatchRunner
+ */
+@Plugin(type = ConsoleArgument.class)
+public class BatchArgument extends AbstractConsoleArgument {
+
+	private static final String FLAG = "--batch";
+
+	@Parameter(required = false)
+	private UIService uiService;
+
+	@Parameter
+	private CommandService commandService;
+
+	@Parameter
+	private LogService log;
+
+	// -- ConsoleArgument methods --
+
+	@Override
+	public void handle(final LinkedList<String> args) {
+		if (!supports(args)) return;
+		args.removeFirst();
+		if (args.size() < 2) {
+			log.error("Usage: " + FLAG + " <script or command> <files>");
+			return;
+		}
+		final String target = args.removeFirst();
+		final String spec = args.removeFirst();
+
+		String fileInput = null;
+		String results = null;
+		Integer threads = null, inFlight = null, retries = null;
+		final LinkedList<String> inputs = new LinkedList<>();
+		try {
+			while (!args.isEmpty()) {
+				final String arg = args.getFirst();
+				if (arg.startsWith("--input=")) fileInput = value(arg);
+				else if (arg.startsWith("--results=")) results = value(arg);
+				else if (arg.startsWith("--threads=")) threads = number(arg);
+				else if (arg.startsWith("--in-flight=")) inFlight = number(arg);
+				else if (arg.startsWith("--retries=")) retries = number(arg);
+				else if (!arg.startsWith("-") && arg.indexOf('=') > 0) inputs.add(arg);
+				else break;
+				args.removeFirst();
+			}
+		}
+		catch (final NumberFormatException exc) {
+			log.error("Invalid number: " + args.getFirst());
+			return;
+		}
+
+		// NB: Batch runs never show a user interface.
+		if (uiService != null) uiService.setHeadless(true);
+
+		final ModuleInfo info = moduleInfo(target);
+		if (info == null) {
+			log.error("No such script or command: " + target);
+			return;
+		}
+		try {
+			final BatchRunner runner = new BatchRunner(getContext(), info,
+				fileInput);
+			for (final String input : inputs) {
+				final int equals = input.indexOf('=');
+				runner.setInput(input.substring(0, equals), input.substring(equals +
+					1));
+			}
+			if (threads != null) runner.setParallelism(threads);
+			if (inFlight != null) runner.setMaxInFlight(inFlight);
+			if (retries != null) runner.setRetries(retries);
+
+			final List<File> files = BatchRunner.listFiles(spec);
+			log.info("Processing " + files.size() + " files with " + info
+				.getTitle());
+			final AtomicInteger failed = new AtomicInteger();
+			if (results == null) {
+				runner.run(files, result -> {
+					if (!result.isSuccess()) failed.incrementAndGet();
+					log.info(result);
+				});
+			}
+			else {
+				try (final PrintWriter out = new PrintWriter(results,
+					StandardCharsets.UTF_8.name()))
+				{
+					runner.run(files, result -> {
+						if (!result.isSuccess()) failed.incrementAndGet();
+						out.println(result);
+					});
+				}
+			}
+			log.info("Processed " + files.size() + " files; " + failed.get() +
+				" failed");
+		}
+		catch (final IllegalArgumentException | IOException exc) {
+			log.error(exc.getMessage());
+		}
+		catch (final InterruptedException exc) {
+			log.error("Batch run interrupted");
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// -- Typed methods --
+
+	@Override
+	public boolean supports(final LinkedList<String> args) {
+		return args != null && !args.isEmpty() && args.getFirst().equals(FLAG);
+	}
+
+	// -- Helper methods --
+
+	private ModuleInfo moduleInfo(final String target) {
+		final File file = new File(target);
+		if (file.isFile()) return new ScriptInfo(getContext(), file);
+		return commandService.getCommand(target);
+	}
+
+	private static String value(final String arg) {
+		return arg.substring(arg.indexOf('=') + 1);
+	}
+
+	private static int number(final String arg) {
+		return Integer.parseInt(value(arg));
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.batch;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of processing one input file of a batch run.
+ *
+ * @see BatchRunner
+ */
+public class BatchResult {
+
+	private final File file;
+	private final int attempts;
+	private final long millis;
+	private final Map<String, String> outputs;
+	private final String failure;
+	private final Throwable error;
+
+	BatchResult(final File file, final int attempts, final long millis,
+		final Map<String, String> outputs, final String failure,
+		final Throwable error)
+	{
+		this.file = file;
+		this.attempts = attempts;
+		this.millis = millis;
+		this.outputs = outputs == null ? Collections.<String, String> emptyMap()
+			: Collections.unmodifiableMap(outputs);
+		this.failure = failure;
+		this.error = error;
+	}
+
+	// -- BatchResult methods --
+
+	/** Gets the input file which was processed. */
+	public File getFile() {
+		return file;
+	}
+
+	/** Gets whether processing the file eventually succeeded. */
+	public boolean isSuccess() {
+		return failure == null;
+	}
+
+	/** Gets how many times processing the file was attempted. */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/** Gets the total time spent on the file, including retries. */
+	public long getMillis() {
+		return millis;
+	}
+
+	/**
+	 * Gets the outputs of the successful run, as strings. Output objects
+	 * themselves are not retained, so that results of large batches do not hold
+	 * on to images.
+	 */
+	public Map<String, String> getOutputs() {
+		return outputs;
+	}
+
+	/** Gets why the last attempt failed, or null if it succeeded. */
+	public String getFailure() {
+		return failure;
+	}
+
+	/** Gets the exception thrown by the last attempt, if any. */
+	public Throwable getError() {
+		return error;
+	}
+
+	// -- Object methods --
+
+	@Override
+	public String toString() {
+		return (isSuccess() ? "OK" : "FAILED") + "\t" + file + "\t" + attempts +
+			"\t" + millis + "\t" + (isSuccess() ? outputs : failure);
+	}
+
+}
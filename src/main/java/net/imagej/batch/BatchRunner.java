@@ -0,0 +1,339 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.scijava.Cancelable;
+import org.scijava.Context;
+import org.scijava.log.LogService;
+import org.scijava.module.Module;
+import org.scijava.module.ModuleInfo;
+import org.scijava.module.ModuleItem;
+import org.scijava.module.ModuleService;
+import org.scijava.plugin.Parameter;
+
+/**
+ * Runs a script or command once per input file, concurrently, within a
+ * single (warm) context.
+ * <p>
+ * Each file is processed by its own module instance, with the file assigned
+ * to one of the module's inputs and any other inputs set to fixed values. The
+ * files are fanned out across a work-stealing pool; at most a fixed number of
+ * files are in flight at any one time, so memory use stays bounded regardless
+ * of the number of files. Failed files may be retried, and the outcome of each
+ * file is reported as a {@link BatchResult} as soon as it is known.
+ * </p>
+ */
+public class BatchRunner {
+
+	@Parameter
+	private ModuleService moduleService;
+
+	@Parameter
+	private LogService log;
+
+	private final ModuleInfo info;
+	private final String fileInput;
+	private final Map<String, Object> inputs = new HashMap<>();
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int maxInFlight;
+	private int retries;
+
+	/**
+	 * Creates a batch runner for the given module.
+	 *
+	 * @param fileInput The name of the input to which each file is assigned, or
+	 *          null to use the module's only {@link File} input.
+	 * @throws IllegalArgumentException if there is no such input.
+	 */
+	public BatchRunner(final Context context, final ModuleInfo info,
+		final String fileInput)
+	{
+		context.inject(this);
+		this.info = info;
+		this.fileInput = fileInput == null ? findFileInput(info) : fileInput;
+		if (info.getInput(this.fileInput) == null) {
+			throw new IllegalArgumentException("No such input: " + this.fileInput);
+		}
+	}
+
+	// -- BatchRunner methods --
+
+	/** Gets the name of the input to which each file is assigned. */
+	public String getFileInput() {
+		return fileInput;
+	}
+
+	/**
+	 * Sets an input to the same value for every file. String values are
+	 * converted to the input's type, as for any module execution.
+	 */
+	public void setInput(final String name, final Object value) {
+		inputs.put(name, value);
+	}
+
+	/** Sets the number of files to process concurrently. */
+	public void setParallelism(final int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Sets the maximum number of files which are queued or being processed at
+	 * any one time. By default, this is twice the parallelism.
+	 */
+	public void setMaxInFlight(final int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/** Sets how many more times processing a file is tried if it fails. */
+	public void setRetries(final int retries) {
+		this.retries = Math.max(0, retries);
+	}
+
+	/**
+	 * Processes the given files, reporting each result to the given listener.
+	 * Results are reported in order of completion, one at a time.
+	 */
+	public void run(final Iterable<File> files,
+		final Consumer<BatchResult> listener) throws InterruptedException
+	{
+		run(files, (result, index) -> listener.accept(result));
+	}
+
+	/**
+	 * Processes the given files, returning the results in input order. A file
+	 * listed more than once is processed, and has a result, each time.
+	 */
+	public List<BatchResult> run(final List<File> files)
+		throws InterruptedException
+	{
+		final BatchResult[] results = new BatchResult[files.size()];
+		run(files, (result, index) -> results[index] = result);
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Lists the files described by the given specification: either a manifest
+	 * file prefixed with {@code @}, listing one path per line (relative paths
+	 * are resolved against the manifest's directory; empty lines and lines
+	 * starting with {@code #} are ignored), or a path which may contain glob
+	 * patterns (e.g. {@code data/**}{@code /*.tif}).
+	 */
+	public static List<File> listFiles(final String spec) throws IOException {
+		if (spec.startsWith("@")) {
+			return readManifest(new File(spec.substring(1)));
+		}
+
+		int glob = -1;
+		for (final char c : "*?[{".toCharArray()) {
+			final int index = spec.indexOf(c);
+			if (index >= 0 && (glob < 0 || index < glob)) glob = index;
+		}
+		if (glob < 0) return Collections.singletonList(new File(spec));
+
+		final int slash = Math.max(spec.lastIndexOf('/', glob), //
+			spec.lastIndexOf(File.separatorChar, glob));
+		final Path base = Paths.get(slash < 0 ? "" : //
+			spec.substring(0, slash + 1));
+		final PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" +
+			spec.substring(slash + 1));
+		try (final Stream<Path> paths = Files.walk(base)) {
+			return paths.filter(Files::isRegularFile) //
+				.filter(path -> matcher.matches(base.relativize(path))) //
+				.sorted().map(Path::toFile).collect(Collectors.toList());
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Processes the given files, reporting each result, along with the index of
+	 * its file, to the given listener.
+	 */
+	private void run(final Iterable<File> files,
+		final ObjIntConsumer<BatchResult> listener) throws InterruptedException
+	{
+		final int permits = maxInFlight > 0 ? maxInFlight : 2 * parallelism;
+		final Semaphore inFlight = new Semaphore(permits);
+		final ExecutorService pool = Executors.newWorkStealingPool(parallelism);
+		try {
+			int index = 0;
+			for (final File file : files) {
+				final int i = index++;
+				inFlight.acquire();
+				pool.execute(() -> {
+					try {
+						final BatchResult result = process(file);
+						synchronized (listener) {
+							listener.accept(result, i);
+						}
+					}
+					finally {
+						inFlight.release();
+					}
+				});
+			}
+			// NB: Wait for the remaining files to be processed.
+			inFlight.acquire(permits);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private BatchResult process(final File file) {
+		final long start = System.currentTimeMillis();
+		Map<String, String> outputs = null;
+		String failure = null;
+		Throwable error = null;
+		int attempts = 0;
+		while (attempts <= retries) {
+			attempts++;
+			error = null;
+			try {
+				final Module module = runModule(file);
+				if (module instanceof Cancelable && ((Cancelable) module)
+					.isCanceled())
+				{
+					failure = "Canceled: " + ((Cancelable) module).getCancelReason();
+				}
+				else {
+					outputs = outputs(module);
+					failure = null;
+					break;
+				}
+			}
+			catch (final InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				failure = "Interrupted";
+				error = exc;
+				break;
+			}
+			catch (final Throwable t) {
+				error = t instanceof ExecutionException && t.getCause() != null ? t
+					.getCause() : t;
+				failure = error.getMessage() == null ? error.getClass().getName()
+					: error.getMessage();
+			}
+			if (attempts <= retries) {
+				log.warn("Retrying " + file + " after failure: " + failure);
+			}
+		}
+		return new BatchResult(file, attempts, System.currentTimeMillis() - start,
+			outputs, failure, error);
+	}
+
+	private Module runModule(final File file) throws InterruptedException,
+		ExecutionException
+	{
+		final Module module = moduleService.createModule(info);
+		if (module == null) {
+			throw new IllegalStateException("Cannot instantiate " + info
+				.getTitle());
+		}
+		final Map<String, Object> moduleInputs = new HashMap<>(inputs);
+		moduleInputs.put(fileInput, file);
+		return moduleService.run(module, true, moduleInputs).get();
+	}
+
+	private static Map<String, String> outputs(final Module module) {
+		final Map<String, String> outputs = new LinkedHashMap<>();
+		for (final Map.Entry<String, Object> entry : module.getOutputs()
+			.entrySet())
+		{
+			outputs.put(entry.getKey(), String.valueOf(entry.getValue()));
+		}
+		return outputs;
+	}
+
+	private static String findFileInput(final ModuleInfo info) {
+		String name = null;
+		for (final ModuleItem<?> item : info.inputs()) {
+			if (!File.class.equals(item.getType())) continue;
+			if (name != null) {
+				throw new IllegalArgumentException(info.getTitle() +
+					" has more than one file input; specify which one to use");
+			}
+			name = item.getName();
+		}
+		if (name == null) {
+			throw new IllegalArgumentException(info.getTitle() +
+				" has no file input");
+		}
+		return name;
+	}
+
+	private static List<File> readManifest(final File manifest)
+		throws IOException
+	{
+		final File dir = manifest.getAbsoluteFile().getParentFile();
+		final List<File> files = new ArrayList<>();
+		try (final BufferedReader in = Files.newBufferedReader(manifest.toPath(),
+			StandardCharsets.UTF_8))
+		{
+			while (true) {
+				final String line = in.readLine();
+				if (line == null) break;
+				final String path = line.trim();
+				if (path.isEmpty() || path.startsWith("#")) continue;
+				final File file = new File(path);
+				files.add(file.isAbsolute() ? file : new File(dir, path));
+			}
+		}
+		return files;
+	}
+
+}
@@ -0,0 +1,537 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A size-bounded cache of decoded pixel blocks, each a primitive array.
+ * <p>
+ * Blocks are kept on the heap up to a given number of bytes. Blocks evicted
+ * from the heap may be kept in a second, off-heap tier (direct buffers) up to
+ * another budget, from which they are restored by copying, which is still
+ * much cheaper than reading and decoding them again. Concurrent requests for
+ * the same missing block wait for a single load.
+ * </p>
+ * <p>
+ * Cached blocks are shared between all users of the cache, and must be
+ * treated as read-only.
+ * </p>
+ */
+public class BlockCache {
+
+	/** Strategy for choosing which block to evict from the heap. */
+	public enum Policy {
+
+		/** Evicts the least recently used block. */
+		LRU,
+
+		/**
+		 * Segmented LRU: blocks which were used more than once are protected
+		 * from eviction by blocks which were used only once, so that e.g. a
+		 * single pass over a large image does not flush the blocks which are
+		 * viewed repeatedly.
+		 */
+		SEGMENTED_LRU
+	}
+
+	/** Fraction of the heap budget available to protected blocks. */
+	private static final double PROTECTED_FRACTION = 0.8;
+
+	private final Policy policy;
+	private long heapBudget;
+	private long offHeapBudget;
+
+	/** Blocks on the heap; for {@link Policy#LRU}, all of them. */
+	private final LinkedHashMap<BlockKey, Object> probation = lruMap();
+
+	/** Blocks on the heap which were used more than once. */
+	private final LinkedHashMap<BlockKey, Object> protectedBlocks = lruMap();
+
+	private final LinkedHashMap<BlockKey, OffHeapBlock> offHeap = lruMap();
+
+	private final Map<BlockKey, FutureTask<Object>> loading = new HashMap<>();
+
+	/**
+	 * Number of times each source was invalidated, so that blocks whose load
+	 * started before an invalidation are not stored after it.
+	 */
+	private final Map<String, Long> generations = new HashMap<>();
+
+	/** Number of times the whole cache was cleared. */
+	private long epoch;
+
+	private long probationBytes, protectedBytes, offHeapBytes;
+	private long hits, offHeapHits, misses, evictions;
+
+	/**
+	 * Creates a new block cache.
+	 *
+	 * @param heapBudget Maximum number of bytes of blocks kept on the heap.
+	 * @param offHeapBudget Maximum number of bytes of blocks kept off the heap,
+	 *          or 0 for no off-heap tier.
+	 * @param policy The strategy for evicting blocks from the heap.
+	 */
+	public BlockCache(final long heapBudget, final long offHeapBudget,
+		final Policy policy)
+	{
+		this.heapBudget = heapBudget;
+		this.offHeapBudget = offHeapBudget;
+		this.policy = policy;
+	}
+
+	// -- BlockCache methods --
+
+	/**
+	 * Gets the block with the given key, loading it if it is not cached.
+	 *
+	 * @param loader Reads and decodes the block, as a primitive array.
+	 * @throws IOException if the block is not cached and cannot be loaded.
+	 */
+	public <A> A get(final BlockKey key, final Callable<A> loader)
+		throws IOException
+	{
+		final FutureTask<Object> task;
+		final boolean owner;
+		final long generation, startEpoch;
+		synchronized (this) {
+			generation = generation(key.getSource());
+			startEpoch = epoch;
+			final Object cached = lookup(key);
+			if (cached != null) return cast(cached);
+			misses++;
+			final FutureTask<Object> pending = loading.get(key);
+			owner = pending == null;
+			if (owner) {
+				task = new FutureTask<>(loader::call);
+				loading.put(key, task);
+			}
+			else task = pending;
+		}
+		if (owner) {
+			task.run();
+			synchronized (this) {
+				loading.remove(key, task);
+				final Object value = valueOf(task);
+				// NB: A block loaded across an invalidation may be stale; it is still
+				// returned to the callers which requested it before, but not cached.
+				if (value != null && startEpoch == epoch && generation == generation(
+					key.getSource())) store(key, value);
+			}
+		}
+		try {
+			return cast(task.get());
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted loading " + key);
+		}
+		catch (final ExecutionException exc) {
+			final Throwable cause = exc.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException("Cannot load " + key, cause);
+		}
+	}
+
+	/**
+	 * Removes all blocks of the given source from the cache, including those
+	 * being loaded.
+	 */
+	public synchronized void invalidate(final String source) {
+		generations.put(source, generation(source) + 1);
+		loading.keySet().removeIf(key -> key.getSource().equals(source));
+		for (final Iterator<Map.Entry<BlockKey, Object>> iter = probation
+			.entrySet().iterator(); iter.hasNext();)
+		{
+			final Map.Entry<BlockKey, Object> entry = iter.next();
+			if (!entry.getKey().getSource().equals(source)) continue;
+			probationBytes -= sizeOf(entry.getValue());
+			iter.remove();
+		}
+		for (final Iterator<Map.Entry<BlockKey, Object>> iter = protectedBlocks
+			.entrySet().iterator(); iter.hasNext();)
+		{
+			final Map.Entry<BlockKey, Object> entry = iter.next();
+			if (!entry.getKey().getSource().equals(source)) continue;
+			protectedBytes -= sizeOf(entry.getValue());
+			iter.remove();
+		}
+		for (final Iterator<Map.Entry<BlockKey, OffHeapBlock>> iter = offHeap
+			.entrySet().iterator(); iter.hasNext();)
+		{
+			final Map.Entry<BlockKey, OffHeapBlock> entry = iter.next();
+			if (!entry.getKey().getSource().equals(source)) continue;
+			offHeapBytes -= entry.getValue().size();
+			iter.remove();
+		}
+	}
+
+	/** Removes all blocks from the cache. */
+	public synchronized void clear() {
+		epoch++;
+		loading.clear();
+		probation.clear();
+		protectedBlocks.clear();
+		offHeap.clear();
+		probationBytes = protectedBytes = offHeapBytes = 0;
+	}
+
+	/** Gets the strategy for evicting blocks from the heap. */
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/** Gets the maximum number of bytes of blocks kept on the heap. */
+	public synchronized long getHeapBudget() {
+		return heapBudget;
+	}
+
+	/**
+	 * Sets the maximum number of bytes of blocks kept on the heap, evicting
+	 * blocks as needed.
+	 */
+	public synchronized void setHeapBudget(final long heapBudget) {
+		this.heapBudget = heapBudget;
+		trim();
+	}
+
+	/** Gets the maximum number of bytes of blocks kept off the heap. */
+	public synchronized long getOffHeapBudget() {
+		return offHeapBudget;
+	}
+
+	/**
+	 * Sets the maximum number of bytes of blocks kept off the heap, discarding
+	 * blocks as needed.
+	 */
+	public synchronized void setOffHeapBudget(final long offHeapBudget) {
+		this.offHeapBudget = offHeapBudget;
+		trimOffHeap();
+	}
+
+	/** Gets a snapshot of the cache's size and hit/miss counts. */
+	public synchronized Stats getStats() {
+		return new Stats(hits, offHeapHits, misses, evictions, probation.size() +
+			protectedBlocks.size(), probationBytes + protectedBytes, offHeap.size(),
+			offHeapBytes);
+	}
+
+	// -- Helper methods --
+
+	private long generation(final String source) {
+		final Long generation = generations.get(source);
+		return generation == null ? 0 : generation;
+	}
+
+	/** Finds a cached block, recording the hit and promoting it. */
+	private Object lookup(final BlockKey key) {
+		Object value = protectedBlocks.get(key);
+		if (value != null) {
+			hits++;
+			return value;
+		}
+		value = probation.get(key);
+		if (value != null) {
+			hits++;
+			if (policy == Policy.SEGMENTED_LRU) {
+				final long size = sizeOf(value);
+				probation.remove(key);
+				probationBytes -= size;
+				protectedBlocks.put(key, value);
+				protectedBytes += size;
+				trim();
+			}
+			return value;
+		}
+		final OffHeapBlock block = offHeap.remove(key);
+		if (block != null) {
+			offHeapHits++;
+			offHeapBytes -= block.size();
+			value = block.restore();
+			store(key, value);
+			return value;
+		}
+		return null;
+	}
+
+	private void store(final BlockKey key, final Object value) {
+		final long size = sizeOf(value);
+		if (size > heapBudget) return;
+		probation.put(key, value);
+		probationBytes += size;
+		trim();
+	}
+
+	/** Evicts blocks until the heap budget is met. */
+	private void trim() {
+		final long protectedBudget = (long) (heapBudget * PROTECTED_FRACTION);
+		while (protectedBytes > protectedBudget) {
+			// NB: Demoted blocks get another chance in the probation segment.
+			final Map.Entry<BlockKey, Object> eldest = eldest(protectedBlocks);
+			final long size = sizeOf(eldest.getValue());
+			protectedBlocks.remove(eldest.getKey());
+			protectedBytes -= size;
+			probation.put(eldest.getKey(), eldest.getValue());
+			probationBytes += size;
+		}
+		while (probationBytes + protectedBytes > heapBudget) {
+			final boolean fromProbation = !probation.isEmpty();
+			final Map.Entry<BlockKey, Object> eldest = eldest(fromProbation
+				? probation : protectedBlocks);
+			final long size = sizeOf(eldest.getValue());
+			if (fromProbation) {
+				probation.remove(eldest.getKey());
+				probationBytes -= size;
+			}
+			else {
+				protectedBlocks.remove(eldest.getKey());
+				protectedBytes -= size;
+			}
+			evictions++;
+			if (size <= offHeapBudget) {
+				offHeap.put(eldest.getKey(), new OffHeapBlock(eldest.getValue()));
+				offHeapBytes += size;
+				trimOffHeap();
+			}
+		}
+	}
+
+	/** Discards blocks until the off-heap budget is met. */
+	private void trimOffHeap() {
+		while (offHeapBytes > offHeapBudget) {
+			final Map.Entry<BlockKey, OffHeapBlock> eldest = eldest(offHeap);
+			offHeap.remove(eldest.getKey());
+			offHeapBytes -= eldest.getValue().size();
+		}
+	}
+
+	private static <V> LinkedHashMap<BlockKey, V> lruMap() {
+		return new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	private static <V> Map.Entry<BlockKey, V> eldest(
+		final LinkedHashMap<BlockKey, V> map)
+	{
+		return map.entrySet().iterator().next();
+	}
+
+	/** Gets the value of a completed task, or null if it failed. */
+	private static Object valueOf(final FutureTask<Object> task) {
+		try {
+			return task.get();
+		}
+		catch (final InterruptedException | ExecutionException exc) {
+			return null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <A> A cast(final Object value) {
+		return (A) value;
+	}
+
+	/** Gets the size in bytes of the given primitive array. */
+	private static long sizeOf(final Object array) {
+		if (array instanceof byte[]) return ((byte[]) array).length;
+		if (array instanceof short[]) return 2L * ((short[]) array).length;
+		if (array instanceof int[]) return 4L * ((int[]) array).length;
+		if (array instanceof float[]) return 4L * ((float[]) array).length;
+		if (array instanceof long[]) return 8L * ((long[]) array).length;
+		if (array instanceof double[]) return 8L * ((double[]) array).length;
+		throw new IllegalArgumentException("Not a primitive array: " + array
+			.getClass().getName());
+	}
+
+	// -- Helper classes --
+
+	/** A copy of a block in a direct buffer. */
+	private static class OffHeapBlock {
+
+		private final ByteBuffer buffer;
+		private final Class<?> type;
+		private final int length;
+
+		private OffHeapBlock(final Object array) {
+			type = array.getClass();
+			buffer = ByteBuffer.allocateDirect((int) sizeOf(array)).order(ByteOrder
+				.nativeOrder());
+			if (array instanceof byte[]) {
+				length = ((byte[]) array).length;
+				buffer.duplicate().put((byte[]) array);
+			}
+			else if (array instanceof short[]) {
+				length = ((short[]) array).length;
+				buffer.asShortBuffer().put((short[]) array);
+			}
+			else if (array instanceof int[]) {
+				length = ((int[]) array).length;
+				buffer.asIntBuffer().put((int[]) array);
+			}
+			else if (array instanceof float[]) {
+				length = ((float[]) array).length;
+				buffer.asFloatBuffer().put((float[]) array);
+			}
+			else if (array instanceof long[]) {
+				length = ((long[]) array).length;
+				buffer.asLongBuffer().put((long[]) array);
+			}
+			else {
+				length = ((double[]) array).length;
+				buffer.asDoubleBuffer().put((double[]) array);
+			}
+		}
+
+		private long size() {
+			return buffer.capacity();
+		}
+
+		private Object restore() {
+			if (type == byte[].class) {
+				final byte[] array = new byte[length];
+				buffer.duplicate().get(array);
+				return array;
+			}
+			if (type == short[].class) {
+				final short[] array = new short[length];
+				buffer.asShortBuffer().get(array);
+				return array;
+			}
+			if (type == int[].class) {
+				final int[] array = new int[length];
+				buffer.asIntBuffer().get(array);
+				return array;
+			}
+			if (type == float[].class) {
+				final float[] array = new float[length];
+				buffer.asFloatBuffer().get(array);
+				return array;
+			}
+			if (type == long[].class) {
+				final long[] array = new long[length];
+				buffer.asLongBuffer().get(array);
+				return array;
+			}
+			final double[] array = new double[length];
+			buffer.asDoubleBuffer().get(array);
+			return array;
+		}
+	}
+
+	/** A snapshot of a {@link BlockCache}'s size and hit/miss counts. */
+	public static class Stats {
+
+		private final long hits, offHeapHits, misses, evictions;
+		private final int heapBlocks, offHeapBlocks;
+		private final long heapBytes, offHeapBytes;
+
+		private Stats(final long hits, final long offHeapHits, final long misses,
+			final long evictions, final int heapBlocks, final long heapBytes,
+			final int offHeapBlocks, final long offHeapBytes)
+		{
+			this.hits = hits;
+			this.offHeapHits = offHeapHits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.heapBlocks = heapBlocks;
+			this.heapBytes = heapBytes;
+			this.offHeapBlocks = offHeapBlocks;
+			this.offHeapBytes = offHeapBytes;
+		}
+
+		/** Gets the number of requests served from the heap. */
+		public long hits() {
+			return hits;
+		}
+
+		/** Gets the number of requests served from the off-heap tier. */
+		public long offHeapHits() {
+			return offHeapHits;
+		}
+
+		/** Gets the number of requests which required loading the block. */
+		public long misses() {
+			return misses;
+		}
+
+		/** Gets the number of blocks evicted from the heap. */
+		public long evictions() {
+			return evictions;
+		}
+
+		/** Gets the number of blocks on the heap. */
+		public int heapBlocks() {
+			return heapBlocks;
+		}
+
+		/** Gets the total size of the blocks on the heap, in bytes. */
+		public long heapBytes() {
+			return heapBytes;
+		}
+
+		/** Gets the number of blocks off the heap. */
+		public int offHeapBlocks() {
+			return offHeapBlocks;
+		}
+
+		/** Gets the total size of the blocks off the heap, in bytes. */
+		public long offHeapBytes() {
+			return offHeapBytes;
+		}
+
+		/** Gets the fraction of requests served without loading the block. */
+		public double hitRate() {
+			final long total = hits + offHeapHits + misses;
+			return total == 0 ? 0 : (double) (hits + offHeapHits) / total;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hits + ", offHeapHits=" + offHeapHits + ", misses=" +
+				misses + ", evictions=" + evictions + ", heap=" + heapBlocks +
+				" blocks/" + heapBytes + " bytes, offHeap=" + offHeapBlocks +
+				" blocks/" + offHeapBytes + " bytes";
+		}
+	}
+
+}
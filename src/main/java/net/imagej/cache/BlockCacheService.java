@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.cache;
+
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJService;
+
+/**
+ * Interface for the service holding the context's shared {@link BlockCache},
+ * through which datasets can be opened such that each block (plane) of pixels
+ * is read and decoded only once, for as long as it stays cached.
+ */
+public interface BlockCacheService extends ImageJService {
+
+	/**
+	 * System property setting the heap budget of the cache, in bytes, with an
+	 * optional {@code k}, {@code m} or {@code g} suffix. By default, a quarter
+	 * of the maximum heap size is used.
+	 */
+	String HEAP_PROPERTY = "imagej.cache.heap";
+
+	/**
+	 * System property setting the off-heap budget of the cache, in bytes, with
+	 * an optional {@code k}, {@code m} or {@code g} suffix. By default, blocks
+	 * are not kept off the heap.
+	 */
+	String OFF_HEAP_PROPERTY = "imagej.cache.offheap";
+
+	/**
+	 * System property setting the eviction policy of the cache: either
+	 * {@code lru} (the default) or {@code slru} (segmented LRU).
+	 */
+	String POLICY_PROPERTY = "imagej.cache.policy";
+
+	/** Gets the block cache shared by this context. */
+	BlockCache getCache();
+
+	/**
+	 * Opens the first image of the given source as a dataset whose planes are
+	 * read on demand, through the shared block cache.
+	 *
+	 * @see #open(String, int)
+	 */
+	Dataset open(String source) throws IOException;
+
+	/**
+	 * Opens an image of the given source as a dataset whose planes are read on
+	 * demand, through the shared block cache. The dataset is read-only, since
+	 * its planes may be shared with other datasets opened from the same
+	 * source: setting any of its pixel values throws an
+	 * {@link UnsupportedOperationException}.
+	 *
+	 * @param series The index of the image within the source.
+	 */
+	Dataset open(String source, int series) throws IOException;
+
+}
@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.cache;
+
+import java.util.Objects;
+
+/**
+ * Identifies one block of decoded pixel data in a {@link BlockCache}: a block
+ * of a given resolution level of a given series (image) of a given source.
+ */
+public final class BlockKey {
+
+	private final String source;
+	private final int series;
+	private final int resolution;
+	private final long block;
+
+	public BlockKey(final String source, final int series, final int resolution,
+		final long block)
+	{
+		this.source = source;
+		this.series = series;
+		this.resolution = resolution;
+		this.block = block;
+	}
+
+	// -- BlockKey methods --
+
+	/** Gets the source (e.g. file path) the block was read from. */
+	public String getSource() {
+		return source;
+	}
+
+	/** Gets the index of the series (image) within the source. */
+	public int getSeries() {
+		return series;
+	}
+
+	/** Gets the resolution level, with 0 being full resolution. */
+	public int getResolution() {
+		return resolution;
+	}
+
+	/** Gets the index of the block within its resolution level. */
+	public long getBlock() {
+		return block;
+	}
+
+	// -- Object methods --
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof BlockKey)) return false;
+		final BlockKey that = (BlockKey) o;
+		return series == that.series && resolution == that.resolution &&
+			block == that.block && source.equals(that.source);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(source, series, resolution, block);
+	}
+
+	@Override
+	public String toString() {
+		return source + "[series=" + series + ", resolution=" + resolution +
+			", block=" + block + "]";
+	}
+
+}
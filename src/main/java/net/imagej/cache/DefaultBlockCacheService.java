@@ -0,0 +1,441 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.cache;
+
+import io.scif.FormatException;
+import io.scif.ImageMetadata;
+import io.scif.Reader;
+import io.scif.services.InitializeService;
+import io.scif.util.FormatTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.AxisType;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.scijava.event.EventHandler;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service holding a shared {@link BlockCache}, configured from system
+ * properties.
+ * <p>
+ * Each opened dataset keeps a reader open, which is closed when the dataset is
+ * deleted or its image becomes unreachable. Since the cached planes are shared
+ * by all datasets opened from the same source, the datasets are read-only:
+ * setting a pixel value throws an {@link UnsupportedOperationException}.
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultBlockCacheService extends AbstractService implements
+	BlockCacheService
+{
+
+	@Parameter
+	private InitializeService initializeService;
+
+	@Parameter
+	private DatasetService datasetService;
+
+	@Parameter
+	private LogService log;
+
+	private BlockCache cache;
+
+	/** Open readers, by weak reference to the image reading from them. */
+	private final Map<Reference<?>, Reader> readers = new HashMap<>();
+
+	/** Queue of the images which became unreachable. */
+	private final ReferenceQueue<Object> released = new ReferenceQueue<>();
+
+	// -- BlockCacheService methods --
+
+	@Override
+	public BlockCache getCache() {
+		return cache;
+	}
+
+	@Override
+	public Dataset open(final String source) throws IOException {
+		return open(source, 0);
+	}
+
+	@Override
+	public Dataset open(final String source, final int series)
+		throws IOException
+	{
+		final Reader reader;
+		try {
+			reader = initializeService.initializeReader(source);
+		}
+		catch (final FormatException exc) {
+			throw new IOException(exc);
+		}
+		try {
+			return open(source, series, reader);
+		}
+		catch (final IOException | RuntimeException exc) {
+			close(reader);
+			throw exc;
+		}
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		final long heap = bytes(HEAP_PROPERTY, Runtime.getRuntime().maxMemory() /
+			4);
+		final long offHeap = bytes(OFF_HEAP_PROPERTY, 0);
+		final BlockCache.Policy policy = "slru".equalsIgnoreCase(System
+			.getProperty(POLICY_PROPERTY)) ? BlockCache.Policy.SEGMENTED_LRU
+				: BlockCache.Policy.LRU;
+		cache = new BlockCache(heap, offHeap, policy);
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		final List<Reader> open;
+		synchronized (readers) {
+			open = new ArrayList<>(readers.values());
+			readers.clear();
+		}
+		for (final Reader reader : open) {
+			close(reader);
+		}
+		if (cache != null) cache.clear();
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent evt) {
+		final Object img = evt.getObject().getImgPlus().getImg();
+		final List<Reader> deleted = new ArrayList<>();
+		synchronized (readers) {
+			for (final Iterator<Map.Entry<Reference<?>, Reader>> iter = readers
+				.entrySet().iterator(); iter.hasNext();)
+			{
+				final Map.Entry<Reference<?>, Reader> entry = iter.next();
+				if (entry.getKey().get() != img) continue;
+				deleted.add(entry.getValue());
+				iter.remove();
+			}
+		}
+		for (final Reader reader : deleted) {
+			close(reader);
+		}
+	}
+
+	// -- Helper methods --
+
+	private Dataset open(final String source, final int series,
+		final Reader reader) throws IOException
+	{
+		final ImageMetadata meta = reader.getMetadata().get(series);
+		final long[] dims = meta.getAxesLengths();
+		final int[] blockDims = new int[dims.length];
+		for (int d = 0; d < dims.length; d++) {
+			blockDims[d] = d < meta.getPlanarAxisCount() ? (int) dims[d] : 1;
+		}
+		final CellGrid grid = new CellGrid(dims, blockDims);
+		final int pixelType = meta.getPixelType();
+		final boolean littleEndian = meta.isLittleEndian();
+
+		// NB: Each block is one plane, so the block index is the plane index.
+		final LazyCellImg.Get<Cell<?>> planes = index -> {
+			final long[] min = new long[dims.length];
+			final int[] size = new int[dims.length];
+			grid.getCellDimensions(index, min, size);
+			final Object data;
+			try {
+				data = cache.get(new BlockKey(source, series, 0, index), () -> decode(
+					readPlane(reader, series, index), pixelType, littleEndian));
+			}
+			catch (final IOException exc) {
+				throw new UncheckedIOException(exc);
+			}
+			return new Cell<>(size, min, access(data));
+		};
+
+		final AxisType[] axes = new AxisType[dims.length];
+		for (int d = 0; d < axes.length; d++) {
+			axes[d] = meta.getAxes().get(d).type();
+		}
+		@SuppressWarnings("rawtypes")
+		final LazyCellImg img = new LazyCellImg(grid, type(pixelType), planes);
+		register(img, reader);
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		final Dataset dataset = datasetService.create(new ImgPlus(img, new File(
+			source).getName(), axes));
+		return dataset;
+	}
+
+	/**
+	 * Keeps the given reader open for as long as the image is reachable, and
+	 * closes the readers of the images which became unreachable.
+	 */
+	private void register(final Object img, final Reader reader) {
+		final List<Reader> unreachable = new ArrayList<>();
+		synchronized (readers) {
+			for (Reference<?> ref; (ref = released.poll()) != null;) {
+				final Reader r = readers.remove(ref);
+				if (r != null) unreachable.add(r);
+			}
+			readers.put(new WeakReference<>(img, released), reader);
+		}
+		for (final Reader r : unreachable) {
+			close(r);
+		}
+	}
+
+	private void close(final Reader reader) {
+		try {
+			reader.close();
+		}
+		catch (final IOException exc) {
+			log.debug(exc);
+		}
+	}
+
+	private static byte[] readPlane(final Reader reader, final int series,
+		final long index) throws IOException
+	{
+		synchronized (reader) {
+			try {
+				return reader.openPlane(series, index).getBytes();
+			}
+			catch (final FormatException exc) {
+				throw new IOException(exc);
+			}
+		}
+	}
+
+	private static NativeType<?> type(final int pixelType) throws IOException {
+		switch (pixelType) {
+			case FormatTools.INT8:
+				return new ByteType();
+			case FormatTools.UINT8:
+				return new UnsignedByteType();
+			case FormatTools.INT16:
+				return new ShortType();
+			case FormatTools.UINT16:
+				return new UnsignedShortType();
+			case FormatTools.INT32:
+				return new IntType();
+			case FormatTools.UINT32:
+				return new UnsignedIntType();
+			case FormatTools.FLOAT:
+				return new FloatType();
+			case FormatTools.DOUBLE:
+				return new DoubleType();
+			default:
+				throw new IOException("Unsupported pixel type: " + FormatTools
+					.getPixelTypeString(pixelType));
+		}
+	}
+
+	/** Decodes the raw bytes of a plane into a primitive array. */
+	private static Object decode(final byte[] bytes, final int pixelType,
+		final boolean littleEndian)
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(littleEndian
+			? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		switch (pixelType) {
+			case FormatTools.INT16:
+			case FormatTools.UINT16: {
+				final short[] array = new short[bytes.length / 2];
+				buffer.asShortBuffer().get(array);
+				return array;
+			}
+			case FormatTools.INT32:
+			case FormatTools.UINT32: {
+				final int[] array = new int[bytes.length / 4];
+				buffer.asIntBuffer().get(array);
+				return array;
+			}
+			case FormatTools.FLOAT: {
+				final float[] array = new float[bytes.length / 4];
+				buffer.asFloatBuffer().get(array);
+				return array;
+			}
+			case FormatTools.DOUBLE: {
+				final double[] array = new double[bytes.length / 8];
+				buffer.asDoubleBuffer().get(array);
+				return array;
+			}
+			default:
+				return bytes;
+		}
+	}
+
+	private static Object access(final Object data) {
+		if (data instanceof short[]) return new ReadOnlyShortArray((short[]) data);
+		if (data instanceof int[]) return new ReadOnlyIntArray((int[]) data);
+		if (data instanceof float[]) return new ReadOnlyFloatArray((float[]) data);
+		if (data instanceof double[]) {
+			return new ReadOnlyDoubleArray((double[]) data);
+		}
+		return new ReadOnlyByteArray((byte[]) data);
+	}
+
+	private static UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException(
+			"Datasets opened through the block cache are read-only");
+	}
+
+	/** Parses a byte count such as {@code 512m} from a system property. */
+	private long bytes(final String property, final long defaultValue) {
+		final String value = System.getProperty(property);
+		if (value == null || value.isEmpty()) return defaultValue;
+		final String number = value.substring(0, value.length() - 1);
+		try {
+			switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+				case 'k':
+					return Long.parseLong(number) << 10;
+				case 'm':
+					return Long.parseLong(number) << 20;
+				case 'g':
+					return Long.parseLong(number) << 30;
+				default:
+					return Long.parseLong(value);
+			}
+		}
+		catch (final NumberFormatException exc) {
+			log.warn("Invalid value for " + property + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	// -- Helper classes --
+
+	// NB: The arrays of the cached planes are shared, so must not be written.
+
+	private static class ReadOnlyByteArray extends ByteArray {
+
+		private ReadOnlyByteArray(final byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public void setValue(final int index, final byte value) {
+			throw readOnly();
+		}
+	}
+
+	private static class ReadOnlyShortArray extends ShortArray {
+
+		private ReadOnlyShortArray(final short[] data) {
+			super(data);
+		}
+
+		@Override
+		public void setValue(final int index, final short value) {
+			throw readOnly();
+		}
+	}
+
+	private static class ReadOnlyIntArray extends IntArray {
+
+		private ReadOnlyIntArray(final int[] data) {
+			super(data);
+		}
+
+		@Override
+		public void setValue(final int index, final int value) {
+			throw readOnly();
+		}
+	}
+
+	private static class ReadOnlyFloatArray extends FloatArray {
+
+		private ReadOnlyFloatArray(final float[] data) {
+			super(data);
+		}
+
+		@Override
+		public void setValue(final int index, final float value) {
+			throw readOnly();
+		}
+	}
+
+	private static class ReadOnlyDoubleArray extends DoubleArray {
+
+		private ReadOnlyDoubleArray(final double[] data) {
+			super(data);
+		}
+
+		@Override
+		public void setValue(final int index, final double value) {
+			throw readOnly();
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.chunked;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A compression scheme for the blocks written by a {@link ChunkedWriter}.
+ * <p>
+ * Codecs are described in the container's attributes in the manner of the
+ * N5 format: by a type name plus any parameters needed to decode the blocks.
+ * Further codecs (e.g. LZ4 or Zstandard, backed by a native library) can be
+ * added by implementing this interface. For output to be byte-identical for
+ * a given configuration, encoding must be deterministic.
+ * </p>
+ */
+public interface ChunkCodec {
+
+	/** Gets the type name of the codec, e.g. {@code gzip}. */
+	String getType();
+
+	/**
+	 * Gets the parameters of the codec, other than its type, in the order in
+	 * which they are written to the container's attributes. Values are
+	 * strings, numbers or booleans.
+	 */
+	Map<String, Object> getParameters();
+
+	/** Compresses the given block data. */
+	byte[] encode(byte[] data) throws IOException;
+
+	/**
+	 * Decompresses the given block data.
+	 *
+	 * @param length The length of the uncompressed data.
+	 */
+	byte[] decode(byte[] data, int length) throws IOException;
+
+	/** Gets a codec which stores blocks uncompressed. */
+	static ChunkCodec raw() {
+		return new ChunkCodecs.Raw();
+	}
+
+	/**
+	 * Gets a codec which compresses blocks in gzip format.
+	 *
+	 * @param level The deflate level, from 0 (no compression, fastest) to 9
+	 *          (best compression), or -1 for the default.
+	 */
+	static ChunkCodec gzip(final int level) {
+		return new ChunkCodecs.Gzip(level, false);
+	}
+
+	/**
+	 * Gets a codec which compresses blocks in zlib format.
+	 *
+	 * @see #gzip(int)
+	 */
+	static ChunkCodec zlib(final int level) {
+		return new ChunkCodecs.Gzip(level, true);
+	}
+
+	/**
+	 * Gets the codec described by the given specification: {@code raw}, or
+	 * {@code gzip} or {@code zlib} optionally followed by a colon and the
+	 * deflate level (e.g. {@code gzip:1}).
+	 *
+	 * @throws IllegalArgumentException if the specification is invalid.
+	 */
+	static ChunkCodec parse(final String spec) {
+		final int colon = spec.indexOf(':');
+		final String type = colon < 0 ? spec : spec.substring(0, colon);
+		if (type.equals("raw") && colon < 0) return raw();
+		if (type.equals("gzip") || type.equals("zlib")) {
+			int level = -1;
+			if (colon >= 0) {
+				try {
+					level = Integer.parseInt(spec.substring(colon + 1));
+				}
+				catch (final NumberFormatException exc) {
+					level = -2;
+				}
+				if (level < 0 || level > 9) {
+					throw new IllegalArgumentException("Invalid level: " + spec);
+				}
+			}
+			return type.equals("zlib") ? zlib(level) : gzip(level);
+		}
+		throw new IllegalArgumentException("Unknown codec: " + spec);
+	}
+
+}
@@ -0,0 +1,175 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.chunked;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** The built-in {@link ChunkCodec}s. */
+final class ChunkCodecs {
+
+	private ChunkCodecs() {
+		// NB: Prevent instantiation of utility class.
+	}
+
+	// -- Helper classes --
+
+	/** Codec storing blocks uncompressed. */
+	static class Raw implements ChunkCodec {
+
+		@Override
+		public String getType() {
+			return "raw";
+		}
+
+		@Override
+		public Map<String, Object> getParameters() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public byte[] encode(final byte[] data) {
+			return data;
+		}
+
+		@Override
+		public byte[] decode(final byte[] data, final int length) {
+			return data;
+		}
+
+		@Override
+		public String toString() {
+			return "raw";
+		}
+	}
+
+	/** Codec deflating blocks, in gzip or zlib format. */
+	static class Gzip implements ChunkCodec {
+
+		private final int level;
+		private final boolean zlib;
+
+		Gzip(final int level, final boolean zlib) {
+			if (level < -1 || level > 9) {
+				throw new IllegalArgumentException("Invalid level: " + level);
+			}
+			this.level = level;
+			this.zlib = zlib;
+		}
+
+		@Override
+		public String getType() {
+			return "gzip";
+		}
+
+		@Override
+		public Map<String, Object> getParameters() {
+			final Map<String, Object> parameters = new LinkedHashMap<>();
+			parameters.put("level", level);
+			parameters.put("useZlib", zlib);
+			return parameters;
+		}
+
+		@Override
+		public byte[] encode(final byte[] data) throws IOException {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			if (!zlib) {
+				try (final OutputStream out = //
+					new LevelGZIPOutputStream(bytes, level))
+				{
+					out.write(data);
+				}
+				return bytes.toByteArray();
+			}
+			final Deflater deflater = new Deflater(level);
+			try (final OutputStream out = //
+				new DeflaterOutputStream(bytes, deflater))
+			{
+				out.write(data);
+			}
+			finally {
+				deflater.end();
+			}
+			return bytes.toByteArray();
+		}
+
+		@Override
+		public byte[] decode(final byte[] data, final int length)
+			throws IOException
+		{
+			final byte[] result = new byte[length];
+			final InputStream bytes = new ByteArrayInputStream(data);
+			try (final InputStream in = zlib ? new InflaterInputStream(bytes) : //
+				new GZIPInputStream(bytes))
+			{
+				int offset = 0;
+				while (offset < length) {
+					final int n = in.read(result, offset, length - offset);
+					if (n < 0) throw new IOException("Truncated block");
+					offset += n;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return (zlib ? "zlib" : "gzip") + (level < 0 ? "" : ":" + level);
+		}
+	}
+
+	/**
+	 * A {@link GZIPOutputStream} with a configurable deflate level. Its header
+	 * carries no timestamp, so the output depends only on the data.
+	 */
+	private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+		public LevelGZIPOutputStream(final OutputStream out, final int level)
+			throws IOException
+		{
+			super(out);
+			def.setLevel(level);
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.chunked;
+
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJService;
+
+/**
+ * Interface for the service saving datasets as grids of independently
+ * compressed blocks, which are written in parallel.
+ *
+ * @see ChunkedWriter
+ */
+public interface ChunkedIOService extends ImageJService {
+
+	/**
+	 * System property setting the codec with which blocks are compressed, as
+	 * understood by {@link ChunkCodec#parse(String)}. Defaults to
+	 * {@code gzip}.
+	 */
+	String CODEC_PROPERTY = "imagej.chunked.codec";
+
+	/**
+	 * System property setting the number of threads compressing and writing
+	 * blocks. Defaults to the number of available processors.
+	 */
+	String THREADS_PROPERTY = "imagej.chunked.threads";
+
+	/**
+	 * Creates a writer with the default codec and parallelism, which may be
+	 * configured further before use.
+	 */
+	ChunkedWriter writer();
+
+	/**
+	 * Saves the given dataset into the given directory, with the default
+	 * settings.
+	 *
+	 * @throws IOException if the dataset's type is not supported, or writing
+	 *           fails.
+	 */
+	void save(Dataset dataset, String path) throws IOException;
+
+}
@@ -0,0 +1,403 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.chunked;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Writes images as a grid of independently compressed blocks, in the N5
+ * layout: a directory holding an {@code attributes.json} file which
+ * describes the image, plus one file per block, at the path given by the
+ * block's grid position (e.g. {@code 3/1/0}). Readers can thus load any
+ * block without touching the others.
+ * <p>
+ * Blocks are copied, compressed and written concurrently; at most a fixed
+ * number of blocks are in flight at any one time, so memory use stays
+ * bounded regardless of the size of the image. Since each block is encoded
+ * independently into its own file, the output is byte-identical for a given
+ * image, block size and codec, whatever the parallelism.
+ * </p>
+ * <p>
+ * Images too large for memory can also be written plane by plane, as they
+ * are produced; see {@link #writePlane}.
+ * </p>
+ */
+public class ChunkedWriter {
+
+	/** The name of the file holding the attributes of the image. */
+	public static final String ATTRIBUTES = "attributes.json";
+
+	/** The version of the N5 format written. */
+	public static final String VERSION = "2.5.1";
+
+	private int[] blockSize = { 256, 256 };
+	private ChunkCodec codec = ChunkCodec.gzip(-1);
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int maxInFlight;
+
+	// -- ChunkedWriter methods --
+
+	/**
+	 * Sets the size of the blocks. Dimensions beyond those given have a block
+	 * size of 1; by default, each block is a 256x256 tile of one plane.
+	 */
+	public void setBlockSize(final int... blockSize) {
+		for (final int size : blockSize) {
+			if (size < 1) {
+				throw new IllegalArgumentException("Invalid block size: " + //
+					Arrays.toString(blockSize));
+			}
+		}
+		this.blockSize = blockSize.clone();
+	}
+
+	/** Sets the codec with which the blocks are compressed. */
+	public void setCodec(final ChunkCodec codec) {
+		this.codec = codec;
+	}
+
+	/** Gets the codec with which the blocks are compressed. */
+	public ChunkCodec getCodec() {
+		return codec;
+	}
+
+	/** Sets the number of blocks to compress and write concurrently. */
+	public void setParallelism(final int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Sets the maximum number of blocks which are queued or being written at
+	 * any one time. By default, this is twice the parallelism.
+	 */
+	public void setMaxInFlight(final int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Writes the given image into the given directory, which is created if
+	 * needed.
+	 *
+	 * @throws IOException if the image's type is not supported by the format,
+	 *           or writing fails.
+	 */
+	public void write(final RandomAccessibleInterval<? extends RealType<?>> image,
+		final File dir) throws IOException
+	{
+		final int n = image.numDimensions();
+		final long[] dims = new long[n];
+		image.dimensions(dims);
+		writeAttributes(dir, dims, Util.getTypeFromInterval(image));
+		final DataType dataType = dataType(Util.getTypeFromInterval(image));
+		final int[] size = blockSize(dims);
+		final long[] grid = new long[n];
+		long blockCount = 1;
+		for (int d = 0; d < n; d++) {
+			grid[d] = (dims[d] + size[d] - 1) / size[d];
+			blockCount *= grid[d];
+		}
+
+		final int permits = maxInFlight > 0 ? maxInFlight : 2 * parallelism;
+		final Semaphore inFlight = new Semaphore(permits);
+		final AtomicReference<IOException> failure = new AtomicReference<>();
+		final ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		try {
+			final long[] position = new long[n];
+			for (long b = 0; b < blockCount && failure.get() == null; b++) {
+				final long[] gridPosition = position.clone();
+				inFlight.acquireUninterruptibly();
+				pool.execute(() -> {
+					try {
+						writeBlock(image, dataType, size, gridPosition, dir);
+					}
+					catch (final IOException | RuntimeException exc) {
+						failure.compareAndSet(null, exc instanceof IOException
+							? (IOException) exc : new IOException(exc));
+					}
+					finally {
+						inFlight.release();
+					}
+				});
+				for (int d = 0; d < n && ++position[d] == grid[d]; d++) {
+					position[d] = 0;
+				}
+			}
+			// NB: Wait for the remaining blocks to be written.
+			inFlight.acquireUninterruptibly(permits);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		if (failure.get() != null) throw failure.get();
+	}
+
+	/**
+	 * Writes the attributes of an image with the given dimensions and type
+	 * into the given directory, which is created if needed. The blocks of the
+	 * image may then be written plane by plane.
+	 *
+	 * @throws IOException if the type is not supported by the format, or
+	 *           writing fails.
+	 * @see #writePlane
+	 */
+	public void writeAttributes(final File dir, final long[] dims,
+		final RealType<?> type) throws IOException
+	{
+		final String attributes = attributes(dims, blockSize(dims), dataType(
+			type));
+		Files.createDirectories(dir.toPath());
+		Files.write(dir.toPath().resolve(ATTRIBUTES), attributes.getBytes(
+			StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes the blocks of one XY plane of an image whose attributes have been
+	 * written, on the calling thread. This requires a block size of 1 beyond
+	 * the first two dimensions.
+	 *
+	 * @param dims The dimensions of the whole image.
+	 * @param index The index of the plane, in the flat order of the dimensions
+	 *          after X and Y.
+	 * @throws IllegalStateException if the block size spans several planes.
+	 * @throws IllegalArgumentException if the plane is not a two-dimensional
+	 *           plane of the image.
+	 */
+	public void writePlane(final File dir, final long[] dims,
+		final RandomAccessibleInterval<? extends RealType<?>> plane,
+		final long index) throws IOException
+	{
+		final int[] size = blockSize(dims);
+		for (int d = 2; d < dims.length; d++) {
+			if (size[d] != 1) {
+				throw new IllegalStateException("Blocks span several planes: " +
+					Arrays.toString(size));
+			}
+		}
+		if (dims.length < 2 || plane.numDimensions() != 2 || plane.dimension(
+			0) != dims[0] || plane.dimension(1) != dims[1])
+		{
+			throw new IllegalArgumentException("Plane does not match " + Arrays
+				.toString(dims));
+		}
+		final DataType dataType = dataType(Util.getTypeFromInterval(plane));
+
+		final long[] gridPosition = new long[dims.length];
+		long remainder = index;
+		for (int d = 2; d < dims.length; d++) {
+			gridPosition[d] = remainder % dims[d];
+			remainder /= dims[d];
+		}
+		final long gridX = (dims[0] + size[0] - 1) / size[0];
+		final long gridY = (dims[1] + size[1] - 1) / size[1];
+		for (gridPosition[1] = 0; gridPosition[1] < gridY; gridPosition[1]++) {
+			for (gridPosition[0] = 0; gridPosition[0] < gridX; gridPosition[0]++) {
+				writeBlock(plane, dataType, size, gridPosition, dir);
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Gets the block size for the given dimensions. */
+	private int[] blockSize(final long[] dims) {
+		final int[] size = new int[dims.length];
+		for (int d = 0; d < dims.length; d++) {
+			final int s = d < blockSize.length ? blockSize[d] : 1;
+			size[d] = (int) Math.max(1, Math.min(s, dims[d]));
+		}
+		return size;
+	}
+
+	private static DataType dataType(final Object type) throws IOException {
+		final DataType dataType = DataType.of(type);
+		if (dataType == null) {
+			throw new IOException("Unsupported type: " + type.getClass()
+				.getName());
+		}
+		return dataType;
+	}
+
+	private String attributes(final long[] dims, final int[] size,
+		final DataType dataType)
+	{
+		final StringBuilder sb = new StringBuilder();
+		sb.append("{\"n5\":\"").append(VERSION).append("\",\"dimensions\":[");
+		for (int d = 0; d < dims.length; d++) {
+			sb.append(d == 0 ? "" : ",").append(dims[d]);
+		}
+		sb.append("],\"blockSize\":[");
+		for (int d = 0; d < size.length; d++) {
+			sb.append(d == 0 ? "" : ",").append(size[d]);
+		}
+		sb.append("],\"dataType\":\"").append(dataType.name).append("\"");
+		sb.append(",\"compression\":{\"type\":\"").append(codec.getType());
+		sb.append("\"");
+		for (final Map.Entry<String, Object> entry : codec.getParameters()
+			.entrySet())
+		{
+			sb.append(",\"").append(entry.getKey()).append("\":");
+			final Object value = entry.getValue();
+			if (value instanceof Number || value instanceof Boolean) {
+				sb.append(value);
+			}
+			else sb.append("\"").append(value).append("\"");
+		}
+		return sb.append("}}").toString();
+	}
+
+	/**
+	 * Writes the block at the given grid position. The image may have fewer
+	 * dimensions than the grid, if it is a plane of a larger image.
+	 */
+	private void writeBlock(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final DataType dataType, final int[] size, final long[] gridPosition,
+		final File dir) throws IOException
+	{
+		final int n = size.length;
+		final int m = image.numDimensions();
+		final long[] min = new long[m];
+		final long[] max = new long[m];
+		int count = 1;
+		for (int d = 0; d < m; d++) {
+			min[d] = image.min(d) + gridPosition[d] * size[d];
+			max[d] = Math.min(min[d] + size[d], image.max(d) + 1) - 1;
+			count *= (int) (max[d] - min[d] + 1);
+		}
+
+		// NB: Block data is stored big-endian, in flat iteration order.
+		final ByteBuffer data = ByteBuffer.allocate(count * dataType.bytes);
+		for (final RealType<?> t : Views.flatIterable(Views.interval(image,
+			new FinalInterval(min, max))))
+		{
+			dataType.put(t, data);
+		}
+		final byte[] encoded = codec.encode(data.array());
+
+		// header: mode (default), dimensionality, block dimensions
+		final ByteBuffer block = ByteBuffer.allocate(4 + 4 * n + encoded.length);
+		block.putShort((short) 0).putShort((short) n);
+		for (int d = 0; d < n; d++) {
+			block.putInt(d < m ? (int) (max[d] - min[d] + 1) : 1);
+		}
+		block.put(encoded);
+
+		Path path = dir.toPath();
+		for (int d = 0; d < n; d++) {
+			path = path.resolve(Long.toString(gridPosition[d]));
+		}
+		Files.createDirectories(path.getParent());
+		Files.write(path, block.array());
+	}
+
+	// -- Helper classes --
+
+	/** The data types of the N5 format. */
+	private enum DataType {
+		UINT8("uint8", 1), INT8("int8", 1), UINT16("uint16", 2),
+		INT16("int16", 2), UINT32("uint32", 4), INT32("int32", 4),
+		INT64("int64", 8), FLOAT32("float32", 4), FLOAT64("float64", 8);
+
+		private final String name;
+		private final int bytes;
+
+		private DataType(final String name, final int bytes) {
+			this.name = name;
+			this.bytes = bytes;
+		}
+
+		private static DataType of(final Object type) {
+			if (type instanceof UnsignedByteType) return UINT8;
+			if (type instanceof ByteType) return INT8;
+			if (type instanceof UnsignedShortType) return UINT16;
+			if (type instanceof ShortType) return INT16;
+			if (type instanceof UnsignedIntType) return UINT32;
+			if (type instanceof IntType) return INT32;
+			if (type instanceof LongType) return INT64;
+			if (type instanceof FloatType) return FLOAT32;
+			if (type instanceof DoubleType) return FLOAT64;
+			return null;
+		}
+
+		private void put(final RealType<?> t, final ByteBuffer data) {
+			switch (this) {
+				case UINT8:
+				case INT8:
+					data.put((byte) (long) t.getRealDouble());
+					break;
+				case UINT16:
+				case INT16:
+					data.putShort((short) (long) t.getRealDouble());
+					break;
+				case UINT32:
+				case INT32:
+					data.putInt((int) (long) t.getRealDouble());
+					break;
+				case INT64:
+					data.putLong(((LongType) t).get());
+					break;
+				case FLOAT32:
+					data.putFloat(t.getRealFloat());
+					break;
+				default:
+					data.putDouble(t.getRealDouble());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.chunked;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.imagej.Dataset;
+
+import org.scijava.event.EventService;
+import org.scijava.io.event.DataSavedEvent;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/** Default service for saving datasets as grids of compressed blocks. */
+@Plugin(type = Service.class)
+public class DefaultChunkedIOService extends AbstractService implements
+	ChunkedIOService
+{
+
+	@Parameter
+	private EventService eventService;
+
+	@Parameter
+	private LogService log;
+
+	private ChunkCodec codec;
+	private int threads;
+
+	// -- ChunkedIOService methods --
+
+	@Override
+	public ChunkedWriter writer() {
+		final ChunkedWriter writer = new ChunkedWriter();
+		writer.setCodec(codec);
+		writer.setParallelism(threads);
+		return writer;
+	}
+
+	@Override
+	public void save(final Dataset dataset, final String path)
+		throws IOException
+	{
+		writer().write(dataset, new File(path));
+		eventService.publish(new DataSavedEvent(path, dataset));
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		codec = ChunkCodec.gzip(-1);
+		final String spec = System.getProperty(CODEC_PROPERTY);
+		if (spec != null) {
+			try {
+				codec = ChunkCodec.parse(spec.trim());
+			}
+			catch (final IllegalArgumentException exc) {
+				log.warn("Invalid " + CODEC_PROPERTY + ": " + spec);
+			}
+		}
+		threads = Runtime.getRuntime().availableProcessors();
+		final String value = System.getProperty(THREADS_PROPERTY);
+		if (value != null) {
+			try {
+				threads = Math.max(1, Integer.parseInt(value.trim()));
+			}
+			catch (final NumberFormatException exc) {
+				log.warn("Invalid " + THREADS_PROPERTY + ": " + value);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,356 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.composite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.display.ColorMode;
+import net.imagej.display.DatasetView;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.display.ColorTable;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Composites the channels of a plane into ARGB pixels, through each channel's
+ * color table, one tile at a time and with tiles rendered in parallel.
+ * <p>
+ * Tiles are laid out in image coordinates and kept once rendered, so that
+ * panning only renders the tiles newly scrolled into view. Changing a
+ * channel's plane, color table or display range discards all tiles, while
+ * {@link #invalidate(long, long, long, long)} discards only those overlapping
+ * an edited region. Rendered tiles are kept up to a given count, least
+ * recently used first out.
+ * </p>
+ */
+public class TiledCompositor {
+
+	private final int tileSize;
+	private final int maxTiles;
+	private final ExecutorService executor;
+
+	private final List<Channel> channels = new ArrayList<>();
+
+	/** Rendered tiles, by tile index, in least recently used order. */
+	private final Map<Long, int[]> tiles;
+
+	/** The dataset and position last composited by {@link #update}. */
+	private Dataset lastDataset;
+	private long[] lastPosition;
+	private int lastChannel = -1;
+
+	/**
+	 * Creates a compositor.
+	 *
+	 * @param tileSize The width and height of each tile, in pixels.
+	 * @param maxTiles The number of rendered tiles to keep.
+	 * @param executor The executor on which to render tiles.
+	 */
+	public TiledCompositor(final int tileSize, final int maxTiles,
+		final ExecutorService executor)
+	{
+		this.tileSize = tileSize;
+		this.maxTiles = maxTiles;
+		this.executor = executor;
+		tiles = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Long, int[]> e) {
+				return size() > TiledCompositor.this.maxTiles;
+			}
+		};
+	}
+
+	// -- TiledCompositor methods --
+
+	/** Gets the number of channels being composited. */
+	public synchronized int getChannelCount() {
+		return channels.size();
+	}
+
+	/** Sets the number of channels being composited. */
+	public synchronized void setChannelCount(final int count) {
+		if (count == channels.size()) return;
+		while (channels.size() > count) {
+			channels.remove(channels.size() - 1);
+		}
+		while (channels.size() < count) {
+			channels.add(new Channel());
+		}
+		tiles.clear();
+	}
+
+	/**
+	 * Sets what to composite for the given channel. All tiles are discarded,
+	 * unless the plane and the color table are the same objects as before and
+	 * the display range is unchanged.
+	 *
+	 * @param plane The channel's two-dimensional plane, or null to leave the
+	 *          channel out.
+	 * @param lut The color table through which to map the channel's values.
+	 * @param min The value mapped to the first entry of the color table.
+	 * @param max The value mapped to the last entry of the color table.
+	 */
+	public synchronized void setChannel(final int channel,
+		final RandomAccessibleInterval<? extends RealType<?>> plane,
+		final ColorTable lut, final double min, final double max)
+	{
+		final Channel c = channels.get(channel);
+		if (c.plane == plane && c.lut == lut && c.min == min && c.max == max) {
+			return;
+		}
+		c.plane = plane;
+		c.lut = lut;
+		c.min = min;
+		c.max = max;
+		tiles.clear();
+	}
+
+	/**
+	 * Updates the channels to those currently shown by the given view: all of
+	 * its dataset's channels at the view's position in composite mode, or
+	 * only the current channel otherwise. Tiles are discarded only if the
+	 * plane, the color tables or the display ranges changed.
+	 */
+	public synchronized void update(final DatasetView view) {
+		final Dataset dataset = view.getData();
+		final int xAxis = dataset.dimensionIndex(Axes.X);
+		final int yAxis = dataset.dimensionIndex(Axes.Y);
+		final int cAxis = dataset.dimensionIndex(Axes.CHANNEL);
+		final long[] position = new long[dataset.numDimensions()];
+		for (int d = 0; d < position.length; d++) {
+			if (d != xAxis && d != yAxis && d != cAxis) {
+				position[d] = view.getLongPosition(d);
+			}
+		}
+		final long channelCount = cAxis < 0 ? 1 : dataset.dimension(cAxis);
+		final int current = cAxis < 0 ? 0 : (int) view.getLongPosition(cAxis);
+		final boolean composite = view.getColorMode() == ColorMode.COMPOSITE;
+		final boolean samePlane = dataset == lastDataset && Arrays.equals(
+			position, lastPosition) && (composite || current == lastChannel);
+
+		setChannelCount((int) channelCount);
+		final List<? extends ColorTable> luts = view.getColorTables();
+		for (int c = 0; c < channelCount; c++) {
+			final RandomAccessibleInterval<? extends RealType<?>> plane;
+			if (!composite && c != current) plane = null;
+			else if (samePlane && channels.get(c).plane != null) {
+				plane = channels.get(c).plane;
+			}
+			else {
+				if (cAxis >= 0) position[cAxis] = c;
+				plane = plane(dataset, xAxis, yAxis, position);
+			}
+			setChannel(c, plane, luts.get(c), view.getChannelMin(c), view
+				.getChannelMax(c));
+		}
+		lastDataset = dataset;
+		lastPosition = position;
+		lastChannel = current;
+	}
+
+	/** Discards all rendered tiles. */
+	public synchronized void invalidate() {
+		tiles.clear();
+	}
+
+	/** Discards the rendered tiles overlapping the given region. */
+	public synchronized void invalidate(final long x, final long y,
+		final long width, final long height)
+	{
+		for (final Iterator<Long> iter = tiles.keySet().iterator(); iter
+			.hasNext();)
+		{
+			final long index = iter.next();
+			final long tx = (index & 0xffffffffL) * tileSize;
+			final long ty = (index >>> 32) * tileSize;
+			if (tx < x + width && x < tx + tileSize && ty < y + height &&
+				y < ty + tileSize)
+			{
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Composites the given region of the plane into ARGB pixels, rendering the
+	 * tiles which are not rendered yet in parallel. Pixels outside the plane
+	 * are left at 0.
+	 *
+	 * @param x The leftmost column of the region, in image coordinates.
+	 * @param y The topmost row of the region, in image coordinates.
+	 * @param width The width of the region.
+	 * @param height The height of the region.
+	 * @param argb The array into which to write the region's pixels, row by
+	 *          row.
+	 * @return The number of tiles which had to be rendered.
+	 */
+	public synchronized int render(final long x, final long y, final int width,
+		final int height, final int[] argb)
+	{
+		Arrays.fill(argb, 0, width * height, 0);
+		final long planeWidth = planeDimension(0);
+		final long planeHeight = planeDimension(1);
+		final long x0 = Math.max(x, 0), x1 = Math.min(x + width, planeWidth);
+		final long y0 = Math.max(y, 0), y1 = Math.min(y + height, planeHeight);
+		if (x0 >= x1 || y0 >= y1) return 0;
+
+		// Render the missing tiles in parallel.
+		final Map<Long, int[]> visible = new LinkedHashMap<>();
+		final List<Long> missing = new ArrayList<>();
+		final List<Callable<int[]>> work = new ArrayList<>();
+		for (long ty = y0 / tileSize; ty * tileSize < y1; ty++) {
+			for (long tx = x0 / tileSize; tx * tileSize < x1; tx++) {
+				final long index = ty << 32 | tx;
+				final int[] tile = tiles.get(index);
+				if (tile != null) visible.put(index, tile);
+				else {
+					final long left = tx * tileSize, top = ty * tileSize;
+					final int w = (int) Math.min(tileSize, planeWidth - left);
+					final int h = (int) Math.min(tileSize, planeHeight - top);
+					missing.add(index);
+					work.add(() -> renderTile(left, top, w, h));
+				}
+			}
+		}
+		final List<Future<int[]>> results;
+		try {
+			results = executor.invokeAll(work);
+			for (int i = 0; i < results.size(); i++) {
+				visible.put(missing.get(i), results.get(i).get());
+			}
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			return 0;
+		}
+		catch (final ExecutionException exc) {
+			final Throwable cause = exc.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+
+		// Copy the visible part of each tile into the region.
+		for (final Map.Entry<Long, int[]> entry : visible.entrySet()) {
+			final long left = (entry.getKey() & 0xffffffffL) * tileSize;
+			final long top = (entry.getKey() >>> 32) * tileSize;
+			final int[] tile = entry.getValue();
+			final int w = (int) Math.min(tileSize, planeWidth - left);
+			final long cx0 = Math.max(left, x0), cx1 = Math.min(left + w, x1);
+			final long cy1 = Math.min(top + tileSize, y1);
+			for (long row = Math.max(top, y0); row < cy1; row++) {
+				System.arraycopy(tile, (int) ((row - top) * w + cx0 - left), argb,
+					(int) ((row - y) * width + cx0 - x), (int) (cx1 - cx0));
+			}
+		}
+		for (int i = 0; i < missing.size(); i++) {
+			tiles.put(missing.get(i), visible.get(missing.get(i)));
+		}
+		return missing.size();
+	}
+
+	// -- Helper methods --
+
+	private long planeDimension(final int d) {
+		for (final Channel c : channels) {
+			if (c.plane != null) return c.plane.dimension(d);
+		}
+		return 0;
+	}
+
+	private int[] renderTile(final long left, final long top, final int w,
+		final int h)
+	{
+		final int[] r = new int[w * h], g = new int[w * h], b = new int[w * h];
+		final long[] pos = new long[2];
+		for (final Channel c : channels) {
+			if (c.plane == null) continue;
+			final RandomAccess<? extends RealType<?>> ra = c.plane.randomAccess();
+			final long minX = c.plane.min(0), minY = c.plane.min(1);
+			for (int j = 0, i = 0; j < h; j++) {
+				pos[1] = minY + top + j;
+				for (int k = 0; k < w; k++, i++) {
+					pos[0] = minX + left + k;
+					ra.setPosition(pos);
+					final int argb = c.lut.lookupARGB(c.min, c.max, ra.get()
+						.getRealDouble());
+					r[i] += (argb >> 16) & 0xff;
+					g[i] += (argb >> 8) & 0xff;
+					b[i] += argb & 0xff;
+				}
+			}
+		}
+		final int[] tile = new int[w * h];
+		for (int i = 0; i < tile.length; i++) {
+			tile[i] = 0xff000000 | Math.min(r[i], 255) << 16 | Math.min(g[i],
+				255) << 8 | Math.min(b[i], 255);
+		}
+		return tile;
+	}
+
+	private static RandomAccessibleInterval<? extends RealType<?>> plane(
+		final Dataset dataset, final int xAxis, final int yAxis,
+		final long[] position)
+	{
+		RandomAccessibleInterval<? extends RealType<?>> plane = dataset;
+		for (int d = position.length - 1; d >= 0; d--) {
+			if (d != xAxis && d != yAxis) {
+				plane = Views.hyperSlice(plane, d, position[d]);
+			}
+		}
+		return xAxis < yAxis ? plane : Views.permute(plane, 0, 1);
+	}
+
+	// -- Helper classes --
+
+	private static class Channel {
+
+		private RandomAccessibleInterval<? extends RealType<?>> plane;
+		private ColorTable lut;
+		private double min;
+		private double max;
+	}
+
+}
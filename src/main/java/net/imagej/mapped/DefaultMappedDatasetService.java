@@ -0,0 +1,339 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.mapped;
+
+import io.scif.FormatException;
+import io.scif.Reader;
+import io.scif.config.SCIFIOConfig;
+import io.scif.config.SCIFIOConfig.ImgMode;
+import io.scif.img.ImgIOException;
+import io.scif.img.ImgOpener;
+import io.scif.services.InitializeService;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.AxisType;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.scijava.event.EventHandler;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service for working with memory-mapped {@link Dataset}s.
+ * <p>
+ * Each dataset gets its own scratch file, which is deleted when the dataset is
+ * deleted, when its image becomes unreachable, or at the latest when this
+ * service is disposed (or, failing that, when the JVM exits).
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultMappedDatasetService extends AbstractService implements
+	MappedDatasetService
+{
+
+	@Parameter
+	private DatasetService datasetService;
+
+	@Parameter
+	private InitializeService initializeService;
+
+	@Parameter
+	private LogService log;
+
+	private File scratchDirectory;
+
+	/** Scratch files, by weak reference to the image mapping them. */
+	private final Map<Reference<?>, Scratch> scratches = new HashMap<>();
+
+	/** Queue of the images which became unreachable. */
+	private final ReferenceQueue<Object> released = new ReferenceQueue<>();
+
+	// -- MappedDatasetService methods --
+
+	@Override
+	public File getScratchDirectory() {
+		if (scratchDirectory == null) {
+			final String dir = System.getProperty(SCRATCH_PROPERTY);
+			scratchDirectory = new File(dir != null ? dir : System.getProperty(
+				"java.io.tmpdir"));
+		}
+		return scratchDirectory;
+	}
+
+	@Override
+	public void setScratchDirectory(final File directory) {
+		scratchDirectory = directory;
+	}
+
+	@Override
+	public Dataset create(final long[] dims, final String name,
+		final AxisType[] axes, final int bitsPerPixel, final boolean signed,
+		final boolean floating) throws IOException
+	{
+		if (bitsPerPixel == 1) {
+			if (signed || floating) invalidParams(bitsPerPixel, signed, floating);
+			return create(new BitType(), dims, name, axes);
+		}
+		if (bitsPerPixel == 8) {
+			if (floating) invalidParams(bitsPerPixel, signed, floating);
+			if (signed) return create(new ByteType(), dims, name, axes);
+			return create(new UnsignedByteType(), dims, name, axes);
+		}
+		if (bitsPerPixel == 16) {
+			if (floating) invalidParams(bitsPerPixel, signed, floating);
+			if (signed) return create(new ShortType(), dims, name, axes);
+			return create(new UnsignedShortType(), dims, name, axes);
+		}
+		if (bitsPerPixel == 32) {
+			if (floating) {
+				if (!signed) invalidParams(bitsPerPixel, signed, floating);
+				return create(new FloatType(), dims, name, axes);
+			}
+			if (signed) return create(new IntType(), dims, name, axes);
+			return create(new UnsignedIntType(), dims, name, axes);
+		}
+		if (bitsPerPixel == 64) {
+			if (!signed) invalidParams(bitsPerPixel, signed, floating);
+			if (floating) return create(new DoubleType(), dims, name, axes);
+			return create(new LongType(), dims, name, axes);
+		}
+		invalidParams(bitsPerPixel, signed, floating);
+		return null;
+	}
+
+	@Override
+	public <T extends RealType<T> & NativeType<T>> Dataset create(final T type,
+		final long[] dims, final String name, final AxisType[] axes)
+		throws IOException
+	{
+		final Img<T> img = createImg(type, dims);
+		return datasetService.create(new ImgPlus<>(img, name, axes));
+	}
+
+	@Override
+	public Dataset open(final String source) throws IOException {
+		// NB: Cell mode reads the source lazily, one block at a time.
+		final SCIFIOConfig config = new SCIFIOConfig().imgOpenerSetImgModes(
+			ImgMode.CELL);
+		final Reader reader;
+		try {
+			reader = initializeService.initializeReader(source);
+		}
+		catch (final FormatException exc) {
+			throw new IOException(exc);
+		}
+		// NB: Once copied, the cells are no longer read, so the reader is closed.
+		try {
+			return copy(new ImgOpener(getContext()).openImgs(reader, config).get(
+				0));
+		}
+		catch (final ImgIOException exc) {
+			throw new IOException(exc);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Override
+	public Dataset copy(final Dataset dataset) throws IOException {
+		return copy(dataset.getImgPlus());
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		final List<Scratch> all;
+		synchronized (scratches) {
+			all = new ArrayList<>(scratches.values());
+			scratches.clear();
+		}
+		for (final Scratch scratch : all) {
+			release(scratch);
+		}
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent evt) {
+		release(evt.getObject());
+	}
+
+	// -- Helper methods --
+
+	private <T extends RealType<T> & NativeType<T>> Img<T> createImg(
+		final T type, final long[] dims) throws IOException
+	{
+		final File dir = getScratchDirectory();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create scratch directory: " + dir);
+		}
+		final File file = File.createTempFile("imagej-", ".mapped", dir);
+		final Scratch scratch = new Scratch(file, FileChannel.open(file.toPath(),
+			StandardOpenOption.READ, StandardOpenOption.WRITE));
+		final Img<T> img;
+		try {
+			img = MappedImgs.create(scratch.channel, type.createVariable(), dims);
+		}
+		catch (final IOException | RuntimeException exc) {
+			release(scratch);
+			throw exc;
+		}
+		register(img, scratch);
+		return img;
+	}
+
+	/**
+	 * Keeps the given scratch file for as long as the image is reachable, and
+	 * releases the scratch files of the images which became unreachable.
+	 */
+	private void register(final Object img, final Scratch scratch) {
+		final List<Scratch> unreachable = new ArrayList<>();
+		synchronized (scratches) {
+			for (Reference<?> ref; (ref = released.poll()) != null;) {
+				final Scratch s = scratches.remove(ref);
+				if (s != null) unreachable.add(s);
+			}
+			scratches.put(new WeakReference<>(img, released), scratch);
+		}
+		for (final Scratch s : unreachable) {
+			release(s);
+		}
+	}
+
+	/** Releases the scratch file of the given dataset, if it has one. */
+	private void release(final Dataset dataset) {
+		final Object img = dataset.getImgPlus().getImg();
+		final List<Scratch> deleted = new ArrayList<>();
+		synchronized (scratches) {
+			for (final Iterator<Map.Entry<Reference<?>, Scratch>> iter = scratches
+				.entrySet().iterator(); iter.hasNext();)
+			{
+				final Map.Entry<Reference<?>, Scratch> entry = iter.next();
+				if (entry.getKey().get() != img) continue;
+				deleted.add(entry.getValue());
+				iter.remove();
+			}
+		}
+		for (final Scratch scratch : deleted) {
+			release(scratch);
+		}
+	}
+
+	private void release(final Scratch scratch) {
+		try {
+			scratch.channel.close();
+		}
+		catch (final IOException exc) {
+			log.debug(exc);
+		}
+		// NB: Deletion may fail while the file is still mapped; in that case, it
+		// is deleted on exit instead.
+		if (!scratch.file.delete()) scratch.file.deleteOnExit();
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Dataset copy(final ImgPlus imgPlus) throws IOException {
+		return copyTyped(imgPlus);
+	}
+
+	private <T extends RealType<T> & NativeType<T>> Dataset copyTyped(
+		final ImgPlus<T> source) throws IOException
+	{
+		final long[] dims = new long[source.numDimensions()];
+		source.dimensions(dims);
+		final Img<T> img = createImg(source.firstElement(), dims);
+		final Cursor<T> in = Views.flatIterable(source).cursor();
+		final Cursor<T> out = Views.flatIterable(img).cursor();
+		while (out.hasNext()) {
+			out.next().set(in.next());
+		}
+		return datasetService.create(new ImgPlus<>(img, source));
+	}
+
+	private void invalidParams(final int bitsPerPixel, final boolean signed,
+		final boolean floating)
+	{
+		throw new IllegalArgumentException("Invalid parameters: bitsPerPixel=" +
+			bitsPerPixel + ", signed=" + signed + ", floating=" + floating);
+	}
+
+	// -- Helper classes --
+
+	/** A scratch file, with the channel through which it is mapped. */
+	private static class Scratch {
+
+		private final File file;
+		private final FileChannel channel;
+
+		private Scratch(final File file, final FileChannel channel) {
+			this.file = file;
+			this.channel = channel;
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.mapped;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJService;
+import net.imagej.axis.AxisType;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Interface for services that create and open {@link Dataset}s whose pixels
+ * are stored in memory-mapped scratch files, rather than on the Java heap.
+ * <p>
+ * Such datasets can be larger than the heap (and than physical memory); the
+ * operating system pages their data in and out as it is accessed. Otherwise,
+ * they behave like any other dataset, and can be displayed or processed with
+ * ops as usual.
+ * </p>
+ *
+ * @see MappedImgs
+ */
+public interface MappedDatasetService extends ImageJService {
+
+	/**
+	 * System property setting the directory in which scratch files are created;
+	 * by default, the system's temporary directory is used.
+	 */
+	String SCRATCH_PROPERTY = "imagej.scratch.dir";
+
+	/** Gets the directory in which scratch files are created. */
+	File getScratchDirectory();
+
+	/** Sets the directory in which scratch files are created. */
+	void setScratchDirectory(File directory);
+
+	/**
+	 * Creates a new memory-mapped dataset.
+	 *
+	 * @param dims The dataset's dimensional extents.
+	 * @param name The dataset's name.
+	 * @param axes The dataset's dimensional axis labels.
+	 * @param bitsPerPixel The dataset's bit depth (1, 8, 16, 32 or 64).
+	 * @param signed Whether the dataset's pixels can have negative values.
+	 * @param floating Whether the dataset's pixels can have non-integer values.
+	 * @return The newly created dataset.
+	 * @throws IllegalArgumentException If the combination of bitsPerPixel,
+	 *           signed and floating parameters do not form a valid data type.
+	 * @throws IOException If the scratch file cannot be created.
+	 */
+	Dataset create(long[] dims, String name, AxisType[] axes, int bitsPerPixel,
+		boolean signed, boolean floating) throws IOException;
+
+	/**
+	 * Creates a new memory-mapped dataset with the given pixel type.
+	 *
+	 * @throws IOException If the scratch file cannot be created.
+	 */
+	<T extends RealType<T> & NativeType<T>> Dataset create(T type, long[] dims,
+		String name, AxisType[] axes) throws IOException;
+
+	/**
+	 * Opens the given image source into a new memory-mapped dataset. The whole
+	 * source is copied into the scratch file before this method returns, so
+	 * opening takes as long as reading all of the source, however little of
+	 * the dataset is accessed later. The source is read block by block, so it
+	 * need not fit into memory either.
+	 *
+	 * @throws IOException If the source cannot be read, or the scratch file
+	 *           cannot be created.
+	 */
+	Dataset open(String source) throws IOException;
+
+	/**
+	 * Copies the given dataset into a new memory-mapped dataset, with the same
+	 * pixel type and metadata.
+	 *
+	 * @throws IOException If the scratch file cannot be created.
+	 */
+	Dataset copy(Dataset dataset) throws IOException;
+
+}
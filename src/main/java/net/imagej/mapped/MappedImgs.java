@@ -0,0 +1,364 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.mapped;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.img.basictypeaccess.DoubleAccess;
+import net.imglib2.img.basictypeaccess.FloatAccess;
+import net.imglib2.img.basictypeaccess.IntAccess;
+import net.imglib2.img.basictypeaccess.LongAccess;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.PrimitiveType;
+
+/**
+ * Utility methods for creating images whose pixels live in a memory-mapped
+ * file rather than on the Java heap.
+ * <p>
+ * The image is divided into blocks (whole planes, where possible, or else
+ * rows or parts of rows), each of
+ * which is mapped from its own region of the file the first time it is
+ * accessed. The operating system pages the mapped regions in and out as
+ * needed, so images may be much larger than the heap, and even than physical
+ * memory.
+ * </p>
+ */
+public final class MappedImgs {
+
+	/** Maximum size of a single block, in bytes. */
+	private static final long MAX_BLOCK_BYTES = 256L << 20;
+
+	private MappedImgs() {
+		// NB: Prevent instantiation of utility class.
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * Creates an image of the given type and dimensions, backed by the given
+	 * file channel, which must be open for reading and writing. The file is
+	 * grown as needed; it is the caller's responsibility to close the channel
+	 * once the image is no longer used.
+	 *
+	 * @throws IllegalArgumentException if the type is not supported, i.e., is
+	 *           not backed by a single primitive array per block.
+	 */
+	public static <T extends NativeType<T>> Img<T> create(
+		final FileChannel channel, final T type, final long... dims)
+		throws IOException
+	{
+		final PrimitiveType primitive = type.getNativeTypeFactory()
+			.getPrimitiveType();
+		final int bytesPerEntity = bytesPerEntity(primitive);
+		final int[] blockDims = blockDimensions(type, dims, bytesPerEntity);
+		final CellGrid grid = new CellGrid(dims, blockDims);
+
+		long blockPixels = 1;
+		for (final int d : blockDims) {
+			blockPixels *= d;
+		}
+		final long blockBytes = type.getEntitiesPerPixel().mulCeil(blockPixels) *
+			bytesPerEntity;
+		final long blockCount = count(grid.getGridDimensions());
+		if (channel.size() < blockCount * blockBytes) {
+			// NB: Extends the file without writing; most file systems allocate
+			// the space lazily.
+			channel.write(ByteBuffer.allocate(1), blockCount * blockBytes - 1);
+		}
+
+		final Blocks blocks = new Blocks(channel, grid, type, primitive,
+			blockBytes, blockCount);
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		final Img<T> img = new LazyCellImg(grid, type, blocks);
+		return img;
+	}
+
+	// -- Helper methods --
+
+	private static int bytesPerEntity(final PrimitiveType primitive) {
+		switch (primitive) {
+			case BYTE:
+				return 1;
+			case SHORT:
+				return 2;
+			case INT:
+			case FLOAT:
+				return 4;
+			case LONG:
+			case DOUBLE:
+				return 8;
+			default:
+				throw new IllegalArgumentException("Unsupported primitive type: " +
+					primitive);
+		}
+	}
+
+	/**
+	 * Chooses block dimensions covering whole planes, or as many rows of a
+	 * plane as fit into {@link #MAX_BLOCK_BYTES}, or as much of a row.
+	 */
+	private static int[] blockDimensions(final NativeType<?> type,
+		final long[] dims, final int bytesPerEntity)
+	{
+		// NB: A block must be mappable as a single buffer, whose size is limited
+		// to Integer.MAX_VALUE bytes; rows may be longer than that.
+		final long maxColumns = Math.max(1, (long) (MAX_BLOCK_BYTES /
+			bytesPerEntity / type.getEntitiesPerPixel().getRatio()));
+		final int[] blockDims = new int[dims.length];
+		for (int d = 0; d < dims.length; d++) {
+			blockDims[d] = d < 2 ? (int) Math.min(dims[d], Integer.MAX_VALUE) : 1;
+		}
+		if (dims.length > 0) {
+			blockDims[0] = (int) Math.min(blockDims[0], maxColumns);
+		}
+		if (dims.length > 1) {
+			final long rowBytes = type.getEntitiesPerPixel().mulCeil(blockDims[0]) *
+				bytesPerEntity;
+			final long maxRows = Math.max(1, MAX_BLOCK_BYTES / rowBytes);
+			blockDims[1] = (int) Math.min(blockDims[1], maxRows);
+		}
+		return blockDims;
+	}
+
+	private static long count(final long[] dims) {
+		long count = 1;
+		for (final long d : dims) {
+			count *= d;
+		}
+		return count;
+	}
+
+	// -- Helper classes --
+
+	/** Maps blocks of the image on demand, each at most once. */
+	private static class Blocks implements LazyCellImg.Get<Cell<?>> {
+
+		private final FileChannel channel;
+		private final CellGrid grid;
+		private final NativeType<?> type;
+		private final PrimitiveType primitive;
+		private final long blockBytes;
+		private final AtomicReferenceArray<Cell<?>> cells;
+
+		private Blocks(final FileChannel channel, final CellGrid grid,
+			final NativeType<?> type, final PrimitiveType primitive,
+			final long blockBytes, final long blockCount)
+		{
+			if (blockCount > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Too many blocks: " + blockCount);
+			}
+			this.channel = channel;
+			this.grid = grid;
+			this.type = type;
+			this.primitive = primitive;
+			this.blockBytes = blockBytes;
+			cells = new AtomicReferenceArray<>((int) blockCount);
+		}
+
+		@Override
+		public Cell<?> get(final long index) {
+			final Cell<?> cell = cells.get((int) index);
+			if (cell != null) return cell;
+			synchronized (this) {
+				if (cells.get((int) index) == null) {
+					cells.set((int) index, map(index));
+				}
+				return cells.get((int) index);
+			}
+		}
+
+		private Cell<?> map(final long index) {
+			final long[] min = new long[grid.numDimensions()];
+			final int[] dims = new int[grid.numDimensions()];
+			grid.getCellDimensions(index, min, dims);
+			final ByteBuffer buffer;
+			try {
+				buffer = channel.map(MapMode.READ_WRITE, index * blockBytes,
+					blockBytes).order(ByteOrder.nativeOrder());
+			}
+			catch (final IOException exc) {
+				throw new IllegalStateException("Cannot map block " + index, exc);
+			}
+			return new Cell<>(dims, min, access(buffer));
+		}
+
+		private Object access(final ByteBuffer buffer) {
+			switch (primitive) {
+				case BYTE:
+					return new ByteMapping(buffer);
+				case SHORT:
+					return new ShortMapping(buffer.asShortBuffer());
+				case INT:
+					return new IntMapping(buffer.asIntBuffer());
+				case LONG:
+					return new LongMapping(buffer.asLongBuffer());
+				case FLOAT:
+					return new FloatMapping(buffer.asFloatBuffer());
+				case DOUBLE:
+					return new DoubleMapping(buffer.asDoubleBuffer());
+				default:
+					throw new IllegalArgumentException("Unsupported type: " + type);
+			}
+		}
+	}
+
+	private static class ByteMapping implements ByteAccess {
+
+		private final ByteBuffer buffer;
+
+		private ByteMapping(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public byte getValue(final int index) {
+			return buffer.get(index);
+		}
+
+		@Override
+		public void setValue(final int index, final byte value) {
+			buffer.put(index, value);
+		}
+	}
+
+	private static class ShortMapping implements ShortAccess {
+
+		private final ShortBuffer buffer;
+
+		private ShortMapping(final ShortBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public short getValue(final int index) {
+			return buffer.get(index);
+		}
+
+		@Override
+		public void setValue(final int index, final short value) {
+			buffer.put(index, value);
+		}
+	}
+
+	private static class IntMapping implements IntAccess {
+
+		private final IntBuffer buffer;
+
+		private IntMapping(final IntBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int getValue(final int index) {
+			return buffer.get(index);
+		}
+
+		@Override
+		public void setValue(final int index, final int value) {
+			buffer.put(index, value);
+		}
+	}
+
+	private static class LongMapping implements LongAccess {
+
+		private final LongBuffer buffer;
+
+		private LongMapping(final LongBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public long getValue(final int index) {
+			return buffer.get(index);
+		}
+
+		@Override
+		public void setValue(final int index, final long value) {
+			buffer.put(index, value);
+		}
+	}
+
+	private static class FloatMapping implements FloatAccess {
+
+		private final FloatBuffer buffer;
+
+		private FloatMapping(final FloatBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public float getValue(final int index) {
+			return buffer.get(index);
+		}
+
+		@Override
+		public void setValue(final int index, final float value) {
+			buffer.put(index, value);
+		}
+	}
+
+	private static class DoubleMapping implements DoubleAccess {
+
+		private final DoubleBuffer buffer;
+
+		private DoubleMapping(final DoubleBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public double getValue(final int index) {
+			return buffer.get(index);
+		}
+
+		@Override
+		public void setValue(final int index, final double value) {
+			buffer.put(index, value);
+		}
+	}
+
+}
@@ -0,0 +1,519 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.memory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import net.imagej.Dataset;
+import net.imagej.cache.BlockCache;
+import net.imagej.cache.BlockCacheService;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imagej.event.DatasetUpdatedEvent;
+import net.imagej.mapped.MappedDatasetService;
+import net.imagej.opcache.OpMemoService;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.planar.PlanarImg;
+
+import org.scijava.event.EventHandler;
+import org.scijava.log.LogService;
+import org.scijava.module.Module;
+import org.scijava.module.event.ModuleExecutedEvent;
+import org.scijava.module.event.ModuleExecutingEvent;
+import org.scijava.object.event.ObjectsAddedEvent;
+import org.scijava.object.event.ObjectsRemovedEvent;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Default service keeping the memory held by a context within a budget.
+ * <p>
+ * Budgeting is opt-in: until a budget is set, the service only accounts for
+ * memory, and leaves the JVM's memory pool thresholds alone.
+ * </p>
+ * <p>
+ * Tracked datasets are held weakly, so tracking never keeps a dataset alive.
+ * Only datasets whose pixels are stored in heap arrays (array and planar
+ * images) are accounted; memory-mapped and cell-cached datasets already keep
+ * their pixels elsewhere.
+ * </p>
+ * <p>
+ * A dataset which is an input of a running module is in use, and is not
+ * spilled until the module has run, since the module may hold on to its
+ * pixel arrays. Reclaiming memory in response to a nearly full heap happens
+ * on a thread of the {@link ThreadService}, never on the thread delivering
+ * the JVM's notification.
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultMemoryService extends AbstractService implements
+	MemoryService
+{
+
+	@Parameter
+	private MappedDatasetService mappedDatasetService;
+
+	@Parameter
+	private ThreadService threadService;
+
+	@Parameter
+	private LogService log;
+
+	/** Tracked datasets, with their usage and spilling state. */
+	private final Map<Dataset, Entry> entries = new WeakHashMap<>();
+
+	/**
+	 * The running modules using each dataset. Modules are held weakly, so that
+	 * one which fails without finishing does not keep its datasets in use.
+	 */
+	private final Map<Dataset, Set<Module>> users = new WeakHashMap<>();
+
+	/** The budget when none is set. */
+	private static final long NO_BUDGET = Long.MAX_VALUE;
+
+	/** Guards against reclaiming again while spilling updates a dataset. */
+	private final AtomicBoolean reclaiming = new AtomicBoolean();
+
+	private long budget;
+	private long clock;
+	private long spills;
+	private long spilledBytes;
+	private long warnings;
+
+	private NotificationListener listener;
+
+	// -- MemoryService methods --
+
+	@Override
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	@Override
+	public void setBudget(final long budget) {
+		synchronized (this) {
+			this.budget = budget;
+		}
+		monitor();
+		enforce();
+	}
+
+	@Override
+	public long getUsage() {
+		return datasetBytes() + cacheBytes();
+	}
+
+	@Override
+	public void track(final Dataset dataset) {
+		touch(dataset);
+		enforce();
+	}
+
+	@Override
+	public synchronized void touch(final Dataset dataset) {
+		entry(dataset).lastUse = ++clock;
+	}
+
+	@Override
+	public synchronized void pin(final Dataset dataset) {
+		entry(dataset).pinned = true;
+	}
+
+	@Override
+	public synchronized void unpin(final Dataset dataset) {
+		final Entry entry = entries.get(dataset);
+		if (entry != null) entry.pinned = false;
+	}
+
+	@Override
+	public synchronized boolean isPinned(final Dataset dataset) {
+		final Entry entry = entries.get(dataset);
+		return entry != null && entry.pinned;
+	}
+
+	@Override
+	public synchronized boolean isSpilled(final Dataset dataset) {
+		final Entry entry = entries.get(dataset);
+		return entry != null && entry.spilled;
+	}
+
+	@Override
+	public boolean spill(final Dataset dataset) throws IOException {
+		if (isPinned(dataset) || isInUse(dataset)) return false;
+		final long bytes = heapBytes(dataset);
+		if (bytes == 0) return false;
+		final Dataset copy = mappedDatasetService.copy(dataset);
+		dataset.setImgPlus(copy.getImgPlus());
+		synchronized (this) {
+			entry(dataset).spilled = true;
+			spills++;
+			spilledBytes += bytes;
+		}
+		log.debug("Spilled " + bytes + " bytes of " + dataset.getName());
+		return true;
+	}
+
+	@Override
+	public long reclaim(final long bytes) {
+		if (bytes <= 0 || !reclaiming.compareAndSet(false, true)) return 0;
+		try {
+			final long freed = evictCaches(bytes);
+			return freed + spillDatasets(bytes - freed);
+		}
+		finally {
+			reclaiming.set(false);
+		}
+	}
+
+	@Override
+	public MemoryStats getStats() {
+		final long datasetBytes = datasetBytes();
+		final long cacheBytes = cacheBytes();
+		synchronized (this) {
+			return new MemoryStats(budget, entries.size(), datasetBytes, cacheBytes,
+				spills, spilledBytes, warnings);
+		}
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		budget = bytes(BUDGET_PROPERTY, NO_BUDGET);
+		if (budget != NO_BUDGET) monitor();
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public synchronized void dispose() {
+		if (listener == null) return;
+		try {
+			((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+				.removeNotificationListener(listener);
+		}
+		catch (final ListenerNotFoundException exc) {
+			log.debug(exc);
+		}
+		listener = null;
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final ObjectsAddedEvent evt) {
+		boolean added = false;
+		for (final Object item : evt.getItems()) {
+			if (!(item instanceof Dataset)) continue;
+			touch((Dataset) item);
+			added = true;
+		}
+		if (added) enforce();
+	}
+
+	@EventHandler
+	protected void onEvent(final ObjectsRemovedEvent evt) {
+		for (final Object item : evt.getItems()) {
+			if (item instanceof Dataset) untrack((Dataset) item);
+		}
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetUpdatedEvent evt) {
+		final Dataset dataset = evt.getObject();
+		synchronized (this) {
+			if (!entries.containsKey(dataset)) return;
+		}
+		touch(dataset);
+		if (!evt.isMetaDataOnly()) enforce();
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent evt) {
+		// NB: The MappedDatasetService deletes the scratch file of a spilled
+		// dataset upon the same event.
+		untrack(evt.getObject());
+	}
+
+	@EventHandler
+	protected void onEvent(final ModuleExecutingEvent evt) {
+		final Module module = evt.getModule();
+		for (final Dataset dataset : datasets(module)) {
+			synchronized (this) {
+				users.computeIfAbsent(dataset, d -> Collections.newSetFromMap(
+					new WeakHashMap<>())).add(module);
+			}
+		}
+	}
+
+	@EventHandler
+	protected void onEvent(final ModuleExecutedEvent evt) {
+		final Module module = evt.getModule();
+		for (final Dataset dataset : datasets(module)) {
+			synchronized (this) {
+				final Set<Module> modules = users.get(dataset);
+				if (modules == null) continue;
+				modules.remove(module);
+				if (modules.isEmpty()) users.remove(dataset);
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	private synchronized Entry entry(final Dataset dataset) {
+		return entries.computeIfAbsent(dataset, d -> new Entry());
+	}
+
+	private synchronized void untrack(final Dataset dataset) {
+		entries.remove(dataset);
+	}
+
+	/** Gets whether the given dataset is an input of a running module. */
+	private synchronized boolean isInUse(final Dataset dataset) {
+		final Set<Module> modules = users.get(dataset);
+		return modules != null && !modules.isEmpty();
+	}
+
+	private static List<Dataset> datasets(final Module module) {
+		final List<Dataset> datasets = new ArrayList<>();
+		for (final Object input : module.getInputs().values()) {
+			if (input instanceof Dataset) datasets.add((Dataset) input);
+		}
+		return datasets;
+	}
+
+	/**
+	 * Starts watching the heap for nearly full collections, once a budget is
+	 * set.
+	 */
+	private synchronized void monitor() {
+		if (listener != null) return;
+		final double warn = fraction(WARN_PROPERTY, 0.85);
+
+		// NB: Collection usage thresholds are global to the JVM, so the last
+		// context to set them wins; each context still gets notified.
+		for (final MemoryPoolMXBean pool : ManagementFactory
+			.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() != MemoryType.HEAP) continue;
+			if (!pool.isCollectionUsageThresholdSupported()) continue;
+			final long max = pool.getUsage().getMax();
+			if (max > 0) pool.setCollectionUsageThreshold((long) (max * warn));
+		}
+		listener = this::handleNotification;
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+			.addNotificationListener(listener, null, null);
+	}
+
+	/** Reclaims whatever the accounted data holds beyond the budget. */
+	private void enforce() {
+		final long excess = getUsage() - getBudget();
+		if (excess > 0) reclaim(excess);
+	}
+
+	/** Evicts cached blocks, then memoized op results, as needed. */
+	private long evictCaches(final long bytes) {
+		long freed = 0;
+		final BlockCacheService blockCacheService = context().getService(
+			BlockCacheService.class);
+		if (blockCacheService != null) {
+			// NB: Shrinking the budget temporarily evicts just enough blocks, in
+			// the cache's own eviction order.
+			final BlockCache cache = blockCacheService.getCache();
+			final long before = cache.getStats().heapBytes();
+			final long heapBudget = cache.getHeapBudget();
+			cache.setHeapBudget(Math.max(0, before - bytes));
+			cache.setHeapBudget(heapBudget);
+			freed += before - cache.getStats().heapBytes();
+		}
+		if (freed < bytes) {
+			// NB: Memoized results can hold whole images, but their size is not
+			// known; discard them all.
+			final OpMemoService opMemoService = context().getService(
+				OpMemoService.class);
+			if (opMemoService != null) opMemoService.clear();
+		}
+		return freed;
+	}
+
+	/**
+	 * Spills the least recently used datasets which are neither pinned nor in
+	 * use, as needed.
+	 */
+	private long spillDatasets(final long bytes) {
+		if (bytes <= 0) return 0;
+		final List<Dataset> candidates;
+		synchronized (this) {
+			candidates = new ArrayList<>(entries.keySet());
+			candidates.sort((a, b) -> Long.compare(entries.get(a).lastUse, entries
+				.get(b).lastUse));
+		}
+		long freed = 0;
+		for (final Dataset dataset : candidates) {
+			if (freed >= bytes) break;
+			final long size = heapBytes(dataset);
+			try {
+				if (spill(dataset)) freed += size;
+			}
+			catch (final IOException exc) {
+				log.warn("Cannot spill " + dataset.getName(), exc);
+			}
+		}
+		if (freed < bytes) {
+			log.warn("Could reclaim only " + freed + " of " + bytes + " bytes");
+		}
+		return freed;
+	}
+
+	private void handleNotification(final Notification notification,
+		final Object handback)
+	{
+		if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(
+			notification.getType())) return;
+		synchronized (this) {
+			warnings++;
+		}
+		// NB: Spilling writes files, which must not hold up the thread
+		// delivering notifications.
+		threadService.run(this::lowMemory);
+	}
+
+	private void lowMemory() {
+		final MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+			.getHeapMemoryUsage();
+		final long usage = getUsage();
+		log.warn("Heap nearly full after garbage collection: " + (heap
+			.getUsed() >> 20) + " of " + (heap.getMax() >> 20) + " MiB in use, " +
+			(usage >> 20) + " MiB by datasets and caches; reclaiming memory");
+		// NB: The heap may be full of data this service does not account for,
+		// so free half of what it does, even when within the budget.
+		reclaim(usage / 2);
+	}
+
+	private long datasetBytes() {
+		final List<Dataset> datasets;
+		synchronized (this) {
+			datasets = new ArrayList<>(entries.keySet());
+		}
+		long bytes = 0;
+		for (final Dataset dataset : datasets) {
+			bytes += heapBytes(dataset);
+		}
+		return bytes;
+	}
+
+	private long cacheBytes() {
+		final BlockCacheService blockCacheService = context().getService(
+			BlockCacheService.class);
+		if (blockCacheService == null) return 0;
+		return blockCacheService.getCache().getStats().heapBytes();
+	}
+
+	/** Gets the number of bytes of the dataset's pixels held on the heap. */
+	private static long heapBytes(final Dataset dataset) {
+		final Img<?> img = dataset.getImgPlus().getImg();
+		if (img instanceof ArrayImg || img instanceof PlanarImg) {
+			return dataset.getBytesOfInfo();
+		}
+		return 0;
+	}
+
+	/** Parses a byte count such as {@code 512m} from a system property. */
+	private long bytes(final String property, final long defaultValue) {
+		final String value = System.getProperty(property);
+		if (value == null || value.isEmpty()) return defaultValue;
+		final String number = value.substring(0, value.length() - 1);
+		try {
+			switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+				case 'k':
+					return Long.parseLong(number) << 10;
+				case 'm':
+					return Long.parseLong(number) << 20;
+				case 'g':
+					return Long.parseLong(number) << 30;
+				default:
+					return Long.parseLong(value);
+			}
+		}
+		catch (final NumberFormatException exc) {
+			log.warn("Invalid value for " + property + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	/** Parses a fraction between 0 and 1 from a system property. */
+	private double fraction(final String property, final double defaultValue) {
+		final String value = System.getProperty(property);
+		if (value == null || value.isEmpty()) return defaultValue;
+		try {
+			final double fraction = Double.parseDouble(value);
+			if (fraction > 0 && fraction <= 1) return fraction;
+		}
+		catch (final NumberFormatException exc) {
+			// NB: Handled below.
+		}
+		log.warn("Invalid value for " + property + ": " + value);
+		return defaultValue;
+	}
+
+	// -- Helper classes --
+
+	/** The accounting state of a tracked dataset. */
+	private static class Entry {
+
+		private long lastUse;
+		private boolean pinned;
+		private boolean spilled;
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.memory;
+
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJService;
+import net.imagej.mapped.MappedDatasetService;
+
+/**
+ * Interface for the service keeping the memory held by a long-lived context
+ * within a budget.
+ * <p>
+ * The service accounts for the heap bytes of the tracked datasets (those
+ * added to the {@link org.scijava.object.ObjectService}, or passed to
+ * {@link #track}) and of the cached blocks of the
+ * {@link net.imagej.cache.BlockCacheService}. Whenever that total exceeds the
+ * budget, memory is reclaimed: cached data is evicted first, since it can be
+ * recomputed, and then the least recently used tracked datasets which are
+ * neither pinned nor inputs of a running module are spilled to memory-mapped
+ * scratch files (see {@link MappedDatasetService}). Spilled datasets keep
+ * working as before, but their pixels are paged in from disk as they are
+ * accessed. Deleting a spilled dataset deletes its scratch file.
+ * </p>
+ * <p>
+ * The service also warns when the heap is still nearly full after a garbage
+ * collection, which usually precedes an {@link OutOfMemoryError}, and
+ * reclaims memory then, too.
+ * </p>
+ * <p>
+ * All of this is opt-in: until a budget is set, via {@link #setBudget} or the
+ * {@value #BUDGET_PROPERTY} system property, the service only accounts for
+ * memory. It neither reclaims memory nor changes the JVM's memory pool
+ * thresholds.
+ * </p>
+ */
+public interface MemoryService extends ImageJService {
+
+	/**
+	 * System property setting the memory budget, in bytes, with an optional
+	 * {@code k}, {@code m} or {@code g} suffix. By default, there is no
+	 * budget.
+	 */
+	String BUDGET_PROPERTY = "imagej.memory.budget";
+
+	/**
+	 * System property setting the fraction of the heap which may remain in use
+	 * after a garbage collection before a warning is issued. Defaults to 0.85.
+	 */
+	String WARN_PROPERTY = "imagej.memory.warn";
+
+	/**
+	 * Gets the number of bytes the accounted data may hold, or
+	 * {@link Long#MAX_VALUE} if no budget is set.
+	 */
+	long getBudget();
+
+	/**
+	 * Sets the number of bytes the accounted data may hold, reclaiming memory
+	 * as needed. Setting a budget also starts watching the heap for nearly full
+	 * garbage collections.
+	 */
+	void setBudget(long budget);
+
+	/** Gets the number of heap bytes currently held by the accounted data. */
+	long getUsage();
+
+	/**
+	 * Starts accounting for the given dataset, reclaiming memory as needed.
+	 * Datasets are tracked until they are deleted, removed from the object
+	 * service, or garbage collected.
+	 */
+	void track(Dataset dataset);
+
+	/**
+	 * Marks the given dataset as recently used, so that it is spilled after
+	 * those used less recently. Updating a dataset marks it as well.
+	 */
+	void touch(Dataset dataset);
+
+	/**
+	 * Protects the given dataset from being spilled. Datasets are protected
+	 * anyway while they are inputs of a running module, but code holding on to
+	 * a dataset's pixel arrays otherwise must pin it.
+	 */
+	void pin(Dataset dataset);
+
+	/** Allows the given dataset to be spilled again. */
+	void unpin(Dataset dataset);
+
+	/** Gets whether the given dataset is protected from being spilled. */
+	boolean isPinned(Dataset dataset);
+
+	/** Gets whether the given dataset was spilled to scratch storage. */
+	boolean isSpilled(Dataset dataset);
+
+	/**
+	 * Moves the pixels of the given dataset from the heap into a memory-mapped
+	 * scratch file.
+	 *
+	 * @return False if the dataset is pinned, is an input of a running module,
+	 *         or its pixels are not on the heap.
+	 * @throws IOException If the scratch file cannot be written.
+	 */
+	boolean spill(Dataset dataset) throws IOException;
+
+	/**
+	 * Evicts cached data, then spills the least recently used unpinned
+	 * datasets, until at least the given number of bytes is freed or nothing
+	 * is left to reclaim.
+	 *
+	 * @return The number of bytes freed.
+	 */
+	long reclaim(long bytes);
+
+	/** Gets a snapshot of the accounted memory and of the reclaiming so far. */
+	MemoryStats getStats();
+
+}
@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.memory;
+
+/**
+ * A snapshot of the memory accounted by the {@link MemoryService}.
+ */
+public class MemoryStats {
+
+	private final long budget;
+	private final int datasets;
+	private final long datasetBytes;
+	private final long cacheBytes;
+	private final long spills;
+	private final long spilledBytes;
+	private final long warnings;
+
+	/** Creates a snapshot of the given values. */
+	public MemoryStats(final long budget, final int datasets,
+		final long datasetBytes, final long cacheBytes, final long spills,
+		final long spilledBytes, final long warnings)
+	{
+		this.budget = budget;
+		this.datasets = datasets;
+		this.datasetBytes = datasetBytes;
+		this.cacheBytes = cacheBytes;
+		this.spills = spills;
+		this.spilledBytes = spilledBytes;
+		this.warnings = warnings;
+	}
+
+	/** Gets the number of bytes the accounted data may hold. */
+	public long budget() {
+		return budget;
+	}
+
+	/** Gets the number of tracked datasets. */
+	public int datasets() {
+		return datasets;
+	}
+
+	/** Gets the number of heap bytes held by the tracked datasets. */
+	public long datasetBytes() {
+		return datasetBytes;
+	}
+
+	/** Gets the number of heap bytes held by cached blocks. */
+	public long cacheBytes() {
+		return cacheBytes;
+	}
+
+	/** Gets the number of bytes held by the accounted data. */
+	public long usage() {
+		return datasetBytes + cacheBytes;
+	}
+
+	/** Gets the number of datasets spilled to scratch storage. */
+	public long spills() {
+		return spills;
+	}
+
+	/** Gets the number of bytes spilled to scratch storage. */
+	public long spilledBytes() {
+		return spilledBytes;
+	}
+
+	/** Gets the number of warnings issued about a nearly full heap. */
+	public long warnings() {
+		return warnings;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("usage=%d of %d bytes (datasets=%d bytes in %d, " +
+			"cache=%d bytes), spills=%d (%d bytes), warnings=%d", usage(), budget,
+			datasetBytes, datasets, cacheBytes, spills, spilledBytes, warnings);
+	}
+
+}
@@ -0,0 +1,470 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.DoubleSupplier;
+import java.util.stream.Stream;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import net.imagej.Dataset;
+import net.imagej.cache.BlockCacheService;
+import net.imagej.opcache.OpHandleService;
+import net.imagej.opcache.OpMemoService;
+
+import org.scijava.event.EventHandler;
+import org.scijava.io.event.DataOpenedEvent;
+import org.scijava.io.event.DataSavedEvent;
+import org.scijava.log.LogService;
+import org.scijava.module.Module;
+import org.scijava.module.event.ModuleExecutedEvent;
+import org.scijava.module.event.ModuleExecutingEvent;
+import org.scijava.object.ObjectService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.script.ScriptModule;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Default service collecting runtime metrics.
+ * <p>
+ * Besides the metrics of instrumented services (such as the
+ * {@link OpHandleService}'s op timings), this service counts the data opened
+ * and saved, and the bytes of the files involved; times script executions;
+ * and provides gauges for memory use, cache hit rates and thread pool
+ * queues.
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultMetricsService extends AbstractService implements
+	MetricsService
+{
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(required = false)
+	private ObjectService objectService;
+
+	@Parameter(required = false)
+	private ThreadService threadService;
+
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+	private final Map<String, DoubleSupplier> gauges =
+		new ConcurrentHashMap<>();
+
+	/** Start times of the scripts being executed. */
+	private final Map<Module, Long> scripts = Collections.synchronizedMap(
+		new WeakHashMap<>());
+
+	private volatile boolean enabled;
+	private ObjectName objectName;
+	private HttpServer server;
+
+	// -- MetricsService methods --
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public synchronized void setEnabled(final boolean enabled) {
+		if (enabled == this.enabled) return;
+		this.enabled = enabled;
+		if (enabled) publish();
+		else unpublish();
+	}
+
+	@Override
+	public Counter counter(final String name) {
+		return counters.computeIfAbsent(name, n -> new Counter());
+	}
+
+	@Override
+	public Timer timer(final String name) {
+		return timers.computeIfAbsent(name, n -> new Timer());
+	}
+
+	@Override
+	public void gauge(final String name, final DoubleSupplier gauge) {
+		gauges.put(name, gauge);
+	}
+
+	@Override
+	public void monitor(final String name, final ExecutorService pool) {
+		gauge(name + ".queued", () -> queued(pool));
+		gauge(name + ".active", () -> active(pool));
+	}
+
+	@Override
+	public Map<String, Number> getValues() {
+		final Map<String, Number> values = new TreeMap<>();
+		for (final Map.Entry<String, Counter> entry : counters.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().count());
+		}
+		for (final Map.Entry<String, DoubleSupplier> entry : gauges.entrySet()) {
+			values.put(entry.getKey(), evaluate(entry.getValue()));
+		}
+		for (final Map.Entry<String, Timer> entry : timers.entrySet()) {
+			final String name = entry.getKey();
+			final Timer timer = entry.getValue();
+			values.put(name + ".count", timer.count());
+			values.put(name + ".meanMillis", timer.meanMillis());
+			values.put(name + ".p99Millis", timer.percentileNanos(99) / 1e6);
+			values.put(name + ".maxMillis", timer.maxNanos() / 1e6);
+		}
+		return values;
+	}
+
+	@Override
+	public String format() {
+		final StringBuilder sb = new StringBuilder();
+		for (final String name : new TreeMap<>(counters).keySet()) {
+			final String metric = metricName(name) + "_total";
+			sb.append("# TYPE ").append(metric).append(" counter\n");
+			sb.append(metric).append(" ").append(counters.get(name).count());
+			sb.append("\n");
+		}
+		for (final String name : new TreeMap<>(gauges).keySet()) {
+			final String metric = metricName(name);
+			sb.append("# TYPE ").append(metric).append(" gauge\n");
+			sb.append(metric).append(" ").append(evaluate(gauges.get(name)));
+			sb.append("\n");
+		}
+		for (final String name : new TreeMap<>(timers).keySet()) {
+			final String metric = metricName(name) + "_seconds";
+			final Timer timer = timers.get(name);
+			sb.append("# TYPE ").append(metric).append(" histogram\n");
+			final long[] counts = timer.bucketCounts();
+			long cumulative = 0;
+			for (int b = 0; b < counts.length; b++) {
+				cumulative += counts[b];
+				final String bound = b == counts.length - 1 ? "+Inf" : Double
+					.toString(Timer.bucketBound(b) / 1e9);
+				sb.append(metric).append("_bucket{le=\"").append(bound).append(
+					"\"} ").append(cumulative).append("\n");
+			}
+			sb.append(metric).append("_sum ").append(timer.totalNanos() / 1e9);
+			sb.append("\n");
+			sb.append(metric).append("_count ").append(cumulative).append("\n");
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public synchronized int getPort() {
+		return server == null ? -1 : server.getAddress().getPort();
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		final Runtime runtime = Runtime.getRuntime();
+		gauge("memory.heap.used", () -> runtime.totalMemory() - runtime
+			.freeMemory());
+		gauge("memory.heap.max", runtime::maxMemory);
+		for (final BufferPoolMXBean pool : ManagementFactory
+			.getPlatformMXBeans(BufferPoolMXBean.class))
+		{
+			// NB: The "direct" and "mapped" pools hold off-heap data.
+			gauge("memory." + pool.getName() + ".used", pool::getMemoryUsed);
+		}
+		if (objectService != null) {
+			gauge("datasets.count", () -> objectService.getObjects(Dataset.class)
+				.size());
+			gauge("datasets.bytes", () -> objectService.getObjects(Dataset.class)
+				.stream().mapToLong(Dataset::getBytesOfInfo).sum());
+		}
+
+		// NB: Look the caches up lazily, so as not to create their services.
+		gauge("cache.blocks.hitRate", () -> context().getService(
+			BlockCacheService.class).getCache().getStats().hitRate());
+		gauge("cache.blocks.heapBytes", () -> context().getService(
+			BlockCacheService.class).getCache().getStats().heapBytes());
+		gauge("cache.blocks.offHeapBytes", () -> context().getService(
+			BlockCacheService.class).getCache().getStats().offHeapBytes());
+		gauge("cache.memo.hitRate", () -> context().getService(
+			OpMemoService.class).getStats().hitRate());
+		gauge("cache.matches.hitRate", () -> context().getService(
+			OpHandleService.class).getStats().hitRate());
+
+		monitor("pool.common", ForkJoinPool.commonPool());
+		if (threadService != null) {
+			gauge("pool.threads.queued", () -> queued(threadService
+				.getExecutorService()));
+			gauge("pool.threads.active", () -> active(threadService
+				.getExecutorService()));
+		}
+
+		if (Boolean.getBoolean(ENABLED_PROPERTY)) setEnabled(true);
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public synchronized void dispose() {
+		if (enabled) unpublish();
+		enabled = false;
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final ModuleExecutingEvent evt) {
+		if (!enabled || !(evt.getModule() instanceof ScriptModule)) return;
+		scripts.put(evt.getModule(), System.nanoTime());
+	}
+
+	@EventHandler
+	protected void onEvent(final ModuleExecutedEvent evt) {
+		if (!enabled) return;
+		final Long start = scripts.remove(evt.getModule());
+		if (start != null) timer("scripts").record(System.nanoTime() - start);
+	}
+
+	@EventHandler
+	protected void onEvent(final DataOpenedEvent evt) {
+		if (!enabled) return;
+		counter("io.opened").increment();
+		counter("io.bytes.read").add(size(evt.getDescriptor()));
+	}
+
+	@EventHandler
+	protected void onEvent(final DataSavedEvent evt) {
+		if (!enabled) return;
+		counter("io.saved").increment();
+		counter("io.bytes.written").add(size(evt.getDescriptor()));
+	}
+
+	// -- Helper methods --
+
+	private void publish() {
+		try {
+			objectName = new ObjectName("net.imagej:type=Metrics,context=" +
+				Integer.toHexString(System.identityHashCode(getContext())));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(),
+				objectName);
+		}
+		catch (final JMException exc) {
+			log.warn("Cannot publish metrics over JMX", exc);
+			objectName = null;
+		}
+
+		final String port = System.getProperty(PORT_PROPERTY);
+		if (port == null) return;
+		try {
+			server = HttpServer.create(new InetSocketAddress(InetAddress
+				.getLoopbackAddress(), Integer.parseInt(port.trim())), 0);
+			server.createContext("/metrics", exchange -> {
+				final byte[] body = format().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type",
+					"text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (final OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			});
+			server.start();
+		}
+		catch (final NumberFormatException exc) {
+			log.warn("Invalid " + PORT_PROPERTY + ": " + port);
+		}
+		catch (final IOException exc) {
+			log.warn("Cannot serve metrics on port " + port, exc);
+			server = null;
+		}
+	}
+
+	private void unpublish() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					objectName);
+			}
+			catch (final JMException exc) {
+				log.debug(exc);
+			}
+			objectName = null;
+		}
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	private static double evaluate(final DoubleSupplier gauge) {
+		try {
+			return gauge.getAsDouble();
+		}
+		catch (final RuntimeException exc) {
+			// NB: E.g., the gauged service is not available.
+			return Double.NaN;
+		}
+	}
+
+	private static double queued(final ExecutorService pool) {
+		if (pool instanceof ForkJoinPool) {
+			final ForkJoinPool fj = (ForkJoinPool) pool;
+			return fj.getQueuedSubmissionCount() + fj.getQueuedTaskCount();
+		}
+		if (pool instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor) pool).getQueue().size();
+		}
+		return Double.NaN;
+	}
+
+	private static double active(final ExecutorService pool) {
+		if (pool instanceof ForkJoinPool) {
+			return ((ForkJoinPool) pool).getActiveThreadCount();
+		}
+		if (pool instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor) pool).getActiveCount();
+		}
+		return Double.NaN;
+	}
+
+	/** Gets the size of the given local file, or directory tree. */
+	private long size(final String path) {
+		if (path == null) return 0;
+		final File file = new File(path);
+		if (file.isFile()) return file.length();
+		if (!file.isDirectory()) return 0;
+		try (final Stream<Path> paths = Files.walk(file.toPath())) {
+			return paths.map(Path::toFile).filter(File::isFile).mapToLong(
+				File::length).sum();
+		}
+		catch (final IOException exc) {
+			log.debug(exc);
+			return 0;
+		}
+	}
+
+	/** Converts a dotted metric name into a Prometheus metric name. */
+	private static String metricName(final String name) {
+		return "imagej_" + name.replaceAll("[^a-zA-Z0-9_]", "_");
+	}
+
+	// -- Helper classes --
+
+	/** Publishes the metrics as read-only MBean attributes. */
+	private class MBean implements DynamicMBean {
+
+		@Override
+		public Object getAttribute(final String attribute)
+			throws AttributeNotFoundException
+		{
+			final Number value = getValues().get(attribute);
+			if (value == null) throw new AttributeNotFoundException(attribute);
+			return value;
+		}
+
+		@Override
+		public void setAttribute(final Attribute attribute)
+			throws AttributeNotFoundException
+		{
+			throw new AttributeNotFoundException("Read-only: " + attribute
+				.getName());
+		}
+
+		@Override
+		public AttributeList getAttributes(final String[] attributes) {
+			final Map<String, Number> values = getValues();
+			final AttributeList list = new AttributeList();
+			for (final String attribute : attributes) {
+				final Number value = values.get(attribute);
+				if (value != null) list.add(new Attribute(attribute, value));
+			}
+			return list;
+		}
+
+		@Override
+		public AttributeList setAttributes(final AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(final String actionName, final Object[] params,
+			final String[] signature) throws ReflectionException
+		{
+			throw new ReflectionException(new NoSuchMethodException(actionName));
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			final Map<String, Number> values = getValues();
+			final MBeanAttributeInfo[] attributes =
+				new MBeanAttributeInfo[values.size()];
+			int i = 0;
+			for (final Map.Entry<String, Number> entry : values.entrySet()) {
+				attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry
+					.getValue().getClass().getName(), entry.getKey(), true, false,
+					false);
+			}
+			return new MBeanInfo(DefaultMetricsService.class.getName(),
+				"ImageJ runtime metrics", attributes, null, null, null);
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.DoubleSupplier;
+
+import net.imagej.ImageJService;
+
+/**
+ * Interface for the service collecting runtime metrics of the application
+ * context: counters, timers and gauges, identified by dotted names such as
+ * {@code ops.run} or {@code memory.heap.used}.
+ * <p>
+ * While enabled, the metrics are published as attributes of an MBean named
+ * {@code net.imagej:type=Metrics,context=...}, and optionally as text over
+ * HTTP on the loopback interface. While disabled, nothing is collected:
+ * instrumented code checks {@link #isEnabled()} before timing or counting
+ * anything, and gauges are only evaluated when read.
+ * </p>
+ */
+public interface MetricsService extends ImageJService {
+
+	/**
+	 * System property enabling metrics collection at startup, if set to
+	 * {@code true}.
+	 */
+	String ENABLED_PROPERTY = "imagej.metrics";
+
+	/**
+	 * System property setting the port on which the metrics are served as
+	 * text, at {@code http://localhost:<port>/metrics}, while enabled. A port
+	 * of 0 picks a free port. By default, they are not served.
+	 */
+	String PORT_PROPERTY = "imagej.metrics.port";
+
+	/** Gets whether metrics are being collected. */
+	boolean isEnabled();
+
+	/**
+	 * Starts or stops collecting metrics, and publishing them. Metrics
+	 * collected so far are kept.
+	 */
+	void setEnabled(boolean enabled);
+
+	/** Gets the counter with the given name, creating it if needed. */
+	Counter counter(String name);
+
+	/** Gets the timer with the given name, creating it if needed. */
+	Timer timer(String name);
+
+	/**
+	 * Registers a gauge, which is evaluated whenever the metrics are read.
+	 * Any gauge already registered under the name is replaced.
+	 */
+	void gauge(String name, DoubleSupplier gauge);
+
+	/**
+	 * Registers gauges for the number of queued tasks and active threads of
+	 * the given pool, if it is a {@link java.util.concurrent.ForkJoinPool} or
+	 * {@link java.util.concurrent.ThreadPoolExecutor}.
+	 *
+	 * @param name The prefix of the gauges' names.
+	 */
+	void monitor(String name, ExecutorService pool);
+
+	/**
+	 * Gets the current value of every metric, sorted by name. Timers are
+	 * reported as several values, suffixed with {@code .count},
+	 * {@code .meanMillis}, {@code .p99Millis} and {@code .maxMillis}.
+	 */
+	Map<String, Number> getValues();
+
+	/**
+	 * Formats the metrics as text, in the Prometheus exposition format, with
+	 * timers as histograms in seconds.
+	 */
+	String format();
+
+	/**
+	 * Gets the port on which the metrics are served as text, or -1 if they
+	 * are not being served.
+	 */
+	int getPort();
+
+}
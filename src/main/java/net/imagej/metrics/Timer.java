@@ -0,0 +1,142 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the durations of an operation, e.g. running an op or a script, in
+ * a histogram with exponentially growing buckets: the first holds durations
+ * under a microsecond, and each further bucket twice the range of the one
+ * before, up to the last, which holds everything over about 17 seconds.
+ */
+public class Timer {
+
+	/** The number of histogram buckets. */
+	public static final int BUCKETS = 26;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+	/** Creates a timer with no recorded durations. */
+	public Timer() {
+		for (int b = 0; b < BUCKETS; b++) {
+			buckets[b] = new LongAdder();
+		}
+	}
+
+	// -- Timer methods --
+
+	/** Records one duration, in nanoseconds. */
+	public void record(final long nanos) {
+		final long micros = Math.max(0, nanos) / 1000;
+		final int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(
+			micros);
+		buckets[Math.min(bucket, BUCKETS - 1)].increment();
+		count.increment();
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/** Gets the number of durations recorded. */
+	public long count() {
+		return count.sum();
+	}
+
+	/** Gets the sum of the durations recorded, in nanoseconds. */
+	public long totalNanos() {
+		return total.sum();
+	}
+
+	/** Gets the longest duration recorded, in nanoseconds. */
+	public long maxNanos() {
+		return max.get();
+	}
+
+	/** Gets the mean duration, in milliseconds. */
+	public double meanMillis() {
+		final long n = count();
+		return n == 0 ? 0 : totalNanos() / 1e6 / n;
+	}
+
+	/** Gets the number of durations recorded in each histogram bucket. */
+	public long[] bucketCounts() {
+		final long[] counts = new long[BUCKETS];
+		for (int b = 0; b < BUCKETS; b++) {
+			counts[b] = buckets[b].sum();
+		}
+		return counts;
+	}
+
+	/**
+	 * Gets the exclusive upper bound of the given histogram bucket, in
+	 * nanoseconds; {@link Long#MAX_VALUE} for the last bucket.
+	 */
+	public static long bucketBound(final int bucket) {
+		return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1000L << bucket;
+	}
+
+	/**
+	 * Estimates the given percentile of the durations, as the upper bound of
+	 * the histogram bucket in which it falls (but at most the longest
+	 * duration), in nanoseconds.
+	 *
+	 * @param percentile The percentile, from 0 to 100.
+	 */
+	public long percentileNanos(final double percentile) {
+		final long[] counts = bucketCounts();
+		long n = 0;
+		for (final long c : counts) {
+			n += c;
+		}
+		if (n == 0) return 0;
+		final double rank = percentile / 100 * n;
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts[b];
+			if (seen >= rank && counts[b] > 0) {
+				return Math.min(bucketBound(b), maxNanos());
+			}
+		}
+		return maxNanos();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d, mean=%.3f ms, p99=%.3f ms, max=%.3f ms",
+			count(), meanMillis(), percentileNanos(99) / 1e6, maxNanos() / 1e6);
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.opcache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imagej.metrics.MetricsService;
+import net.imagej.ops.OpService;
+
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service caching op matches in a bounded, least recently used map per
+ * thread. Since a cached {@link OpHandle} reuses its op instance, each thread
+ * keeps its own handles. Handles release their arguments and outputs after
+ * each run, and all threads' handles are dropped when the cache is cleared or
+ * the service is disposed.
+ */
+@Plugin(type = Service.class)
+public class DefaultOpHandleService extends AbstractService implements
+	OpHandleService
+{
+
+	@Parameter
+	private OpService opService;
+
+	@Parameter
+	private MetricsService metricsService;
+
+	@Parameter
+	private LogService log;
+
+	private final ThreadLocal<Matches> matches = ThreadLocal.withInitial(
+		this::newMatches);
+
+	/** The matches of all threads, so that they can be dropped when cleared. */
+	private final Set<Matches> allMatches = Collections.newSetFromMap(
+		new WeakHashMap<>());
+
+	/**
+	 * Incremented by {@link #clear()}, to discard matches made by other threads
+	 * while it runs.
+	 */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private final AtomicInteger size = new AtomicInteger();
+
+	private int maxEntries;
+
+	// -- OpHandleService methods --
+
+	@Override
+	public OpHandle handle(final String name, final Object... args) {
+		return new OpHandle(name, opService.module(name, args), args);
+	}
+
+	@Override
+	public Object run(final String name, final Object... args) {
+		if (!metricsService.isEnabled()) return dispatch(name, args);
+		final long start = System.nanoTime();
+		try {
+			return dispatch(name, args);
+		}
+		finally {
+			final long elapsed = System.nanoTime() - start;
+			metricsService.timer("ops").record(elapsed);
+			metricsService.timer("op." + name).record(elapsed);
+		}
+	}
+
+	@Override
+	public void clear() {
+		final int current = generation.incrementAndGet();
+		final List<Matches> all;
+		synchronized (allMatches) {
+			all = new ArrayList<>(allMatches);
+		}
+		// NB: The thread-local values of other threads cannot be removed, but
+		// emptying them lets go of their handles.
+		for (final Matches m : all) {
+			synchronized (m) {
+				size.addAndGet(-m.size());
+				m.clear();
+				m.generation = current;
+			}
+		}
+	}
+
+	@Override
+	public MemoStats getStats() {
+		return new MemoStats(hits.get(), misses.get(), evictions.get(),
+			invalidations.get(), size.get());
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		maxEntries = 256;
+		final String value = System.getProperty(SIZE_PROPERTY);
+		if (value != null) {
+			try {
+				maxEntries = Math.max(1, Integer.parseInt(value.trim()));
+			}
+			catch (final NumberFormatException exc) {
+				log.warn("Invalid " + SIZE_PROPERTY + ": " + value);
+			}
+		}
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		clear();
+		synchronized (allMatches) {
+			allMatches.clear();
+		}
+		matches.remove();
+		size.set(0);
+	}
+
+	// -- Helper methods --
+
+	private Matches newMatches() {
+		final Matches m = new Matches();
+		synchronized (allMatches) {
+			allMatches.add(m);
+		}
+		return m;
+	}
+
+	/** Runs the given op, through a cached handle where possible. */
+	private Object dispatch(final String name, final Object... args) {
+		final Class<?>[] types = new Class<?>[args.length];
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] == null) return opService.run(name, args);
+			types[i] = args[i].getClass();
+		}
+		final Key key = new Key(name, types);
+		final Matches cache = matches.get();
+		final boolean cached;
+		final OpHandle cachedHandle;
+		synchronized (cache) {
+			if (cache.generation != generation.get()) {
+				size.addAndGet(-cache.size());
+				cache.clear();
+				cache.generation = generation.get();
+			}
+			cached = cache.containsKey(key);
+			cachedHandle = cache.get(key);
+		}
+
+		if (cached) {
+			if (cachedHandle == null) {
+				// NB: This op cannot be run through a handle.
+				misses.incrementAndGet();
+				return opService.run(name, args);
+			}
+			if (cachedHandle.bind(args)) {
+				hits.incrementAndGet();
+				return cachedHandle.runBound();
+			}
+			cachedHandle.release();
+			invalidations.incrementAndGet();
+		}
+		else size.incrementAndGet();
+
+		misses.incrementAndGet();
+		OpHandle handle;
+		try {
+			handle = handle(name, args);
+		}
+		catch (final IllegalArgumentException exc) {
+			log.debug(exc);
+			handle = null;
+		}
+		synchronized (cache) {
+			cache.put(key, handle);
+		}
+		return handle == null ? opService.run(name, args) : handle.runBound();
+	}
+
+	// -- Helper classes --
+
+	/** The matches of one thread. */
+	private class Matches extends LinkedHashMap<Key, OpHandle> {
+
+		private int generation = DefaultOpHandleService.this.generation.get();
+
+		private Matches() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key, OpHandle> e) {
+			if (size() <= maxEntries) return false;
+			evictions.incrementAndGet();
+			size.decrementAndGet();
+			return true;
+		}
+	}
+
+	/** An op name and the types of its arguments. */
+	private static class Key {
+
+		private final String name;
+		private final Class<?>[] types;
+		private final int hash;
+
+		private Key(final String name, final Class<?>[] types) {
+			this.name = name;
+			this.types = types;
+			hash = 31 * name.hashCode() + Arrays.hashCode(types);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key)) return false;
+			final Key other = (Key) o;
+			return hash == other.hash && name.equals(other.name) && Arrays.equals(
+				types, other.types);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+}
@@ -0,0 +1,331 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.opcache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.imagej.Dataset;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imagej.event.DatasetUpdatedEvent;
+import net.imagej.ops.OpService;
+import net.imglib2.img.Img;
+
+import org.scijava.event.EventHandler;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service memoizing the results of deterministic ops in a bounded,
+ * least recently used map.
+ */
+@Plugin(type = Service.class)
+public class DefaultOpMemoService extends AbstractService implements
+	OpMemoService
+{
+
+	@Parameter
+	private OpService opService;
+
+	@Parameter
+	private LogService log;
+
+	private final Set<String> deterministic = ConcurrentHashMap.newKeySet();
+
+	private final Map<Key, Object> results = new LinkedHashMap<Key, Object>(16,
+		0.75f, true)
+	{
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key, Object> eldest) {
+			if (size() <= maxEntries) return false;
+			evictions++;
+			return true;
+		}
+	};
+
+	private int maxEntries;
+	private long hits, misses, evictions, invalidations;
+
+	// -- OpMemoService methods --
+
+	@Override
+	public Object run(final String name, final Object... args) {
+		if (!isDeterministic(name)) return opService.run(name, args);
+		final Key key = new Key(name, args);
+		synchronized (this) {
+			if (results.containsKey(key)) {
+				hits++;
+				return detach(results.get(key));
+			}
+			misses++;
+		}
+
+		// NB: Compute outside the lock, so that other ops are not held up. Two
+		// threads missing on the same key at once both compute the result.
+		final Object result = opService.run(name, args);
+		for (final Object arg : args) {
+			if (arg == result) return result;
+		}
+		synchronized (this) {
+			results.put(key, detach(result));
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isDeterministic(final String name) {
+		return deterministic.contains(name);
+	}
+
+	@Override
+	public void setDeterministic(final String name,
+		final boolean isDeterministic)
+	{
+		if (isDeterministic) deterministic.add(name);
+		else {
+			deterministic.remove(name);
+			synchronized (this) {
+				results.keySet().removeIf(key -> key.name.equals(name));
+			}
+		}
+	}
+
+	@Override
+	public Set<String> getDeterministic() {
+		return Collections.unmodifiableSet(deterministic);
+	}
+
+	@Override
+	public synchronized int getMaxEntries() {
+		return maxEntries;
+	}
+
+	@Override
+	public synchronized void setMaxEntries(final int maxEntries) {
+		if (maxEntries < 0) {
+			throw new IllegalArgumentException("Negative size: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		final Iterator<Key> iter = results.keySet().iterator();
+		while (results.size() > maxEntries) {
+			iter.next();
+			iter.remove();
+			evictions++;
+		}
+	}
+
+	@Override
+	public synchronized void invalidate(final Object input) {
+		for (final Iterator<Key> iter = results.keySet().iterator(); iter
+			.hasNext();)
+		{
+			if (iter.next().hasInput(input)) {
+				iter.remove();
+				invalidations++;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		results.clear();
+	}
+
+	@Override
+	public synchronized MemoStats getStats() {
+		return new MemoStats(hits, misses, evictions, invalidations, results
+			.size());
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		final String ops = System.getProperty(OPS_PROPERTY);
+		if (ops != null) {
+			for (final String name : ops.split(",")) {
+				if (!name.trim().isEmpty()) deterministic.add(name.trim());
+			}
+		}
+		maxEntries = 64;
+		final String size = System.getProperty(SIZE_PROPERTY);
+		if (size != null) {
+			try {
+				maxEntries = Math.max(0, Integer.parseInt(size.trim()));
+			}
+			catch (final NumberFormatException exc) {
+				log.warn("Invalid " + SIZE_PROPERTY + ": " + size);
+			}
+		}
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final DatasetUpdatedEvent evt) {
+		if (!evt.isMetaDataOnly()) invalidate(evt.getObject());
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent evt) {
+		invalidate(evt.getObject());
+	}
+
+	/**
+	 * Copies image results, so that modifying the image handed to one caller
+	 * does not change the memoized result; other results are shared.
+	 */
+	private static Object detach(final Object result) {
+		return result instanceof Img ? ((Img<?>) result).copy() : result;
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * The name and arguments of an op run. Immutable values are compared by
+	 * equality, and all other objects by identity.
+	 */
+	private static class Key {
+
+		private final String name;
+		private final List<Object> args;
+		private final int hash;
+
+		private Key(final String name, final Object[] args) {
+			this.name = name;
+			this.args = new ArrayList<>(args.length);
+			for (final Object arg : args) {
+				this.args.add(value(arg) ? arg : arg.getClass().isArray()
+					? new ArrayArg(arg) : new IdentityArg(arg));
+			}
+			hash = 31 * name.hashCode() + this.args.hashCode();
+		}
+
+		/** Gets whether the given object, or a dataset's image, is an input. */
+		private boolean hasInput(final Object input) {
+			for (final Object arg : args) {
+				if (!(arg instanceof IdentityArg)) continue;
+				final Object o = ((IdentityArg) arg).object;
+				if (o == input) return true;
+				if (input instanceof Dataset) {
+					final Dataset dataset = (Dataset) input;
+					if (o == dataset.getImgPlus() || o == dataset.getImgPlus()
+						.getImg()) return true;
+				}
+			}
+			return false;
+		}
+
+		private static boolean value(final Object arg) {
+			return arg == null || arg instanceof Number || arg instanceof String ||
+				arg instanceof Boolean || arg instanceof Character ||
+				arg instanceof Enum;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key)) return false;
+			final Key other = (Key) o;
+			return hash == other.hash && name.equals(other.name) && args.equals(
+				other.args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static class IdentityArg {
+
+		private final Object object;
+
+		private IdentityArg(final Object object) {
+			this.object = object;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof IdentityArg && ((IdentityArg) o).object == object;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(object);
+		}
+	}
+
+	/** An array argument, copied so that later changes to it do not matter. */
+	private static class ArrayArg {
+
+		private final Object[] array;
+
+		private ArrayArg(final Object array) {
+			this.array = new Object[] { copy(array) };
+		}
+
+		private static Object copy(final Object array) {
+			if (array instanceof Object[]) return ((Object[]) array).clone();
+			if (array instanceof double[]) return ((double[]) array).clone();
+			if (array instanceof float[]) return ((float[]) array).clone();
+			if (array instanceof long[]) return ((long[]) array).clone();
+			if (array instanceof int[]) return ((int[]) array).clone();
+			if (array instanceof short[]) return ((short[]) array).clone();
+			if (array instanceof byte[]) return ((byte[]) array).clone();
+			if (array instanceof char[]) return ((char[]) array).clone();
+			return ((boolean[]) array).clone();
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof ArrayArg && Arrays.deepEquals(array,
+				((ArrayArg) o).array);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.deepHashCode(array);
+		}
+	}
+
+}
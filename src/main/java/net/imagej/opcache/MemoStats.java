@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.opcache;
+
+/**
+ * A snapshot of the counters of an op cache, i.e. the {@link OpMemoService}'s
+ * results or the {@link OpHandleService}'s matches.
+ */
+public class MemoStats {
+
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long invalidations;
+	private final int size;
+
+	/** Creates a snapshot of the given counters. */
+	public MemoStats(final long hits, final long misses, final long evictions,
+		final long invalidations, final int size)
+	{
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.invalidations = invalidations;
+		this.size = size;
+	}
+
+	/** Gets the number of runs answered from the cache. */
+	public long hits() {
+		return hits;
+	}
+
+	/** Gets the number of cacheable runs which were not in the cache. */
+	public long misses() {
+		return misses;
+	}
+
+	/** Gets the number of entries evicted to respect the size limit. */
+	public long evictions() {
+		return evictions;
+	}
+
+	/** Gets the number of entries discarded because they became invalid. */
+	public long invalidations() {
+		return invalidations;
+	}
+
+	/** Gets the number of cached entries. */
+	public int size() {
+		return size;
+	}
+
+	/** Gets the fraction of cacheable runs answered from the cache. */
+	public double hitRate() {
+		final long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("hits=%d, misses=%d (%.1f%% hit rate), " +
+			"evictions=%d, invalidations=%d, size=%d", hits, misses, 100 *
+				hitRate(), evictions, invalidations, size);
+	}
+
+}
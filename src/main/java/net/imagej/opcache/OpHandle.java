@@ -0,0 +1,227 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.opcache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.ops.Contingent;
+import net.imagej.ops.Op;
+
+import org.scijava.module.Module;
+import org.scijava.module.ModuleItem;
+
+/**
+ * An op which was matched once, and can then be run again and again with new
+ * arguments of the same types, without matching it again.
+ * <p>
+ * A handle reuses the same op instance for every run, so it must not be run
+ * from several threads at once. Outputs which were not given as arguments are
+ * cleared before each run, so that every run returns a new output rather than
+ * overwriting the previous one. After each run, the handle lets go of its
+ * arguments and outputs, so that a cached handle does not keep them
+ * reachable.
+ * </p>
+ *
+ * @see OpHandleService#handle(String, Object...)
+ */
+public class OpHandle {
+
+	private final String name;
+	private final Module module;
+	private final String[] argNames;
+	private final List<String> freeOutputs = new ArrayList<>();
+	private final List<String> outputs = new ArrayList<>();
+
+	/** Outputs which are not inputs, and can hold a reference. */
+	private final List<String> pureOutputs = new ArrayList<>();
+
+	/** Arguments whose inputs can hold a reference. */
+	private final List<String> objectArgs = new ArrayList<>();
+
+	/**
+	 * Creates a handle for the given matched op module.
+	 *
+	 * @param name The name of the op.
+	 * @param module The op module, as matched for the given arguments.
+	 * @param args The arguments the op was matched for, which are assigned to
+	 *          the module's inputs.
+	 * @throws IllegalArgumentException if an argument is null, or the input to
+	 *           which it was assigned cannot be found.
+	 */
+	public OpHandle(final String name, final Module module,
+		final Object... args)
+	{
+		this.name = name;
+		this.module = module;
+		argNames = new String[args.length];
+		final List<String> claimed = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] == null) {
+				throw new IllegalArgumentException("Argument #" + (i + 1) +
+					" of op " + name + " is null");
+			}
+			// NB: Inputs of primitive type hold a copy of the argument, so fall
+			// back to equality. Arguments are assigned to inputs in order.
+			argNames[i] = find(args[i], claimed, true);
+			if (argNames[i] == null) argNames[i] = find(args[i], claimed, false);
+			if (argNames[i] == null) {
+				throw new IllegalArgumentException("Argument #" + (i + 1) +
+					" of op " + name + " is not assigned to any input");
+			}
+			claimed.add(argNames[i]);
+		}
+		for (final ModuleItem<?> item : module.getInfo().outputs()) {
+			outputs.add(item.getName());
+			if (item.isInput() && !isArg(item.getName())) {
+				freeOutputs.add(item.getName());
+			}
+			else if (!item.isInput() && !item.getType().isPrimitive()) {
+				pureOutputs.add(item.getName());
+			}
+		}
+		for (final String argName : argNames) {
+			if (!module.getInfo().getInput(argName).getType().isPrimitive()) {
+				objectArgs.add(argName);
+			}
+		}
+	}
+
+	// -- OpHandle methods --
+
+	/** Gets the name of the op. */
+	public String getName() {
+		return name;
+	}
+
+	/** Gets the op instance run by this handle. */
+	public Op getOp() {
+		return (Op) module.getDelegateObject();
+	}
+
+	/**
+	 * Checks whether the op accepts the given arguments, which must be of the
+	 * same types as those it was matched for, and assigns them to its inputs.
+	 *
+	 * @return False if the op is {@link Contingent} and does not conform to
+	 *         the arguments, in which case it must be matched again.
+	 */
+	public boolean bind(final Object... args) {
+		if (args.length != argNames.length) {
+			throw new IllegalArgumentException("Op " + name + " expects " +
+				argNames.length + " arguments, not " + args.length);
+		}
+		for (int i = 0; i < args.length; i++) {
+			module.setInput(argNames[i], args[i]);
+		}
+		for (final String output : freeOutputs) {
+			module.setInput(output, null);
+		}
+		final Object op = module.getDelegateObject();
+		return !(op instanceof Contingent) || ((Contingent) op).conforms();
+	}
+
+	/**
+	 * Runs the op with the given arguments.
+	 *
+	 * @return The op's output if it has one, a list of its outputs if it has
+	 *         several, or null if it has none.
+	 * @throws IllegalArgumentException if the op is {@link Contingent} and does
+	 *           not conform to the arguments.
+	 */
+	public Object run(final Object... args) {
+		if (!bind(args)) {
+			throw new IllegalArgumentException("Op " + name +
+				" does not conform to the given arguments");
+		}
+		return runBound();
+	}
+
+	/**
+	 * Runs the op with the arguments last {@link #bind bound}, which are then
+	 * {@link #release released}.
+	 */
+	public Object runBound() {
+		try {
+			module.run();
+			if (outputs.isEmpty()) return null;
+			if (outputs.size() == 1) return module.getOutput(outputs.get(0));
+			final List<Object> result = new ArrayList<>(outputs.size());
+			for (final String output : outputs) {
+				result.add(module.getOutput(output));
+			}
+			return result;
+		}
+		finally {
+			release();
+		}
+	}
+
+	/**
+	 * Clears the op's arguments and outputs, so that the handle no longer keeps
+	 * them reachable. They must be {@link #bind bound} again before the next
+	 * run.
+	 */
+	public void release() {
+		for (final String arg : objectArgs) {
+			module.setInput(arg, null);
+		}
+		for (final String output : freeOutputs) {
+			module.setInput(output, null);
+		}
+		for (final String output : pureOutputs) {
+			module.setOutput(output, null);
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Finds the first unclaimed input holding the given argument. */
+	private String find(final Object arg, final List<String> claimed,
+		final boolean identical)
+	{
+		for (final ModuleItem<?> item : module.getInfo().inputs()) {
+			if (claimed.contains(item.getName())) continue;
+			final Object value = module.getInput(item.getName());
+			if (identical ? value == arg : arg.equals(value)) return item.getName();
+		}
+		return null;
+	}
+
+	private boolean isArg(final String input) {
+		for (final String argName : argNames) {
+			if (input.equals(argName)) return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.opcache;
+
+import net.imagej.ImageJService;
+import net.imagej.ops.OpService;
+
+/**
+ * Interface for the service caching op matches, so that running the same op
+ * repeatedly with arguments of the same types skips op matching and candidate
+ * scoring after the first run.
+ *
+ * @see OpHandle
+ */
+public interface OpHandleService extends ImageJService {
+
+	/**
+	 * System property setting the maximum number of matches cached per thread.
+	 * Defaults to 256.
+	 */
+	String SIZE_PROPERTY = "imagej.ops.match.size";
+
+	/**
+	 * Matches the given op to the given arguments, returning a handle which
+	 * runs it again without matching.
+	 */
+	OpHandle handle(String name, Object... args);
+
+	/**
+	 * Runs the given op as {@link OpService#run(String, Object...)} does,
+	 * reusing the op matched by an earlier run on the same thread with
+	 * arguments of the same types, if any.
+	 * <p>
+	 * Ops which are {@link net.imagej.ops.Contingent} are matched again
+	 * whenever they do not conform to the arguments. Runs with null arguments,
+	 * and ops whose inputs cannot be told apart, are never cached.
+	 * </p>
+	 */
+	Object run(String name, Object... args);
+
+	/** Discards all cached matches. */
+	void clear();
+
+	/**
+	 * Gets the counters of the match cache: runs which reused a match (hits),
+	 * runs which had to match (misses), evicted matches, and matches discarded
+	 * because the op did not conform to new arguments (invalidations).
+	 */
+	MemoStats getStats();
+
+}
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.opcache;
+
+import java.util.Set;
+
+import net.imagej.ImageJService;
+import net.imagej.ops.OpService;
+
+/**
+ * Interface for the service memoizing the results of deterministic ops, so
+ * that running the same op on the same inputs again returns the earlier
+ * result instead of recomputing it.
+ * <p>
+ * Memoization is opt-in: only ops explicitly marked deterministic, via
+ * {@link #setDeterministic} or the {@value #OPS_PROPERTY} system property, are
+ * memoized. Mutable inputs such as images are matched by identity, and
+ * immutable values such as numbers, strings and arrays of them by equality.
+ * Memoized results keep their inputs reachable until evicted. Entries whose
+ * inputs include a dataset are discarded when that dataset is updated.
+ * </p>
+ * <p>
+ * <strong>Results which are not images are shared between callers.</strong>
+ * Image ({@link net.imglib2.img.Img}) results are copied, so each caller gets
+ * its own; any other mutable result, such as a view or an array, is the very
+ * object handed to every caller, and modifying it corrupts the memoized
+ * result. Only mark ops deterministic if their results are images or are not
+ * modified.
+ * </p>
+ */
+public interface OpMemoService extends ImageJService {
+
+	/**
+	 * System property listing the names of the ops to memoize, separated by
+	 * commas.
+	 */
+	String OPS_PROPERTY = "imagej.ops.memo";
+
+	/**
+	 * System property setting the maximum number of memoized results. Defaults
+	 * to 64.
+	 */
+	String SIZE_PROPERTY = "imagej.ops.memo.size";
+
+	/**
+	 * Runs the given op as {@link OpService#run(String, Object...)} does,
+	 * returning the memoized result if the op is deterministic and was already
+	 * run with the same arguments.
+	 * <p>
+	 * Results which are one of the arguments (i.e., ops which filled in a
+	 * given output) are never memoized.
+	 * </p>
+	 * <p>
+	 * <strong>A memoized result which is not an image is the same object on
+	 * every call, and must not be modified.</strong> Image results are copied
+	 * on every call, and may be modified freely.
+	 * </p>
+	 */
+	Object run(String name, Object... args);
+
+	/** Gets whether results of the given op are memoized. */
+	boolean isDeterministic(String name);
+
+	/**
+	 * Sets whether results of the given op are memoized.
+	 * <p>
+	 * <strong>Once set, every caller running the op with the same arguments
+	 * gets the same result object, unless it is an image.</strong> Do not mark
+	 * ops deterministic whose non-image results callers modify.
+	 * </p>
+	 */
+	void setDeterministic(String name, boolean deterministic);
+
+	/** Gets the names of the ops whose results are memoized. */
+	Set<String> getDeterministic();
+
+	/** Gets the maximum number of memoized results. */
+	int getMaxEntries();
+
+	/**
+	 * Sets the maximum number of memoized results; the least recently used
+	 * ones are evicted beyond it.
+	 */
+	void setMaxEntries(int maxEntries);
+
+	/** Discards all memoized results which have the given object as input. */
+	void invalidate(Object input);
+
+	/** Discards all memoized results. */
+	void clear();
+
+	/** Gets the hit and miss counts of the memoized results. */
+	MemoStats getStats();
+
+}
@@ -0,0 +1,305 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import net.imagej.opcache.OpHandleService;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.list.ListImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.Type;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service running chunked operations on a fork-join pool of its own.
+ */
+@Plugin(type = Service.class)
+public class DefaultParallelOpService extends AbstractService implements
+	ParallelOpService
+{
+
+	/** The number of pixels per chunk, unless that leaves threads idle. */
+	private static final long CHUNK_SIZE = 1 << 18;
+
+	/** The smallest number of pixels per chunk. */
+	private static final long MIN_CHUNK_SIZE = 1 << 12;
+
+	/** The number of chunks to aim for per thread, to balance the load. */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	@Parameter
+	private OpHandleService opHandleService;
+
+	@Parameter
+	private LogService log;
+
+	private ForkJoinPool pool;
+
+	// -- ParallelOpService methods --
+
+	@Override
+	public synchronized int getParallelism() {
+		return pool().getParallelism();
+	}
+
+	@Override
+	public synchronized void setParallelism(final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism: " +
+				parallelism);
+		}
+		if (pool != null) pool.shutdown();
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	@Override
+	public List<Interval> chunks(final Interval interval, final long chunkSize) {
+		final int n = interval.numDimensions();
+		final long[] min = new long[n], max = new long[n];
+		interval.min(min);
+		interval.max(max);
+
+		// Split along the highest dimension whose slices still fit in a chunk.
+		int d = 0;
+		long slice = 1;
+		while (d < n - 1 && slice * interval.dimension(d) <= chunkSize) {
+			slice *= interval.dimension(d++);
+		}
+		final long step = Math.max(1, chunkSize / slice);
+
+		final List<Interval> chunks = new ArrayList<>();
+		final long[] chunkMin = min.clone(), chunkMax = max.clone();
+		for (int i = d + 1; i < n; i++) {
+			chunkMax[i] = min[i];
+		}
+		while (true) {
+			for (long start = min[d]; start <= max[d]; start += step) {
+				chunkMin[d] = start;
+				chunkMax[d] = Math.min(start + step - 1, max[d]);
+				chunks.add(new FinalInterval(chunkMin, chunkMax));
+			}
+			// Advance to the next position in the dimensions above d.
+			int i = d + 1;
+			while (i < n && chunkMin[i] == max[i]) {
+				chunkMin[i] = chunkMax[i] = min[i];
+				i++;
+			}
+			if (i >= n) break;
+			chunkMin[i] = ++chunkMax[i];
+		}
+		return chunks;
+	}
+
+	@Override
+	public <I, O> void map(final RandomAccessibleInterval<I> in,
+		final RandomAccessibleInterval<O> out,
+		final BiConsumer<? super I, ? super O> op)
+	{
+		if (!sameInterval(in, out)) {
+			throw new IllegalArgumentException("Images have different intervals");
+		}
+		forEachChunk(out, chunk -> {
+			final Cursor<I> ci = Views.flatIterable(Views.interval(in, chunk))
+				.cursor();
+			final Cursor<O> co = Views.flatIterable(Views.interval(out, chunk))
+				.cursor();
+			while (co.hasNext()) {
+				op.accept(ci.next(), co.next());
+			}
+		});
+	}
+
+	@Override
+	public <I, O> void neighborhood(final RandomAccessibleInterval<I> in,
+		final RandomAccessibleInterval<O> out, final long[] halo,
+		final ChunkOp<I, O> op)
+	{
+		if (!sameInterval(in, out)) {
+			throw new IllegalArgumentException("Images have different intervals");
+		}
+		forEachChunk(out, chunk -> op.compute(Views.interval(in, grow(chunk, halo,
+			in)), Views.interval(out, chunk)));
+	}
+
+	@Override
+	public void run(final String name, final RandomAccessibleInterval<?> out,
+		final RandomAccessibleInterval<?> in, final long[] halo,
+		final Object... args)
+	{
+		if (!sameInterval(in, out)) {
+			throw new IllegalArgumentException("Images have different intervals");
+		}
+		forEachChunk(out, chunk -> {
+			// NB: The op computes the halo as well, so that its input and output
+			// have the same interval; only the chunk itself is kept.
+			final Interval grown = grow(chunk, halo, in);
+			final boolean direct = sameInterval(grown, chunk);
+			final RandomAccessibleInterval<?> target = direct ? Views.interval(out,
+				chunk) : buffer(out, grown);
+			final Object[] opArgs = new Object[args.length + 2];
+			opArgs[0] = target;
+			opArgs[1] = Views.interval(in, grown);
+			System.arraycopy(args, 0, opArgs, 2, args.length);
+			opHandleService.run(name, opArgs);
+			if (!direct) copy(Views.interval(target, chunk), Views.interval(out,
+				chunk));
+		});
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		final String value = System.getProperty(PARALLELISM_PROPERTY);
+		if (value != null) {
+			try {
+				parallelism = Math.max(1, Integer.parseInt(value.trim()));
+			}
+			catch (final NumberFormatException exc) {
+				log.warn("Invalid " + PARALLELISM_PROPERTY + ": " + value);
+			}
+		}
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public synchronized void dispose() {
+		if (pool != null) pool.shutdown();
+	}
+
+	// -- Helper methods --
+
+	private synchronized ForkJoinPool pool() {
+		return pool;
+	}
+
+	private void forEachChunk(final Interval interval,
+		final Consumer<Interval> action)
+	{
+		final ForkJoinPool forkJoinPool = pool();
+		long pixels = 1;
+		for (int d = 0; d < interval.numDimensions(); d++) {
+			pixels *= interval.dimension(d);
+		}
+		final long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(CHUNK_SIZE,
+			pixels / (CHUNKS_PER_THREAD * forkJoinPool.getParallelism())));
+		final List<Interval> chunks = chunks(interval, chunkSize);
+		try {
+			forkJoinPool.submit(() -> IntStream.range(0, chunks.size()).parallel()
+				.forEach(i -> action.accept(chunks.get(i)))).get();
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(exc);
+		}
+		catch (final ExecutionException exc) {
+			final Throwable cause = exc.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/** Enlarges the given chunk by the given halo, within the given bounds. */
+	private static Interval grow(final Interval chunk, final long[] halo,
+		final Interval bounds)
+	{
+		final int n = chunk.numDimensions();
+		final long[] min = new long[n], max = new long[n];
+		for (int d = 0; d < n; d++) {
+			final long h = halo != null && d < halo.length ? halo[d] : 0;
+			min[d] = Math.max(chunk.min(d) - h, bounds.min(d));
+			max[d] = Math.min(chunk.max(d) + h, bounds.max(d));
+		}
+		return new FinalInterval(min, max);
+	}
+
+	/** Creates an image of the given interval, typed like the given one. */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static RandomAccessibleInterval<?> buffer(
+		final RandomAccessibleInterval<?> like, final Interval interval)
+	{
+		final Object type = Util.getTypeFromInterval(like);
+		final int n = interval.numDimensions();
+		final long[] dims = new long[n], min = new long[n];
+		for (int d = 0; d < n; d++) {
+			dims[d] = interval.dimension(d);
+			min[d] = interval.min(d);
+		}
+		final Img<?> img = type instanceof NativeType ? new ArrayImgFactory(
+			(NativeType) type).create(dims) : new ListImgFactory((Type) type)
+				.create(dims);
+		return Views.translate(img, min);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static void copy(final RandomAccessibleInterval<?> source,
+		final RandomAccessibleInterval<?> target)
+	{
+		final Cursor<?> cs = Views.flatIterable(source).cursor();
+		final Cursor<?> ct = Views.flatIterable(target).cursor();
+		while (ct.hasNext()) {
+			((Type) ct.next()).set((Type) cs.next());
+		}
+	}
+
+	private static boolean sameInterval(final Interval a, final Interval b) {
+		if (a.numDimensions() != b.numDimensions()) return false;
+		for (int d = 0; d < a.numDimensions(); d++) {
+			if (a.min(d) != b.min(d) || a.max(d) != b.max(d)) return false;
+		}
+		return true;
+	}
+
+}
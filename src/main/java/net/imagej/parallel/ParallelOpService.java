@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.parallel;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import net.imagej.ImageJService;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+
+/**
+ * Interface for the service running pixelwise and neighborhood operations in
+ * parallel, by splitting images into chunks which are processed on a
+ * fork-join pool.
+ * <p>
+ * Chunks are runs of whole rows (or planes, or volumes) of a few hundred
+ * thousand pixels, so that each is contiguous in memory for array- and
+ * planar-backed images. For neighborhood operations, each chunk's input is
+ * enlarged by a halo, clipped to the image, which must be at least the
+ * operation's radius; the results are then the same, bit for bit, as running
+ * the operation once over the whole image.
+ * </p>
+ */
+public interface ParallelOpService extends ImageJService {
+
+	/**
+	 * System property setting the parallelism of the fork-join pool. Defaults
+	 * to the number of available processors.
+	 */
+	String PARALLELISM_PROPERTY = "imagej.parallelism";
+
+	/** Gets the number of chunks processed at once. */
+	int getParallelism();
+
+	/** Sets the number of chunks processed at once, for this context. */
+	void setParallelism(int parallelism);
+
+	/**
+	 * Splits the given interval into chunks.
+	 *
+	 * @param interval The interval to split.
+	 * @param chunkSize The (approximate) maximum number of pixels per chunk.
+	 */
+	List<Interval> chunks(Interval interval, long chunkSize);
+
+	/**
+	 * Applies the given operation to each pair of corresponding input and output
+	 * pixels, in parallel. The images must have the same interval.
+	 */
+	<I, O> void map(RandomAccessibleInterval<I> in,
+		RandomAccessibleInterval<O> out, BiConsumer<? super I, ? super O> op);
+
+	/**
+	 * Runs the given operation over the output image in chunks, in parallel.
+	 * For each chunk, the operation is given the input restricted to the chunk
+	 * plus the given halo (clipped to the input), and the output restricted to
+	 * the chunk. Both keep the coordinates of the full images, which must
+	 * have the same interval.
+	 *
+	 * @param halo The number of neighboring pixels needed on each side, per
+	 *          dimension.
+	 */
+	<I, O> void neighborhood(RandomAccessibleInterval<I> in,
+		RandomAccessibleInterval<O> out, long[] halo, ChunkOp<I, O> op);
+
+	/**
+	 * Runs the given computer op over the output image in chunks, in parallel,
+	 * as {@code op(out, in, args...)} on each chunk plus the given halo
+	 * (clipped to the images). Both images given to the op have this same
+	 * interval: with a halo, the op writes into a scratch image, of which only
+	 * the chunk is copied to the output. Op matches are reused across chunks of
+	 * the same thread via the {@code OpHandleService}. The images must have the
+	 * same interval.
+	 *
+	 * @param halo The number of neighboring pixels the op needs on each side,
+	 *          per dimension; all zeros for pixelwise ops.
+	 */
+	void run(String name, RandomAccessibleInterval<?> out,
+		RandomAccessibleInterval<?> in, long[] halo, Object... args);
+
+}
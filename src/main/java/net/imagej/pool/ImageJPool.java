@@ -0,0 +1,239 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.pool;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Set;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.cache.BlockCacheService;
+import net.imagej.opcache.OpHandleService;
+import net.imagej.opcache.OpMemoService;
+import net.imagej.overlay.Overlay;
+
+import org.scijava.Context;
+import org.scijava.display.Display;
+import org.scijava.display.DisplayService;
+import org.scijava.object.ObjectService;
+
+/**
+ * A bounded pool of initialized {@link ImageJ} gateways, for running many
+ * independent analyses in one JVM without each paying for a new context.
+ * <p>
+ * Gateways are created on demand by {@link ImageJ#fork() forking} a template
+ * gateway, so plugin discovery happens only once. A gateway obtained via
+ * {@link #acquire()} must be given back via {@link #release(ImageJ)} rather
+ * than disposed; upon release, its per-use state (open displays, the
+ * datasets and overlays registered with its object service, cached image
+ * blocks, memoized op results and cached op matches) is cleared, so that
+ * nothing leaks to the next user.
+ * </p>
+ */
+public class ImageJPool implements Closeable {
+
+	private final ImageJ template;
+	private final int capacity;
+
+	/** All gateways belonging to this pool. */
+	private final Set<ImageJ> members = Collections.newSetFromMap(
+		new IdentityHashMap<ImageJ, Boolean>());
+
+	/** Gateways available to be acquired. */
+	private final LinkedList<ImageJ> idle = new LinkedList<>();
+
+	/** Gateways acquired, and not yet being released. */
+	private final Set<ImageJ> inUse = Collections.newSetFromMap(
+		new IdentityHashMap<ImageJ, Boolean>());
+
+	/** Number of gateways currently being created. */
+	private int creating;
+
+	private boolean closed;
+
+	/**
+	 * Creates a pool of up to the given number of gateways, using a new
+	 * {@link ImageJ} as the template.
+	 */
+	public ImageJPool(final int capacity) {
+		this(new ImageJ(), capacity);
+	}
+
+	/**
+	 * Creates a pool of up to the given number of gateways, forked from the
+	 * given template. The template becomes part of the pool.
+	 */
+	public ImageJPool(final ImageJ template, final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		this.template = template;
+		this.capacity = capacity;
+		members.add(template);
+		idle.add(template);
+	}
+
+	// -- ImageJPool methods --
+
+	/** Gets the maximum number of gateways in this pool. */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Obtains a gateway from the pool, creating a new one if none is idle and
+	 * the pool is not yet full, or else waiting for one to be released.
+	 */
+	public ImageJ acquire() throws InterruptedException {
+		synchronized (this) {
+			while (true) {
+				if (closed) throw new IllegalStateException("Pool is closed");
+				if (!idle.isEmpty()) {
+					final ImageJ ij = idle.removeFirst();
+					inUse.add(ij);
+					return ij;
+				}
+				if (members.size() + creating < capacity) break;
+				wait();
+			}
+			creating++;
+		}
+		ImageJ ij = null;
+		try {
+			ij = template.fork();
+			return ij;
+		}
+		finally {
+			synchronized (this) {
+				creating--;
+				if (ij != null) {
+					members.add(ij);
+					inUse.add(ij);
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns a gateway to the pool, after clearing its per-use state. If the
+	 * pool has been closed, the gateway is disposed instead.
+	 */
+	public void release(final ImageJ ij) {
+		synchronized (this) {
+			// NB: Removing the gateway from use right away makes a concurrent
+			// release of the same gateway fail, rather than pool it twice.
+			if (!inUse.remove(ij)) {
+				throw new IllegalArgumentException(
+					"Gateway was not acquired from this pool");
+			}
+		}
+		try {
+			reset(ij);
+		}
+		finally {
+			synchronized (this) {
+				if (closed) {
+					members.remove(ij);
+					ij.getContext().dispose();
+				}
+				else {
+					idle.addFirst(ij);
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Disposes all idle gateways. Gateways still in use are disposed when they
+	 * are released.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (final ImageJ ij : idle) {
+			members.remove(ij);
+			ij.getContext().dispose();
+		}
+		idle.clear();
+		notifyAll();
+	}
+
+	// -- Helper methods --
+
+	/** Clears the state left behind in a gateway by its previous user. */
+	private void reset(final ImageJ ij) {
+		final Context context = ij.getContext();
+
+		// NB: Avoid instantiating services of lazy gateways just to reset them.
+		final DisplayService displayService = context.getService(
+			DisplayService.class);
+		if (displayService != null) {
+			for (final Display<?> display : new ArrayList<>(displayService
+				.getDisplays()))
+			{
+				display.close();
+			}
+		}
+
+		final ObjectService objectService = context.getService(
+			ObjectService.class);
+		if (objectService != null) {
+			for (final Dataset dataset : new ArrayList<>(objectService.getObjects(
+				Dataset.class)))
+			{
+				objectService.removeObject(dataset);
+			}
+			for (final Overlay overlay : new ArrayList<>(objectService.getObjects(
+				Overlay.class)))
+			{
+				objectService.removeObject(overlay);
+			}
+		}
+
+		final BlockCacheService blockCacheService = context.getService(
+			BlockCacheService.class);
+		if (blockCacheService != null) blockCacheService.getCache().clear();
+		final OpMemoService opMemoService = context.getService(
+			OpMemoService.class);
+		if (opMemoService != null) opMemoService.clear();
+		final OpHandleService opHandleService = context.getService(
+			OpHandleService.class);
+		if (opHandleService != null) opHandleService.clear();
+	}
+
+}
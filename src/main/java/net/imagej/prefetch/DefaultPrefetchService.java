@@ -0,0 +1,234 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.prefetch;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.Dataset;
+import net.imagej.animation.Animation;
+import net.imagej.animation.AnimationService;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.display.ImageDisplay;
+import net.imagej.display.ImageDisplayService;
+import net.imagej.display.event.AxisPositionEvent;
+
+import org.scijava.display.event.DisplayDeletedEvent;
+import org.scijava.event.EventHandler;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service loading planes ahead of animation playback. Whenever an
+ * animated display moves along its animated axis, the following planes in the
+ * direction of travel are loaded on low-priority background threads. Only the
+ * planes at the display's position along the other axes are loaded; moving
+ * along another axis starts over from the new position.
+ */
+@Plugin(type = Service.class)
+public class DefaultPrefetchService extends AbstractService implements
+	PrefetchService
+{
+
+	@Parameter
+	private AnimationService animationService;
+
+	@Parameter
+	private ImageDisplayService imageDisplayService;
+
+	@Parameter
+	private LogService log;
+
+	private final Map<ImageDisplay, Playback> playbacks = new HashMap<>();
+
+	private int depth;
+
+	private ExecutorService executor;
+
+	// -- PrefetchService methods --
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public void setDepth(final int depth) {
+		if (depth < 0) throw new IllegalArgumentException("Negative depth: " +
+			depth);
+		this.depth = depth;
+	}
+
+	@Override
+	public synchronized PlanePrefetcher getPrefetcher(
+		final ImageDisplay display)
+	{
+		final Playback playback = playbacks.get(display);
+		return playback == null ? null : playback.prefetcher;
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		depth = integer(DEPTH_PROPERTY, 8);
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public synchronized void dispose() {
+		for (final Playback playback : playbacks.values()) {
+			playback.prefetcher.close();
+		}
+		playbacks.clear();
+		if (executor != null) executor.shutdownNow();
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected synchronized void onEvent(final AxisPositionEvent evt) {
+		final ImageDisplay display = evt.getDisplay();
+		if (depth == 0 || !animationService.isActive(display)) {
+			stop(display);
+			return;
+		}
+		final Animation animation = animationService.getAnimation(display);
+		final AxisType axis = animation == null ? null : animation.getAxis();
+		if (evt.getAxis() != axis) {
+			// NB: The planes ahead are now those at the new position.
+			stop(display);
+			return;
+		}
+		final Dataset dataset = imageDisplayService.getActiveDataset(display);
+		if (dataset == null) return;
+		final int d = dataset.dimensionIndex(axis);
+		if (d < 0) return;
+
+		Playback playback = playbacks.get(display);
+		if (playback == null || playback.dataset != dataset ||
+			playback.axis != axis)
+		{
+			stop(display);
+			playback = new Playback(dataset, axis, PlanePrefetcher.forImage(dataset,
+				d, planeAxes(dataset), position(display, dataset), depth, true,
+				executor()));
+			playbacks.put(display, playback);
+		}
+		playback.prefetcher.moveTo(display.getLongPosition(axis) - dataset.min(
+			d));
+	}
+
+	@EventHandler
+	protected synchronized void onEvent(final DisplayDeletedEvent evt) {
+		if (evt.getObject() instanceof ImageDisplay) {
+			stop((ImageDisplay) evt.getObject());
+		}
+	}
+
+	// -- Helper methods --
+
+	private void stop(final ImageDisplay display) {
+		final Playback playback = playbacks.remove(display);
+		if (playback != null) playback.prefetcher.close();
+	}
+
+	private static int[] planeAxes(final Dataset dataset) {
+		final int x = dataset.dimensionIndex(Axes.X);
+		final int y = dataset.dimensionIndex(Axes.Y);
+		if (x < 0) return y < 0 ? new int[0] : new int[] { y };
+		return y < 0 ? new int[] { x } : new int[] { x, y };
+	}
+
+	private static long[] position(final ImageDisplay display,
+		final Dataset dataset)
+	{
+		final long[] position = new long[dataset.numDimensions()];
+		for (int d = 0; d < position.length; d++) {
+			position[d] = display.getLongPosition(dataset.axis(d).type());
+		}
+		return position;
+	}
+
+	private ExecutorService executor() {
+		if (executor == null) {
+			final AtomicInteger count = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(integer(THREADS_PROPERTY, 2),
+				r -> {
+					final Thread t = new Thread(r, "ImageJ-Prefetch-" + count
+						.incrementAndGet());
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				});
+		}
+		return executor;
+	}
+
+	private int integer(final String property, final int defaultValue) {
+		final String value = System.getProperty(property);
+		if (value == null) return defaultValue;
+		try {
+			return Math.max(0, Integer.parseInt(value.trim()));
+		}
+		catch (final NumberFormatException exc) {
+			log.warn("Invalid " + property + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	// -- Helper classes --
+
+	private static class Playback {
+
+		private final Dataset dataset;
+		private final AxisType axis;
+		private final PlanePrefetcher prefetcher;
+
+		private Playback(final Dataset dataset, final AxisType axis,
+			final PlanePrefetcher prefetcher)
+		{
+			this.dataset = dataset;
+			this.axis = axis;
+			this.prefetcher = prefetcher;
+		}
+	}
+
+}
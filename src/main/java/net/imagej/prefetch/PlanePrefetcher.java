@@ -0,0 +1,193 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.prefetch;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.view.Views;
+
+/**
+ * Loads the planes ahead of the current position along one axis of an image,
+ * on background threads, so that they are already decoded (e.g. in a
+ * {@link net.imagej.cache.BlockCache}) by the time they are shown.
+ * <p>
+ * Each call to {@link #moveTo(long)} infers the direction of travel from the
+ * previous position, and schedules the next planes in that direction, nearest
+ * first. Scheduled loads which are no longer among the next planes (because
+ * the position jumped, or the direction changed) are dropped, unless they
+ * have already started; loads are never interrupted, since interrupting I/O
+ * can leave the underlying reader unusable.
+ * </p>
+ */
+public class PlanePrefetcher {
+
+	private final LongConsumer loader;
+	private final long length;
+	private final int depth;
+	private final boolean wrap;
+	private final ExecutorService executor;
+
+	/** Loads which are scheduled, running or done, by position. */
+	private final Map<Long, Future<?>> loads = new TreeMap<>();
+
+	private long position = -1;
+	private int direction = 1;
+
+	/**
+	 * Creates a prefetcher.
+	 *
+	 * @param loader Loads the plane at the given position.
+	 * @param length The number of positions along the axis.
+	 * @param depth The number of planes to load ahead.
+	 * @param wrap Whether moving past the last position continues at the first
+	 *          (and vice versa), as for looping animations.
+	 * @param executor The executor on which to load planes.
+	 */
+	public PlanePrefetcher(final LongConsumer loader, final long length,
+		final int depth, final boolean wrap, final ExecutorService executor)
+	{
+		this.loader = loader;
+		this.length = length;
+		this.depth = depth;
+		this.wrap = wrap;
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates a prefetcher which loads planes of the given image, by reading
+	 * each of their samples. Only the plane dimensions are loaded whole; all
+	 * other dimensions stay at the given position, so that only the planes to
+	 * be shown next are read (and not, e.g., every channel and slice of each
+	 * time point).
+	 *
+	 * @param axis The dimension along which to load ahead.
+	 * @param planeAxes The dimensions spanned by each plane, e.g. X and Y.
+	 * @param position The current position, in image coordinates; its
+	 *          coordinates along the axis and the plane dimensions are ignored.
+	 */
+	public static PlanePrefetcher forImage(
+		final RandomAccessibleInterval<?> image, final int axis,
+		final int[] planeAxes, final long[] position, final int depth,
+		final boolean wrap, final ExecutorService executor)
+	{
+		final long[] min = position.clone();
+		final long[] max = position.clone();
+		for (final int d : planeAxes) {
+			min[d] = image.min(d);
+			max[d] = image.max(d);
+		}
+		return new PlanePrefetcher(p -> {
+			final long[] planeMin = min.clone();
+			final long[] planeMax = max.clone();
+			planeMin[axis] = planeMax[axis] = image.min(axis) + p;
+			touch(image, planeMin, planeMax);
+		}, image.dimension(axis), depth, wrap, executor);
+	}
+
+	// -- PlanePrefetcher methods --
+
+	/** Gets the positions whose planes are scheduled, loading or loaded. */
+	public synchronized Set<Long> getScheduled() {
+		return new LinkedHashSet<>(loads.keySet());
+	}
+
+	/** Notes that the given position is now current, and loads ahead of it. */
+	public synchronized void moveTo(final long newPosition) {
+		if (position >= 0 && newPosition != position) {
+			long delta = newPosition - position;
+			if (wrap) {
+				if (delta > length / 2) delta -= length;
+				else if (delta < -length / 2) delta += length;
+			}
+			direction = delta < 0 ? -1 : 1;
+		}
+		position = newPosition;
+
+		final Set<Long> ahead = new LinkedHashSet<>();
+		for (int i = 1; i <= depth; i++) {
+			long p = position + direction * i;
+			if (wrap) p = Math.floorMod(p, length);
+			else if (p < 0 || p >= length) break;
+			if (p == position) break;
+			ahead.add(p);
+		}
+
+		// Drop loads which are no longer needed; the current plane is kept,
+		// since it is about to be shown.
+		for (final Iterator<Map.Entry<Long, Future<?>>> iter = loads.entrySet()
+			.iterator(); iter.hasNext();)
+		{
+			final Map.Entry<Long, Future<?>> entry = iter.next();
+			final long p = entry.getKey();
+			if (p == position || ahead.contains(p)) continue;
+			entry.getValue().cancel(false);
+			iter.remove();
+		}
+
+		for (final long p : ahead) {
+			if (!loads.containsKey(p)) {
+				loads.put(p, executor.submit(() -> loader.accept(p)));
+			}
+		}
+	}
+
+	/** Drops all loads which have not started yet. */
+	public synchronized void close() {
+		for (final Future<?> load : loads.values()) {
+			load.cancel(false);
+		}
+		loads.clear();
+	}
+
+	// -- Helper methods --
+
+	private static <T> void touch(final RandomAccessibleInterval<T> image,
+		final long[] min, final long[] max)
+	{
+		final Cursor<T> cursor = Views.flatIterable(Views.interval(image, min,
+			max)).cursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get();
+		}
+	}
+
+}
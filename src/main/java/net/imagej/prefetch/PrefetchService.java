@@ -0,0 +1,72 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.prefetch;
+
+import net.imagej.ImageJService;
+import net.imagej.display.ImageDisplay;
+
+/**
+ * Interface for the service which loads planes ahead of animation playback,
+ * so that animating a disk-backed dataset does not stall on each frame.
+ *
+ * @see PlanePrefetcher
+ */
+public interface PrefetchService extends ImageJService {
+
+	/**
+	 * System property setting the number of planes to load ahead of the
+	 * current one. Defaults to 8.
+	 */
+	String DEPTH_PROPERTY = "imagej.prefetch.depth";
+
+	/**
+	 * System property setting the number of threads loading planes. Defaults
+	 * to 2.
+	 */
+	String THREADS_PROPERTY = "imagej.prefetch.threads";
+
+	/** Gets the number of planes loaded ahead of the current one. */
+	int getDepth();
+
+	/**
+	 * Sets the number of planes loaded ahead of the current one, from the next
+	 * animation on. A depth of 0 disables prefetching.
+	 */
+	void setDepth(int depth);
+
+	/**
+	 * Gets the prefetcher loading ahead of the given display's animation, or
+	 * null if it is not being animated.
+	 */
+	PlanePrefetcher getPrefetcher(ImageDisplay display);
+
+}
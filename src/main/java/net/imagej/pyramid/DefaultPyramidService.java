@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.pyramid;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.cache.BlockCacheService;
+import net.imagej.display.ImageDisplay;
+import net.imagej.display.ImageDisplayService;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imagej.event.DatasetUpdatedEvent;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+
+import org.scijava.event.EventHandler;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service providing {@link Pyramid}s of datasets, whose tiles are kept
+ * in the shared block cache.
+ */
+@Plugin(type = Service.class)
+public class DefaultPyramidService extends AbstractService implements
+	PyramidService
+{
+
+	@Parameter
+	private BlockCacheService blockCacheService;
+
+	@Parameter
+	private ImageDisplayService imageDisplayService;
+
+	private final Map<Dataset, Pyramid<?>> pyramids = new WeakHashMap<>();
+
+	private final AtomicLong count = new AtomicLong();
+
+	// -- PyramidService methods --
+
+	@Override
+	public synchronized Pyramid<?> getPyramid(final Dataset dataset) {
+		Pyramid<?> pyramid = pyramids.get(dataset);
+		if (pyramid == null) {
+			pyramid = createPyramid(dataset);
+			pyramids.put(dataset, pyramid);
+		}
+		return pyramid;
+	}
+
+	@Override
+	public int getLevel(final ImageDisplay display) {
+		final Dataset dataset = imageDisplayService.getActiveDataset(display);
+		if (dataset == null) return 0;
+		return getPyramid(dataset).levelFor(display.getCanvas().getZoomFactor());
+	}
+
+	@Override
+	public RandomAccessibleInterval<?> getLevelImage(final ImageDisplay display) {
+		final Dataset dataset = imageDisplayService.getActiveDataset(display);
+		if (dataset == null) return null;
+		final Pyramid<?> pyramid = getPyramid(dataset);
+		return pyramid.getLevel(pyramid.levelFor(display.getCanvas()
+			.getZoomFactor()));
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public synchronized void dispose() {
+		for (final Pyramid<?> pyramid : pyramids.values()) {
+			blockCacheService.getCache().invalidate(pyramid.getSource());
+		}
+		pyramids.clear();
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final DatasetUpdatedEvent evt) {
+		if (!evt.isMetaDataOnly()) discard(evt.getObject());
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent evt) {
+		discard(evt.getObject());
+	}
+
+	// -- Helper methods --
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Pyramid<?> createPyramid(final Dataset dataset) {
+		final int xAxis = dataset.dimensionIndex(Axes.X);
+		final int yAxis = dataset.dimensionIndex(Axes.Y);
+		if (xAxis < 0 || yAxis < 0) {
+			throw new IllegalArgumentException("Dataset " + dataset.getName() +
+				" has no X and Y axes");
+		}
+		if (!(dataset.getType() instanceof NativeType)) {
+			throw new IllegalArgumentException("Dataset " + dataset.getName() +
+				" is not of a native type");
+		}
+		final String source = "pyramid:" + count.incrementAndGet() + ":" + dataset
+			.getName();
+		return new Pyramid((RandomAccessibleInterval) dataset.getImgPlus(), xAxis,
+			yAxis, blockCacheService.getCache(), source);
+	}
+
+	private synchronized void discard(final Dataset dataset) {
+		final Pyramid<?> pyramid = pyramids.remove(dataset);
+		if (pyramid != null) {
+			blockCacheService.getCache().invalidate(pyramid.getSource());
+		}
+	}
+
+}
@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.pyramid;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.imagej.cache.BlockCache;
+import net.imagej.cache.BlockKey;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * A multi-resolution pyramid of an image. Level 0 is the image itself; each
+ * further level halves the size of the X and Y dimensions, by averaging 2x2
+ * neighborhoods of the level below, until both fit within a single tile.
+ * <p>
+ * Levels are computed on the fly, one tile at a time, and their tiles are
+ * kept in a {@link BlockCache} under the pyramid's source name, so that only
+ * the tiles actually viewed are ever computed, and each of them only once for
+ * as long as it stays cached.
+ * </p>
+ */
+public class Pyramid<T extends NativeType<T> & RealType<T>> {
+
+	/** The size of the tiles in which levels are computed, in X and Y. */
+	public static final int TILE_SIZE = 256;
+
+	private final String source;
+	private final int xAxis;
+	private final int yAxis;
+	private final BlockCache cache;
+	private final List<RandomAccessibleInterval<T>> levels = new ArrayList<>();
+
+	/**
+	 * Creates the pyramid of the given image.
+	 *
+	 * @param image The full resolution image.
+	 * @param xAxis The dimension index of the X axis.
+	 * @param yAxis The dimension index of the Y axis.
+	 * @param cache The cache in which to keep computed tiles.
+	 * @param source The name under which to cache tiles; it must be unique to
+	 *          this image, and can be passed to {@link BlockCache#invalidate}
+	 *          to discard them.
+	 */
+	public Pyramid(final RandomAccessibleInterval<T> image, final int xAxis,
+		final int yAxis, final BlockCache cache, final String source)
+	{
+		this.source = source;
+		this.xAxis = xAxis;
+		this.yAxis = yAxis;
+		this.cache = cache;
+		levels.add(Views.zeroMin(image));
+		final T type = Util.getTypeFromInterval(image).createVariable();
+		while (Math.max(last().dimension(xAxis), last().dimension(yAxis)) >
+			TILE_SIZE)
+		{
+			levels.add(downsample(last(), levels.size(), type));
+		}
+	}
+
+	// -- Pyramid methods --
+
+	/** Gets the name under which this pyramid's tiles are cached. */
+	public String getSource() {
+		return source;
+	}
+
+	/** Gets the number of levels, including the full resolution one. */
+	public int getLevelCount() {
+		return levels.size();
+	}
+
+	/** Gets all levels, from the full resolution one to the coarsest one. */
+	public List<RandomAccessibleInterval<T>> getLevels() {
+		return Collections.unmodifiableList(levels);
+	}
+
+	/** Gets the given level, whose X and Y axes are downsampled by 2^level. */
+	public RandomAccessibleInterval<T> getLevel(final int level) {
+		return levels.get(level);
+	}
+
+	/**
+	 * Gets the coarsest level which still has at least one pixel per screen
+	 * pixel at the given zoom factor; i.e., the level to render from.
+	 *
+	 * @param zoom The zoom factor, with 1 showing the full resolution image at
+	 *          one pixel per screen pixel.
+	 */
+	public int levelFor(final double zoom) {
+		if (!(zoom > 0) || zoom >= 1) return 0;
+		final int level = (int) Math.floor(Math.log(1 / zoom) / Math.log(2));
+		return Math.min(level, levels.size() - 1);
+	}
+
+	// -- Helper methods --
+
+	private RandomAccessibleInterval<T> last() {
+		return levels.get(levels.size() - 1);
+	}
+
+	private RandomAccessibleInterval<T> downsample(
+		final RandomAccessibleInterval<T> below, final int level, final T type)
+	{
+		final long[] dims = new long[below.numDimensions()];
+		final int[] tileDims = new int[dims.length];
+		for (int d = 0; d < dims.length; d++) {
+			final boolean planar = d == xAxis || d == yAxis;
+			dims[d] = planar ? (below.dimension(d) + 1) / 2 : below.dimension(d);
+			tileDims[d] = planar ? TILE_SIZE : 1;
+		}
+		final CellGrid grid = new CellGrid(dims, tileDims);
+
+		final LazyCellImg.Get<Cell<?>> tiles = index -> {
+			final long[] min = new long[dims.length];
+			final int[] size = new int[dims.length];
+			grid.getCellDimensions(index, min, size);
+			final Object data;
+			try {
+				data = cache.get(new BlockKey(source, 0, level, index),
+					() -> computeTile(below, type, min, size));
+			}
+			catch (final IOException exc) {
+				throw new UncheckedIOException(exc);
+			}
+			return new Cell<>(size, min, access(data));
+		};
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		final RandomAccessibleInterval<T> img = new LazyCellImg(grid, type,
+			tiles);
+		return img;
+	}
+
+	/** Averages 2x2 neighborhoods of the level below into a new tile. */
+	private Object computeTile(final RandomAccessibleInterval<T> below,
+		final T type, final long[] min, final int[] size)
+	{
+		final long[] tileDims = new long[size.length];
+		for (int d = 0; d < size.length; d++) {
+			tileDims[d] = size[d];
+		}
+		final ArrayImg<T, ?> tile = new ArrayImgFactory<>(type).create(tileDims);
+		final RandomAccess<T> in = below.randomAccess();
+		final long[] pos = new long[size.length];
+		final long xMax = below.dimension(xAxis) - 1;
+		final long yMax = below.dimension(yAxis) - 1;
+		for (final Cursor<T> out = tile.localizingCursor(); out.hasNext();) {
+			out.fwd();
+			out.localize(pos);
+			for (int d = 0; d < pos.length; d++) {
+				pos[d] += min[d];
+			}
+			final long x = 2 * pos[xAxis], y = 2 * pos[yAxis];
+			double sum = 0;
+			int count = 0;
+			for (long yy = y; yy <= Math.min(y + 1, yMax); yy++) {
+				for (long xx = x; xx <= Math.min(x + 1, xMax); xx++) {
+					pos[xAxis] = xx;
+					pos[yAxis] = yy;
+					in.setPosition(pos);
+					sum += in.get().getRealDouble();
+					count++;
+				}
+			}
+			out.get().setReal(sum / count);
+		}
+		return ((ArrayDataAccess<?>) tile.update(null)).getCurrentStorageArray();
+	}
+
+	private static Object access(final Object data) {
+		if (data instanceof short[]) return new ShortArray((short[]) data);
+		if (data instanceof int[]) return new IntArray((int[]) data);
+		if (data instanceof long[]) return new LongArray((long[]) data);
+		if (data instanceof float[]) return new FloatArray((float[]) data);
+		if (data instanceof double[]) return new DoubleArray((double[]) data);
+		return new ByteArray((byte[]) data);
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.pyramid;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJService;
+import net.imagej.display.ImageDisplay;
+import net.imglib2.RandomAccessibleInterval;
+
+/**
+ * Interface for the service providing multi-resolution {@link Pyramid}s of
+ * datasets, so that zoomed-out views can be rendered from a coarse level
+ * rather than from the full resolution data.
+ */
+public interface PyramidService extends ImageJService {
+
+	/**
+	 * Gets the pyramid of the given dataset, creating it if needed. Its levels
+	 * are computed on demand, and discarded when the dataset is updated.
+	 *
+	 * @throws IllegalArgumentException if the dataset has no X and Y axes, or
+	 *           its type is not a native type.
+	 */
+	Pyramid<?> getPyramid(Dataset dataset);
+
+	/**
+	 * Gets the coarsest pyramid level of the given display's active dataset
+	 * which satisfies the display's current zoom factor.
+	 */
+	int getLevel(ImageDisplay display);
+
+	/**
+	 * Gets the image from which to render the given display at its current zoom
+	 * factor: the level given by {@link #getLevel(ImageDisplay)} of its active
+	 * dataset's pyramid. Positions along the X and Y axes of this image are
+	 * scaled down by 2^level.
+	 *
+	 * @return The level's image, or null if the display has no dataset.
+	 */
+	RandomAccessibleInterval<?> getLevelImage(ImageDisplay display);
+
+}
@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.rawio;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.planar.PlanarImg;
+
+import org.scijava.event.EventService;
+import org.scijava.io.event.DataOpenedEvent;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/** Default service for opening uncompressed image files directly. */
+@Plugin(type = Service.class)
+public class DefaultRawIOService extends AbstractService implements
+	RawIOService
+{
+
+	@Parameter
+	private DatasetService datasetService;
+
+	@Parameter
+	private DatasetIOService datasetIOService;
+
+	@Parameter
+	private EventService eventService;
+
+	// -- RawIOService methods --
+
+	@Override
+	public RawLayout getLayout(final String path) throws IOException {
+		if (!path.toLowerCase().matches(".*\\.tiff?")) return null;
+		try (final FileChannel channel = FileChannel.open(Paths.get(path),
+			StandardOpenOption.READ))
+		{
+			return TiffLayouts.read(channel);
+		}
+	}
+
+	@Override
+	public Dataset open(final String path) throws IOException {
+		final RawLayout layout = getLayout(path);
+		if (layout == null) return datasetIOService.open(path);
+		final Dataset dataset = open(path, layout);
+		eventService.publish(new DataOpenedEvent(path, dataset));
+		return dataset;
+	}
+
+	@Override
+	public Dataset open(final String path, final RawLayout layout)
+		throws IOException
+	{
+		final Dataset dataset = datasetService.create(layout.getDims(), new File(
+			path).getName(), layout.getAxes(), layout.getBitsPerPixel(), layout
+				.isSigned(), layout.isFloating());
+		final Img<?> img = dataset.getImgPlus().getImg();
+		try (final FileChannel channel = FileChannel.open(Paths.get(path),
+			StandardOpenOption.READ))
+		{
+			for (int p = 0; p < layout.getPlaneCount(); p++) {
+				if (img instanceof PlanarImg) {
+					RawPlanes.read(channel, layout, p, storage(((PlanarImg<?, ?>) img)
+						.getPlane(p)), 0);
+				}
+				else if (img instanceof ArrayImg) {
+					RawPlanes.read(channel, layout, p, storage(((ArrayImg<?, ?>) img)
+						.update(null)), p * layout.getPlaneSize());
+				}
+				else {
+					throw new IOException("Unsupported storage: " + img.getClass()
+						.getName());
+				}
+			}
+		}
+		return dataset;
+	}
+
+	// -- Helper methods --
+
+	private static Object storage(final Object access) throws IOException {
+		if (!(access instanceof ArrayDataAccess)) {
+			throw new IOException("Unsupported storage: " + access);
+		}
+		return ((ArrayDataAccess<?>) access).getCurrentStorageArray();
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.rawio;
+
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJService;
+
+/**
+ * Interface for the service opening uncompressed image files by reading
+ * their planes straight into the dataset's storage, bypassing the generic
+ * SCIFIO reading path, which reads each plane into a temporary array and
+ * converts it pixel by pixel.
+ *
+ * @see RawPlanes
+ */
+public interface RawIOService extends ImageJService {
+
+	/**
+	 * Gets the layout of the given file, if it is an uncompressed TIFF file
+	 * whose planes can be read directly. The dimensions of a stack written by
+	 * ImageJ are taken from its image description; if the description holds
+	 * anything else, such as a spatial calibration, the file is left to SCIFIO.
+	 *
+	 * @return The layout, or null if the file's planes cannot be read directly.
+	 */
+	RawLayout getLayout(String path) throws IOException;
+
+	/**
+	 * Opens the given file. If its planes can be read directly, they are read
+	 * straight into the new dataset's storage; otherwise, the file is opened
+	 * via SCIFIO as usual.
+	 */
+	Dataset open(String path) throws IOException;
+
+	/**
+	 * Opens the given uncompressed file with the given layout, reading its
+	 * planes straight into the new dataset's storage, along the layout's
+	 * axes.
+	 *
+	 * @see RawLayout#getAxes()
+	 */
+	Dataset open(String path, RawLayout layout) throws IOException;
+
+}
@@ -0,0 +1,228 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.rawio;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+
+/**
+ * Describes where and how the planes of an uncompressed image are stored in
+ * a file: the image's dimensions, its pixel type and byte order, and the
+ * offset of each XY plane, whose pixels are stored contiguously, row by row.
+ */
+public final class RawLayout {
+
+	/** The axes of an image whose layout does not name them. */
+	private static final AxisType[] DEFAULT_AXES = { Axes.X, Axes.Y, Axes.Z,
+		Axes.CHANNEL, Axes.TIME };
+
+	private final long[] dims;
+	private final AxisType[] axes;
+	private final int bitsPerPixel;
+	private final boolean signed;
+	private final boolean floating;
+	private final ByteOrder order;
+	private final long[] planeOffsets;
+
+	/**
+	 * Creates a layout for planes stored one after another, starting at the
+	 * given offset.
+	 *
+	 * @param dims The image's dimensional extents; X and Y first. Any further
+	 *          dimensions are Z, channel and time, in that order.
+	 * @param bitsPerPixel The image's bit depth (8, 16, 32 or 64).
+	 * @param signed Whether the pixels can have negative values.
+	 * @param floating Whether the pixels can have non-integer values.
+	 * @param order The byte order of the pixels.
+	 * @param offset The offset of the first plane in the file.
+	 * @throws IllegalArgumentException if the combination of bitsPerPixel,
+	 *           signed and floating parameters do not form a valid data type,
+	 *           or there are more than five dimensions.
+	 */
+	public RawLayout(final long[] dims, final int bitsPerPixel,
+		final boolean signed, final boolean floating, final ByteOrder order,
+		final long offset)
+	{
+		this(dims, bitsPerPixel, signed, floating, order, contiguous(dims,
+			bitsPerPixel, offset));
+	}
+
+	/**
+	 * Creates a layout for planes stored at the given offsets.
+	 *
+	 * @param planeOffsets The offset in the file of each XY plane, in the flat
+	 *          order of the dimensions after X and Y.
+	 * @see #RawLayout(long[], int, boolean, boolean, ByteOrder, long)
+	 */
+	public RawLayout(final long[] dims, final int bitsPerPixel,
+		final boolean signed, final boolean floating, final ByteOrder order,
+		final long[] planeOffsets)
+	{
+		this(dims, defaultAxes(dims), bitsPerPixel, signed, floating, order,
+			planeOffsets);
+	}
+
+	/**
+	 * Creates a layout for planes stored at the given offsets, along the given
+	 * axes.
+	 *
+	 * @param axes The type of each dimension; X and Y first.
+	 * @see #RawLayout(long[], int, boolean, boolean, ByteOrder, long[])
+	 */
+	public RawLayout(final long[] dims, final AxisType[] axes,
+		final int bitsPerPixel, final boolean signed, final boolean floating,
+		final ByteOrder order, final long[] planeOffsets)
+	{
+		final boolean valid = floating ? signed && (bitsPerPixel == 32 ||
+			bitsPerPixel == 64) : bitsPerPixel == 8 || bitsPerPixel == 16 ||
+				bitsPerPixel == 32 || bitsPerPixel == 64 && signed;
+		if (!valid) {
+			throw new IllegalArgumentException("Invalid parameters: bitsPerPixel=" +
+				bitsPerPixel + ", signed=" + signed + ", floating=" + floating);
+		}
+		if (dims.length < 2) {
+			throw new IllegalArgumentException("Too few dimensions: " + Arrays
+				.toString(dims));
+		}
+		if (axes.length != dims.length) {
+			throw new IllegalArgumentException("Expected " + dims.length +
+				" axes, not " + axes.length);
+		}
+		if (dims[0] * dims[1] > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Plane too large: " + dims[0] +
+				"x" + dims[1]);
+		}
+		if (planeOffsets.length != planeCount(dims)) {
+			throw new IllegalArgumentException("Expected " + planeCount(dims) +
+				" plane offsets, not " + planeOffsets.length);
+		}
+		this.dims = dims.clone();
+		this.axes = axes.clone();
+		this.bitsPerPixel = bitsPerPixel;
+		this.signed = signed;
+		this.floating = floating;
+		this.order = order;
+		this.planeOffsets = planeOffsets.clone();
+	}
+
+	// -- RawLayout methods --
+
+	/** Gets the image's dimensional extents. */
+	public long[] getDims() {
+		return dims.clone();
+	}
+
+	/** Gets the type of each of the image's dimensions. */
+	public AxisType[] getAxes() {
+		return axes.clone();
+	}
+
+	/** Gets the image's bit depth. */
+	public int getBitsPerPixel() {
+		return bitsPerPixel;
+	}
+
+	/** Gets whether the pixels can have negative values. */
+	public boolean isSigned() {
+		return signed;
+	}
+
+	/** Gets whether the pixels can have non-integer values. */
+	public boolean isFloating() {
+		return floating;
+	}
+
+	/** Gets the byte order of the pixels. */
+	public ByteOrder getOrder() {
+		return order;
+	}
+
+	/** Gets the number of pixels in each XY plane. */
+	public int getPlaneSize() {
+		return (int) (dims[0] * dims[1]);
+	}
+
+	/** Gets the number of XY planes. */
+	public int getPlaneCount() {
+		return planeOffsets.length;
+	}
+
+	/** Gets the offset in the file of the given XY plane. */
+	public long getPlaneOffset(final int plane) {
+		return planeOffsets[plane];
+	}
+
+	// -- Object methods --
+
+	@Override
+	public String toString() {
+		return Arrays.toString(dims) + " " + (floating ? "float" : signed
+			? "int" : "uint") + bitsPerPixel + " " + order;
+	}
+
+	// -- Helper methods --
+
+	private static AxisType[] defaultAxes(final long[] dims) {
+		if (dims.length > DEFAULT_AXES.length) {
+			throw new IllegalArgumentException("Too many dimensions: " + Arrays
+				.toString(dims));
+		}
+		return Arrays.copyOf(DEFAULT_AXES, dims.length);
+	}
+
+	private static int planeCount(final long[] dims) {
+		long count = 1;
+		for (int d = 2; d < dims.length; d++) {
+			count *= dims[d];
+		}
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many planes: " + count);
+		}
+		return (int) count;
+	}
+
+	private static long[] contiguous(final long[] dims, final int bitsPerPixel,
+		final long offset)
+	{
+		final long planeBytes = dims.length < 2 ? 0 : dims[0] * dims[1] *
+			bitsPerPixel / 8;
+		final long[] offsets = new long[dims.length < 2 ? 0 : planeCount(dims)];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = offset + i * planeBytes;
+		}
+		return offsets;
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.rawio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Utility methods for reading the planes of uncompressed files straight into
+ * the primitive arrays backing an image.
+ * <p>
+ * Bytes are read from the file channel directly into the target array; wider
+ * types are bulk-copied from a mapped view of the file, reordering bytes only
+ * if the file's byte order differs from the platform's. Either way, no
+ * intermediate array is allocated and no pixel is converted one at a time.
+ * </p>
+ */
+public final class RawPlanes {
+
+	private RawPlanes() {
+		// NB: Prevent instantiation of utility class.
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * Reads the given plane into the given array, which must be a primitive
+	 * array matching the layout's pixel type: {@code byte[]} for 8-bit,
+	 * {@code short[]} for 16-bit, {@code int[]} or {@code float[]} for 32-bit
+	 * and {@code long[]} or {@code double[]} for 64-bit pixels.
+	 *
+	 * @param offset The index in the array at which to store the first pixel.
+	 * @throws IOException if the file ends before the plane does.
+	 * @throws IllegalArgumentException if the array does not match the
+	 *           layout.
+	 */
+	public static void read(final FileChannel channel, final RawLayout layout,
+		final int plane, final Object array, final int offset) throws IOException
+	{
+		final int length = layout.getPlaneSize();
+		final long position = layout.getPlaneOffset(plane);
+		final long bytes = (long) length * layout.getBitsPerPixel() / 8;
+		if (position + bytes > channel.size()) {
+			throw new IOException("Plane " + plane + " extends past end of file");
+		}
+		check(layout, array);
+
+		if (array instanceof byte[]) {
+			final ByteBuffer target = ByteBuffer.wrap((byte[]) array, offset,
+				length);
+			while (target.hasRemaining()) {
+				final long p = position + target.position() - offset;
+				if (channel.read(target, p) < 0) {
+					throw new IOException("Plane " + plane + " is truncated");
+				}
+			}
+			return;
+		}
+
+		final ByteBuffer source = channel.map(MapMode.READ_ONLY, position, bytes)
+			.order(layout.getOrder());
+		if (array instanceof short[]) {
+			source.asShortBuffer().get((short[]) array, offset, length);
+		}
+		else if (array instanceof int[]) {
+			source.asIntBuffer().get((int[]) array, offset, length);
+		}
+		else if (array instanceof float[]) {
+			source.asFloatBuffer().get((float[]) array, offset, length);
+		}
+		else if (array instanceof long[]) {
+			source.asLongBuffer().get((long[]) array, offset, length);
+		}
+		else {
+			source.asDoubleBuffer().get((double[]) array, offset, length);
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void check(final RawLayout layout, final Object array) {
+		final Class<?> expected;
+		switch (layout.getBitsPerPixel()) {
+			case 8:
+				expected = byte[].class;
+				break;
+			case 16:
+				expected = short[].class;
+				break;
+			case 32:
+				expected = layout.isFloating() ? float[].class : int[].class;
+				break;
+			default:
+				expected = layout.isFloating() ? double[].class : long[].class;
+		}
+		if (array == null || array.getClass() != expected) {
+			throw new IllegalArgumentException("Expected " + expected
+				.getSimpleName() + " for " + layout + ", not " + (array == null
+					? null : array.getClass().getSimpleName()));
+		}
+	}
+
+}
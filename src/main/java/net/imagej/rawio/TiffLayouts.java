@@ -0,0 +1,413 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.rawio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+
+/**
+ * Reads the {@link RawLayout} of uncompressed, single-channel TIFF files,
+ * whose planes' strips are stored contiguously. Such files are written by
+ * ImageJ, and by SCIFIO by default.
+ * <p>
+ * The dimensions of a stack written by ImageJ are read from the
+ * {@code channels}, {@code slices}, {@code frames} and {@code images} keys of
+ * its image description. Files whose description holds any other metadata,
+ * such as a spatial calibration, are not read directly, so that SCIFIO can
+ * apply it.
+ * </p>
+ */
+final class TiffLayouts {
+
+	private static final int IMAGE_WIDTH = 256;
+	private static final int IMAGE_LENGTH = 257;
+	private static final int BITS_PER_SAMPLE = 258;
+	private static final int COMPRESSION = 259;
+	private static final int IMAGE_DESCRIPTION = 270;
+	private static final int STRIP_OFFSETS = 273;
+	private static final int SAMPLES_PER_PIXEL = 277;
+	private static final int STRIP_BYTE_COUNTS = 279;
+	private static final int SAMPLE_FORMAT = 339;
+
+	private static final int ASCII = 2;
+	private static final int SHORT = 3;
+	private static final int LONG = 4;
+
+	/** The longest image description which is parsed. */
+	private static final int MAX_DESCRIPTION = 1 << 16;
+
+	/**
+	 * The keys of an ImageJ image description which do not affect how the
+	 * planes are read, other than those giving the dimensions.
+	 */
+	private static final Set<String> IMAGEJ_KEYS = new HashSet<>(Arrays.asList(
+		"ImageJ", "images", "channels", "slices", "frames", "hyperstack", "mode",
+		"loop", "min", "max"));
+
+	private TiffLayouts() {
+		// NB: Prevent instantiation of utility class.
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * Reads the layout of the given TIFF file.
+	 *
+	 * @return The layout, or null if the file is not a TIFF file whose planes
+	 *         can be read directly: e.g., if it is a BigTIFF, its planes are
+	 *         compressed, tiled or of differing types, its pixels hold
+	 *         several samples, or its description holds metadata which SCIFIO
+	 *         would apply.
+	 */
+	static RawLayout read(final FileChannel channel) throws IOException {
+		final ByteBuffer header = read(channel, 0, 8, ByteOrder.BIG_ENDIAN);
+		if (header == null) return null;
+		final short magic = header.getShort();
+		final ByteOrder order;
+		if (magic == 0x4949) order = ByteOrder.LITTLE_ENDIAN;
+		else if (magic == 0x4d4d) order = ByteOrder.BIG_ENDIAN;
+		else return null;
+		header.order(order);
+		if (header.getShort() != 42) return null;
+
+		long width = -1, height = -1;
+		int bits = -1, format = -1;
+		String description = null;
+		final List<Long> offsets = new ArrayList<>();
+		final Set<Long> visited = new HashSet<>();
+		long ifd = header.getInt() & 0xffffffffL;
+		while (ifd != 0) {
+			if (!visited.add(ifd)) return null;
+			final ByteBuffer count = read(channel, ifd, 2, order);
+			if (count == null) return null;
+			final int entryCount = count.getShort() & 0xffff;
+			final ByteBuffer entries = read(channel, ifd + 2, 12 * entryCount + 4,
+				order);
+			if (entries == null) return null;
+
+			final Plane plane = new Plane();
+			for (int e = 0; e < entryCount; e++) {
+				if (!plane.parse(channel, entries, order)) return null;
+			}
+			if (!plane.isRaw()) return null;
+			if (width < 0) {
+				width = plane.width;
+				height = plane.height;
+				bits = plane.bits;
+				format = plane.format;
+				description = plane.description;
+			}
+			else if (plane.width != width || plane.height != height ||
+				plane.bits != bits || plane.format != format)
+			{
+				return null;
+			}
+			offsets.add(plane.offset);
+			ifd = entries.getInt() & 0xffffffffL;
+		}
+		if (width < 0) return null;
+
+		final boolean floating = format == 3;
+		final boolean signed = format == 2 || floating;
+		long[] planeOffsets = offsets.stream().mapToLong(Long::longValue)
+			.toArray();
+		long[] dims = planeOffsets.length == 1 ? new long[] { width, height }
+			: new long[] { width, height, planeOffsets.length };
+		AxisType[] axes = Arrays.copyOf(new AxisType[] { Axes.X, Axes.Y,
+			Axes.Z }, dims.length);
+		if (description != null && description.startsWith("ImageJ=")) {
+			final Map<String, Integer> counts = imagejCounts(description);
+			if (counts == null) return null;
+			final int images = counts.get("images");
+			if (planeOffsets.length == 1 && images > 1) {
+				// NB: ImageJ writes stacks larger than 4 GiB with a single IFD,
+				// followed by the remaining planes, one after another.
+				final long planeBytes = width * height * bits / 8;
+				final long first = planeOffsets[0];
+				if (first + images * planeBytes > channel.size()) return null;
+				planeOffsets = new long[images];
+				for (int p = 0; p < images; p++) {
+					planeOffsets[p] = first + p * planeBytes;
+				}
+			}
+			else if (planeOffsets.length != images) return null;
+
+			// NB: ImageJ stores planes in CZT order.
+			final long[] lengths = { width, height, counts.get("channels"), counts
+				.get("slices"), counts.get("frames") };
+			final AxisType[] types = { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z,
+				Axes.TIME };
+			int n = 0;
+			for (int d = 0; d < lengths.length; d++) {
+				if (d < 2 || lengths[d] > 1) {
+					lengths[n] = lengths[d];
+					types[n++] = types[d];
+				}
+			}
+			dims = Arrays.copyOf(lengths, n);
+			axes = Arrays.copyOf(types, n);
+		}
+		else if (description != null && description.trim().startsWith("<")) {
+			// NB: OME-XML, or similar metadata which SCIFIO knows how to apply.
+			return null;
+		}
+		try {
+			return new RawLayout(dims, axes, bits, signed, floating, order,
+				planeOffsets);
+		}
+		catch (final IllegalArgumentException exc) {
+			// NB: Unsupported pixel type.
+			return null;
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Parses the given ImageJ image description into its image, channel,
+	 * slice and frame counts, or returns null if it holds anything else.
+	 */
+	private static Map<String, Integer> imagejCounts(final String description) {
+		final Map<String, Integer> counts = new HashMap<>();
+		for (final String line : description.split("\n")) {
+			if (line.trim().isEmpty()) continue;
+			final int equals = line.indexOf('=');
+			if (equals < 0) return null;
+			final String key = line.substring(0, equals).trim();
+			if (!IMAGEJ_KEYS.contains(key)) return null;
+			switch (key) {
+				case "images":
+				case "channels":
+				case "slices":
+				case "frames":
+					try {
+						final int count = Integer.parseInt(line.substring(equals + 1)
+							.trim());
+						if (count < 1) return null;
+						counts.put(key, count);
+					}
+					catch (final NumberFormatException exc) {
+						return null;
+					}
+			}
+		}
+		final Integer images = counts.get("images");
+		counts.putIfAbsent("channels", 1);
+		counts.putIfAbsent("frames", 1);
+		if (images != null && !counts.containsKey("slices")) {
+			final int cf = counts.get("channels") * counts.get("frames");
+			if (images % cf != 0) return null;
+			counts.put("slices", images / cf);
+		}
+		counts.putIfAbsent("slices", 1);
+		final long czt = (long) counts.get("channels") * counts.get("slices") *
+			counts.get("frames");
+		if (images != null && images != czt) return null;
+		if (czt > Integer.MAX_VALUE) return null;
+		counts.put("images", (int) czt);
+		return counts;
+	}
+
+	/**
+	 * Reads the given number of bytes, at the given position, or returns null
+	 * if the file ends first.
+	 */
+	private static ByteBuffer read(final FileChannel channel,
+		final long position, final int length, final ByteOrder order)
+		throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				return null;
+			}
+		}
+		buffer.flip();
+		return buffer.order(order);
+	}
+
+	// -- Helper classes --
+
+	/** The relevant fields of one image file directory. */
+	private static class Plane {
+
+		private long width = -1, height = -1;
+		private int bits = 1, format = 1, samples = 1, compression = 1;
+		private long[] stripOffsets, stripByteCounts;
+		private String description;
+		private long offset;
+
+		/** Parses the next entry, returning false if it is malformed. */
+		private boolean parse(final FileChannel channel, final ByteBuffer entries,
+			final ByteOrder order) throws IOException
+		{
+			final int tag = entries.getShort() & 0xffff;
+			final int type = entries.getShort() & 0xffff;
+			final long count = entries.getInt() & 0xffffffffL;
+			final int value = entries.getInt();
+			if (tag == IMAGE_DESCRIPTION && type == ASCII) {
+				description = text(channel, count, value, order);
+				return description != null;
+			}
+			if (type != SHORT && type != LONG) return true;
+			switch (tag) {
+				case IMAGE_WIDTH:
+				case IMAGE_LENGTH:
+				case BITS_PER_SAMPLE:
+				case COMPRESSION:
+				case SAMPLES_PER_PIXEL:
+				case SAMPLE_FORMAT:
+				case STRIP_OFFSETS:
+				case STRIP_BYTE_COUNTS:
+					break;
+				default:
+					return true;
+			}
+			final long[] values = values(channel, type, count, value, order);
+			if (values == null) return false;
+			switch (tag) {
+				case IMAGE_WIDTH:
+					width = values[0];
+					break;
+				case IMAGE_LENGTH:
+					height = values[0];
+					break;
+				case BITS_PER_SAMPLE:
+					bits = (int) values[0];
+					for (final long v : values) {
+						if (v != bits) return false;
+					}
+					break;
+				case COMPRESSION:
+					compression = (int) values[0];
+					break;
+				case SAMPLES_PER_PIXEL:
+					samples = (int) values[0];
+					break;
+				case SAMPLE_FORMAT:
+					format = (int) values[0];
+					break;
+				case STRIP_OFFSETS:
+					stripOffsets = values;
+					break;
+				case STRIP_BYTE_COUNTS:
+					stripByteCounts = values;
+					break;
+			}
+			return true;
+		}
+
+		/**
+		 * Checks whether the plane is stored uncompressed, in one contiguous run
+		 * of bytes, and if so, records where.
+		 */
+		private boolean isRaw() {
+			if (compression != 1 || samples != 1 || width <= 0 || height <= 0 ||
+				stripOffsets == null || stripByteCounts == null ||
+				stripOffsets.length != stripByteCounts.length)
+			{
+				return false;
+			}
+			long next = stripOffsets[0];
+			long total = 0;
+			for (int s = 0; s < stripOffsets.length; s++) {
+				if (stripOffsets[s] != next) return false;
+				next += stripByteCounts[s];
+				total += stripByteCounts[s];
+			}
+			offset = stripOffsets[0];
+			return bits % 8 == 0 && total >= width * height * bits / 8;
+		}
+
+		/**
+		 * Gets the text of an ASCII entry, which may be stored out of line, or
+		 * null if it is malformed or too long to be worth parsing.
+		 */
+		private static String text(final FileChannel channel, final long count,
+			final int value, final ByteOrder order) throws IOException
+		{
+			if (count == 0 || count > MAX_DESCRIPTION) return null;
+			final ByteBuffer data;
+			if (count <= 4) {
+				data = ByteBuffer.allocate(4).order(order).putInt(value);
+				data.flip();
+			}
+			else {
+				data = read(channel, value & 0xffffffffL, (int) count, order);
+				if (data == null) return null;
+			}
+			final byte[] bytes = new byte[(int) count];
+			data.get(bytes);
+			int length = 0;
+			while (length < bytes.length && bytes[length] != 0) length++;
+			return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+		}
+
+		/** Gets the value of an entry, which may be stored out of line. */
+		private static long[] values(final FileChannel channel, final int type,
+			final long count, final int value, final ByteOrder order)
+			throws IOException
+		{
+			final int size = type == SHORT ? 2 : 4;
+			if (count == 0 || count > Integer.MAX_VALUE / size) return null;
+			final ByteBuffer data;
+			if (count * size <= 4) {
+				data = ByteBuffer.allocate(4).order(order).putInt(value);
+				data.flip();
+			}
+			else {
+				data = read(channel, value & 0xffffffffL, (int) count * size, order);
+				if (data == null) return null;
+			}
+			final long[] values = new long[(int) count];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = type == SHORT ? data.getShort() & 0xffff : data
+					.getInt() & 0xffffffffL;
+			}
+			return values;
+		}
+	}
+
+}
@@ -0,0 +1,425 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.server;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.scijava.Context;
+import org.scijava.command.CommandModule;
+import org.scijava.command.CommandService;
+import org.scijava.log.LogService;
+import org.scijava.module.Module;
+import org.scijava.module.ModuleException;
+import org.scijava.module.ModuleService;
+import org.scijava.plugin.Parameter;
+import org.scijava.script.ScriptInfo;
+import org.scijava.script.ScriptModule;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Serves script and command jobs from a long-lived ImageJ context, so that
+ * each job avoids the cost of starting up a new JVM and context.
+ * <p>
+ * The server listens on the loopback interface only. Since any local process
+ * can connect to it, each request must start with a secret token, which is
+ * generated anew for each server and which only the owner can read from the
+ * {@link #getTokenFile token file}. Requests without the token are refused.
+ * </p>
+ * <p>
+ * Each connection carries exactly one job, which runs as its own module
+ * instance, concurrently with any other jobs. A job request consists of:
+ * </p>
+ * <ol>
+ * <li>The server's token, on a line of its own.</li>
+ * <li>A request line: {@code SCRIPT <path>}, {@code COMMAND <class name>},
+ * {@code PING} or {@code SHUTDOWN}.</li>
+ * <li>Zero or more input lines of the form {@code <name>=<value>}; values are
+ * converted to the input's type as usual.</li>
+ * <li>An empty line.</li>
+ * <li>For {@code SCRIPT} jobs: the script itself, up to the end of the
+ * client's output. The path's extension selects the script language. If no
+ * script is sent, the script file at the given path is run instead.</li>
+ * </ol>
+ * <p>
+ * The response is streamed back line by line while the job runs: {@code OUT}
+ * and {@code ERR} lines carry the script's standard output and error,
+ * {@code OUTPUT <name>=<value>} lines carry the job's outputs, and the final
+ * line is either {@code DONE} or {@code FAILED <message>}.
+ * </p>
+ */
+public class ImageJServer implements Runnable, Closeable {
+
+	/** Port on which the server listens by default. */
+	public static final int DEFAULT_PORT = 6587;
+
+	@Parameter
+	private CommandService commandService;
+
+	@Parameter
+	private ModuleService moduleService;
+
+	@Parameter
+	private ThreadService threadService;
+
+	@Parameter
+	private LogService log;
+
+	private final Context context;
+	private final ServerSocket serverSocket;
+	private final String token;
+	private File tokenFile;
+
+	/**
+	 * Creates a server for the given context, bound to the given port of the
+	 * loopback interface.
+	 *
+	 * @param port The port to listen on, or 0 for any free port.
+	 */
+	public ImageJServer(final Context context, final int port)
+		throws IOException
+	{
+		this.context = context;
+		context.inject(this);
+		serverSocket = new ServerSocket(port, 50, InetAddress
+			.getLoopbackAddress());
+		final byte[] bytes = new byte[32];
+		new SecureRandom().nextBytes(bytes);
+		final StringBuilder sb = new StringBuilder();
+		for (final byte b : bytes) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		token = sb.toString();
+	}
+
+	/**
+	 * Gets the file in which the token of the server listening on the given
+	 * port is kept: {@code ~/.imagej/cache/server-<port>.token}.
+	 */
+	public static File getTokenFile(final int port) {
+		final File dir = new File(System.getProperty("user.home"),
+			".imagej" + File.separator + "cache");
+		return new File(dir, "server-" + port + ".token");
+	}
+
+	// -- ImageJServer methods --
+
+	/** Gets the port on which the server is listening. */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/** Gets the secret token which each request must start with. */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * Writes the server's token to its {@link #getTokenFile token file},
+	 * readable by the owner only. The file is deleted when the server is shut
+	 * down.
+	 *
+	 * @return The token file.
+	 */
+	public File writeToken() throws IOException {
+		final File file = getTokenFile(getPort());
+		final File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create directory: " + dir);
+		}
+		// NB: Restrict the permissions before the token is written, and move the
+		// file into place, so that the token is never readable by others.
+		final Path tmp = new File(dir, file.getName() + ".tmp").toPath();
+		Files.deleteIfExists(tmp);
+		try {
+			Files.createFile(tmp, PosixFilePermissions.asFileAttribute(
+				PosixFilePermissions.fromString("rw-------")));
+		}
+		catch (final UnsupportedOperationException exc) {
+			Files.createFile(tmp);
+			final File f = tmp.toFile();
+			if (!f.setReadable(false, false) || !f.setReadable(true, true) || !f
+				.setWritable(false, false) || !f.setWritable(true, true))
+			{
+				Files.delete(tmp);
+				throw new IOException("Cannot restrict permissions of " + f);
+			}
+		}
+		catch (final FileAlreadyExistsException exc) {
+			throw new IOException("Token file is being written: " + tmp, exc);
+		}
+		Files.write(tmp, token.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+		synchronized (this) {
+			tokenFile = file;
+		}
+		return file;
+	}
+
+	/** Gets whether the server has been shut down. */
+	public boolean isClosed() {
+		return serverSocket.isClosed();
+	}
+
+	// -- Runnable methods --
+
+	/**
+	 * Accepts connections until the server is shut down, either via
+	 * {@link #close()} or by a {@code SHUTDOWN} request.
+	 */
+	@Override
+	public void run() {
+		while (!serverSocket.isClosed()) {
+			final Socket client;
+			try {
+				client = serverSocket.accept();
+			}
+			catch (final SocketException exc) {
+				// NB: The server socket was closed.
+				break;
+			}
+			catch (final IOException exc) {
+				log.error("Error accepting connection", exc);
+				continue;
+			}
+			threadService.run(() -> serve(client));
+		}
+	}
+
+	// -- Closeable methods --
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		synchronized (this) {
+			if (tokenFile != null && !tokenFile.delete()) tokenFile.deleteOnExit();
+			tokenFile = null;
+		}
+	}
+
+	// -- Helper methods --
+
+	private void serve(final Socket client) {
+		try (final Socket socket = client) {
+			final BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream(), StandardCharsets.UTF_8));
+			final PrintWriter out = new PrintWriter(new OutputStreamWriter(socket
+				.getOutputStream(), StandardCharsets.UTF_8), true);
+			try {
+				handle(in, out);
+			}
+			catch (final Exception exc) {
+				log.debug(exc);
+				out.println("FAILED " + message(exc));
+			}
+		}
+		catch (final IOException exc) {
+			log.error("Error serving job", exc);
+		}
+	}
+
+	private void handle(final BufferedReader in, final PrintWriter out)
+		throws IOException, ModuleException, InterruptedException,
+		ExecutionException
+	{
+		if (!authorized(in.readLine())) {
+			out.println("FAILED Unauthorized");
+			return;
+		}
+		final String request = in.readLine();
+		if (request == null) return;
+		final int space = request.indexOf(' ');
+		final String verb = space < 0 ? request : request.substring(0, space);
+		final String target = space < 0 ? "" : request.substring(space + 1);
+
+		final Map<String, Object> inputs = new HashMap<>();
+		while (true) {
+			final String line = in.readLine();
+			if (line == null || line.isEmpty()) break;
+			final int equals = line.indexOf('=');
+			if (equals < 0) throw new IOException("Invalid input: " + line);
+			inputs.put(line.substring(0, equals), line.substring(equals + 1));
+		}
+
+		final Module module;
+		switch (verb) {
+			case "PING":
+				out.println("DONE");
+				return;
+			case "SHUTDOWN":
+				out.println("DONE");
+				close();
+				return;
+			case "SCRIPT":
+				module = runScript(target, readAll(in), inputs, out);
+				break;
+			case "COMMAND":
+				module = runCommand(target, inputs);
+				break;
+			default:
+				throw new IOException("Invalid request: " + request);
+		}
+		if (module == null) return;
+
+		for (final Map.Entry<String, Object> output : module.getOutputs()
+			.entrySet())
+		{
+			out.println("OUTPUT " + output.getKey() + "=" + String.valueOf(output
+				.getValue()).replace('\n', ' '));
+		}
+		out.println("DONE");
+	}
+
+	private Module runScript(final String path, final String script,
+		final Map<String, Object> inputs, final PrintWriter out)
+		throws ModuleException, InterruptedException, ExecutionException
+	{
+		final ScriptInfo info = script.isEmpty() ? //
+			new ScriptInfo(context, new File(path)) : //
+			new ScriptInfo(context, path, new StringReader(script));
+		final ScriptModule module = info.createModule();
+		final LineWriter stdout = new LineWriter(out, "OUT ");
+		final LineWriter stderr = new LineWriter(out, "ERR ");
+		module.setOutputWriter(stdout);
+		module.setErrorWriter(stderr);
+		try {
+			return moduleService.run(module, true, inputs).get();
+		}
+		finally {
+			stdout.close();
+			stderr.close();
+		}
+	}
+
+	private Module runCommand(final String className,
+		final Map<String, Object> inputs) throws IOException,
+		InterruptedException, ExecutionException
+	{
+		final Future<CommandModule> future = commandService.run(className, true,
+			inputs);
+		if (future == null) throw new IOException("No such command: " + className);
+		return future.get();
+	}
+
+	/** Checks the given token, in constant time. */
+	private boolean authorized(final String line) {
+		if (line == null) return false;
+		return MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), line
+			.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String readAll(final BufferedReader in) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		final char[] buf = new char[8192];
+		while (true) {
+			final int r = in.read(buf);
+			if (r < 0) break;
+			sb.append(buf, 0, r);
+		}
+		return sb.toString();
+	}
+
+	private static String message(final Throwable t) {
+		final Throwable cause = t instanceof ExecutionException && t
+			.getCause() != null ? t.getCause() : t;
+		final String message = cause.getMessage();
+		return (message == null ? cause.getClass().getName() : message).replace(
+			'\n', ' ');
+	}
+
+	// -- Helper classes --
+
+	/** Writer which sends each line of text to the client with a prefix. */
+	private static class LineWriter extends Writer {
+
+		private final PrintWriter out;
+		private final String prefix;
+		private final StringBuilder line = new StringBuilder();
+
+		private LineWriter(final PrintWriter out, final String prefix) {
+			this.out = out;
+			this.prefix = prefix;
+		}
+
+		@Override
+		public void write(final char[] cbuf, final int off, final int len) {
+			synchronized (out) {
+				for (int i = off; i < off + len; i++) {
+					if (cbuf[i] == '\n') flushLine();
+					else if (cbuf[i] != '\r') line.append(cbuf[i]);
+				}
+			}
+		}
+
+		@Override
+		public void flush() {
+			out.flush();
+		}
+
+		@Override
+		public void close() {
+			synchronized (out) {
+				if (line.length() > 0) flushLine();
+			}
+		}
+
+		private void flushLine() {
+			out.println(prefix + line);
+			line.setLength(0);
+		}
+	}
+
+}
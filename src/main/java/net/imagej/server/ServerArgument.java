@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+
+import org.scijava.console.AbstractConsoleArgument;
+import org.scijava.console.ConsoleArgument;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.ui.UIService;
+
+/**
+ * Handles the {@code --server} argument, which keeps the ImageJ context alive
+ * and serves jobs from it, until a {@code SHUTDOWN} request is received. The
+ * port may be given as {@code --server=<port>}; the default is
+ * {@value ImageJServer#DEFAULT_PORT}. The token which clients must send
+ * is written to {@link ImageJServer#getTokenFile}.
+ *
+ * @see ImageJServer
+ */
+@Plugin(type = ConsoleArgument.class)
+public class ServerArgument extends AbstractConsoleArgument {
+
+	private static final String FLAG = "--server";
+
+	@Parameter(required = false)
+	private UIService uiService;
+
+	@Parameter
+	private LogService log;
+
+	// -- ConsoleArgument methods --
+
+	@Override
+	public void handle(final LinkedList<String> args) {
+		if (!supports(args)) return;
+		final String arg = args.removeFirst();
+
+		final int port;
+		try {
+			port = arg.equals(FLAG) ? ImageJServer.DEFAULT_PORT : Integer.parseInt(
+				arg.substring(FLAG.length() + 1));
+		}
+		catch (final NumberFormatException exc) {
+			log.error("Invalid port: " + arg);
+			return;
+		}
+
+		// NB: A server never shows a user interface.
+		if (uiService != null) uiService.setHeadless(true);
+
+		try (final ImageJServer server = new ImageJServer(getContext(), port)) {
+			final File tokenFile = server.writeToken();
+			log.info("ImageJ server listening on port " + server.getPort() +
+				"; token in " + tokenFile);
+			server.run();
+		}
+		catch (final IOException exc) {
+			log.error("ImageJ server failed", exc);
+		}
+	}
+
+	// -- Typed methods --
+
+	@Override
+	public boolean supports(final LinkedList<String> args) {
+		if (args == null || args.isEmpty()) return false;
+		final String arg = args.getFirst();
+		return arg.equals(FLAG) || arg.startsWith(FLAG + "=");
+	}
+
+}
@@ -0,0 +1,401 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.scijava.plugin.DefaultPluginFinder;
+import org.scijava.plugin.PluginIndex;
+
+/**
+ * An on-disk cache of the plugin annotation indexes found on the class path.
+ * <p>
+ * Discovering plugins normally means reading the
+ * {@code META-INF/json/org.scijava.plugin.Plugin} index of every JAR file on
+ * the class path. This cache stores all of those indexes concatenated into a
+ * single file, together with a fingerprint of the class path (the path, size
+ * and modification time of each entry). On startup, the file is memory-mapped
+ * and, if the fingerprint still matches, served to the plugin finder in place
+ * of the individual indexes; otherwise it is rebuilt.
+ * </p>
+ * <p>
+ * The cache is used by {@link net.imagej.ImageJ} when the
+ * {@value #CACHE_PROPERTY} system property is set, either to {@code true} (to
+ * keep the cache in {@code ~/.imagej/cache}) or to the path of the cache file.
+ * </p>
+ */
+public class PluginIndexCache {
+
+	/** System property enabling the plugin index cache. */
+	public static final String CACHE_PROPERTY = "imagej.plugin.cache";
+
+	/** The class path resource holding each JAR's plugin index. */
+	public static final String INDEX_RESOURCE =
+		"META-INF/json/org.scijava.plugin.Plugin";
+
+	private static final String MAGIC = "imagej-plugin-index 1";
+
+	private final File file;
+	private final ClassLoader classLoader;
+
+	private String fingerprint;
+
+	public PluginIndexCache(final File file, final ClassLoader classLoader) {
+		this.file = file;
+		this.classLoader = classLoader;
+	}
+
+	// -- PluginIndexCache methods --
+
+	/**
+	 * Gets the cache configured by the {@value #CACHE_PROPERTY} system property
+	 * for the current thread's context class loader.
+	 *
+	 * @return The cache, or null if caching is not enabled.
+	 */
+	public static PluginIndexCache fromSystemProperties() {
+		final String value = System.getProperty(CACHE_PROPERTY);
+		if (value == null || value.isEmpty() || value.equals("false")) return null;
+		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		final File cacheFile = value.equals("true") ? defaultFile(loader) :
+			new File(value);
+		return new PluginIndexCache(cacheFile, loader);
+	}
+
+	/**
+	 * Gets a plugin index backed by the cache configured via the
+	 * {@value #CACHE_PROPERTY} system property.
+	 *
+	 * @return The plugin index, or null if caching is disabled or the cache is
+	 *         unusable, in which case plugins should be discovered as usual.
+	 */
+	public static PluginIndex createPluginIndex() {
+		final PluginIndexCache cache = fromSystemProperties();
+		if (cache == null) return null;
+		try {
+			return cache.pluginIndex();
+		}
+		catch (final IOException exc) {
+			// NB: Fall back to regular plugin discovery.
+			return null;
+		}
+	}
+
+	/** Gets the file backing this cache. */
+	public File getFile() {
+		return file;
+	}
+
+	/** Gets the fingerprint of the current class path. */
+	public String fingerprint() throws IOException {
+		if (fingerprint == null) {
+			final StringBuilder sb = new StringBuilder(MAGIC).append('\n');
+			for (final File entry : classPath(classLoader)) {
+				// NB: For directories, the index file itself is what matters.
+				final File f = entry.isDirectory() ? //
+					new File(entry, INDEX_RESOURCE) : entry;
+				sb.append(entry.getAbsolutePath()).append('\t');
+				sb.append(f.length()).append('\t');
+				sb.append(f.lastModified()).append('\n');
+			}
+			fingerprint = digest(sb.toString());
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Checks whether the cache file exists and matches the current class path.
+	 */
+	public boolean isValid() throws IOException {
+		return map() != null;
+	}
+
+	/**
+	 * Gets a plugin index which discovers plugins from the cache, rebuilding the
+	 * cache file first if it is missing or out of date.
+	 */
+	public PluginIndex pluginIndex() throws IOException {
+		ByteBuffer index = map();
+		if (index == null) {
+			rebuild();
+			index = map();
+			if (index == null) {
+				throw new IOException("Invalid plugin index cache: " + file);
+			}
+		}
+		final URL url = new URL("imagej-plugin-cache", null, -1, file
+			.getAbsolutePath(), new BufferHandler(index));
+		return new PluginIndex(new DefaultPluginFinder(new CachedIndexLoader(
+			classLoader, url)));
+	}
+
+	/** Regenerates the cache file from the class path's plugin indexes. */
+	public void rebuild() throws IOException {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final Enumeration<URL> urls = classLoader.getResources(INDEX_RESOURCE);
+		while (urls.hasMoreElements()) {
+			try (final InputStream in = urls.nextElement().openStream()) {
+				copy(in, body);
+			}
+			body.write('\n');
+		}
+
+		final File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create directory: " + dir);
+		}
+		final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			try (final OutputStream out = new FileOutputStream(tmp)) {
+				out.write(header().getBytes(StandardCharsets.UTF_8));
+				body.writeTo(out);
+			}
+			try {
+				Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (final AtomicMoveNotSupportedException exc) {
+				Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			if (tmp.exists()) tmp.delete();
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Maps the cache file into memory.
+	 *
+	 * @return The index portion of the file, or null if the file is missing or
+	 *         was built for a different class path.
+	 */
+	private ByteBuffer map() throws IOException {
+		if (!file.isFile()) return null;
+		final MappedByteBuffer buffer;
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.READ))
+		{
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		final byte[] header = header().getBytes(StandardCharsets.UTF_8);
+		if (buffer.remaining() < header.length) return null;
+		for (final byte b : header) {
+			if (buffer.get() != b) return null;
+		}
+		return buffer.slice();
+	}
+
+	private String header() throws IOException {
+		return MAGIC + "\n" + fingerprint() + "\n";
+	}
+
+	private static File defaultFile(final ClassLoader loader) {
+		// NB: Name the file after the class path entries, so that different
+		// installations do not keep invalidating each other's caches.
+		final StringBuilder sb = new StringBuilder();
+		for (final File entry : classPath(loader)) {
+			sb.append(entry.getAbsolutePath()).append('\n');
+		}
+		final File dir = new File(System.getProperty("user.home"),
+			".imagej" + File.separator + "cache");
+		return new File(dir, "plugin-index-" + digest(sb.toString()).substring(0,
+			16) + ".cache");
+	}
+
+	/** Gets the class path entries visible to the given class loader. */
+	private static Set<File> classPath(final ClassLoader loader) {
+		final Set<File> entries = new LinkedHashSet<>();
+		for (ClassLoader l = loader; l != null; l = l.getParent()) {
+			if (!(l instanceof URLClassLoader)) continue;
+			for (final URL url : ((URLClassLoader) l).getURLs()) {
+				if (!"file".equals(url.getProtocol())) continue;
+				try {
+					entries.add(new File(url.toURI()));
+				}
+				catch (final URISyntaxException | IllegalArgumentException exc) {
+					entries.add(new File(url.getPath()));
+				}
+			}
+		}
+		final String classPath = System.getProperty("java.class.path");
+		if (classPath != null) {
+			for (final String entry : classPath.split(File.pathSeparator)) {
+				if (!entry.isEmpty()) entries.add(new File(entry));
+			}
+		}
+		return entries;
+	}
+
+	private static String digest(final String s) {
+		try {
+			final byte[] hash = MessageDigest.getInstance("SHA-256").digest(s
+				.getBytes(StandardCharsets.UTF_8));
+			final StringBuilder sb = new StringBuilder();
+			for (final byte b : hash) {
+				sb.append(String.format("%02x", b & 0xff));
+			}
+			return sb.toString();
+		}
+		catch (final NoSuchAlgorithmException exc) {
+			// NB: Every Java platform is required to support SHA-256.
+			throw new IllegalStateException(exc);
+		}
+	}
+
+	private static void copy(final InputStream in, final OutputStream out)
+		throws IOException
+	{
+		final byte[] buf = new byte[8192];
+		while (true) {
+			final int r = in.read(buf);
+			if (r < 0) break;
+			out.write(buf, 0, r);
+		}
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * Class loader which serves the cached index in place of the class path's
+	 * plugin indexes, delegating everything else to its parent.
+	 */
+	private static class CachedIndexLoader extends ClassLoader {
+
+		private final URL index;
+
+		private CachedIndexLoader(final ClassLoader parent, final URL index) {
+			super(parent);
+			this.index = index;
+		}
+
+		@Override
+		public URL getResource(final String name) {
+			return INDEX_RESOURCE.equals(name) ? index : super.getResource(name);
+		}
+
+		@Override
+		public Enumeration<URL> getResources(final String name)
+			throws IOException
+		{
+			if (INDEX_RESOURCE.equals(name)) {
+				return Collections.enumeration(Collections.singletonList(index));
+			}
+			return super.getResources(name);
+		}
+	}
+
+	/** Opens streams over a (memory-mapped) buffer. */
+	private static class BufferHandler extends URLStreamHandler {
+
+		private final ByteBuffer buffer;
+
+		private BufferHandler(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		protected URLConnection openConnection(final URL url)
+			throws MalformedURLException
+		{
+			return new URLConnection(url) {
+
+				@Override
+				public void connect() {
+					// NB: Nothing to do.
+				}
+
+				@Override
+				public InputStream getInputStream() {
+					return new BufferInputStream(buffer.duplicate());
+				}
+			};
+		}
+	}
+
+	/** Input stream reading the remaining bytes of a buffer. */
+	private static class BufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		private BufferInputStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0) return 0;
+			if (!buffer.hasRemaining()) return -1;
+			final int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+}
@@ -0,0 +1,666 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.Context;
+import org.scijava.InstantiableException;
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.service.Service;
+import org.scijava.service.event.ServicesLoadedEvent;
+
+/**
+ * Creates and initializes the services of a {@link Context} in dependency
+ * order, optionally recording each step with a {@link StartupProfiler}.
+ * <p>
+ * This mirrors what {@link org.scijava.service.ServiceHelper} does when a
+ * context is constructed: every available service compatible with one of the
+ * requested types is instantiated in priority order, after first (recursively)
+ * instantiating the services injected into its {@link Parameter} fields. The
+ * difference is that the construction and {@link Service#initialize()} of each
+ * service are measured separately, so the cost of a service can be told apart
+ * from the cost of its dependencies.
+ * </p>
+ * <p>
+ * As with {@link org.scijava.service.ServiceHelper}, a service which cannot
+ * be created is skipped with a warning, along with the services requiring it,
+ * unless the context is {@link Context#isStrict() strict}; and a
+ * {@link ServicesLoadedEvent} is published once the services are loaded.
+ * </p>
+ * <p>
+ * With a parallelism greater than one, the dependency graph of all needed
+ * services is computed up front, and services are then created level by
+ * level: all services whose dependencies are already available are
+ * constructed and initialized concurrently on a bounded thread pool, after
+ * which they are added to the context (one at a time, in priority order)
+ * before the next level starts. Services therefore never observe a context
+ * that is being modified by another thread, but a service whose
+ * {@link Service#initialize()} method requires it to run on a particular
+ * thread, or which looks up services it does not declare as parameters, may
+ * not be suitable for this mode.
+ * </p>
+ */
+public class ServiceInitializer {
+
+	/**
+	 * System property enabling concurrent service initialization in
+	 * {@link net.imagej.ImageJ#ImageJ()}: either {@code true} (one thread per
+	 * available processor) or the maximum number of threads to use.
+	 */
+	public static final String PARALLEL_PROPERTY = "imagej.services.parallel";
+
+	private final Context context;
+	private final StartupProfiler profiler;
+	private final int parallelism;
+
+	/** Available service plugins, sorted by priority. */
+	private final List<PluginInfo<Service>> servicePlugins;
+
+	/** Service classes currently being created, for cycle detection. */
+	private final Set<Class<?>> pending = new HashSet<>();
+
+	/**
+	 * Creates a service initializer for the given context.
+	 *
+	 * @param context The context to populate with services.
+	 * @param profiler The profiler with which to record the work done, or null.
+	 * @param parallelism The maximum number of services to initialize at once.
+	 */
+	public ServiceInitializer(final Context context,
+		final StartupProfiler profiler, final int parallelism)
+	{
+		this.context = context;
+		this.profiler = profiler;
+		this.parallelism = Math.max(1, parallelism);
+		servicePlugins = context.getPluginIndex().getPlugins(Service.class);
+	}
+
+	// -- ServiceInitializer methods --
+
+	/**
+	 * Gets the parallelism configured by the {@value #PARALLEL_PROPERTY} system
+	 * property.
+	 *
+	 * @return The number of threads to use, or 1 for sequential initialization.
+	 */
+	public static int parallelismFromSystemProperties() {
+		final String value = System.getProperty(PARALLEL_PROPERTY);
+		if (value == null || value.isEmpty() || value.equals("false")) return 1;
+		if (value.equals("true")) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		try {
+			return Math.max(1, Integer.parseInt(value));
+		}
+		catch (final NumberFormatException exc) {
+			return 1;
+		}
+	}
+
+	/**
+	 * Creates a new context containing all services compatible with the given
+	 * types, recording plugin discovery and each service with the profiler.
+	 *
+	 * @param profiler The profiler with which to record the work done, or null.
+	 * @param parallelism The maximum number of services to initialize at once.
+	 * @param serviceClasses The types of services to create.
+	 */
+	@SafeVarargs
+	public static Context createContext(final StartupProfiler profiler,
+		final int parallelism, final Class<? extends Service>... serviceClasses)
+	{
+		return createContext(profiler, parallelism, //
+			Arrays.asList(serviceClasses));
+	}
+
+	/**
+	 * Creates a new context containing all services compatible with the given
+	 * types, recording plugin discovery and each service with the profiler.
+	 *
+	 * @param profiler The profiler with which to record the work done, or null.
+	 * @param parallelism The maximum number of services to initialize at once.
+	 * @param serviceClasses The types of services to create.
+	 */
+	public static Context createContext(final StartupProfiler profiler,
+		final int parallelism,
+		final Collection<Class<? extends Service>> serviceClasses)
+	{
+		final PluginIndex cachedIndex = PluginIndexCache.createPluginIndex();
+		final PluginIndex pluginIndex = cachedIndex == null ? new PluginIndex() :
+			cachedIndex;
+		// NB: The Context constructor discovers the plugins into the index; as
+		// no services are requested, that is all the work it does.
+		final Context context;
+		final StartupProfiler.Span span = start(profiler, "plugins",
+			"PluginIndex.discover");
+		try {
+			context = new Context(Collections
+				.<Class<? extends Service>> emptyList(), pluginIndex);
+		}
+		finally {
+			stop(profiler, span);
+		}
+		new ServiceInitializer(context, profiler, parallelism).loadServices(
+			serviceClasses);
+		return context;
+	}
+
+	/**
+	 * Instantiates every available service compatible with any of the given
+	 * types, along with their dependencies.
+	 */
+	public void loadServices(
+		final Collection<Class<? extends Service>> serviceClasses)
+	{
+		if (parallelism > 1) {
+			loadServicesConcurrently(serviceClasses);
+			return;
+		}
+		for (final Class<? extends Service> serviceClass : serviceClasses) {
+			for (final PluginInfo<Service> info : servicePlugins) {
+				final Class<? extends Service> c = load(info);
+				if (c == null || !serviceClass.isAssignableFrom(c)) continue;
+				if (context.getServiceIndex().getService(c) != null) continue;
+				createService(info, c, false);
+			}
+		}
+		publishLoaded();
+	}
+
+	/**
+	 * Obtains a service compatible with the given type, creating the highest
+	 * priority available one if the context does not yet contain any.
+	 *
+	 * @return The service, or null if none is available and it is not required.
+	 * @throws IllegalArgumentException if the service is required but none is
+	 *           available, or it cannot be created.
+	 */
+	public <S extends Service> S loadService(final Class<S> c,
+		final boolean required)
+	{
+		final S existing = context.getService(c);
+		if (existing != null) return existing;
+		for (final PluginInfo<Service> info : servicePlugins) {
+			final Class<? extends Service> sc = load(info);
+			if (sc == null || !c.isAssignableFrom(sc)) continue;
+			final Service service = createService(info, sc, required);
+			if (service != null) return c.cast(service);
+		}
+		if (required) {
+			throw new IllegalArgumentException("No compatible service: " + c
+				.getName());
+		}
+		return null;
+	}
+
+	// -- Helper methods - sequential initialization --
+
+	/**
+	 * Creates the given service and adds it to the context.
+	 *
+	 * @return The service, or null if it could not be created.
+	 */
+	private Service createService(final PluginInfo<Service> info,
+		final Class<? extends Service> c, final boolean required)
+	{
+		if (!pending.add(c)) {
+			throw new IllegalStateException("Circular service dependency: " + c
+				.getName());
+		}
+		final StartupProfiler.Span span = start(profiler, "service", c.getName());
+		try {
+			final Service service = construct(info, c);
+			injectDependencies(service, true);
+			initialize(service);
+			context.getServiceIndex().add(service);
+			return service;
+		}
+		catch (final Throwable t) {
+			invalid(c, t, required);
+			return null;
+		}
+		finally {
+			stop(profiler, span);
+			pending.remove(c);
+		}
+	}
+
+	// -- Helper methods - concurrent initialization --
+
+	private void loadServicesConcurrently(
+		final Collection<Class<? extends Service>> serviceClasses)
+	{
+		// determine the services to create, and their dependencies
+		final Map<Class<? extends Service>, Node> plan = new LinkedHashMap<>();
+		for (final Class<? extends Service> serviceClass : serviceClasses) {
+			for (final PluginInfo<Service> info : servicePlugins) {
+				final Class<? extends Service> c = load(info);
+				if (c == null || !serviceClass.isAssignableFrom(c)) continue;
+				if (context.getServiceIndex().getService(c) != null) continue;
+				if (!plan.containsKey(c)) plan.put(c, new Node(info, c));
+			}
+		}
+		for (final Node node : new ArrayList<>(plan.values())) {
+			resolveDependencies(node, plan);
+		}
+
+		// group the services into levels, such that each service depends only
+		// on services in lower levels
+		final List<List<Node>> levels = new ArrayList<>();
+		final Map<Node, Integer> depths = new HashMap<>();
+		for (final Node node : plan.values()) {
+			final int depth = depth(node, depths, new HashSet<Node>());
+			while (levels.size() <= depth) levels.add(new ArrayList<Node>());
+			levels.get(depth).add(node);
+		}
+
+		final ExecutorService pool = Executors.newFixedThreadPool(parallelism,
+			new InitThreadFactory());
+		final Set<Node> failed = new HashSet<>();
+		try {
+			for (final List<Node> level : levels) {
+				loadLevel(level, pool, failed);
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+		publishLoaded();
+	}
+
+	private void resolveDependencies(final Node node,
+		final Map<Class<? extends Service>, Node> plan)
+	{
+		for (final Dependency dependency : dependencies(node.serviceClass)) {
+			if (dependency.type == null) continue;
+			if (context.getService(dependency.type) != null) continue;
+			Node target = null;
+			// prefer a service which is being created anyway...
+			for (final PluginInfo<Service> info : servicePlugins) {
+				final Class<? extends Service> c = load(info);
+				if (c != null && dependency.type.isAssignableFrom(c) && plan
+					.containsKey(c))
+				{
+					target = plan.get(c);
+					break;
+				}
+			}
+			// ...otherwise, the highest priority compatible one
+			if (target == null) {
+				for (final PluginInfo<Service> info : servicePlugins) {
+					final Class<? extends Service> c = load(info);
+					if (c == null || !dependency.type.isAssignableFrom(c)) continue;
+					target = new Node(info, c);
+					plan.put(c, target);
+					resolveDependencies(target, plan);
+					break;
+				}
+			}
+			if (target != null) {
+				node.dependencies.add(target);
+				if (dependency.required) node.requiredDependencies.add(target);
+			}
+			else if (dependency.required) node.missing = dependency.type;
+		}
+	}
+
+	private int depth(final Node node, final Map<Node, Integer> depths,
+		final Set<Node> visiting)
+	{
+		final Integer known = depths.get(node);
+		if (known != null) return known;
+		if (!visiting.add(node)) {
+			throw new IllegalStateException("Circular service dependency: " +
+				node.serviceClass.getName());
+		}
+		int depth = 0;
+		for (final Node dependency : node.dependencies) {
+			depth = Math.max(depth, depth(dependency, depths, visiting) + 1);
+		}
+		visiting.remove(node);
+		depths.put(node, depth);
+		return depth;
+	}
+
+	/**
+	 * Constructs and initializes the given services concurrently, then adds
+	 * them to the context in their original order.
+	 *
+	 * @param failed The services which could not be created so far; those of
+	 *          this level are added to it.
+	 */
+	private void loadLevel(final List<Node> level, final ExecutorService pool,
+		final Set<Node> failed)
+	{
+		final List<Node> started = new ArrayList<>();
+		final List<Future<Service>> futures = new ArrayList<>();
+		for (final Node node : level) {
+			final Throwable unsatisfied = unsatisfied(node, failed);
+			if (unsatisfied != null) {
+				invalid(node.serviceClass, unsatisfied, false);
+				failed.add(node);
+				continue;
+			}
+			started.add(node);
+			futures.add(pool.submit(new Callable<Service>() {
+
+				@Override
+				public Service call() {
+					final StartupProfiler.Span span = start(profiler, "service",
+						node.serviceClass.getName());
+					try {
+						final Service service = construct(node.info, node.serviceClass);
+						injectDependencies(service, false);
+						service.initialize();
+						return service;
+					}
+					finally {
+						stop(profiler, span);
+					}
+				}
+			}));
+		}
+		final List<Service> services = new ArrayList<>();
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				services.add(futures.get(i).get());
+			}
+			catch (final InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(exc);
+			}
+			catch (final ExecutionException exc) {
+				invalid(started.get(i).serviceClass, exc.getCause(), false);
+				failed.add(started.get(i));
+			}
+		}
+		for (final Service service : services) {
+			service.registerEventHandlers();
+			context.getServiceIndex().add(service);
+		}
+	}
+
+	/**
+	 * Gets why the given service cannot be created, given the services which
+	 * could not be created so far.
+	 *
+	 * @return The reason, or null if all of its required services exist.
+	 */
+	private Throwable unsatisfied(final Node node, final Set<Node> failed) {
+		if (node.missing != null) {
+			return new IllegalArgumentException("No compatible service: " +
+				node.missing.getName());
+		}
+		for (final Node dependency : node.requiredDependencies) {
+			if (failed.contains(dependency)) {
+				return new IllegalArgumentException("Invalid service: " +
+					dependency.serviceClass.getName());
+			}
+		}
+		return null;
+	}
+
+	// -- Helper methods --
+
+	private Service construct(final PluginInfo<Service> info,
+		final Class<? extends Service> c)
+	{
+		final Service service;
+		final StartupProfiler.Span span = start(profiler, "construct", "<init>");
+		try {
+			service = c.newInstance();
+		}
+		catch (final InstantiationException | IllegalAccessException exc) {
+			throw new IllegalArgumentException("Invalid service: " + c.getName(),
+				exc);
+		}
+		finally {
+			stop(profiler, span);
+		}
+		service.setInfo(info);
+		service.setPriority(info.getPriority());
+		service.setContext(context);
+		return service;
+	}
+
+	private void initialize(final Service service) {
+		final StartupProfiler.Span span = start(profiler, "initialize",
+			"initialize");
+		try {
+			service.initialize();
+			service.registerEventHandlers();
+		}
+		finally {
+			stop(profiler, span);
+		}
+	}
+
+	/**
+	 * Populates the service's {@link Parameter} fields.
+	 *
+	 * @param create Whether to create missing services; if false, they must
+	 *          already have been created.
+	 */
+	private void injectDependencies(final Service service,
+		final boolean create)
+	{
+		for (final Dependency dependency : dependencies(service.getClass())) {
+			// NB: Services with event handlers need an EventService to subscribe.
+			if (dependency.field == null) {
+				if (create) loadService(dependency.type, false);
+				continue;
+			}
+			final Object value;
+			if (dependency.type == null) value = context;
+			else if (create) {
+				value = loadService(dependency.type, dependency.required);
+			}
+			else value = context.getService(dependency.type);
+			final Field f = dependency.field;
+			f.setAccessible(true);
+			try {
+				f.set(service, value);
+			}
+			catch (final IllegalAccessException exc) {
+				throw new IllegalArgumentException("Cannot inject: " + f
+					.getDeclaringClass().getName() + "#" + f.getName(), exc);
+			}
+		}
+	}
+
+	/**
+	 * Handles a service which could not be created, as
+	 * {@link org.scijava.service.ServiceHelper} does: unless the service is
+	 * required or the context is strict, it is skipped with a warning.
+	 *
+	 * @throws IllegalArgumentException if the service is required or the
+	 *           context is strict.
+	 */
+	private void invalid(final Class<?> c, final Throwable t,
+		final boolean required)
+	{
+		final String message = "Invalid service: " + c.getName();
+		if (required || context.isStrict()) {
+			throw new IllegalArgumentException(message, t);
+		}
+		final LogService log = context.getService(LogService.class);
+		if (log == null) System.err.println("[WARNING] " + message);
+		else if (log.isDebug()) log.error(message, t);
+		else log.warn(message);
+	}
+
+	private void publishLoaded() {
+		final EventService eventService = context.getService(EventService.class);
+		if (eventService != null) {
+			eventService.publishLater(new ServicesLoadedEvent());
+		}
+	}
+
+	/** Gets the services needed by the given service class. */
+	private List<Dependency> dependencies(final Class<?> serviceClass) {
+		final List<Dependency> dependencies = new ArrayList<>();
+		boolean handlesEvents = false;
+		for (Class<?> c = serviceClass; c != null; c = c.getSuperclass()) {
+			for (final Field f : c.getDeclaredFields()) {
+				final Parameter param = f.getAnnotation(Parameter.class);
+				if (param == null) continue;
+				final Class<?> type = f.getType();
+				if (type == Context.class) {
+					dependencies.add(new Dependency(f, null, true));
+				}
+				else if (Service.class.isAssignableFrom(type)) {
+					dependencies.add(new Dependency(f, type.asSubclass(Service.class),
+						param.required()));
+				}
+				else {
+					throw new IllegalArgumentException("Invalid parameter: " + c
+						.getName() + "#" + f.getName());
+				}
+			}
+			for (final Method m : c.getDeclaredMethods()) {
+				if (m.isAnnotationPresent(EventHandler.class)) handlesEvents = true;
+			}
+		}
+		if (handlesEvents) {
+			dependencies.add(new Dependency(null, EventService.class, false));
+		}
+		return dependencies;
+	}
+
+	private Class<? extends Service> load(final PluginInfo<Service> info) {
+		if (!info.isEnabled()) return null;
+		try {
+			return info.loadClass();
+		}
+		catch (final InstantiableException exc) {
+			return null;
+		}
+	}
+
+	private static StartupProfiler.Span start(final StartupProfiler profiler,
+		final String category, final String name)
+	{
+		return profiler == null ? null : profiler.start(category, name);
+	}
+
+	private static void stop(final StartupProfiler profiler,
+		final StartupProfiler.Span span)
+	{
+		if (profiler != null) profiler.stop(span);
+	}
+
+	// -- Helper classes --
+
+	/** A service parameter, or event subscription, of a service class. */
+	private static class Dependency {
+
+		/** The injected field, or null for an implicit dependency. */
+		private final Field field;
+
+		/** The needed service type, or null for the context itself. */
+		private final Class<? extends Service> type;
+
+		private final boolean required;
+
+		private Dependency(final Field field, final Class<? extends Service> type,
+			final boolean required)
+		{
+			this.field = field;
+			this.type = type;
+			this.required = required;
+		}
+	}
+
+	/** A service to be created, as part of the dependency graph. */
+	private static class Node {
+
+		private final PluginInfo<Service> info;
+		private final Class<? extends Service> serviceClass;
+		private final List<Node> dependencies = new ArrayList<>();
+		private final Set<Node> requiredDependencies = new HashSet<>();
+
+		/** A required service type with no compatible service, if any. */
+		private Class<? extends Service> missing;
+
+		private Node(final PluginInfo<Service> info,
+			final Class<? extends Service> serviceClass)
+		{
+			this.info = info;
+			this.serviceClass = serviceClass;
+		}
+	}
+
+	/**
+	 * Creates daemon threads which use the calling thread's context class
+	 * loader, so that services can discover plugins as usual.
+	 */
+	private static class InitThreadFactory implements ThreadFactory {
+
+		private final ClassLoader classLoader = Thread.currentThread()
+			.getContextClassLoader();
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, "ServiceInitializer-" + count
+				.incrementAndGet());
+			thread.setContextClassLoader(classLoader);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
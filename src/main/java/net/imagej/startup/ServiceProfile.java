@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import io.scif.SCIFIOService;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.imagej.DatasetService;
+import net.imagej.ImageJService;
+import net.imagej.cache.BlockCacheService;
+import net.imagej.chunked.ChunkedIOService;
+import net.imagej.lut.LUTService;
+import net.imagej.mapped.MappedDatasetService;
+import net.imagej.memory.MemoryService;
+import net.imagej.metrics.MetricsService;
+import net.imagej.opcache.OpHandleService;
+import net.imagej.opcache.OpMemoService;
+import net.imagej.measure.StatisticsService;
+import net.imagej.ops.OpService;
+import net.imagej.parallel.ParallelOpService;
+import net.imagej.rawio.RawIOService;
+import net.imagej.stats.SummaryService;
+import net.imagej.stream.StreamService;
+import net.imagej.thumbnail.ThumbnailService;
+
+import org.scijava.console.ConsoleService;
+import org.scijava.main.MainService;
+import org.scijava.script.ScriptService;
+import org.scijava.service.SciJavaService;
+import org.scijava.service.Service;
+import org.scijava.startup.StartupService;
+import org.scijava.ui.UIService;
+
+/**
+ * A named set of services with which an {@link net.imagej.ImageJ} gateway can
+ * be created.
+ * <p>
+ * Each profile lists the types of services to create; any services those
+ * depend on are created as well.
+ * </p>
+ *
+ * @see net.imagej.ImageJ#ImageJ(ServiceProfile)
+ */
+public enum ServiceProfile {
+
+	/** All SciJava, SCIFIO and ImageJ services. */
+	FULL("full", SciJavaService.class, SCIFIOService.class,
+		ImageJService.class),
+
+	/**
+	 * Only the services needed for headless computation: datasets (including
+	 * memory-mapped ones), ops (including match caching, memoization and
+	 * chunked parallel execution), SCIFIO I/O (including the block cache,
+	 * parallel chunked saving and direct reading of uncompressed files), lookup
+	 * tables and thumbnails, statistics (including streaming summaries),
+	 * plane-by-plane streaming pipelines, runtime metrics, memory budgeting and
+	 * scripting, plus the console, main, startup and UI services through which
+	 * {@link net.imagej.ImageJ#launch} runs, so that the profile can be used
+	 * from the launcher with {@code --headless}. Window, display, rendering,
+	 * screen capture, updater and uploader services are omitted, unless one of
+	 * the included services depends on them.
+	 */
+	HEADLESS_COMPUTE("headless-compute", DatasetService.class,
+		MappedDatasetService.class, OpService.class, OpHandleService.class,
+		OpMemoService.class, ParallelOpService.class, SCIFIOService.class,
+		BlockCacheService.class, ChunkedIOService.class, RawIOService.class,
+		LUTService.class, ThumbnailService.class, StatisticsService.class,
+		SummaryService.class, StreamService.class, MetricsService.class,
+		MemoryService.class, ScriptService.class, ConsoleService.class,
+		MainService.class, StartupService.class, UIService.class);
+
+	/**
+	 * System property selecting the profile used by
+	 * {@link net.imagej.ImageJ#ImageJ()}: either {@code full} (the default) or
+	 * {@code headless-compute}.
+	 */
+	public static final String PROFILE_PROPERTY = "imagej.profile";
+
+	private final String id;
+	private final List<Class<? extends Service>> serviceClasses;
+
+	@SafeVarargs
+	private ServiceProfile(final String id,
+		final Class<? extends Service>... serviceClasses)
+	{
+		this.id = id;
+		this.serviceClasses = Collections.unmodifiableList(Arrays.asList(
+			serviceClasses));
+	}
+
+	// -- ServiceProfile methods --
+
+	/**
+	 * Gets the profile configured by the {@value #PROFILE_PROPERTY} system
+	 * property.
+	 *
+	 * @return The configured profile, or {@link #FULL} if the property is unset
+	 *         or does not name a known profile.
+	 */
+	public static ServiceProfile fromSystemProperties() {
+		final String value = System.getProperty(PROFILE_PROPERTY);
+		if (value == null || value.isEmpty()) return FULL;
+		try {
+			return get(value);
+		}
+		catch (final IllegalArgumentException exc) {
+			return FULL;
+		}
+	}
+
+	/**
+	 * Gets the profile with the given identifier.
+	 *
+	 * @throws IllegalArgumentException if there is no such profile.
+	 */
+	public static ServiceProfile get(final String id) {
+		for (final ServiceProfile profile : values()) {
+			if (profile.id.equals(id)) return profile;
+		}
+		throw new IllegalArgumentException("Unknown service profile: " + id);
+	}
+
+	/** Gets the identifier of this profile, e.g. {@code headless-compute}. */
+	public String getId() {
+		return id;
+	}
+
+	/** Gets the types of services created for this profile. */
+	public List<Class<? extends Service>> getServiceClasses() {
+		return serviceClasses;
+	}
+
+}
@@ -0,0 +1,271 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Records a tree of timed spans during ImageJ startup, and writes them out as a
+ * machine-readable report.
+ * <p>
+ * Each span captures its wall time, the bytes allocated by its thread while it
+ * was open (where the JVM supports it), and the name of that thread. Spans
+ * opened while another span is open on the same thread become its children.
+ * </p>
+ * <p>
+ * Two report formats are supported: a JSON document listing every span (see
+ * {@link #writeJSON}), and "collapsed stack" lines of self time in
+ * microseconds, as consumed by flame graph tools (see
+ * {@link #writeCollapsed}).
+ * </p>
+ */
+public class StartupProfiler {
+
+	private final long origin = System.nanoTime();
+	private final long startTime = System.currentTimeMillis();
+
+	private final List<Span> spans = new ArrayList<>();
+
+	private final ThreadLocal<Deque<Span>> stacks = new ThreadLocal<Deque<Span>>()
+	{
+
+		@Override
+		protected Deque<Span> initialValue() {
+			return new ArrayDeque<>();
+		}
+	};
+
+	private final com.sun.management.ThreadMXBean allocations;
+
+	public StartupProfiler() {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		allocations = threads instanceof com.sun.management.ThreadMXBean &&
+			((com.sun.management.ThreadMXBean) threads)
+				.isThreadAllocatedMemorySupported() ? //
+					(com.sun.management.ThreadMXBean) threads : null;
+	}
+
+	// -- StartupProfiler methods --
+
+	/**
+	 * Opens a new span on the calling thread. Every span must be closed again
+	 * via {@link #stop(Span)}, typically in a {@code finally} block.
+	 *
+	 * @param category The kind of work being measured (e.g. "service").
+	 * @param name The name of the measured item (e.g. a class name).
+	 */
+	public Span start(final String category, final String name) {
+		final Deque<Span> stack = stacks.get();
+		final Span span = new Span(stack.peek(), category, name, Thread
+			.currentThread().getName(), System.nanoTime() - origin,
+			allocatedBytes());
+		synchronized (spans) {
+			span.id = spans.size();
+			spans.add(span);
+		}
+		stack.push(span);
+		return span;
+	}
+
+	/** Closes the given span, which must be the innermost open one. */
+	public void stop(final Span span) {
+		final Deque<Span> stack = stacks.get();
+		if (stack.peek() != span) {
+			throw new IllegalStateException("Span is not the innermost open span: " +
+				span.name);
+		}
+		stack.pop();
+		span.duration = System.nanoTime() - origin - span.start;
+		final long allocated = allocatedBytes();
+		span.allocated = allocated < 0 ? -1 : allocated - span.allocatedStart;
+		if (span.parent != null) span.parent.childDuration += span.duration;
+	}
+
+	/** Gets a snapshot of all spans recorded so far, in order of opening. */
+	public List<Span> spans() {
+		synchronized (spans) {
+			return new ArrayList<>(spans);
+		}
+	}
+
+	/**
+	 * Writes the report in both formats, as {@code <prefix>.json} and
+	 * {@code <prefix>.collapsed}.
+	 */
+	public void write(final String prefix) throws IOException {
+		try (final Writer out = writer(new File(prefix + ".json"))) {
+			writeJSON(out);
+		}
+		try (final Writer out = writer(new File(prefix + ".collapsed"))) {
+			writeCollapsed(out);
+		}
+	}
+
+	/** Writes all recorded spans as a JSON document. */
+	public void writeJSON(final Writer out) throws IOException {
+		final List<Span> snapshot = spans();
+		out.write("{\n");
+		out.write("  \"startTime\": " + startTime + ",\n");
+		out.write("  \"allocationsSupported\": " + (allocations != null) + ",\n");
+		out.write("  \"spans\": [");
+		for (int i = 0; i < snapshot.size(); i++) {
+			final Span span = snapshot.get(i);
+			out.write(i == 0 ? "\n" : ",\n");
+			out.write("    {\"id\": " + span.id);
+			out.write(", \"parent\": " + (span.parent == null ? -1 : span.parent.id));
+			out.write(", \"category\": " + quote(span.category));
+			out.write(", \"name\": " + quote(span.name));
+			out.write(", \"thread\": " + quote(span.thread));
+			out.write(", \"startNanos\": " + span.start);
+			out.write(", \"durationNanos\": " + span.duration);
+			out.write(", \"selfNanos\": " + span.selfDuration());
+			out.write(", \"allocatedBytes\": " + span.allocated + "}");
+		}
+		out.write("\n  ]\n}\n");
+	}
+
+	/**
+	 * Writes all recorded spans in the "collapsed stack" format understood by
+	 * flame graph tools: one line per span, consisting of the thread name and
+	 * span names from the root down, separated by semicolons, followed by the
+	 * span's self time in microseconds.
+	 */
+	public void writeCollapsed(final Writer out) throws IOException {
+		for (final Span span : spans()) {
+			final long micros = span.selfDuration() / 1000;
+			if (micros <= 0) continue;
+			out.write(span.path() + " " + micros + "\n");
+		}
+	}
+
+	// -- Helper methods --
+
+	private long allocatedBytes() {
+		if (allocations == null) return -1;
+		return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static Writer writer(final File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+			file), StandardCharsets.UTF_8));
+	}
+
+	private static String quote(final String s) {
+		final StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '"' || c == '\\') sb.append('\\').append(c);
+			else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+			else sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	// -- Helper classes --
+
+	/** A single timed region of startup work. */
+	public static class Span {
+
+		private final Span parent;
+		private final String category;
+		private final String name;
+		private final String thread;
+		private final long start;
+		private final long allocatedStart;
+
+		private int id;
+		private long duration = -1;
+		private long childDuration;
+		private long allocated = -1;
+
+		private Span(final Span parent, final String category, final String name,
+			final String thread, final long start, final long allocatedStart)
+		{
+			this.parent = parent;
+			this.category = category;
+			this.name = name;
+			this.thread = thread;
+			this.start = start;
+			this.allocatedStart = allocatedStart;
+		}
+
+		public Span parent() {
+			return parent;
+		}
+
+		public String category() {
+			return category;
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public String thread() {
+			return thread;
+		}
+
+		/** Gets the span's wall time in nanoseconds, or -1 if still open. */
+		public long duration() {
+			return duration;
+		}
+
+		/** Gets the span's wall time excluding that of its children. */
+		public long selfDuration() {
+			return duration < 0 ? -1 : duration - childDuration;
+		}
+
+		/** Gets the bytes allocated during the span, or -1 if unknown. */
+		public long allocatedBytes() {
+			return allocated;
+		}
+
+		private String path() {
+			final String frame = name.replace(';', ':').replace(' ', '_');
+			return (parent == null ? thread.replace(';', ':').replace(' ', '_') :
+				parent.path()) + ";" + frame;
+		}
+	}
+
+}
@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stats;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.stream.IntStream;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imagej.event.DatasetUpdatedEvent;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.scijava.event.EventHandler;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service computing summaries and histograms of datasets, caching the
+ * summary of each plane until the dataset is updated.
+ */
+@Plugin(type = Service.class)
+public class DefaultSummaryService extends AbstractService implements
+	SummaryService
+{
+
+	private final Map<Dataset, Planes> cache = new WeakHashMap<>();
+
+	// -- SummaryService methods --
+
+	@Override
+	public long getPlaneCount(final Dataset dataset) {
+		long count = 1;
+		for (final int d : nonPlanarDims(dataset)) {
+			count *= dataset.dimension(d);
+		}
+		return count;
+	}
+
+	@Override
+	public Summary getPlaneSummary(final Dataset dataset, final long plane) {
+		final Planes planes = planes(dataset);
+		synchronized (planes) {
+			final int p = index(planes, plane);
+			if (planes.summaries[p] == null) {
+				planes.summaries[p] = scan(dataset, p, null);
+			}
+			return new Summary(planes.summaries[p]);
+		}
+	}
+
+	@Override
+	public Summary getSummary(final Dataset dataset) {
+		final Planes planes = planes(dataset);
+		synchronized (planes) {
+			if (planes.total == null) {
+				final Summary[] summaries = planes.summaries;
+				IntStream.range(0, summaries.length).parallel().filter(
+					p -> summaries[p] == null).forEach(p -> summaries[p] = scan(dataset,
+						p, null));
+				final Summary total = new Summary();
+				for (final Summary summary : summaries) {
+					total.merge(summary);
+				}
+				planes.total = total;
+			}
+			return new Summary(planes.total);
+		}
+	}
+
+	@Override
+	public Histogram getHistogram(final Dataset dataset, final int bins,
+		final double min, final double max)
+	{
+		final Planes planes = planes(dataset);
+		synchronized (planes) {
+			final Summary[] summaries = planes.summaries;
+			return IntStream.range(0, summaries.length).parallel().mapToObj(p -> {
+				final Histogram histogram = new Histogram(bins, min, max);
+				final Summary summary = scan(dataset, p, histogram);
+				if (summaries[p] == null) summaries[p] = summary;
+				return histogram;
+			}).reduce((a, b) -> {
+				a.merge(b);
+				return a;
+			}).orElseGet(() -> new Histogram(bins, min, max));
+		}
+	}
+
+	@Override
+	public void invalidate(final Dataset dataset, final long plane) {
+		final Planes planes = planes(dataset);
+		synchronized (planes) {
+			planes.summaries[index(planes, plane)] = null;
+			planes.total = null;
+		}
+	}
+
+	@Override
+	public void invalidate(final Dataset dataset) {
+		synchronized (cache) {
+			cache.remove(dataset);
+		}
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final DatasetUpdatedEvent evt) {
+		// NB: The event does not tell which planes changed, so all are rescanned.
+		if (!evt.isMetaDataOnly()) invalidate(evt.getObject());
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent evt) {
+		invalidate(evt.getObject());
+	}
+
+	// -- Helper methods --
+
+	/** Gets the cached plane summaries of the given dataset. */
+	private Planes planes(final Dataset dataset) {
+		final long count = getPlaneCount(dataset);
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many planes: " + count);
+		}
+		synchronized (cache) {
+			Planes planes = cache.get(dataset);
+			// NB: Discard the summaries if the dataset was restructured.
+			if (planes == null || planes.summaries.length != count) {
+				planes = new Planes((int) count);
+				cache.put(dataset, planes);
+			}
+			return planes;
+		}
+	}
+
+	private static int index(final Planes planes, final long plane) {
+		if (plane < 0 || plane >= planes.summaries.length) {
+			throw new IndexOutOfBoundsException("No plane " + plane);
+		}
+		return (int) plane;
+	}
+
+	/** Gets the dimensions of the given dataset other than X and Y. */
+	private static int[] nonPlanarDims(final Dataset dataset) {
+		final int xAxis = dataset.dimensionIndex(Axes.X);
+		final int yAxis = dataset.dimensionIndex(Axes.Y);
+		return IntStream.range(0, dataset.numDimensions()).filter(
+			d -> d != xAxis && d != yAxis).toArray();
+	}
+
+	/**
+	 * Summarizes the given plane, adding its values to the given histogram (if
+	 * any) in the same pass.
+	 */
+	private static Summary scan(final Dataset dataset, final int plane,
+		final Histogram histogram)
+	{
+		RandomAccessibleInterval<RealType<?>> view = dataset;
+		long index = plane;
+		final int[] dims = nonPlanarDims(dataset);
+		final long[] position = new long[dims.length];
+		for (int i = 0; i < dims.length; i++) {
+			position[i] = dataset.min(dims[i]) + index % dataset.dimension(dims[i]);
+			index /= dataset.dimension(dims[i]);
+		}
+		for (int i = dims.length - 1; i >= 0; i--) {
+			view = Views.hyperSlice(view, dims[i], position[i]);
+		}
+
+		final Summary summary = new Summary();
+		final Cursor<RealType<?>> cursor = Views.flatIterable(view).cursor();
+		while (cursor.hasNext()) {
+			final double value = cursor.next().getRealDouble();
+			summary.add(value);
+			if (histogram != null) histogram.add(value);
+		}
+		return summary;
+	}
+
+	// -- Helper classes --
+
+	/** The cached summaries of a dataset's planes. */
+	private static class Planes {
+
+		private final Summary[] summaries;
+		private Summary total;
+
+		private Planes(final int count) {
+			summaries = new Summary[count];
+		}
+	}
+
+}
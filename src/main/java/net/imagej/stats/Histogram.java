@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stats;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of a stream of values, over a fixed range divided into bins of
+ * equal width. Values outside the range, and NaNs, are not counted. Like
+ * {@link Summary}, histograms of separate parts of a stream can be
+ * {@link #merge merged}.
+ */
+public class Histogram {
+
+	private final double min;
+	private final double max;
+	private final double scale;
+	private final long[] counts;
+
+	/**
+	 * Creates an empty histogram.
+	 *
+	 * @param bins The number of bins.
+	 * @param min The lower bound of the first bin.
+	 * @param max The upper bound of the last bin, which is inclusive.
+	 */
+	public Histogram(final int bins, final double min, final double max) {
+		if (bins < 1) throw new IllegalArgumentException("No bins: " + bins);
+		if (!(max > min)) {
+			throw new IllegalArgumentException("Empty range: " + min + " to " + max);
+		}
+		this.min = min;
+		this.max = max;
+		scale = bins / (max - min);
+		counts = new long[bins];
+	}
+
+	// -- Histogram methods --
+
+	/** Adds a value to the histogram. */
+	public void add(final double value) {
+		if (!(value >= min && value <= max)) return;
+		final int bin = (int) ((value - min) * scale);
+		counts[bin < counts.length ? bin : counts.length - 1]++;
+	}
+
+	/** Adds the counts of the given histogram, of the same bins, to this one. */
+	public void merge(final Histogram other) {
+		if (other.counts.length != counts.length || other.min != min ||
+			other.max != max)
+		{
+			throw new IllegalArgumentException("Histograms have different bins");
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+	}
+
+	/** Gets the lower bound of the first bin. */
+	public double getMin() {
+		return min;
+	}
+
+	/** Gets the upper bound of the last bin. */
+	public double getMax() {
+		return max;
+	}
+
+	/** Gets the number of bins. */
+	public int getBinCount() {
+		return counts.length;
+	}
+
+	/** Gets the number of values in the given bin. */
+	public long getCount(final int bin) {
+		return counts[bin];
+	}
+
+	/** Gets a copy of the counts of all bins. */
+	public long[] getCounts() {
+		return counts.clone();
+	}
+
+	/** Gets the number of values in all bins. */
+	public long getTotalCount() {
+		return Arrays.stream(counts).sum();
+	}
+
+}
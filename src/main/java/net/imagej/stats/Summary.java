@@ -0,0 +1,173 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stats;
+
+/**
+ * Summary statistics of a stream of values: count, minimum, maximum, mean,
+ * and the second to fourth central moments. Values are added one at a time,
+ * in a single pass, and summaries of separate parts of a stream can be
+ * {@link #merge merged}, so that parts can be summarized in parallel.
+ * <p>
+ * NaN values are skipped. A summary is not thread-safe; each thread should
+ * accumulate its own and merge them afterwards.
+ * </p>
+ */
+public class Summary {
+
+	private long count;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private double mean;
+	private double m2;
+	private double m3;
+	private double m4;
+
+	/** Creates an empty summary. */
+	public Summary() {}
+
+	/** Creates a copy of the given summary. */
+	public Summary(final Summary summary) {
+		count = summary.count;
+		min = summary.min;
+		max = summary.max;
+		mean = summary.mean;
+		m2 = summary.m2;
+		m3 = summary.m3;
+		m4 = summary.m4;
+	}
+
+	// -- Summary methods --
+
+	/** Adds a value to the summary. */
+	public void add(final double value) {
+		if (Double.isNaN(value)) return;
+		if (value < min) min = value;
+		if (value > max) max = value;
+		final double n1 = count;
+		final double n = ++count;
+		final double delta = value - mean;
+		final double deltaN = delta / n;
+		final double deltaN2 = deltaN * deltaN;
+		final double term = delta * deltaN * n1;
+		mean += deltaN;
+		m4 += term * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * m2 - 4 *
+			deltaN * m3;
+		m3 += term * deltaN * (n - 2) - 3 * deltaN * m2;
+		m2 += term;
+	}
+
+	/** Adds the values summarized by the given summary to this one. */
+	public void merge(final Summary other) {
+		if (other.count == 0) return;
+		if (count == 0) {
+			count = other.count;
+			min = other.min;
+			max = other.max;
+			mean = other.mean;
+			m2 = other.m2;
+			m3 = other.m3;
+			m4 = other.m4;
+			return;
+		}
+		final double na = count, nb = other.count, n = na + nb;
+		final double delta = other.mean - mean;
+		final double delta2 = delta * delta;
+		final double merged2 = m2 + other.m2 + delta2 * na * nb / n;
+		final double merged3 = m3 + other.m3 + delta * delta2 * na * nb * (na -
+			nb) / (n * n) + 3 * delta * (na * other.m2 - nb * m2) / n;
+		final double merged4 = m4 + other.m4 + delta2 * delta2 * na * nb * (na *
+			na - na * nb + nb * nb) / (n * n * n) + 6 * delta2 * (na * na *
+				other.m2 + nb * nb * m2) / (n * n) + 4 * delta * (na * other.m3 -
+					nb * m3) / n;
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		mean += delta * nb / n;
+		m2 = merged2;
+		m3 = merged3;
+		m4 = merged4;
+	}
+
+	/** Gets the number of (non-NaN) values. */
+	public long getCount() {
+		return count;
+	}
+
+	/** Gets the smallest value, or NaN if there are none. */
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/** Gets the largest value, or NaN if there are none. */
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	/** Gets the sum of the values. */
+	public double getSum() {
+		return mean * count;
+	}
+
+	/** Gets the mean of the values, or NaN if there are none. */
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/** Gets the (unbiased) sample variance of the values. */
+	public double getVariance() {
+		return count < 2 ? Double.NaN : m2 / (count - 1);
+	}
+
+	/** Gets the sample standard deviation of the values. */
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	/** Gets the skewness of the values. */
+	public double getSkewness() {
+		return m2 == 0 ? Double.NaN : Math.sqrt(count) * m3 / Math.pow(m2, 1.5);
+	}
+
+	/** Gets the excess kurtosis of the values. */
+	public double getKurtosis() {
+		return m2 == 0 ? Double.NaN : count * m4 / (m2 * m2) - 3;
+	}
+
+	// -- Object methods --
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", min=" + getMin() + ", max=" + getMax() +
+			", mean=" + getMean() + ", stddev=" + getStdDev();
+	}
+
+}
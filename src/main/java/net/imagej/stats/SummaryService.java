@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stats;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJService;
+
+/**
+ * Interface for the service computing {@link Summary} statistics and
+ * {@link Histogram}s of datasets, in a single streaming pass with planes
+ * processed in parallel.
+ * <p>
+ * The summary of each XY plane is cached, so that e.g. autoscaling the display
+ * range when switching planes does not rescan the data, and so that when only
+ * some planes change, only those are rescanned. Planes are numbered in raster
+ * order over the dataset's dimensions other than X and Y, the first of them
+ * varying fastest.
+ * </p>
+ * <p>
+ * Cached summaries are discarded per plane via {@link #invalidate(Dataset,
+ * long)}. A {@link net.imagej.event.DatasetUpdatedEvent} does not say which
+ * planes changed, so on any update of a dataset's data (rather than only its
+ * metadata), the summaries of all its planes are discarded.
+ * </p>
+ */
+public interface SummaryService extends ImageJService {
+
+	/** Gets the number of XY planes of the given dataset. */
+	long getPlaneCount(Dataset dataset);
+
+	/** Gets the summary of the given plane of the given dataset. */
+	Summary getPlaneSummary(Dataset dataset, long plane);
+
+	/**
+	 * Gets the summary of the whole dataset, merged from the summaries of its
+	 * planes; only planes without a cached summary are scanned.
+	 */
+	Summary getSummary(Dataset dataset);
+
+	/**
+	 * Computes a histogram of the whole dataset. Plane summaries which are not
+	 * cached yet are computed and cached in the same pass.
+	 *
+	 * @see Histogram#Histogram(int, double, double)
+	 */
+	Histogram getHistogram(Dataset dataset, int bins, double min, double max);
+
+	/**
+	 * Discards the cached summary of the given plane, after it was modified.
+	 * Updating a dataset (e.g. via {@link Dataset#update()}) discards the
+	 * summaries of all its planes; code which modifies only some planes can
+	 * invalidate just those instead, so that the others are not rescanned.
+	 */
+	void invalidate(Dataset dataset, long plane);
+
+	/** Discards the cached summaries of all planes of the given dataset. */
+	void invalidate(Dataset dataset);
+
+}
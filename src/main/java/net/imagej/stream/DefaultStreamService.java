@@ -0,0 +1,286 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stream;
+
+import io.scif.FormatException;
+import io.scif.Reader;
+import io.scif.config.SCIFIOConfig;
+import io.scif.config.SCIFIOConfig.ImgMode;
+import io.scif.img.ImgIOException;
+import io.scif.img.ImgOpener;
+import io.scif.services.InitializeService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+
+import net.imagej.ImgPlus;
+import net.imagej.chunked.ChunkedIOService;
+import net.imagej.chunked.ChunkedWriter;
+import net.imagej.opcache.OpHandleService;
+import net.imagej.rawio.RawIOService;
+import net.imagej.rawio.RawLayout;
+import net.imagej.rawio.RawPlanes;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/** Default service for streaming images plane by plane. */
+@Plugin(type = Service.class)
+public class DefaultStreamService extends AbstractService implements
+	StreamService
+{
+
+	@Parameter
+	private InitializeService initializeService;
+
+	@Parameter
+	private RawIOService rawIOService;
+
+	@Parameter
+	private OpHandleService opHandleService;
+
+	@Parameter
+	private ChunkedIOService chunkedIOService;
+
+	// -- StreamService methods --
+
+	@Override
+	public PlaneSource<RandomAccessibleInterval<? extends RealType<?>>> open(
+		final String source) throws IOException
+	{
+		final RawLayout layout = new File(source).isFile() ? rawIOService
+			.getLayout(source) : null;
+		if (layout != null) return new RawSource(source, layout);
+
+		// NB: Cell mode reads the source lazily, one block at a time.
+		final SCIFIOConfig config = new SCIFIOConfig().imgOpenerSetImgModes(
+			ImgMode.CELL);
+		final Reader reader;
+		try {
+			reader = initializeService.initializeReader(source);
+		}
+		catch (final FormatException exc) {
+			throw new IOException(exc);
+		}
+		try {
+			return new ReaderSource(new ImgOpener(getContext()).openImgs(reader,
+				config).get(0), reader);
+		}
+		catch (final ImgIOException exc) {
+			reader.close();
+			throw new IOException(exc);
+		}
+	}
+
+	@Override
+	public <T> PlanePipeline<T> pipeline(final PlaneSource<T> source) {
+		return new PlanePipeline<>(source);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <I, O> Function<I, O> op(final String name, final Object... args) {
+		return plane -> {
+			final Object[] opArgs = new Object[args.length + 1];
+			opArgs[0] = plane;
+			System.arraycopy(args, 0, opArgs, 1, args.length);
+			return (O) opHandleService.run(name, opArgs);
+		};
+	}
+
+	@Override
+	public PlaneSink<RandomAccessibleInterval<? extends RealType<?>>>
+		chunkedSink(final File dir, final long[] dims)
+	{
+		final ChunkedWriter writer = chunkedIOService.writer();
+		final long[] imageDims = dims.clone();
+		return (index, plane) -> {
+			// NB: The type of the output is known once the first plane arrives.
+			if (index == 0) {
+				writer.writeAttributes(dir, imageDims, Util.getTypeFromInterval(
+					plane));
+			}
+			writer.writePlane(dir, imageDims, plane, index);
+		};
+	}
+
+	// -- Helper classes --
+
+	/** Reads the planes of an uncompressed file directly. */
+	private static class RawSource implements
+		PlaneSource<RandomAccessibleInterval<? extends RealType<?>>>
+	{
+
+		private final RawLayout layout;
+		private final FileChannel channel;
+
+		private RawSource(final String path, final RawLayout layout)
+			throws IOException
+		{
+			this.layout = layout;
+			channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+		}
+
+		@Override
+		public long[] getDims() {
+			return layout.getDims();
+		}
+
+		@Override
+		public long getPlaneCount() {
+			return layout.getPlaneCount();
+		}
+
+		@Override
+		public RandomAccessibleInterval<? extends RealType<?>> read(
+			final long index) throws IOException
+		{
+			final long[] dims = layout.getDims();
+			final long w = dims[0], h = dims[1];
+			final boolean signed = layout.isSigned();
+			final ArrayImg<? extends RealType<?>, ?> plane;
+			switch (layout.getBitsPerPixel()) {
+				case 8:
+					plane = signed ? ArrayImgs.bytes(w, h) : ArrayImgs.unsignedBytes(w,
+						h);
+					break;
+				case 16:
+					plane = signed ? ArrayImgs.shorts(w, h) : ArrayImgs.unsignedShorts(
+						w, h);
+					break;
+				case 32:
+					plane = layout.isFloating() ? ArrayImgs.floats(w, h) : signed
+						? ArrayImgs.ints(w, h) : ArrayImgs.unsignedInts(w, h);
+					break;
+				default:
+					plane = layout.isFloating() ? ArrayImgs.doubles(w, h) : ArrayImgs
+						.longs(w, h);
+			}
+			final Object data = ((ArrayDataAccess<?>) plane.update(null))
+				.getCurrentStorageArray();
+			RawPlanes.read(channel, layout, (int) index, data, 0);
+			return plane;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads the planes of an image opened lazily by SCIFIO, copying each into
+	 * an array image, so that its pixels are read when the plane is.
+	 */
+	private static class ReaderSource implements
+		PlaneSource<RandomAccessibleInterval<? extends RealType<?>>>
+	{
+
+		private final ImgPlus<?> image;
+		private final Reader reader;
+
+		private ReaderSource(final ImgPlus<?> image, final Reader reader) {
+			this.image = image;
+			this.reader = reader;
+		}
+
+		@Override
+		public long[] getDims() {
+			final long[] dims = new long[image.numDimensions()];
+			image.dimensions(dims);
+			return dims;
+		}
+
+		@Override
+		public long getPlaneCount() {
+			long count = 1;
+			for (int d = 2; d < image.numDimensions(); d++) {
+				count *= image.dimension(d);
+			}
+			return count;
+		}
+
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public RandomAccessibleInterval<? extends RealType<?>> read(
+			final long index)
+		{
+			RandomAccessibleInterval plane = image;
+			long remainder = index;
+			final long[] position = new long[image.numDimensions()];
+			for (int d = 2; d < position.length; d++) {
+				position[d] = image.min(d) + remainder % image.dimension(d);
+				remainder /= image.dimension(d);
+			}
+			for (int d = position.length - 1; d >= 2; d--) {
+				plane = Views.hyperSlice(plane, d, position[d]);
+			}
+			return copy(plane);
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+
+		private static <T extends RealType<T> & NativeType<T>> ArrayImg<T, ?>
+			copy(final RandomAccessibleInterval<T> plane)
+		{
+			final ArrayImg<T, ?> copy = new ArrayImgFactory<>(Util
+				.getTypeFromInterval(plane)).create(plane.dimension(0), plane
+					.dimension(1));
+			final Cursor<T> in = Views.flatIterable(plane).cursor();
+			final Cursor<T> out = copy.cursor();
+			while (out.hasNext()) {
+				out.next().set(in.next());
+			}
+			return copy;
+		}
+	}
+
+}
@@ -0,0 +1,261 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Streams the planes of an image from a {@link PlaneSource}, through a chain
+ * of processing stages, into a {@link PlaneSink}, without ever holding the
+ * whole image in memory.
+ * <p>
+ * Planes are read and processed concurrently, each on one thread from start
+ * to finish. At most a fixed number of planes are in flight at any one time:
+ * once that many have been read but not yet written, reading waits, so a
+ * slow stage or sink holds back the source rather than letting planes pile
+ * up. Planes are written in order, one at a time. The time spent in each
+ * stage is recorded, and can be inspected during or after a run.
+ * </p>
+ *
+ * @param <T> The type of the planes produced by the last stage.
+ */
+public class PlanePipeline<T> {
+
+	private final PlaneSource<?> source;
+	private final Stage read = new Stage("read", null);
+	private final List<Stage> stages = new ArrayList<>();
+	private final Stage write = new Stage("write", null);
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int maxInFlight;
+	private long elapsed;
+
+	/** Creates a pipeline reading from the given source. */
+	public PlanePipeline(final PlaneSource<T> source) {
+		this.source = source;
+	}
+
+	// -- PlanePipeline methods --
+
+	/**
+	 * Appends a processing stage, which maps each plane to a new one. Stages
+	 * are called concurrently for different planes, and must not return null.
+	 *
+	 * @param name The name of the stage, under which its statistics are
+	 *          reported.
+	 * @return This pipeline, now producing the stage's planes.
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> PlanePipeline<R> map(final String name,
+		final Function<? super T, ? extends R> stage)
+	{
+		stages.add(new Stage(name, (Function<Object, Object>) stage));
+		return (PlanePipeline<R>) this;
+	}
+
+	/** Sets the number of planes to process concurrently. */
+	public void setParallelism(final int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Sets the maximum number of planes which have been read but not yet
+	 * written at any one time. By default, this is twice the parallelism.
+	 */
+	public void setMaxInFlight(final int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Streams every plane of the source through the stages into the given
+	 * sink. Neither the source nor the sink is closed.
+	 *
+	 * @throws IOException if reading or writing a plane fails; no further
+	 *           planes are then written.
+	 */
+	public void run(final PlaneSink<? super T> sink) throws IOException,
+		InterruptedException
+	{
+		final long count = source.getPlaneCount();
+		final int permits = maxInFlight > 0 ? maxInFlight : 2 * parallelism;
+		final Output output = new Output(sink, new Semaphore(permits), permits);
+		final long start = System.nanoTime();
+		final ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		try {
+			for (long i = 0; i < count && output.failure.get() == null; i++) {
+				output.inFlight.acquire();
+				final long index = i;
+				pool.execute(() -> process(index, output));
+			}
+			// NB: Wait for the remaining planes to be written.
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		finally {
+			pool.shutdownNow();
+			elapsed += System.nanoTime() - start;
+		}
+
+		final Throwable t = output.failure.get();
+		if (t instanceof IOException) throw (IOException) t;
+		if (t instanceof RuntimeException) throw (RuntimeException) t;
+		if (t instanceof Error) throw (Error) t;
+		if (t != null) throw new IOException(t);
+	}
+
+	/**
+	 * Gets the statistics of each stage: reading, then the processing stages
+	 * in order, then writing. Statistics accumulate over all runs.
+	 */
+	public List<StageStats> getStats() {
+		final List<StageStats> stats = new ArrayList<>();
+		stats.add(read.stats());
+		for (final Stage stage : stages) {
+			stats.add(stage.stats());
+		}
+		stats.add(write.stats());
+		return stats;
+	}
+
+	/** Gets the wall-clock time spent running, over all runs. */
+	public long getElapsedNanos() {
+		return elapsed;
+	}
+
+	/** Gets the number of planes written per second of wall-clock time. */
+	public double getThroughput() {
+		return elapsed == 0 ? 0 : write.planes.sum() * 1e9 / elapsed;
+	}
+
+	// -- Helper methods --
+
+	private void process(final long index, final Output output) {
+		try {
+			long start = System.nanoTime();
+			Object plane = source.read(index);
+			read.record(start);
+			for (final Stage stage : stages) {
+				if (output.failure.get() != null) return;
+				start = System.nanoTime();
+				plane = stage.function.apply(plane);
+				if (plane == null) {
+					throw new IllegalStateException("Stage " + stage.name +
+						" returned null for plane " + index);
+				}
+				stage.record(start);
+			}
+			output.complete(index, plane);
+		}
+		catch (final Throwable t) {
+			output.fail(t);
+		}
+	}
+
+	// -- Helper classes --
+
+	/** A stage of the pipeline, with its statistics. */
+	private static class Stage {
+
+		private final String name;
+		private final Function<Object, Object> function;
+		private final LongAdder planes = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+
+		private Stage(final String name, final Function<Object, Object> function) {
+			this.name = name;
+			this.function = function;
+		}
+
+		private void record(final long start) {
+			nanos.add(System.nanoTime() - start);
+			planes.increment();
+		}
+
+		private StageStats stats() {
+			return new StageStats(name, planes.sum(), nanos.sum());
+		}
+	}
+
+	/** Writes processed planes to the sink, in order. */
+	private class Output {
+
+		private final PlaneSink<? super T> sink;
+		private final Semaphore inFlight;
+		private final int permits;
+		private final AtomicReference<Throwable> failure =
+			new AtomicReference<>();
+
+		/** Planes processed, but not yet written. */
+		private final Map<Long, Object> done = new HashMap<>();
+		private long next;
+
+		private Output(final PlaneSink<? super T> sink, final Semaphore inFlight,
+			final int permits)
+		{
+			this.sink = sink;
+			this.inFlight = inFlight;
+			this.permits = permits;
+		}
+
+		@SuppressWarnings("unchecked")
+		private synchronized void complete(final long index, final Object plane)
+			throws IOException
+		{
+			done.put(index, plane);
+			Object p;
+			while (failure.get() == null && (p = done.remove(next)) != null) {
+				final long start = System.nanoTime();
+				sink.write(next, (T) p);
+				write.record(start);
+				next++;
+				inFlight.release();
+			}
+		}
+
+		private void fail(final Throwable t) {
+			// NB: Unblock the reading loop, which then stops.
+			if (failure.compareAndSet(null, t)) inFlight.release(permits);
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stream;
+
+/**
+ * Throughput statistics of one stage of a {@link PlanePipeline}: reading,
+ * one of its processing stages, or writing.
+ */
+public class StageStats {
+
+	private final String name;
+	private final long planes;
+	private final long busyNanos;
+
+	/** Creates a snapshot of the given counters. */
+	public StageStats(final String name, final long planes,
+		final long busyNanos)
+	{
+		this.name = name;
+		this.planes = planes;
+		this.busyNanos = busyNanos;
+	}
+
+	/** Gets the name of the stage. */
+	public String name() {
+		return name;
+	}
+
+	/** Gets the number of planes which passed through the stage. */
+	public long planes() {
+		return planes;
+	}
+
+	/** Gets the time spent in the stage, summed over all threads. */
+	public long busyNanos() {
+		return busyNanos;
+	}
+
+	/** Gets the mean time the stage took per plane, in milliseconds. */
+	public double meanMillis() {
+		return planes == 0 ? 0 : busyNanos / 1e6 / planes;
+	}
+
+	/**
+	 * Gets the number of planes the stage handles per second on one thread.
+	 * Comparing the stages' throughputs shows which one limits the pipeline.
+	 */
+	public double throughput() {
+		return busyNanos == 0 ? 0 : planes * 1e9 / busyNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: planes=%d, %.3f ms/plane (%.1f planes/s)",
+			name, planes, meanMillis(), throughput());
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Function;
+
+import net.imagej.ImageJService;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Interface for the service streaming images larger than memory plane by
+ * plane, from image files through ops into chunked output.
+ *
+ * @see PlanePipeline
+ */
+public interface StreamService extends ImageJService {
+
+	/**
+	 * Opens the given image source for streaming, without reading any pixels.
+	 * Uncompressed TIFF files are read plane by plane straight into fresh
+	 * arrays; other sources are opened lazily via SCIFIO, and each plane is
+	 * copied into a fresh array when it is read. The source's X and Y axes
+	 * must be its first two dimensions.
+	 */
+	PlaneSource<RandomAccessibleInterval<? extends RealType<?>>> open(
+		String source) throws IOException;
+
+	/** Creates a pipeline streaming planes from the given source. */
+	<T> PlanePipeline<T> pipeline(PlaneSource<T> source);
+
+	/**
+	 * Gets a pipeline stage running the given op on each plane, which is
+	 * passed as the op's first argument, followed by the given arguments. The
+	 * op's output is the stage's output.
+	 */
+	<I, O> Function<I, O> op(String name, Object... args);
+
+	/**
+	 * Creates a sink writing planes into the given directory, as blocks of
+	 * one plane each, with the default settings of the
+	 * {@link net.imagej.chunked.ChunkedIOService}.
+	 *
+	 * @param dims The dimensions of the whole image.
+	 */
+	PlaneSink<RandomAccessibleInterval<? extends RealType<?>>> chunkedSink(
+		File dir, long[] dims);
+
+}
@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thumbnail;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.display.ColorTable;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service rendering dataset planes through color tables, reading the
+ * primitive arrays of array- and planar-backed datasets directly.
+ */
+@Plugin(type = Service.class)
+public class DefaultThumbnailService extends AbstractService implements
+	ThumbnailService
+{
+
+	/** The number of kernels to keep. */
+	private static final int KERNEL_CACHE_SIZE = 16;
+
+	private final Map<KernelKey, LUTKernel> kernels =
+		new LinkedHashMap<KernelKey, LUTKernel>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(
+				final Map.Entry<KernelKey, LUTKernel> eldest)
+			{
+				return size() > KERNEL_CACHE_SIZE;
+			}
+		};
+
+	// -- ThumbnailService methods --
+
+	@Override
+	public int[] render(final Dataset dataset, final ColorTable lut,
+		final int[] out)
+	{
+		return render(dataset, lut, Double.NaN, Double.NaN, out);
+	}
+
+	@Override
+	public int[] render(final Dataset dataset, final ColorTable lut,
+		final double min, final double max, final int[] out)
+	{
+		final long size = dataset.dimension(0) * (dataset.numDimensions() > 1
+			? dataset.dimension(1) : 1);
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Plane too large: " + size);
+		}
+		final int length = (int) size;
+		final boolean range = !Double.isNaN(min) && !Double.isNaN(max);
+		final boolean signed = dataset.getType().getMinValue() < 0;
+
+		final Object data = planeData(dataset);
+		if (data instanceof byte[]) {
+			final byte[] bytes = (byte[]) data;
+			final double lo = range ? min : dataset.getType().getMinValue();
+			final double hi = range ? max : dataset.getType().getMaxValue();
+			return byteKernel(lut, lo, hi, signed).apply(bytes, 0, length, out);
+		}
+		if (data instanceof short[]) {
+			final short[] shorts = (short[]) data;
+			if (range) {
+				return shortKernel(lut, min, max, signed).apply(shorts, 0, length,
+					out);
+			}
+			// NB: The range differs from image to image, so a table of every
+			// value would be computed anew each time; bin into the LUT instead.
+			int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+			for (int i = 0; i < length; i++) {
+				final int v = signed ? shorts[i] : shorts[i] & 0xffff;
+				if (v < lo) lo = v;
+				if (v > hi) hi = v;
+			}
+			return rangedKernel(lut).apply(shorts, 0, length, signed, lo, hi, out);
+		}
+
+		// NB: Anything other than 8- or 16-bit data is mapped as floats, copied
+		// from the dataset if its storage is not a float array.
+		final float[] floats = data instanceof float[] ? (float[]) data
+			: copyPlane(dataset, length);
+		if (range) return floatKernel(lut, min, max).apply(floats, 0, length, out);
+		double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < length; i++) {
+			final float v = floats[i];
+			if (v < lo) lo = v;
+			if (v > hi) hi = v;
+		}
+		return rangedKernel(lut).apply(floats, 0, length, lo, hi, out);
+	}
+
+	@Override
+	public LUTKernel byteKernel(final ColorTable lut, final double min,
+		final double max, final boolean signed)
+	{
+		final KernelKey key = new KernelKey(lut, min, max, 8, signed);
+		synchronized (kernels) {
+			return kernels.computeIfAbsent(key, k -> LUTKernel.bytes(lut, min, max,
+				signed));
+		}
+	}
+
+	@Override
+	public LUTKernel shortKernel(final ColorTable lut, final double min,
+		final double max, final boolean signed)
+	{
+		final KernelKey key = new KernelKey(lut, min, max, 16, signed);
+		synchronized (kernels) {
+			return kernels.computeIfAbsent(key, k -> LUTKernel.shorts(lut, min, max,
+				signed));
+		}
+	}
+
+	@Override
+	public LUTKernel floatKernel(final ColorTable lut, final double min,
+		final double max)
+	{
+		final KernelKey key = new KernelKey(lut, min, max, 32, true);
+		synchronized (kernels) {
+			return kernels.computeIfAbsent(key, k -> LUTKernel.floats(lut, min,
+				max));
+		}
+	}
+
+	@Override
+	public LUTKernel rangedKernel(final ColorTable lut) {
+		final KernelKey key = new KernelKey(lut, Double.NaN, Double.NaN, 0,
+			true);
+		synchronized (kernels) {
+			return kernels.computeIfAbsent(key, k -> LUTKernel.ranged(lut));
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the primitive array holding the first XY plane of the given dataset
+	 * at its start, or null if it is not stored that way.
+	 */
+	private static Object planeData(final Dataset dataset) {
+		if (dataset.dimensionIndex(Axes.X) != 0) return null;
+		if (dataset.numDimensions() > 1 && dataset.dimensionIndex(Axes.Y) != 1) {
+			return null;
+		}
+		final Img<?> img = dataset.getImgPlus().getImg();
+		final Object access;
+		if (img instanceof PlanarImg) access = ((PlanarImg<?, ?>) img).getPlane(0);
+		else if (img instanceof ArrayImg) access = ((ArrayImg<?, ?>) img).update(
+			null);
+		else return null;
+		return access instanceof ArrayDataAccess ? ((ArrayDataAccess<?>) access)
+			.getCurrentStorageArray() : null;
+	}
+
+	private static float[] copyPlane(final Dataset dataset, final int length) {
+		RandomAccessibleInterval<RealType<?>> plane = dataset;
+		for (int d = dataset.numDimensions() - 1; d >= 2; d--) {
+			plane = Views.hyperSlice(plane, d, dataset.min(d));
+		}
+		final float[] floats = new float[length];
+		final Cursor<RealType<?>> cursor = Views.flatIterable(plane).cursor();
+		for (int i = 0; i < length; i++) {
+			floats[i] = cursor.next().getRealFloat();
+		}
+		return floats;
+	}
+
+	// -- Helper classes --
+
+	private static class KernelKey {
+
+		private final ColorTable lut;
+		private final double min;
+		private final double max;
+		private final int bits;
+		private final boolean signed;
+
+		private KernelKey(final ColorTable lut, final double min,
+			final double max, final int bits, final boolean signed)
+		{
+			this.lut = lut;
+			this.min = min;
+			this.max = max;
+			this.bits = bits;
+			this.signed = signed;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof KernelKey)) return false;
+			final KernelKey other = (KernelKey) o;
+			return lut == other.lut && Double.compare(min, other.min) == 0 && Double
+				.compare(max, other.max) == 0 && bits == other.bits &&
+				signed == other.signed;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(lut), min, max, bits,
+				signed);
+		}
+	}
+
+}
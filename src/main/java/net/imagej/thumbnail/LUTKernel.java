@@ -0,0 +1,301 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thumbnail;
+
+import net.imglib2.display.ColorTable;
+
+/**
+ * Maps primitive pixel arrays straight to packed ARGB pixels through a color
+ * table, without allocating per pixel.
+ * <p>
+ * A kernel is specific to one color table, one display range and one kind of
+ * input (8-bit, 16-bit or floating point). For integer input, the color of
+ * every possible value is computed once when the kernel is created, so that
+ * applying it is a single array lookup per pixel. A {@link #ranged ranged}
+ * kernel is instead specific to the color table alone, and is given the
+ * display range each time it is applied, so that it can map images whose
+ * range is computed from their own values. Output arrays are reused when
+ * large enough.
+ * </p>
+ */
+public final class LUTKernel {
+
+	private enum Kind {
+		BYTES, SHORTS, FLOATS, RANGED
+	}
+
+	private final Kind kind;
+	private final boolean signed;
+	private final int[] table;
+	private final double min;
+	private final double scale;
+
+	private LUTKernel(final Kind kind, final boolean signed, final int[] table,
+		final double min, final double scale)
+	{
+		this.kind = kind;
+		this.signed = signed;
+		this.table = table;
+		this.min = min;
+		this.scale = scale;
+	}
+
+	/**
+	 * Creates a kernel for 8-bit data.
+	 *
+	 * @param lut The color table to apply.
+	 * @param min The value mapped to the first entry of the color table.
+	 * @param max The value mapped to the last entry of the color table.
+	 * @param signed Whether the bytes hold signed values.
+	 */
+	public static LUTKernel bytes(final ColorTable lut, final double min,
+		final double max, final boolean signed)
+	{
+		return new LUTKernel(Kind.BYTES, signed, table(lut, min, max, 8, signed),
+			0, 0);
+	}
+
+	/**
+	 * Creates a kernel for 16-bit data.
+	 *
+	 * @see #bytes(ColorTable, double, double, boolean)
+	 */
+	public static LUTKernel shorts(final ColorTable lut, final double min,
+		final double max, final boolean signed)
+	{
+		return new LUTKernel(Kind.SHORTS, signed, table(lut, min, max, 16,
+			signed), 0, 0);
+	}
+
+	/**
+	 * Creates a kernel for 32-bit floating point data. Values are binned
+	 * linearly into the color table's entries, clamping values outside the
+	 * range; NaNs map to the first entry.
+	 *
+	 * @see #bytes(ColorTable, double, double, boolean)
+	 */
+	public static LUTKernel floats(final ColorTable lut, final double min,
+		final double max)
+	{
+		final int[] colors = colors(lut);
+		return new LUTKernel(Kind.FLOATS, true, colors, min, scale(colors, min,
+			max));
+	}
+
+	/**
+	 * Creates a kernel for 16-bit or floating point data whose display range is
+	 * given when the kernel is applied. Values are binned into the color
+	 * table's entries as by {@link #floats}.
+	 *
+	 * @param lut The color table to apply.
+	 */
+	public static LUTKernel ranged(final ColorTable lut) {
+		return new LUTKernel(Kind.RANGED, true, colors(lut), 0, 0);
+	}
+
+	// -- LUTKernel methods --
+
+	/** Maps all the given bytes to ARGB pixels. */
+	public int[] apply(final byte[] in, final int[] out) {
+		return apply(in, 0, in.length, out);
+	}
+
+	/**
+	 * Maps a range of the given bytes to ARGB pixels.
+	 *
+	 * @param in The values to map.
+	 * @param offset The index of the first value to map.
+	 * @param length The number of values to map.
+	 * @param out The array into which to write the pixels, starting at index 0;
+	 *          a new array is allocated if it is null or too small.
+	 * @return The array holding the pixels.
+	 */
+	public int[] apply(final byte[] in, final int offset, final int length,
+		int[] out)
+	{
+		check(Kind.BYTES);
+		out = output(out, length);
+		if (signed) {
+			for (int i = 0; i < length; i++) {
+				out[i] = table[in[offset + i] + 128];
+			}
+		}
+		else {
+			for (int i = 0; i < length; i++) {
+				out[i] = table[in[offset + i] & 0xff];
+			}
+		}
+		return out;
+	}
+
+	/** Maps all the given shorts to ARGB pixels. */
+	public int[] apply(final short[] in, final int[] out) {
+		return apply(in, 0, in.length, out);
+	}
+
+	/**
+	 * Maps a range of the given shorts to ARGB pixels.
+	 *
+	 * @see #apply(byte[], int, int, int[])
+	 */
+	public int[] apply(final short[] in, final int offset, final int length,
+		int[] out)
+	{
+		check(Kind.SHORTS);
+		out = output(out, length);
+		if (signed) {
+			for (int i = 0; i < length; i++) {
+				out[i] = table[in[offset + i] + 32768];
+			}
+		}
+		else {
+			for (int i = 0; i < length; i++) {
+				out[i] = table[in[offset + i] & 0xffff];
+			}
+		}
+		return out;
+	}
+
+	/** Maps all the given floats to ARGB pixels. */
+	public int[] apply(final float[] in, final int[] out) {
+		return apply(in, 0, in.length, out);
+	}
+
+	/**
+	 * Maps a range of the given floats to ARGB pixels.
+	 *
+	 * @see #apply(byte[], int, int, int[])
+	 */
+	public int[] apply(final float[] in, final int offset, final int length,
+		int[] out)
+	{
+		check(Kind.FLOATS);
+		out = output(out, length);
+		final int maxBin = table.length - 1;
+		for (int i = 0; i < length; i++) {
+			final int bin = (int) ((in[offset + i] - min) * scale);
+			out[i] = table[bin < 0 ? 0 : bin > maxBin ? maxBin : bin];
+		}
+		return out;
+	}
+
+	/**
+	 * Maps a range of the given shorts to ARGB pixels, with the given display
+	 * range.
+	 *
+	 * @param signed Whether the shorts hold signed values.
+	 * @param min The value mapped to the first entry of the color table.
+	 * @param max The value mapped to the last entry of the color table.
+	 * @see #apply(byte[], int, int, int[])
+	 */
+	public int[] apply(final short[] in, final int offset, final int length,
+		final boolean signed, final double min, final double max, int[] out)
+	{
+		check(Kind.RANGED);
+		out = output(out, length);
+		final double scale = scale(table, min, max);
+		final int maxBin = table.length - 1;
+		for (int i = 0; i < length; i++) {
+			final int v = signed ? in[offset + i] : in[offset + i] & 0xffff;
+			final int bin = (int) ((v - min) * scale);
+			out[i] = table[bin < 0 ? 0 : bin > maxBin ? maxBin : bin];
+		}
+		return out;
+	}
+
+	/**
+	 * Maps a range of the given floats to ARGB pixels, with the given display
+	 * range.
+	 *
+	 * @see #apply(short[], int, int, boolean, double, double, int[])
+	 */
+	public int[] apply(final float[] in, final int offset, final int length,
+		final double min, final double max, int[] out)
+	{
+		check(Kind.RANGED);
+		out = output(out, length);
+		final double scale = scale(table, min, max);
+		final int maxBin = table.length - 1;
+		for (int i = 0; i < length; i++) {
+			final int bin = (int) ((in[offset + i] - min) * scale);
+			out[i] = table[bin < 0 ? 0 : bin > maxBin ? maxBin : bin];
+		}
+		return out;
+	}
+
+	// -- Helper methods --
+
+	private void check(final Kind expected) {
+		if (kind != expected) {
+			throw new IllegalStateException("Kernel is for " + kind.name()
+				.toLowerCase() + ", not " + expected.name().toLowerCase());
+		}
+	}
+
+	private static int[] output(final int[] out, final int length) {
+		return out != null && out.length >= length ? out : new int[length];
+	}
+
+	/** Computes the color of every value of the given bit depth. */
+	private static int[] table(final ColorTable lut, final double min,
+		final double max, final int bits, final boolean signed)
+	{
+		final int[] table = new int[1 << bits];
+		final int first = signed ? -(1 << bits - 1) : 0;
+		for (int i = 0; i < table.length; i++) {
+			table[i] = lut.lookupARGB(min, max, first + i);
+		}
+		return table;
+	}
+
+	/** Computes the color of every entry of the given color table. */
+	private static int[] colors(final ColorTable lut) {
+		final int[] colors = new int[lut.getLength()];
+		for (int i = 0; i < colors.length; i++) {
+			colors[i] = argb(lut, i);
+		}
+		return colors;
+	}
+
+	private static double scale(final int[] colors, final double min,
+		final double max)
+	{
+		return max > min ? colors.length / (max - min) : 0;
+	}
+
+	private static int argb(final ColorTable lut, final int i) {
+		final int a = lut.getComponentCount() > 3 ? lut.get(3, i) : 0xff;
+		return a << 24 | lut.get(0, i) << 16 | lut.get(1, i) << 8 | lut.get(2,
+			i);
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thumbnail;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJService;
+import net.imglib2.display.ColorTable;
+
+/**
+ * Interface for the service rendering the planes of datasets into packed ARGB
+ * pixels through color tables, e.g. for generating thumbnails headlessly.
+ * 8-bit, 16-bit and floating point planes stored in primitive arrays are
+ * mapped through {@link LUTKernel}s, without per-pixel allocation.
+ */
+public interface ThumbnailService extends ImageJService {
+
+	/**
+	 * Renders the first XY plane of the given dataset through the given color
+	 * table. 8-bit data is displayed over the full range of its type; other
+	 * data over the range of its values in the plane.
+	 *
+	 * @param out The array into which to write the pixels, row by row; a new
+	 *          array is allocated if it is null or too small.
+	 * @return The array holding the pixels.
+	 */
+	int[] render(Dataset dataset, ColorTable lut, int[] out);
+
+	/**
+	 * Renders the first XY plane of the given dataset through the given color
+	 * table, with the given display range.
+	 *
+	 * @param min The value mapped to the first entry of the color table.
+	 * @param max The value mapped to the last entry of the color table.
+	 * @see #render(Dataset, ColorTable, int[])
+	 */
+	int[] render(Dataset dataset, ColorTable lut, double min, double max,
+		int[] out);
+
+	/**
+	 * Gets a kernel mapping 8-bit data through the given color table. Kernels
+	 * are cached, so that rendering many planes with the same color table and
+	 * range reuses the same lookup table.
+	 */
+	LUTKernel byteKernel(ColorTable lut, double min, double max,
+		boolean signed);
+
+	/**
+	 * Gets a kernel mapping 16-bit data through the given color table.
+	 *
+	 * @see #byteKernel(ColorTable, double, double, boolean)
+	 */
+	LUTKernel shortKernel(ColorTable lut, double min, double max,
+		boolean signed);
+
+	/**
+	 * Gets a kernel mapping floating point data through the given color table.
+	 *
+	 * @see #byteKernel(ColorTable, double, double, boolean)
+	 */
+	LUTKernel floatKernel(ColorTable lut, double min, double max);
+
+	/**
+	 * Gets a kernel mapping 16-bit or floating point data through the given
+	 * color table, with the display range given when it is applied. Unlike the
+	 * other kernels, one such kernel serves every range.
+	 *
+	 * @see LUTKernel#ranged(ColorTable)
+	 */
+	LUTKernel rangedKernel(ColorTable lut);
+
+}
@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.scif.services.DatasetIOService;
+
+import net.imagej.display.WindowService;
+import net.imagej.ops.OpService;
+import net.imagej.startup.ServiceProfile;
+import net.imagej.updater.UpdateService;
+import net.imagej.updater.UploaderService;
+
+import org.junit.After;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.ui.UIService;
+
+/**
+ * Tests {@link ImageJ}.
+ */
+public class ImageJTest {
+
+	private ImageJ ij;
+
+	@After
+	public void tearDown() {
+		if (ij != null) ij.getContext().dispose();
+	}
+
+	/** Tests that services are created up front by default. */
+	@Test
+	public void testEager() {
+		ij = new ImageJ();
+		assertFalse(ij.isLazy());
+		final Context context = ij.getContext();
+		assertNotNull(context.getService(OpService.class));
+		assertNotNull(context.getService(UpdateService.class));
+		assertNotNull(context.getService(DatasetIOService.class));
+	}
+
+	/** Tests that services are created on demand in lazy mode. */
+	@Test
+	public void testLazy() {
+		ij = new ImageJ(true);
+		assertTrue(ij.isLazy());
+		final Context context = ij.getContext();
+		assertNull(context.getService(OpService.class));
+		assertNull(context.getService(UpdateService.class));
+		assertNull(context.getService(DatasetIOService.class));
+
+		final OpService ops = ij.op();
+		assertNotNull(ops);
+		assertSame(ops, context.getService(OpService.class));
+		assertSame(ops, ij.op());
+		assertNull(context.getService(UpdateService.class));
+
+		assertNotNull(ij.scifio().datasetIO());
+		assertNotNull(context.getService(DatasetIOService.class));
+	}
+
+	/** Tests that the headless compute profile omits UI and updater services. */
+	@Test
+	public void testHeadlessComputeProfile() {
+		ij = new ImageJ(ServiceProfile.HEADLESS_COMPUTE);
+		assertSame(ServiceProfile.HEADLESS_COMPUTE, ij.getProfile());
+		final Context context = ij.getContext();
+		assertNotNull(context.getService(OpService.class));
+		assertNotNull(context.getService(DatasetIOService.class));
+		assertNull(context.getService(WindowService.class));
+		assertNull(context.getService(UpdateService.class));
+		assertNull(context.getService(UploaderService.class));
+
+		assertNotNull(ij.op());
+		assertNotNull(ij.dataset());
+		assertNotNull(ij.scifio().datasetIO());
+		try {
+			ij.window();
+			fail("Expected IllegalStateException");
+		}
+		catch (final IllegalStateException exc) {
+			assertTrue(exc.getMessage().contains("headless-compute"));
+		}
+	}
+
+	/**
+	 * Tests that a gateway with the headless compute profile can be launched,
+	 * as the launcher does.
+	 */
+	@Test
+	public void testLaunchHeadlessCompute() {
+		ij = new ImageJ(ServiceProfile.HEADLESS_COMPUTE);
+		assertNotNull(ij.getContext().getService(UIService.class));
+		ij.launch("--headless");
+	}
+
+}
@@ -31,13 +31,17 @@
 
 package net.imagej.app;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import net.imagej.ImageJService;
+import net.imagej.startup.ServiceInitializer;
 
 import org.junit.After;
 import org.junit.Before;
@@ -123,4 +127,30 @@ public void testMarkerInterfaces() throws InstantiableException {
 		}
 	}
 
+	/**
+	 * Tests that initializing services concurrently yields the same services as
+	 * the regular sequential initialization.
+	 */
+	@Test
+	public void testParallelServices() {
+		final Context parallel = ServiceInitializer.createContext(null, 4,
+			ImageJService.class);
+		try {
+			assertEquals(serviceClasses(ctx), serviceClasses(parallel));
+		}
+		finally {
+			parallel.dispose();
+		}
+	}
+
+	// -- Helper methods --
+
+	private Set<Class<?>> serviceClasses(final Context context) {
+		final Set<Class<?>> classes = new HashSet<>();
+		for (final Service s : context.getServiceIndex().getAll()) {
+			classes.add(s.getClass());
+		}
+		return classes;
+	}
+
 }
@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.Context;
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.command.CommandService;
+import org.scijava.command.ContextCommand;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Tests {@link BatchRunner}.
+ */
+public class BatchRunnerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Context context;
+
+	@Before
+	public void setUp() {
+		context = new Context();
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testListFiles() throws IOException {
+		final File dir = folder.newFolder();
+		final File a = touch(new File(dir, "a.tif"));
+		final File b = touch(new File(dir, "sub/b.tif"));
+		touch(new File(dir, "c.txt"));
+
+		final String root = dir.getPath() + File.separator;
+		assertEquals(Arrays.asList(a), BatchRunner.listFiles(root + "*.tif"));
+		assertEquals(Arrays.asList(a, b), BatchRunner.listFiles(root +
+			"**.tif"));
+
+		final File manifest = new File(dir, "files.txt");
+		Files.write(manifest.toPath(), Arrays.asList("# inputs", "a.tif", "",
+			b.getAbsolutePath()), StandardCharsets.UTF_8);
+		assertEquals(Arrays.asList(a.getAbsoluteFile(), b.getAbsoluteFile()),
+			BatchRunner.listFiles("@" + manifest.getPath()));
+	}
+
+	@Test
+	public void testRun() throws InterruptedException {
+		final List<File> files = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			files.add(new File("image" + i + ".tif"));
+		}
+		files.add(new File("bad.tif"));
+		files.add(new File("flaky.tif"));
+
+		final BatchRunner runner = new BatchRunner(context, context.service(
+			CommandService.class).getCommand(Describe.class), null);
+		assertEquals("file", runner.getFileInput());
+		runner.setInput("suffix", "!");
+		runner.setParallelism(4);
+		runner.setMaxInFlight(6);
+		runner.setRetries(1);
+		final List<BatchResult> results = runner.run(files);
+
+		assertEquals(files.size(), results.size());
+		for (int i = 0; i < 20; i++) {
+			final BatchResult result = results.get(i);
+			assertTrue(result.isSuccess());
+			assertEquals(1, result.getAttempts());
+			assertEquals("image" + i + ".tif!", result.getOutputs().get(
+				"description"));
+		}
+
+		final BatchResult bad = results.get(20);
+		assertFalse(bad.isSuccess());
+		assertEquals(2, bad.getAttempts());
+		assertTrue(bad.getFailure().contains("unreadable"));
+
+		final BatchResult flaky = results.get(21);
+		assertTrue(flaky.isSuccess());
+		assertEquals(2, flaky.getAttempts());
+	}
+
+	@Test
+	public void testRunDuplicatesAndErrors() throws InterruptedException {
+		final List<File> files = Arrays.asList(new File("image.tif"), new File(
+			"broken.tif"), new File("image.tif"));
+
+		final BatchRunner runner = new BatchRunner(context, context.service(
+			CommandService.class).getCommand(Describe.class), null);
+		runner.setInput("suffix", "?");
+		final List<BatchResult> results = runner.run(files);
+
+		assertEquals(files.size(), results.size());
+		for (int i = 0; i < files.size(); i++) {
+			assertSame(files.get(i), results.get(i).getFile());
+		}
+		assertTrue(results.get(0).isSuccess());
+		assertTrue(results.get(2).isSuccess());
+		assertNotSame(results.get(0), results.get(2));
+
+		final BatchResult broken = results.get(1);
+		assertFalse(broken.isSuccess());
+		assertTrue(broken.getFailure().contains("corrupt"));
+	}
+
+	// -- Helper methods --
+
+	private static File touch(final File file) throws IOException {
+		file.getParentFile().mkdirs();
+		file.createNewFile();
+		return file;
+	}
+
+	// -- Helper classes --
+
+	/** A command which describes a file, failing or throwing for some files. */
+	@Plugin(type = Command.class)
+	public static class Describe extends ContextCommand {
+
+		private static final Map<String, Integer> ATTEMPTS =
+			new ConcurrentHashMap<>();
+
+		@Parameter
+		private File file;
+
+		@Parameter
+		private String suffix;
+
+		@Parameter(type = ItemIO.OUTPUT)
+		private String description;
+
+		@Override
+		public void run() {
+			final String name = file.getName();
+			if (name.startsWith("broken")) throw new AssertionError("corrupt file");
+			if (name.startsWith("bad")) {
+				cancel("unreadable file");
+				return;
+			}
+			if (name.startsWith("flaky") && ATTEMPTS.merge(name, 1,
+				Integer::sum) == 1)
+			{
+				cancel("temporary failure");
+				return;
+			}
+			description = name + suffix;
+		}
+	}
+
+}
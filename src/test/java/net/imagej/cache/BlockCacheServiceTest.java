@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Tests {@link DefaultBlockCacheService}.
+ */
+public class BlockCacheServiceTest {
+
+	private static final String SOURCE =
+		"synthetic&pixelType=uint8&lengths=32,24,4&axes=X,Y,Z.fake";
+
+	private Context context;
+	private BlockCacheService blockCacheService;
+
+	@Before
+	public void setUp() {
+		context = new Context(BlockCacheService.class, DatasetIOService.class);
+		blockCacheService = context.service(BlockCacheService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testOpen() throws IOException {
+		final Dataset expected = context.service(DatasetIOService.class).open(
+			SOURCE);
+		final Dataset dataset = blockCacheService.open(SOURCE);
+		final Cursor<RealType<?>> e = expected.cursor();
+		final Cursor<RealType<?>> a = dataset.cursor();
+		while (e.hasNext()) {
+			assertEquals(e.next().getRealDouble(), a.next().getRealDouble(), 0);
+		}
+	}
+
+	@Test
+	public void testReadOnly() throws IOException {
+		final long[] pos = { 5, 3, 1 };
+		final RandomAccess<RealType<?>> first = blockCacheService.open(SOURCE)
+			.randomAccess();
+		first.setPosition(pos);
+		final double value = first.get().getRealDouble();
+		try {
+			first.get().setReal(value + 1);
+			fail("Wrote to a cached plane");
+		}
+		catch (final UnsupportedOperationException exc) {
+			// NB: Expected.
+		}
+
+		// a second dataset of the same source shares the cached plane
+		final RandomAccess<RealType<?>> second = blockCacheService.open(SOURCE)
+			.randomAccess();
+		second.setPosition(pos);
+		assertEquals(value, second.get().getRealDouble(), 0);
+	}
+
+}
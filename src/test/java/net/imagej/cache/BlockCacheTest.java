@@ -0,0 +1,217 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link BlockCache}.
+ */
+public class BlockCacheTest {
+
+	@Test
+	public void testHitAndMiss() throws IOException {
+		final BlockCache cache = new BlockCache(1000, 0, BlockCache.Policy.LRU);
+		final AtomicInteger loads = new AtomicInteger();
+		final short[] block = cache.get(key(0), () -> {
+			loads.incrementAndGet();
+			return new short[10];
+		});
+		assertSame(block, cache.get(key(0), () -> {
+			loads.incrementAndGet();
+			return new short[10];
+		}));
+		assertEquals(1, loads.get());
+
+		final BlockCache.Stats stats = cache.getStats();
+		assertEquals(1, stats.hits());
+		assertEquals(1, stats.misses());
+		assertEquals(1, stats.heapBlocks());
+		assertEquals(20, stats.heapBytes());
+		assertEquals(0.5, stats.hitRate(), 0);
+	}
+
+	@Test
+	public void testLRUEviction() throws IOException {
+		final BlockCache cache = new BlockCache(300, 0, BlockCache.Policy.LRU);
+		load(cache, 0);
+		load(cache, 1);
+		load(cache, 2);
+		load(cache, 0); // NB: Makes block 1 the least recently used.
+		load(cache, 3);
+		assertEquals(1, cache.getStats().evictions());
+		assertEquals(3, cache.getStats().heapBlocks());
+
+		final long misses = cache.getStats().misses();
+		load(cache, 0);
+		load(cache, 2);
+		load(cache, 3);
+		assertEquals(misses, cache.getStats().misses());
+		load(cache, 1);
+		assertEquals(misses + 1, cache.getStats().misses());
+	}
+
+	@Test
+	public void testSegmentedLRU() throws IOException {
+		final BlockCache cache = new BlockCache(500, 0,
+			BlockCache.Policy.SEGMENTED_LRU);
+		// NB: Blocks 0 and 1 are used repeatedly.
+		load(cache, 0);
+		load(cache, 1);
+		load(cache, 0);
+		load(cache, 1);
+		// NB: A scan over many blocks, each used once.
+		for (int i = 2; i < 20; i++) {
+			load(cache, i);
+		}
+		final long misses = cache.getStats().misses();
+		load(cache, 0);
+		load(cache, 1);
+		assertEquals(misses, cache.getStats().misses());
+	}
+
+	@Test
+	public void testOffHeap() throws IOException {
+		final BlockCache cache = new BlockCache(100, 1000, BlockCache.Policy.LRU);
+		final double[] values = { 1, 2, 3, 4, 5 };
+		cache.get(key(0), () -> values.clone());
+		load(cache, 1);
+		assertEquals(1, cache.getStats().offHeapBlocks());
+		assertEquals(40, cache.getStats().offHeapBytes());
+
+		final double[] restored = cache.get(key(0), () -> new double[0]);
+		assertArrayEquals(values, restored, 0);
+		assertEquals(1, cache.getStats().offHeapHits());
+	}
+
+	@Test
+	public void testInvalidate() throws IOException {
+		final BlockCache cache = new BlockCache(1000, 0, BlockCache.Policy.LRU);
+		load(cache, 0);
+		cache.get(new BlockKey("other", 0, 0, 0), () -> new byte[10]);
+		cache.invalidate("source");
+		assertEquals(1, cache.getStats().heapBlocks());
+		assertEquals(10, cache.getStats().heapBytes());
+	}
+
+	@Test
+	public void testConcurrentLoad() throws Exception {
+		final BlockCache cache = new BlockCache(1000, 0, BlockCache.Policy.LRU);
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(1);
+		final ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<int[]>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(pool.submit(() -> cache.get(key(0), () -> {
+					loads.incrementAndGet();
+					latch.await();
+					return new int[5];
+				})));
+			}
+			Thread.sleep(100);
+			latch.countDown();
+			final int[] block = futures.get(0).get(10, TimeUnit.SECONDS);
+			for (final Future<int[]> future : futures) {
+				assertSame(block, future.get(10, TimeUnit.SECONDS));
+			}
+			assertEquals(1, loads.get());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testInvalidateDuringLoad() throws Exception {
+		final BlockCache cache = new BlockCache(1000, 0, BlockCache.Policy.LRU);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch latch = new CountDownLatch(1);
+		final ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			final Future<byte[]> stale = pool.submit(() -> cache.get(key(0), () -> {
+				started.countDown();
+				latch.await();
+				return new byte[] { 1 };
+			}));
+			started.await();
+			cache.invalidate("source");
+			latch.countDown();
+			assertEquals(1, stale.get(10, TimeUnit.SECONDS)[0]);
+
+			// NB: The block loaded across the invalidation is not cached.
+			assertEquals(0, cache.getStats().heapBlocks());
+			final byte[] fresh = cache.get(key(0), () -> new byte[] { 2 });
+			assertEquals(2, fresh[0]);
+			assertSame(fresh, cache.get(key(0), () -> new byte[] { 3 }));
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testLoadFailure() throws IOException {
+		final BlockCache cache = new BlockCache(1000, 0, BlockCache.Policy.LRU);
+		cache.get(key(0), () -> {
+			throw new IOException("unreadable");
+		});
+	}
+
+	// -- Helper methods --
+
+	private static BlockKey key(final long block) {
+		return new BlockKey("source", 0, 0, block);
+	}
+
+	/** Gets a block of 100 bytes. */
+	private static void load(final BlockCache cache, final long block)
+		throws IOException
+	{
+		cache.get(key(block), () -> new byte[100]);
+	}
+
+}
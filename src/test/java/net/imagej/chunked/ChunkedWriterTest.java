@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.chunked;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link ChunkedWriter} and {@link ChunkCodec}.
+ */
+public class ChunkedWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testCodecs() throws IOException {
+		final byte[] data = new byte[10000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i % 17);
+		}
+		for (final String spec : new String[] { "raw", "gzip", "gzip:1",
+			"zlib:9" })
+		{
+			final ChunkCodec codec = ChunkCodec.parse(spec);
+			assertEquals(spec, codec.toString());
+			final byte[] encoded = codec.encode(data);
+			assertArrayEquals(encoded, ChunkCodec.parse(spec).encode(data));
+			assertArrayEquals(data, codec.decode(encoded, data.length));
+			if (!spec.equals("raw")) assertTrue(encoded.length < data.length);
+		}
+		assertEquals("gzip", ChunkCodec.zlib(1).getType());
+		assertEquals(Boolean.TRUE, ChunkCodec.zlib(1).getParameters().get(
+			"useZlib"));
+
+		for (final String spec : new String[] { "lz4", "gzip:10", "raw:1" }) {
+			try {
+				ChunkCodec.parse(spec);
+				fail("Accepted " + spec);
+			}
+			catch (final IllegalArgumentException exc) {
+				// NB: Expected.
+			}
+		}
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		final ArrayImg<UnsignedShortType, ShortArray> image = image();
+		final File dir = folder.newFolder();
+		final ChunkedWriter writer = new ChunkedWriter();
+		writer.setBlockSize(32, 32);
+		writer.setCodec(ChunkCodec.gzip(1));
+		writer.write(image, dir);
+
+		assertEquals("{\"n5\":\"" + ChunkedWriter.VERSION +
+			"\",\"dimensions\":[100,70,3],\"blockSize\":[32,32,1]," +
+			"\"dataType\":\"uint16\",\"compression\":" +
+			"{\"type\":\"gzip\",\"level\":1,\"useZlib\":false}}", new String(Files
+				.readAllBytes(new File(dir, ChunkedWriter.ATTRIBUTES).toPath()),
+				StandardCharsets.UTF_8));
+		assertEquals(4 * 3 * 3, blocks(dir).size());
+		assertFalse(new File(dir, "4/0/0").exists());
+
+		// the last block of the grid is truncated to the image bounds
+		final ByteBuffer block = ByteBuffer.wrap(Files.readAllBytes(new File(
+			dir, "3/2/2").toPath()));
+		assertEquals(0, block.getShort());
+		assertEquals(3, block.getShort());
+		assertEquals(4, block.getInt());
+		assertEquals(6, block.getInt());
+		assertEquals(1, block.getInt());
+		final byte[] encoded = new byte[block.remaining()];
+		block.get(encoded);
+		final ByteBuffer data = ByteBuffer.wrap(writer.getCodec().decode(encoded,
+			2 * 4 * 6));
+		for (int y = 64; y < 70; y++) {
+			for (int x = 96; x < 100; x++) {
+				assertEquals(value(x, y, 2), data.getShort() & 0xffff);
+			}
+		}
+	}
+
+	@Test
+	public void testDeterministic() throws IOException {
+		final ArrayImg<UnsignedShortType, ShortArray> image = image();
+		final File serial = folder.newFolder();
+		final File parallel = folder.newFolder();
+
+		final ChunkedWriter writer = new ChunkedWriter();
+		writer.setBlockSize(16, 16, 2);
+		writer.setCodec(ChunkCodec.zlib(6));
+		writer.setParallelism(1);
+		writer.write(image, serial);
+		writer.setParallelism(8);
+		writer.setMaxInFlight(3);
+		writer.write(image, parallel);
+
+		final List<String> blocks = blocks(serial);
+		assertEquals(7 * 5 * 2, blocks.size());
+		assertEquals(blocks, blocks(parallel));
+		for (final String block : blocks) {
+			assertArrayEquals(block, Files.readAllBytes(serial.toPath().resolve(
+				block)), Files.readAllBytes(parallel.toPath().resolve(block)));
+		}
+		assertTrue(new File(serial, "6/4/1").length() > 0);
+	}
+
+	@Test
+	public void testWritePlanes() throws IOException {
+		final ArrayImg<UnsignedShortType, ShortArray> image = image();
+		final File whole = folder.newFolder();
+		final File planes = folder.newFolder();
+
+		final ChunkedWriter writer = new ChunkedWriter();
+		writer.setBlockSize(64, 64);
+		writer.write(image, whole);
+		final long[] dims = { 100, 70, 3 };
+		writer.writeAttributes(planes, dims, image.firstElement());
+		for (int z = 2; z >= 0; z--) {
+			writer.writePlane(planes, dims, Views.hyperSlice(image, 2, z), z);
+		}
+
+		final List<String> blocks = blocks(whole);
+		assertEquals(2 * 2 * 3, blocks.size());
+		assertEquals(blocks, blocks(planes));
+		for (final String block : blocks) {
+			assertArrayEquals(block, Files.readAllBytes(whole.toPath().resolve(
+				block)), Files.readAllBytes(planes.toPath().resolve(block)));
+		}
+	}
+
+	// -- Helper methods --
+
+	private static ArrayImg<UnsignedShortType, ShortArray> image() {
+		final ArrayImg<UnsignedShortType, ShortArray> image = ArrayImgs
+			.unsignedShorts(100, 70, 3);
+		int i = 0;
+		for (final UnsignedShortType t : image) {
+			t.set(value(i % 100, i / 100 % 70, i / 7000));
+			i++;
+		}
+		return image;
+	}
+
+	private static int value(final int x, final int y, final int z) {
+		return (x * 7 + y * 31 + z * 1009) % 65536;
+	}
+
+	/** Lists the relative paths of the blocks in the given directory. */
+	private static List<String> blocks(final File dir) throws IOException {
+		final Path root = dir.toPath();
+		try (final Stream<Path> paths = Files.walk(root)) {
+			return paths.filter(Files::isRegularFile) //
+				.map(root::relativize).map(Path::toString) //
+				.filter(path -> !path.equals(ChunkedWriter.ATTRIBUTES)) //
+				.sorted().collect(Collectors.toList());
+		}
+	}
+
+}
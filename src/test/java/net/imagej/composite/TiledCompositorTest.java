@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.composite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.imglib2.Cursor;
+import net.imglib2.display.ColorTable8;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link TiledCompositor}.
+ */
+public class TiledCompositorTest {
+
+	private static final int WIDTH = 300, HEIGHT = 200;
+
+	private final ColorTable8 red = ramp(0);
+	private final ColorTable8 green = ramp(1);
+
+	private ArrayImg<FloatType, FloatArray> xs, ys;
+	private ExecutorService executor;
+	private TiledCompositor compositor;
+
+	@Before
+	public void setUp() {
+		xs = ArrayImgs.floats(WIDTH, HEIGHT);
+		ys = ArrayImgs.floats(WIDTH, HEIGHT);
+		final long[] pos = new long[2];
+		final Cursor<FloatType> cx = xs.localizingCursor();
+		final Cursor<FloatType> cy = ys.cursor();
+		while (cx.hasNext()) {
+			cx.fwd();
+			cy.fwd();
+			cx.localize(pos);
+			cx.get().set(pos[0] % 256);
+			cy.get().set(pos[1] % 256);
+		}
+		executor = Executors.newFixedThreadPool(4);
+		compositor = new TiledCompositor(64, 1000, executor);
+		compositor.setChannelCount(2);
+		compositor.setChannel(0, xs, red, 0, 255);
+		compositor.setChannel(1, ys, green, 0, 255);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testComposite() {
+		final int[] argb = new int[WIDTH * HEIGHT];
+		assertEquals(20, compositor.render(0, 0, WIDTH, HEIGHT, argb));
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				assertEquals(expected(x, y), argb[y * WIDTH + x]);
+			}
+		}
+	}
+
+	@Test
+	public void testPanRendersNewTilesOnly() {
+		final int[] argb = new int[128 * 128];
+		assertEquals(4, compositor.render(0, 0, 128, 128, argb));
+		assertEquals(0, compositor.render(0, 0, 128, 128, argb));
+		assertEquals(2, compositor.render(64, 0, 128, 128, argb));
+		assertEquals(expected(64, 0), argb[0]);
+		assertEquals(expected(191, 127), argb[128 * 128 - 1]);
+	}
+
+	@Test
+	public void testChannelChange() {
+		final int[] argb = new int[WIDTH * HEIGHT];
+		compositor.render(0, 0, WIDTH, HEIGHT, argb);
+
+		compositor.setChannel(1, ys, green, 0, 255);
+		assertEquals(0, compositor.render(0, 0, WIDTH, HEIGHT, argb));
+
+		compositor.setChannel(1, ys, red, 0, 255);
+		assertEquals(20, compositor.render(0, 0, WIDTH, HEIGHT, argb));
+		assertEquals(0xff000000 | Math.min(255, 2 * 100) << 16, argb[100 *
+			WIDTH + 100] & 0xffff0000);
+
+		compositor.setChannel(1, null, green, 0, 255);
+		assertEquals(20, compositor.render(0, 0, WIDTH, HEIGHT, argb));
+		assertEquals(red.lookupARGB(0, 255, 100), argb[100 * WIDTH + 100]);
+	}
+
+	@Test
+	public void testInvalidateRegion() {
+		final int[] argb = new int[WIDTH * HEIGHT];
+		compositor.render(0, 0, WIDTH, HEIGHT, argb);
+		compositor.invalidate(70, 70, 10, 10);
+		assertEquals(1, compositor.render(0, 0, WIDTH, HEIGHT, argb));
+		compositor.invalidate(60, 60, 10, 10);
+		assertEquals(4, compositor.render(0, 0, WIDTH, HEIGHT, argb));
+		compositor.invalidate();
+		assertEquals(20, compositor.render(0, 0, WIDTH, HEIGHT, argb));
+	}
+
+	@Test
+	public void testOutsidePlane() {
+		final int[] argb = new int[20 * 20];
+		assertEquals(1, compositor.render(-10, -10, 20, 20, argb));
+		assertEquals(0, argb[0]);
+		assertEquals(0, argb[9 * 20 + 19]);
+		assertEquals(expected(0, 0), argb[10 * 20 + 10]);
+		assertEquals(expected(9, 9), argb[19 * 20 + 19]);
+
+		assertEquals(0, compositor.render(WIDTH, 0, 20, 20, argb));
+		assertEquals(0, argb[0]);
+	}
+
+	// -- Helper methods --
+
+	private int expected(final int x, final int y) {
+		return red.lookupARGB(0, 255, x % 256) | green.lookupARGB(0, 255, y %
+			256);
+	}
+
+	/** Creates a color table ramping up the given component only. */
+	private static ColorTable8 ramp(final int component) {
+		final byte[][] values = new byte[3][256];
+		for (int i = 0; i < 256; i++) {
+			values[component][i] = (byte) i;
+		}
+		return new ColorTable8(values);
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.mapped;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.LongType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.Context;
+import org.scijava.event.EventService;
+
+/**
+ * Tests {@link DefaultMappedDatasetService}.
+ */
+public class MappedDatasetServiceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Context context;
+	private MappedDatasetService mappedDatasetService;
+	private File scratch;
+
+	@Before
+	public void setUp() throws IOException {
+		context = new Context(MappedDatasetService.class);
+		mappedDatasetService = context.service(MappedDatasetService.class);
+		scratch = folder.newFolder();
+		mappedDatasetService.setScratchDirectory(scratch);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testCreate() throws IOException {
+		final long[] dims = { 64, 48, 3 };
+		final Dataset dataset = mappedDatasetService.create(dims, "mapped",
+			new AxisType[] { Axes.X, Axes.Y, Axes.Z }, 16, false, false);
+		final long[] actual = new long[dims.length];
+		dataset.dimensions(actual);
+		assertArrayEquals(dims, actual);
+		assertEquals(16, dataset.getType().getBitsPerPixel());
+		assertEquals(1, scratch.listFiles().length);
+
+		int value = 0;
+		for (final RealType<?> t : dataset) {
+			t.setReal(value++ % 65536);
+		}
+		value = 0;
+		final Cursor<RealType<?>> cursor = dataset.cursor();
+		while (cursor.hasNext()) {
+			assertEquals(value++ % 65536, cursor.next().getRealDouble(), 0);
+		}
+
+		mappedDatasetService.dispose();
+		assertEquals(0, scratch.listFiles().length);
+	}
+
+	@Test
+	public void testDelete() throws IOException {
+		final Dataset dataset = mappedDatasetService.create(new long[] { 8, 8 },
+			"deleted", new AxisType[] { Axes.X, Axes.Y }, 8, false, false);
+		assertEquals(1, scratch.listFiles().length);
+		context.service(EventService.class).publish(new DatasetDeletedEvent(
+			dataset));
+		assertEquals(0, scratch.listFiles().length);
+	}
+
+	@Test
+	public void testLongRow() throws IOException {
+		// NB: A single row of more than 2 GiB, which cannot be mapped at once.
+		final long length = (1L << 28) + 1;
+		final Dataset dataset = mappedDatasetService.create(new LongType(),
+			new long[] { length }, "row", new AxisType[] { Axes.X });
+		final RandomAccess<RealType<?>> access = dataset.randomAccess();
+		access.setPosition(length - 1, 0);
+		access.get().setReal(42);
+		access.setPosition(0, 0);
+		assertEquals(0, access.get().getRealDouble(), 0);
+		access.setPosition(length - 1, 0);
+		assertEquals(42, access.get().getRealDouble(), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreateInvalid() throws IOException {
+		mappedDatasetService.create(new long[] { 2, 2 }, "invalid",
+			new AxisType[] { Axes.X, Axes.Y }, 16, false, true);
+	}
+
+	@Test
+	public void testOpen() throws IOException {
+		final String source =
+			"synthetic&pixelType=uint8&lengths=32,24,4&axes=X,Y,Z.fake";
+		final Dataset expected = context.service(DatasetIOService.class).open(
+			source);
+		final Dataset dataset = mappedDatasetService.open(source);
+		assertEquals(expected.numDimensions(), dataset.numDimensions());
+		for (int d = 0; d < expected.numDimensions(); d++) {
+			assertEquals(expected.dimension(d), dataset.dimension(d));
+		}
+		final Cursor<RealType<?>> e = expected.cursor();
+		final Cursor<RealType<?>> a = dataset.cursor();
+		while (e.hasNext()) {
+			assertEquals(e.next().getRealDouble(), a.next().getRealDouble(), 0);
+		}
+		assertTrue(scratch.listFiles().length > 0);
+	}
+
+}
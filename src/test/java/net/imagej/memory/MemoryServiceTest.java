@@ -0,0 +1,218 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imagej.mapped.MappedDatasetService;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.Context;
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.command.CommandService;
+import org.scijava.event.EventService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Tests {@link DefaultMemoryService}.
+ */
+public class MemoryServiceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Context context;
+	private MemoryService memoryService;
+	private DatasetService datasetService;
+	private File scratch;
+
+	@Before
+	public void setUp() throws IOException {
+		context = new Context(MemoryService.class, DatasetService.class,
+			CommandService.class);
+		memoryService = context.service(MemoryService.class);
+		datasetService = context.service(DatasetService.class);
+		scratch = folder.newFolder();
+		context.service(MappedDatasetService.class).setScratchDirectory(scratch);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testUsage() {
+		final long before = memoryService.getUsage();
+		final Dataset dataset = dataset(3);
+		memoryService.track(dataset);
+		assertEquals(before + 64 * 64, memoryService.getUsage());
+		assertEquals(1, memoryService.getStats().datasets());
+	}
+
+	@Test
+	public void testSpill() throws IOException {
+		final Dataset dataset = dataset(7);
+		memoryService.track(dataset);
+		assertTrue(memoryService.spill(dataset));
+		assertTrue(memoryService.isSpilled(dataset));
+		assertEquals(0, memoryService.getStats().datasetBytes());
+		assertFalse(memoryService.spill(dataset));
+
+		// the pixels survive the move into scratch storage
+		for (final RealType<?> t : dataset) {
+			assertEquals(7, t.getRealDouble(), 0);
+		}
+	}
+
+	@Test
+	public void testNoBudget() {
+		// NB: Budgeting is opt-in.
+		assertEquals(Long.MAX_VALUE, memoryService.getBudget());
+		final Dataset dataset = dataset(5);
+		memoryService.track(dataset);
+		assertFalse(memoryService.isSpilled(dataset));
+		assertEquals(0, memoryService.getStats().spills());
+	}
+
+	@Test
+	public void testBudget() {
+		memoryService.setBudget(Long.MAX_VALUE);
+		final Dataset oldest = dataset(1);
+		final Dataset pinned = dataset(2);
+		final Dataset newest = dataset(3);
+		memoryService.track(oldest);
+		memoryService.track(pinned);
+		memoryService.track(newest);
+		memoryService.pin(pinned);
+		memoryService.touch(oldest);
+		memoryService.touch(pinned);
+		memoryService.touch(newest);
+
+		// room for two of the three datasets: the least recently used goes
+		memoryService.setBudget(memoryService.getUsage() - 1);
+		assertTrue(memoryService.isSpilled(oldest));
+		assertFalse(memoryService.isSpilled(pinned));
+		assertFalse(memoryService.isSpilled(newest));
+		assertEquals(1, memoryService.getStats().spills());
+
+		// nothing fits: all but the pinned dataset go
+		memoryService.setBudget(0);
+		assertFalse(memoryService.isSpilled(pinned));
+		assertTrue(memoryService.isSpilled(newest));
+		assertEquals(64 * 64, memoryService.getStats().datasetBytes());
+	}
+
+	@Test
+	public void testInUse() throws InterruptedException, ExecutionException {
+		final Dataset dataset = dataset(4);
+		memoryService.track(dataset);
+		final Object spilled = context.service(CommandService.class).run(
+			SpillCommand.class, false, "dataset", dataset).get().getOutput(
+				"spilled");
+		assertEquals(false, spilled);
+		assertFalse(memoryService.isSpilled(dataset));
+
+		// once the command has run, the dataset can be spilled
+		memoryService.setBudget(0);
+		assertTrue(memoryService.isSpilled(dataset));
+	}
+
+	@Test
+	public void testDelete() throws IOException {
+		final Dataset dataset = dataset(6);
+		memoryService.track(dataset);
+		assertTrue(memoryService.spill(dataset));
+		assertEquals(1, scratch.list().length);
+
+		context.service(EventService.class).publish(new DatasetDeletedEvent(
+			dataset));
+		assertEquals(0, memoryService.getStats().datasets());
+		assertEquals(0, scratch.list().length);
+	}
+
+	// -- Helper methods --
+
+	private Dataset dataset(final double value) {
+		final Dataset dataset = datasetService.create(new long[] { 64, 64 },
+			"test", new AxisType[] { Axes.X, Axes.Y }, 8, false, false);
+		for (final RealType<?> t : dataset) {
+			t.setReal(value);
+		}
+		return dataset;
+	}
+
+	// -- Helper classes --
+
+	/** A command which tries to spill its input while running. */
+	@Plugin(type = Command.class)
+	public static class SpillCommand implements Command {
+
+		@Parameter
+		private MemoryService memoryService;
+
+		@Parameter
+		private Dataset dataset;
+
+		@Parameter(type = ItemIO.OUTPUT)
+		private boolean spilled;
+
+		@Override
+		public void run() {
+			try {
+				spilled = memoryService.spill(dataset);
+			}
+			catch (final IOException exc) {
+				throw new IllegalStateException(exc);
+			}
+		}
+	}
+
+}
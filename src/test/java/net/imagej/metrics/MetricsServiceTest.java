@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Tests {@link DefaultMetricsService}, {@link Counter} and {@link Timer}.
+ */
+public class MetricsServiceTest {
+
+	private Context context;
+	private MetricsService metrics;
+
+	@Before
+	public void setUp() {
+		context = new Context(MetricsService.class);
+		metrics = context.service(MetricsService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testTimer() {
+		final Timer timer = new Timer();
+		for (int i = 1; i <= 100; i++) {
+			timer.record(i * 1000000L);
+		}
+		assertEquals(100, timer.count());
+		assertEquals(100000000L, timer.maxNanos());
+		assertEquals(50.5, timer.meanMillis(), 1e-9);
+		// NB: Percentiles are resolved to the upper bound of a bucket.
+		final long p50 = timer.percentileNanos(50);
+		assertTrue(p50 >= 50000000L && p50 <= 2 * 50000000L);
+		assertEquals(100000000L, timer.percentileNanos(100));
+	}
+
+	@Test
+	public void testRegistry() {
+		assertFalse(metrics.isEnabled());
+		metrics.counter("test.counter").add(3);
+		metrics.counter("test.counter").increment();
+		metrics.timer("test.timer").record(2000000);
+		metrics.gauge("test.gauge", () -> 42);
+
+		final Map<String, Number> values = metrics.getValues();
+		assertEquals(4L, values.get("test.counter"));
+		assertEquals(42.0, values.get("test.gauge"));
+		assertEquals(1L, values.get("test.timer.count"));
+		assertEquals(2.0, values.get("test.timer.meanMillis"));
+		assertTrue(values.containsKey("memory.heap.used"));
+
+		final String text = metrics.format();
+		assertTrue(text.contains("imagej_test_counter_total 4\n"));
+		assertTrue(text.contains("imagej_test_gauge 42.0\n"));
+		assertTrue(text.contains("imagej_test_timer_seconds_count 1\n"));
+	}
+
+	@Test
+	public void testJMX() throws Exception {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName pattern = new ObjectName("net.imagej:type=Metrics,*");
+		final int before = server.queryNames(pattern, null).size();
+
+		metrics.counter("test.counter").increment();
+		metrics.setEnabled(true);
+		final Set<ObjectName> names = server.queryNames(pattern, null);
+		assertEquals(before + 1, names.size());
+		boolean found = false;
+		for (final ObjectName name : names) {
+			try {
+				found |= server.getAttribute(name, "test.counter").equals(1L);
+			}
+			catch (final Exception exc) {
+				// NB: Another context's metrics.
+			}
+		}
+		assertTrue(found);
+
+		metrics.setEnabled(false);
+		assertEquals(before, server.queryNames(pattern, null).size());
+	}
+
+}
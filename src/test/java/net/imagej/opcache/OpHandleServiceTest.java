@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.opcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.lang.ref.WeakReference;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Tests {@link DefaultOpHandleService} and {@link OpHandle}.
+ */
+public class OpHandleServiceTest {
+
+	private Context context;
+	private OpHandleService handles;
+	private DatasetService datasetService;
+
+	@Before
+	public void setUp() {
+		context = new Context(OpHandleService.class, DatasetService.class);
+		handles = context.service(OpHandleService.class);
+		datasetService = context.service(DatasetService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testHandle() {
+		final OpHandle add = handles.handle("math.add", 1.0, 2.0);
+		assertEquals(7.0, add.run(3.0, 4.0));
+		assertEquals(2.0, add.run(1.0, 1.0));
+	}
+
+	@Test
+	public void testRun() {
+		final Dataset a = dataset(3), b = dataset(5);
+		final RealType<?> meanA = (RealType<?>) handles.run("stats.mean", a);
+		final RealType<?> meanB = (RealType<?>) handles.run("stats.mean", b);
+		assertNotSame(meanA, meanB);
+		assertEquals(3, meanA.getRealDouble(), 0);
+		assertEquals(5, meanB.getRealDouble(), 0);
+		assertEquals(1, handles.getStats().misses());
+		assertEquals(1, handles.getStats().hits());
+		assertEquals(1, handles.getStats().size());
+
+		handles.clear();
+		handles.run("stats.mean", a);
+		assertEquals(2, handles.getStats().misses());
+		assertEquals(1, handles.getStats().size());
+	}
+
+	@Test
+	public void testReleasesArguments() throws InterruptedException {
+		Dataset dataset = dataset(3);
+		final WeakReference<Dataset> ref = new WeakReference<>(dataset);
+		handles.run("stats.mean", dataset);
+		handles.run("stats.mean", dataset);
+		assertEquals(1, handles.getStats().size());
+
+		// NB: The cached handle must not keep its last argument reachable.
+		dataset = null;
+		for (int i = 0; i < 20 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(ref.get());
+	}
+
+	// -- Helper methods --
+
+	private Dataset dataset(final double value) {
+		final Dataset dataset = datasetService.create(new long[] { 4, 4 },
+			"test", new AxisType[] { Axes.X, Axes.Y }, 8, false, false);
+		for (final RealType<?> t : dataset) {
+			t.setReal(value);
+		}
+		return dataset;
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.opcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Tests {@link DefaultOpMemoService}.
+ */
+public class OpMemoServiceTest {
+
+	private Context context;
+	private OpMemoService memo;
+	private Dataset dataset;
+
+	@Before
+	public void setUp() {
+		context = new Context(OpMemoService.class, DatasetService.class);
+		memo = context.service(OpMemoService.class);
+		dataset = context.service(DatasetService.class).create(new long[] { 8,
+			8 }, "test", new AxisType[] { Axes.X, Axes.Y }, 8, false, false);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testNotDeterministic() {
+		final Object a = memo.run("stats.mean", dataset);
+		final Object b = memo.run("stats.mean", dataset);
+		assertNotSame(a, b);
+		assertEquals(0, memo.getStats().hits());
+		assertEquals(0, memo.getStats().misses());
+	}
+
+	@Test
+	public void testMemoized() {
+		memo.setDeterministic("stats.mean", true);
+		final Object a = memo.run("stats.mean", dataset);
+		assertSame(a, memo.run("stats.mean", dataset));
+		assertEquals(1, memo.getStats().hits());
+		assertEquals(1, memo.getStats().misses());
+		assertEquals(1, memo.getStats().size());
+
+		memo.setDeterministic("math.add", true);
+		assertEquals(3.0, memo.run("math.add", 1.0, 2.0));
+		assertEquals(3.0, memo.run("math.add", 1.0, 2.0));
+		assertEquals(2, memo.getStats().hits());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testMutatedImage() {
+		memo.setDeterministic("create.img", true);
+		final Img<? extends RealType<?>> a = (Img<? extends RealType<?>>) memo
+			.run("create.img", dataset);
+		a.firstElement().setReal(5);
+		final Img<? extends RealType<?>> b = (Img<? extends RealType<?>>) memo
+			.run("create.img", dataset);
+		assertEquals(1, memo.getStats().hits());
+		assertNotSame(a, b);
+		assertEquals(0, b.firstElement().getRealDouble(), 0);
+
+		b.firstElement().setReal(7);
+		final Img<? extends RealType<?>> c = (Img<? extends RealType<?>>) memo
+			.run("create.img", dataset);
+		assertEquals(0, c.firstElement().getRealDouble(), 0);
+	}
+
+	@Test
+	public void testInvalidatedByUpdate() {
+		memo.setDeterministic("stats.mean", true);
+		final Object a = memo.run("stats.mean", dataset);
+		dataset.update();
+		assertNotSame(a, memo.run("stats.mean", dataset));
+		assertEquals(1, memo.getStats().invalidations());
+		assertEquals(2, memo.getStats().misses());
+	}
+
+	@Test
+	public void testEviction() {
+		memo.setDeterministic("math.add", true);
+		memo.setMaxEntries(2);
+		memo.run("math.add", 1.0, 1.0);
+		memo.run("math.add", 1.0, 2.0);
+		memo.run("math.add", 1.0, 1.0);
+		memo.run("math.add", 1.0, 3.0);
+		assertEquals(1, memo.getStats().evictions());
+		memo.run("math.add", 1.0, 1.0);
+		assertEquals(2, memo.getStats().hits());
+		memo.run("math.add", 1.0, 2.0);
+		assertEquals(2, memo.getStats().hits());
+	}
+
+}
@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.parallel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import net.imagej.ops.OpService;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.neighborhood.RectangleShape;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Tests {@link DefaultParallelOpService}.
+ */
+public class ParallelOpServiceTest {
+
+	private Context context;
+	private ParallelOpService parallel;
+
+	@Before
+	public void setUp() {
+		context = new Context(ParallelOpService.class);
+		parallel = context.service(ParallelOpService.class);
+		parallel.setParallelism(4);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testChunksCoverInterval() {
+		final Interval interval = new FinalInterval(new long[] { -3, 0, 5 },
+			new long[] { 96, 49, 11 });
+		for (final long chunkSize : new long[] { 1, 70, 1000, 5000, 1 << 20 }) {
+			final List<Interval> chunks = parallel.chunks(interval, chunkSize);
+			final int[] hits = new int[100 * 50 * 7];
+			for (final Interval chunk : chunks) {
+				assertTrue(size(chunk) <= Math.max(chunkSize, 100));
+				for (long z = chunk.min(2); z <= chunk.max(2); z++) {
+					for (long y = chunk.min(1); y <= chunk.max(1); y++) {
+						for (long x = chunk.min(0); x <= chunk.max(0); x++) {
+							hits[(int) ((z - 5) * 5000 + y * 100 + x + 3)]++;
+						}
+					}
+				}
+			}
+			for (final int h : hits) {
+				assertEquals(1, h);
+			}
+		}
+	}
+
+	@Test
+	public void testMap() {
+		final ArrayImg<FloatType, FloatArray> in = image(700, 500);
+		final ArrayImg<FloatType, FloatArray> serial = ArrayImgs.floats(700, 500);
+		final ArrayImg<FloatType, FloatArray> out = ArrayImgs.floats(700, 500);
+		final Cursor<FloatType> ci = in.cursor(), cs = serial.cursor();
+		while (ci.hasNext()) {
+			square(ci.next(), cs.next());
+		}
+		parallel.map(in, out, ParallelOpServiceTest::square);
+		assertArrayEquals(serial.update(null).getCurrentStorageArray(), out
+			.update(null).getCurrentStorageArray(), 0);
+	}
+
+	@Test
+	public void testNeighborhood() {
+		final ArrayImg<FloatType, FloatArray> in = image(700, 500);
+		final ArrayImg<FloatType, FloatArray> serial = ArrayImgs.floats(700, 500);
+		final ArrayImg<FloatType, FloatArray> out = ArrayImgs.floats(700, 500);
+		boxMean(in, serial);
+		parallel.neighborhood(in, out, new long[] { 2, 2 },
+			ParallelOpServiceTest::boxMean);
+		assertArrayEquals(serial.update(null).getCurrentStorageArray(), out
+			.update(null).getCurrentStorageArray(), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNeighborhoodMismatch() {
+		parallel.neighborhood(image(700, 500), ArrayImgs.floats(700, 400),
+			new long[] { 2, 2 }, ParallelOpServiceTest::boxMean);
+	}
+
+	@Test
+	public void testRun() {
+		final ArrayImg<FloatType, FloatArray> in = image(700, 500);
+		final ArrayImg<FloatType, FloatArray> serial = ArrayImgs.floats(700, 500);
+		final ArrayImg<FloatType, FloatArray> out = ArrayImgs.floats(700, 500);
+		final RectangleShape shape = new RectangleShape(2, false);
+		context.service(OpService.class).run("filter.mean", serial, in, shape);
+		parallel.run("filter.mean", out, in, new long[] { 2, 2 }, shape);
+		assertArrayEquals(serial.update(null).getCurrentStorageArray(), out
+			.update(null).getCurrentStorageArray(), 0);
+	}
+
+	// -- Helper methods --
+
+	private static ArrayImg<FloatType, FloatArray> image(final long... dims) {
+		final ArrayImg<FloatType, FloatArray> image = ArrayImgs.floats(dims);
+		int i = 0;
+		for (final FloatType t : image) {
+			t.set((float) Math.sin(i++ * 0.37) * 1000);
+		}
+		return image;
+	}
+
+	private static void square(final FloatType in, final FloatType out) {
+		out.set(in.get() * in.get() / 3);
+	}
+
+	/** Averages 5x5 neighborhoods, mirroring the input at its borders. */
+	private static void boxMean(final RandomAccessibleInterval<FloatType> in,
+		final RandomAccessibleInterval<FloatType> out)
+	{
+		final RandomAccessible<FloatType> extended = Views.extendMirrorSingle(in);
+		final RandomAccess<FloatType> ra = extended.randomAccess();
+		final Cursor<FloatType> cursor = Views.flatIterable(out).localizingCursor();
+		final long[] pos = new long[2];
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			float sum = 0;
+			for (long dy = -2; dy <= 2; dy++) {
+				for (long dx = -2; dx <= 2; dx++) {
+					ra.setPosition(new long[] { pos[0] + dx, pos[1] + dy });
+					sum += ra.get().get();
+				}
+			}
+			cursor.get().set(sum / 25);
+		}
+	}
+
+	private static long size(final Interval interval) {
+		long size = 1;
+		for (int d = 0; d < interval.numDimensions(); d++) {
+			size *= interval.dimension(d);
+		}
+		return size;
+	}
+
+}
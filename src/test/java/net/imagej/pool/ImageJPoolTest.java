@@ -0,0 +1,164 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.opcache.OpMemoService;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests {@link ImageJPool}.
+ */
+public class ImageJPoolTest {
+
+	private ImageJPool pool;
+
+	@After
+	public void tearDown() {
+		if (pool != null) pool.close();
+	}
+
+	@Test
+	public void testFork() throws InterruptedException {
+		pool = new ImageJPool(2);
+		final ImageJ a = pool.acquire();
+		final ImageJ b = pool.acquire();
+		assertNotSame(a, b);
+		assertNotSame(a.getContext(), b.getContext());
+		assertEquals(a.getContext().getPluginIndex().getAll(), b.getContext()
+			.getPluginIndex().getAll());
+		assertEquals(a.getContext().getServiceIndex().size(), b.getContext()
+			.getServiceIndex().size());
+		pool.release(a);
+		pool.release(b);
+	}
+
+	@Test
+	public void testForkKeepsPluginIndex() throws InterruptedException {
+		final ImageJ template = new ImageJ();
+		final int plugins = template.getContext().getPluginIndex().getAll()
+			.size();
+		pool = new ImageJPool(template, 3);
+		final ImageJ a = pool.acquire();
+		final ImageJ b = pool.acquire();
+		final ImageJ c = pool.acquire();
+		assertEquals(plugins, template.getContext().getPluginIndex().getAll()
+			.size());
+		assertEquals(plugins, c.getContext().getPluginIndex().getAll().size());
+		pool.release(a);
+		pool.release(b);
+		pool.release(c);
+	}
+
+	@Test
+	public void testReset() throws InterruptedException {
+		pool = new ImageJPool(1);
+		final ImageJ ij = pool.acquire();
+		final Dataset dataset = ij.dataset().create(new long[] { 2, 2 }, "test",
+			new AxisType[] { Axes.X, Axes.Y }, 8, false, false);
+		ij.object().addObject(dataset);
+		assertEquals(1, ij.object().getObjects(Dataset.class).size());
+		final OpMemoService memo = ij.context().service(OpMemoService.class);
+		memo.setDeterministic("math.add", true);
+		memo.run("math.add", 1.0, 2.0);
+		assertEquals(1, memo.getStats().size());
+		pool.release(ij);
+
+		assertSame(ij, pool.acquire());
+		assertTrue(ij.object().getObjects(Dataset.class).isEmpty());
+		assertEquals(0, memo.getStats().size());
+		pool.release(ij);
+	}
+
+	@Test
+	public void testReleaseTwice() throws Exception {
+		pool = new ImageJPool(2);
+		final ImageJ ij = pool.acquire();
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger failures = new AtomicInteger();
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				try {
+					start.await();
+					pool.release(ij);
+				}
+				catch (final IllegalArgumentException exc) {
+					failures.incrementAndGet();
+				}
+				catch (final InterruptedException exc) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(threads.length - 1, failures.get());
+
+		// NB: The gateway is idle once, so a second acquisition forks another.
+		final ImageJ a = pool.acquire();
+		final ImageJ b = pool.acquire();
+		assertSame(ij, a);
+		assertNotSame(a, b);
+		pool.release(a);
+		pool.release(b);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReleaseForeign() {
+		pool = new ImageJPool(1);
+		final ImageJ foreign = new ImageJ();
+		try {
+			pool.release(foreign);
+		}
+		finally {
+			foreign.getContext().dispose();
+		}
+	}
+
+}
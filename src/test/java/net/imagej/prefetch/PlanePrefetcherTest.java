@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.prefetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link PlanePrefetcher}.
+ */
+public class PlanePrefetcherTest {
+
+	private ExecutorService executor;
+	private CountDownLatch gate;
+	private List<Long> loaded;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadExecutor();
+		loaded = new CopyOnWriteArrayList<>();
+
+		// NB: Hold the executor until released, so that loads stay queued.
+		gate = new CountDownLatch(1);
+		executor.submit(() -> {
+			gate.await();
+			return null;
+		});
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testLoadsAhead() throws InterruptedException {
+		final PlanePrefetcher prefetcher = prefetcher(20, 3, false);
+		prefetcher.moveTo(5);
+		assertEquals(set(6, 7, 8), prefetcher.getScheduled());
+		prefetcher.moveTo(6);
+		assertEquals(set(6, 7, 8, 9), prefetcher.getScheduled());
+		assertEquals(Arrays.asList(6L, 7L, 8L, 9L), drain());
+	}
+
+	@Test
+	public void testDropsStaleLoads() throws InterruptedException {
+		final PlanePrefetcher prefetcher = prefetcher(20, 3, false);
+		prefetcher.moveTo(5);
+		prefetcher.moveTo(4);
+		assertEquals(set(1, 2, 3), prefetcher.getScheduled());
+		prefetcher.moveTo(15);
+		assertEquals(set(16, 17, 18), prefetcher.getScheduled());
+		assertEquals(Arrays.asList(16L, 17L, 18L), drain());
+	}
+
+	@Test
+	public void testStopsAtEnd() throws InterruptedException {
+		final PlanePrefetcher prefetcher = prefetcher(20, 3, false);
+		prefetcher.moveTo(3);
+		prefetcher.moveTo(2);
+		prefetcher.moveTo(1);
+		assertEquals(set(0, 1), prefetcher.getScheduled());
+		assertEquals(Arrays.asList(0L, 1L), drain());
+	}
+
+	@Test
+	public void testWraps() throws InterruptedException {
+		final PlanePrefetcher prefetcher = prefetcher(10, 3, true);
+		prefetcher.moveTo(8);
+		assertEquals(set(9, 0, 1), prefetcher.getScheduled());
+		prefetcher.moveTo(9);
+		prefetcher.moveTo(0);
+		assertEquals(set(0, 1, 2, 3), prefetcher.getScheduled());
+		prefetcher.moveTo(9);
+		assertEquals(set(8, 7, 6), prefetcher.getScheduled());
+		assertEquals(Arrays.asList(6L, 7L, 8L), drain());
+	}
+
+	@Test
+	public void testDepthLimitedByLength() {
+		final PlanePrefetcher prefetcher = prefetcher(3, 8, true);
+		prefetcher.moveTo(1);
+		assertEquals(set(2, 0), prefetcher.getScheduled());
+	}
+
+	@Test
+	public void testClose() throws InterruptedException {
+		final PlanePrefetcher prefetcher = prefetcher(20, 3, false);
+		prefetcher.moveTo(5);
+		prefetcher.close();
+		assertTrue(prefetcher.getScheduled().isEmpty());
+		assertTrue(drain().isEmpty());
+	}
+
+	// -- Helper methods --
+
+	private PlanePrefetcher prefetcher(final long length, final int depth,
+		final boolean wrap)
+	{
+		return new PlanePrefetcher(loaded::add, length, depth, wrap, executor);
+	}
+
+	/** Lets the queued loads run, and gets the positions which were loaded. */
+	private List<Long> drain() throws InterruptedException {
+		gate.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		loaded.sort(null);
+		return loaded;
+	}
+
+	private static Set<Long> set(final long... positions) {
+		final Set<Long> set = new TreeSet<>();
+		for (final long p : positions) {
+			set.add(p);
+		}
+		return set;
+	}
+
+}
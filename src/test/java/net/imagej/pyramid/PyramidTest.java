@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.pyramid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.imagej.cache.BlockCache;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Pyramid}.
+ */
+public class PyramidTest {
+
+	@Test
+	public void testLevels() {
+		final Pyramid<FloatType> pyramid = pyramid(image(1000, 600, 2),
+			new BlockCache(1 << 24, 0, BlockCache.Policy.LRU));
+		assertEquals(3, pyramid.getLevelCount());
+		assertDimensions(pyramid.getLevel(0), 1000, 600, 2);
+		assertDimensions(pyramid.getLevel(1), 500, 300, 2);
+		assertDimensions(pyramid.getLevel(2), 250, 150, 2);
+	}
+
+	@Test
+	public void testOddDimensions() {
+		final Pyramid<FloatType> pyramid = pyramid(image(511, 3, 1),
+			new BlockCache(1 << 24, 0, BlockCache.Policy.LRU));
+		assertEquals(2, pyramid.getLevelCount());
+		assertDimensions(pyramid.getLevel(1), 256, 2, 1);
+
+		// NB: The last column and row average the pixels that exist.
+		final RandomAccess<FloatType> ra = pyramid.getLevel(1).randomAccess();
+		ra.setPosition(new long[] { 255, 1, 0 });
+		assertEquals(value(510, 2, 0), ra.get().get(), 0);
+	}
+
+	@Test
+	public void testAverages() {
+		final BlockCache cache = new BlockCache(1 << 24, 0,
+			BlockCache.Policy.LRU);
+		final Pyramid<FloatType> pyramid = pyramid(image(1000, 600, 2), cache);
+		for (final int level : new int[] { 1, 2 }) {
+			final int scale = 1 << level;
+			final RandomAccess<FloatType> ra = pyramid.getLevel(level)
+				.randomAccess();
+			for (final long[] p : new long[][] { { 0, 0, 0 }, { 7, 3, 1 }, {
+				1000 / scale - 1, 600 / scale - 1, 1 } })
+			{
+				ra.setPosition(p);
+				double sum = 0;
+				for (int y = 0; y < scale; y++) {
+					for (int x = 0; x < scale; x++) {
+						sum += value(p[0] * scale + x, p[1] * scale + y, p[2]);
+					}
+				}
+				assertEquals(sum / (scale * scale), ra.get().get(), 1e-3);
+			}
+		}
+		assertTrue(cache.getStats().heapBlocks() > 0);
+	}
+
+	@Test
+	public void testLevelFor() {
+		final Pyramid<FloatType> pyramid = pyramid(image(2000, 2000, 1),
+			new BlockCache(1 << 24, 0, BlockCache.Policy.LRU));
+		assertEquals(4, pyramid.getLevelCount());
+		assertEquals(0, pyramid.levelFor(4));
+		assertEquals(0, pyramid.levelFor(1));
+		assertEquals(0, pyramid.levelFor(0.75));
+		assertEquals(1, pyramid.levelFor(0.5));
+		assertEquals(1, pyramid.levelFor(0.3));
+		assertEquals(2, pyramid.levelFor(0.25));
+		assertEquals(3, pyramid.levelFor(0.01));
+	}
+
+	// -- Helper methods --
+
+	private static Pyramid<FloatType> pyramid(
+		final RandomAccessibleInterval<FloatType> image, final BlockCache cache)
+	{
+		return new Pyramid<>(image, 0, 1, cache, "test");
+	}
+
+	private static ArrayImg<FloatType, FloatArray> image(final long... dims) {
+		final ArrayImg<FloatType, FloatArray> image = ArrayImgs.floats(dims);
+		final long[] pos = new long[dims.length];
+		for (final Cursor<FloatType> c = image.localizingCursor(); c
+			.hasNext();)
+		{
+			c.fwd();
+			c.localize(pos);
+			c.get().set(value(pos[0], pos[1], pos[2]));
+		}
+		return image;
+	}
+
+	private static float value(final long x, final long y, final long z) {
+		return (x * 7 + y * 13 + z * 1000) % 256;
+	}
+
+	private static void assertDimensions(
+		final RandomAccessibleInterval<?> image, final long... dims)
+	{
+		for (int d = 0; d < dims.length; d++) {
+			assertEquals(dims[d], image.dimension(d));
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.rawio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.Context;
+
+/**
+ * Tests {@link DefaultRawIOService}.
+ */
+public class RawIOServiceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Context context;
+	private RawIOService rawIOService;
+	private DatasetIOService datasetIOService;
+
+	@Before
+	public void setUp() {
+		context = new Context(RawIOService.class);
+		rawIOService = context.service(RawIOService.class);
+		datasetIOService = context.service(DatasetIOService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	/** Tests that an ImageJ hyperstack opens as it does via SCIFIO. */
+	@Test
+	public void testHyperstack() throws IOException {
+		final File file = folder.newFile("hyperstack.tif");
+		Files.write(file.toPath(), RawPlanesTest.imagejTiff(ByteOrder.BIG_ENDIAN,
+			4, 5, 6, "ImageJ=1.53t\nimages=6\nchannels=2\nframes=3\n" +
+				"hyperstack=true\nmode=composite\nloop=false\n", false));
+		final String path = file.getAbsolutePath();
+		assertTrue(rawIOService.getLayout(path) != null);
+
+		final Dataset raw = rawIOService.open(path);
+		final Dataset expected = datasetIOService.open(path);
+		assertArrayEquals(new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL,
+			Axes.TIME }, axes(raw));
+		assertEquals(expected.numDimensions(), raw.numDimensions());
+		final int[] indices = new int[raw.numDimensions()];
+		for (int d = 0; d < indices.length; d++) {
+			indices[d] = expected.dimensionIndex(raw.axis(d).type());
+			assertTrue(indices[d] >= 0);
+			assertEquals(expected.dimension(indices[d]), raw.dimension(d));
+		}
+
+		final Cursor<? extends RealType<?>> cursor = raw.localizingCursor();
+		final RandomAccess<? extends RealType<?>> access = expected
+			.randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			for (int d = 0; d < indices.length; d++) {
+				access.setPosition(cursor.getLongPosition(d), indices[d]);
+			}
+			assertEquals(access.get().getRealDouble(), cursor.get()
+				.getRealDouble(), 0);
+		}
+	}
+
+	// -- Helper methods --
+
+	private static AxisType[] axes(final Dataset dataset) {
+		final AxisType[] axes = new AxisType[dataset.numDimensions()];
+		for (int d = 0; d < axes.length; d++) {
+			axes[d] = dataset.axis(d).type();
+		}
+		return axes;
+	}
+
+}
@@ -0,0 +1,325 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.rawio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link RawPlanes} and {@link TiffLayouts}.
+ */
+public class RawPlanesTest {
+
+	private static final int ASCII = 2;
+	private static final int SHORT = 3;
+	private static final int LONG = 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testTiff() throws IOException {
+		for (final ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN,
+			ByteOrder.BIG_ENDIAN })
+		{
+			final File file = write(tiff(order, 4, 5, 3, 1));
+			try (final FileChannel channel = open(file)) {
+				final RawLayout layout = TiffLayouts.read(channel);
+				assertArrayEquals(new long[] { 4, 5, 3 }, layout.getDims());
+				assertEquals(16, layout.getBitsPerPixel());
+				assertFalse(layout.isSigned());
+				assertFalse(layout.isFloating());
+				assertEquals(order, layout.getOrder());
+				assertEquals(3, layout.getPlaneCount());
+
+				final short[] pixels = new short[2 + 3 * 20];
+				for (int p = 0; p < 3; p++) {
+					RawPlanes.read(channel, layout, p, pixels, 2 + 20 * p);
+				}
+				for (int i = 0; i < 60; i++) {
+					assertEquals(1000 * (i / 20) + i % 20, pixels[2 + i]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCompressedTiff() throws IOException {
+		try (final FileChannel channel = open(write(tiff(ByteOrder.BIG_ENDIAN, 4,
+			5, 2, 5))))
+		{
+			assertNull(TiffLayouts.read(channel));
+		}
+		try (final FileChannel channel = open(write(new byte[] { 'G', 'I', 'F',
+			'8', '9', 'a', 0, 0 })))
+		{
+			assertNull(TiffLayouts.read(channel));
+		}
+	}
+
+	@Test
+	public void testImageJTiff() throws IOException {
+		final File file = write(imagejTiff(ByteOrder.BIG_ENDIAN, 4, 5, 6,
+			"ImageJ=1.53t\nimages=6\nchannels=2\nframes=3\nhyperstack=true\n" +
+				"mode=composite\nloop=false\n", false));
+		try (final FileChannel channel = open(file)) {
+			final RawLayout layout = TiffLayouts.read(channel);
+			assertArrayEquals(new long[] { 4, 5, 2, 3 }, layout.getDims());
+			assertArrayEquals(new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL,
+				Axes.TIME }, layout.getAxes());
+			assertEquals(6, layout.getPlaneCount());
+			final short[] plane = new short[20];
+			RawPlanes.read(channel, layout, 3, plane, 0);
+			for (int i = 0; i < 20; i++) {
+				assertEquals(3000 + i, plane[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testLargeImageJTiff() throws IOException {
+		// NB: ImageJ writes stacks larger than 4 GiB with a single IFD.
+		final File file = write(imagejTiff(ByteOrder.LITTLE_ENDIAN, 4, 5, 4,
+			"ImageJ=1.53t\nimages=4\nslices=4\nloop=false\n", true));
+		try (final FileChannel channel = open(file)) {
+			final RawLayout layout = TiffLayouts.read(channel);
+			assertArrayEquals(new long[] { 4, 5, 4 }, layout.getDims());
+			assertArrayEquals(new AxisType[] { Axes.X, Axes.Y, Axes.Z }, layout
+				.getAxes());
+			final short[] plane = new short[20];
+			RawPlanes.read(channel, layout, 3, plane, 0);
+			for (int i = 0; i < 20; i++) {
+				assertEquals(3000 + i, plane[i]);
+			}
+		}
+		// NB: A single IFD claiming more planes than the file holds.
+		final byte[] truncated = imagejTiff(ByteOrder.LITTLE_ENDIAN, 4, 5, 4,
+			"ImageJ=1.53t\nimages=40\nslices=40\n", true);
+		try (final FileChannel channel = open(write(truncated))) {
+			assertNull(TiffLayouts.read(channel));
+		}
+	}
+
+	@Test
+	public void testUnknownImageJDescription() throws IOException {
+		final String[] descriptions = {
+			"ImageJ=1.53t\nimages=6\nchannels=2\nframes=3\nunit=micron\n" +
+				"spacing=0.5\n",
+			"ImageJ=1.53t\nimages=6\nchannels=4\nframes=3\n",
+			"ImageJ=1.53t\nimages=5\n",
+			"<?xml version=\"1.0\"?><OME/>" };
+		for (final String description : descriptions) {
+			final File file = write(imagejTiff(ByteOrder.BIG_ENDIAN, 4, 5, 6,
+				description, false));
+			try (final FileChannel channel = open(file)) {
+				assertNull(description, TiffLayouts.read(channel));
+			}
+		}
+		final File file = write(imagejTiff(ByteOrder.BIG_ENDIAN, 4, 5, 6,
+			"Created by some other program", false));
+		try (final FileChannel channel = open(file)) {
+			assertArrayEquals(new long[] { 4, 5, 6 }, TiffLayouts.read(channel)
+				.getDims());
+		}
+	}
+
+	@Test
+	public void testRaw() throws IOException {
+		final ByteBuffer data = ByteBuffer.allocate(16 + 2 * 6 * 4);
+		data.position(16);
+		for (int i = 0; i < 12; i++) {
+			data.putFloat(i / 4f);
+		}
+		final File file = write(data.array());
+		final RawLayout layout = new RawLayout(new long[] { 3, 2, 2 }, 32, true,
+			true, ByteOrder.BIG_ENDIAN, 16);
+		assertEquals(16 + 24, layout.getPlaneOffset(1));
+
+		try (final FileChannel channel = open(file)) {
+			final float[] plane = new float[6];
+			RawPlanes.read(channel, layout, 1, plane, 0);
+			for (int i = 0; i < 6; i++) {
+				assertEquals((6 + i) / 4f, plane[i], 0);
+			}
+			try {
+				RawPlanes.read(channel, layout, 0, new int[6], 0);
+				fail("Read floats into int[]");
+			}
+			catch (final IllegalArgumentException exc) {
+				// NB: Expected.
+			}
+			final RawLayout tooLong = new RawLayout(new long[] { 3, 2, 3 }, 32,
+				true, true, ByteOrder.BIG_ENDIAN, 16);
+			try {
+				RawPlanes.read(channel, tooLong, 2, plane, 0);
+				fail("Read past end of file");
+			}
+			catch (final IOException exc) {
+				// NB: Expected.
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLayout() {
+		new RawLayout(new long[] { 3, 2 }, 16, true, true, ByteOrder.BIG_ENDIAN,
+			0);
+	}
+
+	// -- Helper methods --
+
+	private File write(final byte[] bytes) throws IOException {
+		final File file = new File(folder.getRoot(), "image" + folder.getRoot()
+			.list().length + ".tif");
+		Files.write(file.toPath(), bytes);
+		return file;
+	}
+
+	private static FileChannel open(final File file) throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Creates a 16-bit TIFF file, with two rows per strip; pixel values are
+	 * 1000 times the plane index plus the pixel's index within the plane.
+	 */
+	private static byte[] tiff(final ByteOrder order, final int width,
+		final int height, final int planes, final int compression)
+	{
+		final ByteBuffer tiff = ByteBuffer.allocate(1 << 16).order(order);
+		final byte magic = (byte) (order == ByteOrder.BIG_ENDIAN ? 'M' : 'I');
+		tiff.put(magic).put(magic).putShort((short) 42).putInt(0);
+		int next = 4;
+		for (int p = 0; p < planes; p++) {
+			final int data = tiff.position();
+			for (int i = 0; i < width * height; i++) {
+				tiff.putShort((short) (1000 * p + i));
+			}
+			final int strips = (height + 1) / 2;
+			final int ifd = tiff.position();
+			final int arrays = ifd + 2 + 8 * 12 + 4;
+			tiff.putInt(next, ifd);
+			tiff.putShort((short) 8);
+			entry(tiff, 256, LONG, 1, width);
+			entry(tiff, 257, LONG, 1, height);
+			entry(tiff, 258, SHORT, 1, 16);
+			entry(tiff, 259, SHORT, 1, compression);
+			entry(tiff, 273, LONG, strips, arrays);
+			entry(tiff, 277, SHORT, 1, 1);
+			entry(tiff, 278, LONG, 1, 2);
+			entry(tiff, 279, LONG, strips, arrays + 4 * strips);
+			next = tiff.position();
+			tiff.putInt(0);
+			for (int s = 0; s < strips; s++) {
+				tiff.putInt(data + 4 * width * s);
+			}
+			for (int s = 0; s < strips; s++) {
+				tiff.putInt(2 * width * Math.min(2, height - 2 * s));
+			}
+		}
+		return Arrays.copyOf(tiff.array(), tiff.position());
+	}
+
+	/**
+	 * Creates a 16-bit TIFF file, with one strip per plane and the given image
+	 * description, as written by ImageJ; pixel values are 1000 times the plane
+	 * index plus the pixel's index within the plane. If {@code singleIfd} is
+	 * set, only the first plane has an IFD, as in stacks larger than 4 GiB.
+	 */
+	static byte[] imagejTiff(final ByteOrder order, final int width,
+		final int height, final int planes, final String description,
+		final boolean singleIfd)
+	{
+		final ByteBuffer tiff = ByteBuffer.allocate(1 << 16).order(order);
+		final byte magic = (byte) (order == ByteOrder.BIG_ENDIAN ? 'M' : 'I');
+		tiff.put(magic).put(magic).putShort((short) 42).putInt(0);
+		final byte[] text = description.getBytes(StandardCharsets.US_ASCII);
+		final int textOffset = tiff.position();
+		tiff.put(text).put((byte) 0);
+		if (tiff.position() % 2 != 0) tiff.put((byte) 0);
+		final int[] data = new int[planes];
+		for (int p = 0; p < planes; p++) {
+			data[p] = tiff.position();
+			for (int i = 0; i < width * height; i++) {
+				tiff.putShort((short) (1000 * p + i));
+			}
+		}
+		int next = 4;
+		for (int p = 0; p < (singleIfd ? 1 : planes); p++) {
+			final int ifd = tiff.position();
+			tiff.putInt(next, ifd);
+			tiff.putShort((short) (p == 0 ? 9 : 8));
+			entry(tiff, 256, LONG, 1, width);
+			entry(tiff, 257, LONG, 1, height);
+			entry(tiff, 258, SHORT, 1, 16);
+			entry(tiff, 259, SHORT, 1, 1);
+			if (p == 0) entry(tiff, 270, ASCII, text.length + 1, textOffset);
+			entry(tiff, 273, LONG, 1, data[p]);
+			entry(tiff, 277, SHORT, 1, 1);
+			entry(tiff, 278, LONG, 1, height);
+			entry(tiff, 279, LONG, 1, 2 * width * height);
+			next = tiff.position();
+			tiff.putInt(0);
+		}
+		return Arrays.copyOf(tiff.array(), tiff.position());
+	}
+
+	private static void entry(final ByteBuffer tiff, final int tag,
+		final int type, final int count, final int value)
+	{
+		tiff.putShort((short) tag).putShort((short) type).putInt(count);
+		if (type == SHORT && count == 1) tiff.putShort((short) value).putShort(
+			(short) 0);
+		else tiff.putInt(value);
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.Context;
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Tests {@link ImageJServer}.
+ */
+public class ImageJServerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Context context;
+	private ImageJServer server;
+	private Thread serverThread;
+
+	@Before
+	public void setUp() throws IOException {
+		context = new Context();
+		server = new ImageJServer(context, 0);
+		serverThread = new Thread(server);
+		serverThread.start();
+	}
+
+	@After
+	public void tearDown() throws IOException, InterruptedException {
+		server.close();
+		serverThread.join();
+		context.dispose();
+	}
+
+	@Test
+	public void testPing() throws IOException {
+		assertEquals(lines("DONE"), send("PING\n\n"));
+	}
+
+	@Test
+	public void testCommand() throws IOException {
+		final List<String> response = send("COMMAND " + Greet.class.getName() +
+			"\nname=World\n\n");
+		assertEquals(lines("OUTPUT greeting=Hello, World", "DONE"), response);
+	}
+
+	@Test
+	public void testInvalidRequest() throws IOException {
+		final List<String> response = send("FROBNICATE\n\n");
+		assertEquals(1, response.size());
+		assertTrue(response.get(0).startsWith("FAILED "));
+	}
+
+	@Test
+	public void testShutdown() throws IOException, InterruptedException {
+		assertEquals(lines("DONE"), send("SHUTDOWN\n\n"));
+		serverThread.join(10000);
+		assertTrue(server.isClosed());
+	}
+
+	@Test
+	public void testUnauthorized() throws IOException, InterruptedException {
+		assertEquals(lines("FAILED Unauthorized"), sendRaw("PING\n\n"));
+		assertEquals(lines("FAILED Unauthorized"), sendRaw("0123456789abcdef\n" +
+			"SHUTDOWN\n\n"));
+		assertEquals(lines("FAILED Unauthorized"), sendRaw("COMMAND " + Greet.class
+			.getName() + "\nname=World\n\n"));
+		assertFalse(server.isClosed());
+	}
+
+	@Test
+	public void testTokenFile() throws IOException {
+		final String home = System.getProperty("user.home");
+		System.setProperty("user.home", folder.getRoot().getAbsolutePath());
+		try {
+			final File file = server.writeToken();
+			assertEquals(ImageJServer.getTokenFile(server.getPort()), file);
+			assertEquals(server.getToken(), new String(Files.readAllBytes(file
+				.toPath()), StandardCharsets.UTF_8));
+			try {
+				assertEquals("rw-------", PosixFilePermissions.toString(Files
+					.getPosixFilePermissions(file.toPath())));
+			}
+			catch (final UnsupportedOperationException exc) {
+				// NB: Not a POSIX file system.
+			}
+			server.close();
+			assertFalse(file.exists());
+		}
+		finally {
+			System.setProperty("user.home", home);
+		}
+	}
+
+	// -- Helper methods --
+
+	private List<String> send(final String request) throws IOException {
+		return sendRaw(server.getToken() + "\n" + request);
+	}
+
+	private List<String> sendRaw(final String request) throws IOException {
+		try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+			server.getPort()))
+		{
+			final OutputStream out = socket.getOutputStream();
+			out.write(request.getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			socket.shutdownOutput();
+			final BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream(), StandardCharsets.UTF_8));
+			final List<String> lines = new ArrayList<>();
+			while (true) {
+				final String line = in.readLine();
+				if (line == null) break;
+				lines.add(line);
+			}
+			return lines;
+		}
+	}
+
+	private static List<String> lines(final String... lines) {
+		final List<String> list = new ArrayList<>();
+		for (final String line : lines) {
+			list.add(line);
+		}
+		return list;
+	}
+
+	// -- Helper classes --
+
+	/** A command which produces a greeting. */
+	@Plugin(type = Command.class)
+	public static class Greet implements Command {
+
+		@Parameter
+		private String name;
+
+		@Parameter(type = ItemIO.OUTPUT)
+		private String greeting;
+
+		@Override
+		public void run() {
+			greeting = "Hello, " + name;
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.service.Service;
+
+/**
+ * Tests {@link PluginIndexCache}.
+ */
+public class PluginIndexCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Tests that the cached index discovers the same plugins. */
+	@Test
+	public void testPluginIndex() throws IOException {
+		final PluginIndexCache cache = createCache();
+		assertFalse(cache.isValid());
+
+		final PluginIndex cached = cache.pluginIndex();
+		assertTrue(cache.isValid());
+		cached.discover();
+
+		final PluginIndex regular = new PluginIndex();
+		regular.discover();
+
+		assertFalse(cached.getPlugins(Service.class).isEmpty());
+		assertEquals(regular.getPlugins(Service.class).size(), cached.getPlugins(
+			Service.class).size());
+		assertEquals(regular.getAll().size(), cached.getAll().size());
+	}
+
+	/** Tests that an out-of-date cache file is rebuilt. */
+	@Test
+	public void testStale() throws IOException {
+		final PluginIndexCache cache = createCache();
+		try (final OutputStream out = new FileOutputStream(cache.getFile())) {
+			out.write("imagej-plugin-index 1\nbogus\n".getBytes("UTF-8"));
+		}
+		assertFalse(cache.isValid());
+		cache.pluginIndex();
+		assertTrue(cache.isValid());
+	}
+
+	private PluginIndexCache createCache() throws IOException {
+		final File file = new File(folder.newFolder(), "plugins.cache");
+		return new PluginIndexCache(file, Thread.currentThread()
+			.getContextClassLoader());
+	}
+
+}
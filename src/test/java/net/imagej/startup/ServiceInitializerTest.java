@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.event.EventHandler;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.service.event.ServicesLoadedEvent;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tests {@link ServiceInitializer}.
+ */
+public class ServiceInitializerTest {
+
+	private Context context;
+
+	@After
+	public void tearDown() {
+		if (context != null) context.dispose();
+	}
+
+	@Test
+	public void testOptionalFailure() throws InterruptedException {
+		assertOptionalFailure(1);
+	}
+
+	@Test
+	public void testOptionalFailureConcurrently() throws InterruptedException {
+		assertOptionalFailure(4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testStrictFailure() {
+		loadServices(true, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testStrictFailureConcurrently() {
+		loadServices(true, 4);
+	}
+
+	// -- Helper methods --
+
+	private void assertOptionalFailure(final int parallelism)
+		throws InterruptedException
+	{
+		loadServices(false, parallelism);
+
+		// the broken service and the service requiring it are skipped...
+		assertNull(context.getService(BrokenService.class));
+		assertNull(context.getService(DependentService.class));
+
+		// ...but the others are loaded as usual, and announced
+		assertNotNull(context.getService(ThreadService.class));
+		final ListenerService listener = //
+			context.getService(ListenerService.class);
+		assertNotNull(listener);
+		assertTrue(listener.loaded.await(10, TimeUnit.SECONDS));
+	}
+
+	private void loadServices(final boolean strict, final int parallelism) {
+		context = new Context(Collections.<Class<? extends Service>> emptyList(),
+			new PluginIndex(), strict);
+		// NB: The test services are not annotated, lest every context load them.
+		final PluginIndex pluginIndex = context.getPluginIndex();
+		pluginIndex.add(new PluginInfo<>(BrokenService.class, Service.class));
+		pluginIndex.add(new PluginInfo<>(DependentService.class, Service.class));
+		pluginIndex.add(new PluginInfo<>(ListenerService.class, Service.class));
+		new ServiceInitializer(context, null, parallelism).loadServices(Arrays
+			.<Class<? extends Service>> asList(BrokenService.class,
+				DependentService.class, ListenerService.class,
+				ThreadService.class));
+	}
+
+	// -- Helper classes --
+
+	/** A service which fails to initialize. */
+	public static class BrokenService extends AbstractService {
+
+		@Override
+		public void initialize() {
+			throw new IllegalStateException("Broken");
+		}
+	}
+
+	/** A service which requires the broken one. */
+	public static class DependentService extends AbstractService {
+
+		@Parameter
+		private BrokenService brokenService;
+	}
+
+	/** A service which waits for the services to be loaded. */
+	public static class ListenerService extends AbstractService {
+
+		private final CountDownLatch loaded = new CountDownLatch(1);
+
+		@EventHandler
+		protected void onEvent(final ServicesLoadedEvent evt) {
+			loaded.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link StartupProfiler}.
+ */
+public class StartupProfilerTest {
+
+	@Test
+	public void testNesting() {
+		final StartupProfiler profiler = new StartupProfiler();
+		final StartupProfiler.Span outer = profiler.start("service", "Outer");
+		final StartupProfiler.Span inner = profiler.start("initialize", "inner");
+		profiler.stop(inner);
+		profiler.stop(outer);
+
+		final List<StartupProfiler.Span> spans = profiler.spans();
+		assertEquals(2, spans.size());
+		assertNull(outer.parent());
+		assertSame(outer, inner.parent());
+		assertTrue(outer.duration() >= inner.duration());
+		assertEquals(outer.duration() - inner.duration(), outer.selfDuration());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testStopOutOfOrder() {
+		final StartupProfiler profiler = new StartupProfiler();
+		final StartupProfiler.Span outer = profiler.start("service", "Outer");
+		profiler.start("initialize", "inner");
+		profiler.stop(outer);
+	}
+
+	@Test
+	public void testReports() throws IOException {
+		final StartupProfiler profiler = new StartupProfiler();
+		final StartupProfiler.Span outer = profiler.start("service", "a.B");
+		final StartupProfiler.Span inner = profiler.start("initialize", "init");
+		spin();
+		profiler.stop(inner);
+		profiler.stop(outer);
+
+		final StringWriter json = new StringWriter();
+		profiler.writeJSON(json);
+		assertTrue(json.toString().contains("\"name\": \"a.B\""));
+		assertTrue(json.toString().contains("\"parent\": 0"));
+
+		final StringWriter collapsed = new StringWriter();
+		profiler.writeCollapsed(collapsed);
+		final String thread = Thread.currentThread().getName().replace(' ', '_');
+		assertTrue(collapsed.toString().contains(thread + ";a.B;init "));
+	}
+
+	/** Busy-waits so the span accumulates measurable self time. */
+	private void spin() {
+		final long end = System.nanoTime() + 2000000;
+		while (System.nanoTime() < end) {
+			// NB: Nothing to do.
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.event.DatasetUpdatedEvent;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.event.EventService;
+
+/**
+ * Tests {@link DefaultSummaryService}.
+ */
+public class SummaryServiceTest {
+
+	private static final AxisType[] AXES = { Axes.X, Axes.Y, Axes.Z };
+
+	private Context context;
+	private SummaryService summaryService;
+	private Dataset dataset;
+
+	@Before
+	public void setUp() {
+		context = new Context(SummaryService.class, DatasetService.class);
+		summaryService = context.service(SummaryService.class);
+		dataset = context.service(DatasetService.class).create(new long[] { 4, 3,
+			2 }, "test", AXES, 8, false, false);
+		// plane 0 is all ones, plane 1 all twos
+		for (long z = 0; z < 2; z++) {
+			for (long y = 0; y < 3; y++) {
+				for (long x = 0; x < 4; x++) {
+					set(x, y, z, z + 1);
+				}
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testSummaries() {
+		assertEquals(2, summaryService.getPlaneCount(dataset));
+		assertEquals(1, summaryService.getPlaneSummary(dataset, 0).getMean(), 0);
+		assertEquals(2, summaryService.getPlaneSummary(dataset, 1).getMean(), 0);
+		final Summary summary = summaryService.getSummary(dataset);
+		assertEquals(24, summary.getCount());
+		assertEquals(1.5, summary.getMean(), 0);
+	}
+
+	@Test
+	public void testPlaneCache() {
+		assertEquals(1, summaryService.getPlaneSummary(dataset, 0).getMax(), 0);
+		assertEquals(2, summaryService.getSummary(dataset).getMax(), 0);
+
+		// the cached summaries are kept until invalidated...
+		set(0, 0, 0, 13);
+		assertEquals(1, summaryService.getPlaneSummary(dataset, 0).getMax(), 0);
+		assertEquals(2, summaryService.getSummary(dataset).getMax(), 0);
+
+		// ...plane by plane
+		summaryService.invalidate(dataset, 0);
+		assertEquals(13, summaryService.getPlaneSummary(dataset, 0).getMax(), 0);
+		assertEquals(13, summaryService.getSummary(dataset).getMax(), 0);
+	}
+
+	@Test
+	public void testInvalidatePlane() {
+		assertEquals(2, summaryService.getSummary(dataset).getMax(), 0);
+		set(0, 0, 0, 13);
+		set(0, 0, 1, 17);
+
+		// only the invalidated plane is rescanned
+		summaryService.invalidate(dataset, 1);
+		assertEquals(1, summaryService.getPlaneSummary(dataset, 0).getMax(), 0);
+		assertEquals(17, summaryService.getPlaneSummary(dataset, 1).getMax(), 0);
+		assertEquals(17, summaryService.getSummary(dataset).getMax(), 0);
+	}
+
+	@Test
+	public void testUpdateEvent() {
+		assertEquals(2, summaryService.getSummary(dataset).getMax(), 0);
+		set(0, 0, 0, 13);
+		set(0, 0, 1, 17);
+		final EventService eventService = context.service(EventService.class);
+
+		// metadata changes keep the summaries...
+		eventService.publish(new DatasetUpdatedEvent(dataset, true));
+		assertEquals(2, summaryService.getSummary(dataset).getMax(), 0);
+
+		// ...but data changes discard those of all planes
+		eventService.publish(new DatasetUpdatedEvent(dataset, false));
+		assertEquals(13, summaryService.getPlaneSummary(dataset, 0).getMax(), 0);
+		assertEquals(17, summaryService.getPlaneSummary(dataset, 1).getMax(), 0);
+	}
+
+	@Test
+	public void testRestructure() {
+		assertEquals(1.5, summaryService.getSummary(dataset).getMean(), 0);
+		dataset.setImgPlus(new ImgPlus<>(ArrayImgs.unsignedBytes(4, 3, 3), "test",
+			AXES));
+		assertEquals(3, summaryService.getPlaneCount(dataset));
+		final Summary summary = summaryService.getSummary(dataset);
+		assertEquals(36, summary.getCount());
+		assertEquals(0, summary.getMean(), 0);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testInvalidPlane() {
+		summaryService.getPlaneSummary(dataset, 2);
+	}
+
+	// -- Helper methods --
+
+	private void set(final long x, final long y, final long z,
+		final double value)
+	{
+		final RandomAccess<RealType<?>> access = dataset.randomAccess();
+		access.setPosition(new long[] { x, y, z });
+		access.get().setReal(value);
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Summary} and {@link Histogram}.
+ */
+public class SummaryTest {
+
+	@Test
+	public void testMoments() {
+		final double[] values = values(1000);
+		final Summary summary = new Summary();
+		for (final double v : values) {
+			summary.add(v);
+		}
+		assertMoments(values, summary);
+	}
+
+	@Test
+	public void testMerge() {
+		final double[] values = values(1000);
+		final Summary a = new Summary(), b = new Summary(), c = new Summary();
+		for (int i = 0; i < values.length; i++) {
+			(i < 100 ? a : i < 700 ? b : c).add(values[i]);
+		}
+		final Summary merged = new Summary();
+		merged.merge(a);
+		merged.merge(new Summary());
+		merged.merge(b);
+		merged.merge(c);
+		assertMoments(values, merged);
+	}
+
+	@Test
+	public void testEmpty() {
+		final Summary summary = new Summary();
+		summary.add(Double.NaN);
+		assertEquals(0, summary.getCount());
+		assertTrue(Double.isNaN(summary.getMin()));
+		assertTrue(Double.isNaN(summary.getMax()));
+		assertTrue(Double.isNaN(summary.getMean()));
+		assertTrue(Double.isNaN(summary.getVariance()));
+		assertEquals(0, summary.getSum(), 0);
+	}
+
+	@Test
+	public void testHistogram() {
+		final Histogram a = new Histogram(4, 0, 8);
+		final Histogram b = new Histogram(4, 0, 8);
+		for (final double v : new double[] { -1, 0, 1.9, 2, 5, 8, 9, Double.NaN }) {
+			a.add(v);
+		}
+		b.add(7.5);
+		a.merge(b);
+		assertArrayEquals(new long[] { 2, 1, 1, 2 }, a.getCounts());
+		assertEquals(6, a.getTotalCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testHistogramMismatch() {
+		new Histogram(4, 0, 8).merge(new Histogram(4, 0, 9));
+	}
+
+	// -- Helper methods --
+
+	private static double[] values(final int count) {
+		final Random random = new Random(0xdeadbeef);
+		final double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = 1000 + 50 * random.nextGaussian() + 20 * random
+				.nextDouble() * random.nextDouble();
+		}
+		return values;
+	}
+
+	/** Compares the given summary to the two-pass statistics of the values. */
+	private static void assertMoments(final double[] values,
+		final Summary summary)
+	{
+		final int n = values.length;
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		double sum = 0;
+		for (final double v : values) {
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+			sum += v;
+		}
+		final double mean = sum / n;
+		double m2 = 0, m3 = 0, m4 = 0;
+		for (final double v : values) {
+			final double d = v - mean;
+			m2 += d * d;
+			m3 += d * d * d;
+			m4 += d * d * d * d;
+		}
+		assertEquals(n, summary.getCount());
+		assertEquals(min, summary.getMin(), 0);
+		assertEquals(max, summary.getMax(), 0);
+		assertEquals(mean, summary.getMean(), 1e-9);
+		assertEquals(sum, summary.getSum(), 1e-6);
+		assertEquals(m2 / (n - 1), summary.getVariance(), 1e-6);
+		assertEquals(Math.sqrt(n) * m3 / Math.pow(m2, 1.5), summary.getSkewness(),
+			1e-9);
+		assertEquals(n * m4 / (m2 * m2) - 3, summary.getKurtosis(), 1e-9);
+	}
+
+}
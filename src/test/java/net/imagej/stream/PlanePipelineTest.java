@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link PlanePipeline}.
+ */
+public class PlanePipelineTest {
+
+	@Test
+	public void testRun() throws Exception {
+		final PlanePipeline<int[]> pipeline = new PlanePipeline<>(new Planes(100,
+			-1));
+		pipeline.setParallelism(4);
+		final PlanePipeline<long[]> scaled = pipeline.map("scale", plane -> {
+			final long[] result = new long[plane.length];
+			for (int i = 0; i < plane.length; i++) {
+				result[i] = 3L * plane[i];
+			}
+			return result;
+		});
+
+		final List<Long> written = new ArrayList<>();
+		scaled.run((index, plane) -> {
+			assertEquals(3 * index, plane[0]);
+			assertEquals(3 * index + 3, plane[1]);
+			written.add(index);
+		});
+
+		assertEquals(100, written.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (long) written.get(i));
+		}
+		final List<StageStats> stats = scaled.getStats();
+		assertEquals(Arrays.asList("read", "scale", "write"), stats.stream().map(
+			StageStats::name).collect(Collectors.toList()));
+		for (final StageStats stage : stats) {
+			assertEquals(100, stage.planes());
+		}
+		assertTrue(scaled.getElapsedNanos() > 0);
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		final AtomicInteger live = new AtomicInteger();
+		final AtomicInteger maxLive = new AtomicInteger();
+		final Planes source = new Planes(50, -1) {
+
+			@Override
+			public int[] read(final long index) throws IOException {
+				maxLive.accumulateAndGet(live.incrementAndGet(), Math::max);
+				return super.read(index);
+			}
+		};
+		final PlanePipeline<int[]> pipeline = new PlanePipeline<>(source);
+		pipeline.setParallelism(4);
+		pipeline.setMaxInFlight(3);
+		pipeline.run((index, plane) -> {
+			try {
+				Thread.sleep(1);
+			}
+			catch (final InterruptedException exc) {
+				throw new IOException(exc);
+			}
+			live.decrementAndGet();
+		});
+		assertEquals(0, live.get());
+		assertTrue("max in flight: " + maxLive.get(), maxLive.get() <= 3);
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		final List<Long> written = new ArrayList<>();
+		final PlanePipeline<int[]> pipeline = new PlanePipeline<>(new Planes(100,
+			10));
+		pipeline.setParallelism(4);
+		try {
+			pipeline.run((index, plane) -> written.add(index));
+			fail("Expected failure");
+		}
+		catch (final IOException exc) {
+			assertEquals("Cannot read plane 10", exc.getMessage());
+		}
+		assertEquals(10, written.size());
+
+		final PlanePipeline<int[]> failing = new PlanePipeline<>(new Planes(100,
+			-1)).map("check", plane -> {
+				if (plane[0] == 20) throw new IllegalStateException("Bad plane");
+				return plane;
+			});
+		written.clear();
+		try {
+			failing.run((index, plane) -> written.add(index));
+			fail("Expected failure");
+		}
+		catch (final IllegalStateException exc) {
+			assertEquals("Bad plane", exc.getMessage());
+		}
+		assertEquals(20, written.size());
+	}
+
+	// -- Helper classes --
+
+	/** A source of planes holding their index and its successor. */
+	private static class Planes implements PlaneSource<int[]> {
+
+		private final long count;
+		private final long bad;
+
+		private Planes(final long count, final long bad) {
+			this.count = count;
+			this.bad = bad;
+		}
+
+		@Override
+		public long[] getDims() {
+			return new long[] { 2, 1, count };
+		}
+
+		@Override
+		public long getPlaneCount() {
+			return count;
+		}
+
+		@Override
+		public int[] read(final long index) throws IOException {
+			if (index == bad) throw new IOException("Cannot read plane " + index);
+			return new int[] { (int) index, (int) index + 1 };
+		}
+	}
+
+}
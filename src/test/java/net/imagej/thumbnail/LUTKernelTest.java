@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thumbnail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import net.imglib2.display.ColorTable8;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link LUTKernel}.
+ */
+public class LUTKernelTest {
+
+	private final ColorTable8 lut = lut();
+
+	@Test
+	public void testUnsignedBytes() {
+		final byte[] in = new byte[256];
+		for (int i = 0; i < in.length; i++) {
+			in[i] = (byte) i;
+		}
+		final int[] out = LUTKernel.bytes(lut, 10, 200, false).apply(in, null);
+		for (int i = 0; i < in.length; i++) {
+			assertEquals(lut.lookupARGB(10, 200, i), out[i]);
+		}
+	}
+
+	@Test
+	public void testSignedBytes() {
+		final byte[] in = new byte[256];
+		for (int i = 0; i < in.length; i++) {
+			in[i] = (byte) (i - 128);
+		}
+		final int[] out = LUTKernel.bytes(lut, -100, 100, true).apply(in, null);
+		for (int i = 0; i < in.length; i++) {
+			assertEquals(lut.lookupARGB(-100, 100, i - 128), out[i]);
+		}
+	}
+
+	@Test
+	public void testShorts() {
+		final short[] in = new short[65536];
+		for (int i = 0; i < in.length; i++) {
+			in[i] = (short) i;
+		}
+		final int[] unsigned = LUTKernel.shorts(lut, 1000, 50000, false).apply(in,
+			null);
+		final int[] signed = LUTKernel.shorts(lut, -5000, 5000, true).apply(in,
+			null);
+		for (int i = 0; i < in.length; i++) {
+			assertEquals(lut.lookupARGB(1000, 50000, i), unsigned[i]);
+			assertEquals(lut.lookupARGB(-5000, 5000, in[i]), signed[i]);
+		}
+	}
+
+	@Test
+	public void testFloats() {
+		final float[] in = { -1, 0, 0.25f, 0.5f, 0.999f, 1, 2, Float.NaN };
+		final int[] out = LUTKernel.floats(lut, 0, 1).apply(in, null);
+		assertEquals(lut.lookupARGB(0, 1, -1), out[0]);
+		assertEquals(lut.lookupARGB(0, 1, 0), out[1]);
+		assertEquals(lut.lookupARGB(0, 1, 0.25), out[2]);
+		assertEquals(lut.lookupARGB(0, 1, 0.5), out[3]);
+		assertEquals(lut.lookupARGB(0, 1, 0.999f), out[4]);
+		assertEquals(lut.lookupARGB(0, 1, 1), out[5]);
+		assertEquals(lut.lookupARGB(0, 1, 2), out[6]);
+		assertEquals(lut.lookupARGB(0, 1, 0), out[7]);
+	}
+
+	@Test
+	public void testRanged() {
+		final LUTKernel kernel = LUTKernel.ranged(lut);
+		final float[] floats = { -1, 0, 0.25f, 0.5f, 0.999f, 1, 2, Float.NaN };
+		final int[] expected = LUTKernel.floats(lut, 0, 1).apply(floats, null);
+		final int[] out = kernel.apply(floats, 0, floats.length, 0, 1, null);
+		for (int i = 0; i < floats.length; i++) {
+			assertEquals(expected[i], out[i]);
+		}
+
+		// NB: The same kernel serves any range.
+		final short[] shorts = { 0, 1000, 2000, 3000, (short) 40000, -3000 };
+		final int[] unsigned = kernel.apply(shorts, 0, shorts.length, false, 1000,
+			3000, null);
+		final int[] signed = kernel.apply(shorts, 0, shorts.length, true, -3000,
+			3000, null);
+		for (int i = 0; i < shorts.length; i++) {
+			final float u = shorts[i] & 0xffff;
+			assertEquals(LUTKernel.floats(lut, 1000, 3000).apply(new float[] { u },
+				null)[0], unsigned[i]);
+			assertEquals(LUTKernel.floats(lut, -3000, 3000).apply(new float[] {
+				shorts[i] }, null)[0], signed[i]);
+		}
+	}
+
+	@Test
+	public void testReusesOutput() {
+		final LUTKernel kernel = LUTKernel.bytes(lut, 0, 255, false);
+		final int[] out = new int[10];
+		assertSame(out, kernel.apply(new byte[10], out));
+		assertSame(out, kernel.apply(new byte[20], 5, 10, out));
+		assertNotSame(out, kernel.apply(new byte[11], out));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testWrongKind() {
+		LUTKernel.floats(lut, 0, 1).apply(new byte[1], null);
+	}
+
+	// -- Helper methods --
+
+	private static ColorTable8 lut() {
+		final byte[][] values = new byte[3][256];
+		for (int i = 0; i < 256; i++) {
+			values[0][i] = (byte) i;
+			values[1][i] = (byte) (255 - i);
+			values[2][i] = (byte) (i * 7);
+		}
+		return new ColorTable8(values);
+	}
+
+}